@@ -0,0 +1,191 @@
+package com.example.projectmanager.repositories;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.projectmanager.models.Budget;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.WriteBatch;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs BudgetRollupReconciler against the Firestore emulator (firebase emulators:start --only firestore).
+ * Uses its own FirebaseApp so the app's default Firestore instance is never pointed at the emulator.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BudgetRollupReconcilerTest {
+    private static final String EMULATOR_HOST = "10.0.2.2";
+    private static final int EMULATOR_PORT = 8080;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private static FirebaseFirestore firestore;
+
+    @Before
+    public void setUp() throws Exception {
+        if (firestore == null) {
+            Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+            FirebaseApp app = FirebaseApp.initializeApp(context, FirebaseApp.getInstance().getOptions(),
+                    "budget-rollup-reconciler-test");
+            firestore = FirebaseFirestore.getInstance(app);
+            firestore.useEmulator(EMULATOR_HOST, EMULATOR_PORT);
+        }
+        clear("budgets");
+        clear(BudgetRollups.COLLECTION_ROLLUPS);
+        clear(BudgetSeries.COLLECTION_SERIES);
+    }
+
+    @Test
+    public void repairRebuildsMissingRollups() throws Exception {
+        addBudget("b1", 150000, "equipment", true);
+        addBudget("b2", 250000, "equipment", false);
+        addBudget("b3", 100000, "material", false);
+
+        BudgetRollupReconciler.Report report = reconcile(true);
+        assertEquals(3, report.budgetsScanned);
+        assertTrue(report.hasDrift());
+        assertTrue(report.repaired);
+
+        DocumentSnapshot project = rollup(BudgetRollups.PROJECT_ROLLUP_ID);
+        assertEquals(500000L, project.getLong("amountMinor").longValue());
+        assertEquals(150000L, project.getLong("approvedAmountMinor").longValue());
+        assertEquals(3L, project.getLong("count").longValue());
+        assertEquals(1L, project.getLong("approvedCount").longValue());
+
+        DocumentSnapshot equipment = rollup(BudgetRollups.categoryRollupId("equipment"));
+        assertEquals(400000L, equipment.getLong("amountMinor").longValue());
+        assertEquals(2L, equipment.getLong("count").longValue());
+
+        BudgetRollupReconciler.Report second = reconcile(false);
+        assertFalse(second.hasDrift());
+    }
+
+    @Test
+    public void driftIsReportedAndLeftAloneWithoutRepair() throws Exception {
+        addBudget("b1", 150000, "equipment", true);
+        reconcile(true);
+
+        Map<String, Object> wrong = new HashMap<>();
+        wrong.put("amountMinor", 999L);
+        Tasks.await(firestore.collection(BudgetRollups.COLLECTION_ROLLUPS)
+                .document(BudgetRollups.PROJECT_ROLLUP_ID).update(wrong), TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        BudgetRollupReconciler.Report report = reconcile(false);
+        assertFalse(report.repaired);
+        assertEquals(1, report.drifts.size());
+        BudgetRollupReconciler.Drift drift = report.drifts.get(0);
+        assertEquals(BudgetRollups.COLLECTION_ROLLUPS, drift.collection);
+        assertEquals(BudgetRollups.PROJECT_ROLLUP_ID, drift.documentId);
+        assertEquals("amountMinor", drift.field);
+        assertEquals(150000L, drift.expected);
+        assertEquals(999L, drift.actual);
+        assertEquals(999L, rollup(BudgetRollups.PROJECT_ROLLUP_ID).getLong("amountMinor").longValue());
+
+        reconcile(true);
+        assertEquals(150000L, rollup(BudgetRollups.PROJECT_ROLLUP_ID).getLong("amountMinor").longValue());
+    }
+
+    @Test
+    public void legacyAmountIsMigrated() throws Exception {
+        Map<String, Object> legacy = new HashMap<>();
+        legacy.put(Budget.FIELD_LEGACY_AMOUNT, 1234.5);
+        legacy.put("category", "other");
+        legacy.put("approved", false);
+        legacy.put("createdAt", new Date());
+        Tasks.await(firestore.collection("budgets").document("legacy").set(legacy),
+                TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        long expectedMinor = Budget.amountMinorOf(legacy);
+
+        BudgetRollupReconciler.Report report = reconcile(true);
+        assertEquals(1, report.legacyBudgets);
+
+        DocumentSnapshot budget = Tasks.await(firestore.collection("budgets").document("legacy").get(),
+                TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(expectedMinor, budget.getLong(Budget.FIELD_AMOUNT_MINOR).longValue());
+        assertEquals(expectedMinor, rollup(BudgetRollups.PROJECT_ROLLUP_ID).getLong("amountMinor").longValue());
+        assertFalse(reconcile(false).hasDrift());
+    }
+
+    @Test
+    public void staleRollupIsDeleted() throws Exception {
+        Map<String, Object> stale = new HashMap<>();
+        stale.put("scope", BudgetRollups.SCOPE_CATEGORY);
+        stale.put("key", "material");
+        stale.put("amountMinor", 5000L);
+        stale.put("count", 2L);
+        String staleId = BudgetRollups.categoryRollupId("material");
+        Tasks.await(firestore.collection(BudgetRollups.COLLECTION_ROLLUPS).document(staleId).set(stale),
+                TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        BudgetRollupReconciler.Report report = reconcile(true);
+        assertEquals(0, report.budgetsScanned);
+        assertEquals(1, report.drifts.size());
+        assertEquals(staleId, report.drifts.get(0).documentId);
+        assertFalse(rollup(staleId).exists());
+    }
+
+    private void addBudget(String id, long amountMinor, String category, boolean approved) throws Exception {
+        Budget budget = new Budget("Budget " + id, amountMinor, "", category, "user1", approved);
+        budget.setId(id);
+        Tasks.await(firestore.collection("budgets").document(id).set(budget.toMap()),
+                TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private DocumentSnapshot rollup(String id) throws Exception {
+        return Tasks.await(firestore.collection(BudgetRollups.COLLECTION_ROLLUPS).document(id).get(),
+                TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void clear(String collection) throws Exception {
+        QuerySnapshot snapshots = Tasks.await(firestore.collection(collection).get(),
+                TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (snapshots.isEmpty()) return;
+        WriteBatch batch = firestore.batch();
+        for (QueryDocumentSnapshot doc : snapshots) {
+            batch.delete(doc.getReference());
+        }
+        Tasks.await(batch.commit(), TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // The reconciler reports on the main thread; the test thread waits for it
+    private BudgetRollupReconciler.Report reconcile(boolean repair) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        BudgetRollupReconciler.Report[] report = new BudgetRollupReconciler.Report[1];
+        String[] error = new String[1];
+
+        new BudgetRollupReconciler(firestore).reconcile(repair, new BudgetRollupReconciler.OnReconcileListener() {
+            @Override
+            public void onComplete(BudgetRollupReconciler.Report result) {
+                report[0] = result;
+                done.countDown();
+            }
+
+            @Override
+            public void onError(String message) {
+                error[0] = message;
+                done.countDown();
+            }
+        });
+
+        assertTrue("Reconcile timed out", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertNull(error[0], error[0]);
+        return report[0];
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.projectmanager.activities;
 
+import android.content.pm.ApplicationInfo;
 import android.graphics.Color;
 import android.os.Bundle;
 import android.text.TextUtils;
@@ -24,9 +25,16 @@ import com.example.projectmanager.R;
 import com.example.projectmanager.adapters.BudgetAdapter;
 import com.example.projectmanager.adapters.CategorySpinnerAdapter;
 import com.example.projectmanager.models.Budget;
+import com.example.projectmanager.models.BudgetAggregate;
+import com.example.projectmanager.models.BudgetSeriesPoint;
+import com.example.projectmanager.models.BudgetTable;
+import com.example.projectmanager.repositories.BudgetRollupReconciler;
+import com.example.projectmanager.repositories.BudgetSeries;
 import com.example.projectmanager.utils.BudgetSorter;
+import com.example.projectmanager.utils.Money;
 import com.example.projectmanager.viewmodels.BudgetViewModel;
 import com.github.mikephil.charting.charts.BarChart;
+import com.github.mikephil.charting.charts.LineChart;
 import com.github.mikephil.charting.charts.PieChart;
 import com.github.mikephil.charting.components.Legend;
 import com.github.mikephil.charting.components.XAxis;
@@ -34,6 +42,9 @@ import com.github.mikephil.charting.components.YAxis;
 import com.github.mikephil.charting.data.BarData;
 import com.github.mikephil.charting.data.BarDataSet;
 import com.github.mikephil.charting.data.BarEntry;
+import com.github.mikephil.charting.data.Entry;
+import com.github.mikephil.charting.data.LineData;
+import com.github.mikephil.charting.data.LineDataSet;
 import com.github.mikephil.charting.data.PieData;
 import com.github.mikephil.charting.data.PieDataSet;
 import com.github.mikephil.charting.data.PieEntry;
@@ -51,13 +62,22 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
+import java.util.TimeZone;
 
 /**
  * Hoạt động quản lý ngân sách được cải thiện với biểu đồ tối ưu và pagination
  */
 public class BudgetActivity extends AppCompatActivity {
     private static final String TAG = "BudgetActivity";
+    // Nhãn theo thứ tự BudgetAggregate.CATEGORIES
+    private static final String[] CATEGORY_LABELS = {"Nhân sự", "Thiết bị", "Vật liệu", "Khác"};
+    private static final String[] CATEGORY_COLORS = {"#2196F3", "#00C853", "#FFC107", "#9C27B0"};
+
+    // Các khoảng của biểu đồ xu hướng: nhãn, độ chia và số điểm
+    private static final String[] TREND_RANGE_LABELS = {"30 ngày", "26 tuần", "36 tháng"};
+    private static final BudgetSeries.Granularity[] TREND_RANGE_GRANULARITIES = {
+            BudgetSeries.Granularity.DAY, BudgetSeries.Granularity.WEEK, BudgetSeries.Granularity.MONTH};
+    private static final int[] TREND_RANGE_BUCKETS = {30, 26, 36};
 
     // Components giao diện
     private RecyclerView rvBudgets;
@@ -70,10 +90,13 @@ public class BudgetActivity extends AppCompatActivity {
     // Biểu đồ
     private PieChart budgetPieChart;
     private BarChart budgetStatusChart;
+    private LineChart budgetTrendChart;
 
     // Adapter và dữ liệu
     private BudgetAdapter budgetAdapter;
     private List<Budget> budgetList;
+    // Dữ liệu dạng cột phía sau budgetList, sắp xếp trực tiếp trên bảng này
+    private BudgetTable budgetTable;
 
     // ViewModel
     private BudgetViewModel budgetViewModel;
@@ -119,6 +142,7 @@ public class BudgetActivity extends AppCompatActivity {
         setupRecyclerView();
         setupSpinner();
         setupSortDropdown();
+        setupTrendRangeDropdown();
         setupClickListeners();
         observeViewModel();
 
@@ -155,6 +179,7 @@ public class BudgetActivity extends AppCompatActivity {
             // Tìm Charts
             budgetPieChart = findViewById(R.id.budget_pie_chart);
             budgetStatusChart = findViewById(R.id.budget_status_chart);
+            budgetTrendChart = findViewById(R.id.budget_trend_chart);
 
             // Kiểm tra null cho các view quan trọng
             if (rvBudgets == null) {
@@ -190,7 +215,7 @@ public class BudgetActivity extends AppCompatActivity {
      * - Cải thiện hiệu suất
      * - Tăng rõ ràng với font lớn hơn
      */
-    private void setupBudgetPieChart() {
+    private void setupBudgetPieChart(BudgetAggregate.Snapshot summary) {
         if (budgetPieChart == null) {
             Log.e(TAG, "Biểu đồ tròn không tìm thấy");
             return;
@@ -219,17 +244,11 @@ public class BudgetActivity extends AppCompatActivity {
             // Tạo dữ liệu
             ArrayList<PieEntry> entries = new ArrayList<>();
 
-            // Tính tổng cho mỗi danh mục
-            float humanResourceAmount = getTotalForCategory("human_resource");
-            float equipmentAmount = getTotalForCategory("equipment");
-            float materialAmount = getTotalForCategory("material");
-            float otherAmount = getTotalForCategory("other");
-
-            // Chỉ thêm các mục có giá trị khác 0
-            if (humanResourceAmount > 0) entries.add(new PieEntry(humanResourceAmount, "Nhân sự"));
-            if (equipmentAmount > 0) entries.add(new PieEntry(equipmentAmount, "Thiết bị"));
-            if (materialAmount > 0) entries.add(new PieEntry(materialAmount, "Vật liệu"));
-            if (otherAmount > 0) entries.add(new PieEntry(otherAmount, "Khác"));
+            // Tổng mỗi danh mục lấy từ số liệu tổng hợp, chỉ thêm các mục có giá trị khác 0
+            for (int i = 0; i < BudgetAggregate.CATEGORY_COUNT; i++) {
+                float amount = Money.toChartValue(summary.getCategoryTotal(i));
+                if (amount > 0) entries.add(new PieEntry(amount, CATEGORY_LABELS[i]));
+            }
 
             // Kiểm tra xem có dữ liệu không
             if (entries.isEmpty()) {
@@ -290,7 +309,7 @@ public class BudgetActivity extends AppCompatActivity {
      * - Giảm kích thước dữ liệu
      * - Tối ưu hiệu suất
      */
-    private void setupBudgetStatusBarChart() {
+    private void setupBudgetStatusBarChart(BudgetAggregate.Snapshot summary) {
         if (budgetStatusChart == null) {
             Log.e(TAG, "Biểu đồ cột không tìm thấy");
             return;
@@ -316,7 +335,7 @@ public class BudgetActivity extends AppCompatActivity {
             xAxis.setGranularity(1f);
             xAxis.setLabelCount(4);
             xAxis.setTextSize(10f); // Giảm kích thước chữ để rõ ràng hơn
-            xAxis.setValueFormatter(new IndexAxisValueFormatter(new String[]{"Nhân sự", "Thiết bị", "Vật liệu", "Khác"}));
+            xAxis.setValueFormatter(new IndexAxisValueFormatter(CATEGORY_LABELS));
 
             // Cấu hình trục Y
             YAxis leftAxis = budgetStatusChart.getAxisLeft();
@@ -348,20 +367,9 @@ public class BudgetActivity extends AppCompatActivity {
             float[] approvedValues = new float[4]; // Cho 4 danh mục
             float[] pendingValues = new float[4];
 
-            for (Budget budget : budgetList) {
-                int categoryIndex;
-                switch (budget.getCategory()) {
-                    case "human_resource": categoryIndex = 0; break;
-                    case "equipment": categoryIndex = 1; break;
-                    case "material": categoryIndex = 2; break;
-                    default: categoryIndex = 3; break; // "other"
-                }
-
-                if (budget.isApproved()) {
-                    approvedValues[categoryIndex] += budget.getAmount();
-                } else {
-                    pendingValues[categoryIndex] += budget.getAmount();
-                }
+            for (int i = 0; i < BudgetAggregate.CATEGORY_COUNT; i++) {
+                approvedValues[i] = Money.toChartValue(summary.getApprovedTotal(i));
+                pendingValues[i] = Money.toChartValue(summary.getPendingTotal(i));
             }
 
             // Kiểm tra xem có dữ liệu không
@@ -448,16 +456,89 @@ public class BudgetActivity extends AppCompatActivity {
     }
 
     /**
-     * Tính tổng cho mỗi danh mục
+     * Thiết lập biểu đồ đường chi tiêu theo thời gian, mỗi danh mục một đường.
+     * Mỗi điểm là một khoảng ngày/tuần/tháng lấy từ budget_series, nên 3 năm chỉ có 36 điểm.
      */
-    private float getTotalForCategory(String category) {
-        float total = 0f;
-        for (Budget budget : budgetList) {
-            if (budget.getCategory().equals(category)) {
-                total += (float) budget.getAmount();
+    private void setupBudgetTrendChart(List<BudgetSeriesPoint> points, BudgetSeries.Granularity granularity) {
+        if (budgetTrendChart == null) {
+            Log.e(TAG, "Biểu đồ đường không tìm thấy");
+            return;
+        }
+
+        try {
+            budgetTrendChart.getDescription().setEnabled(false);
+            budgetTrendChart.setDrawGridBackground(false);
+            budgetTrendChart.setPinchZoom(false);
+            budgetTrendChart.setDoubleTapToZoomEnabled(false);
+            budgetTrendChart.setHighlightPerTapEnabled(false);
+            budgetTrendChart.setExtraBottomOffset(10f);
+
+            // Nhãn trục X theo đầu mỗi khoảng
+            SimpleDateFormat labelFormat = new SimpleDateFormat(
+                    granularity == BudgetSeries.Granularity.MONTH ? "MM/yy" : "dd/MM", Locale.getDefault());
+            labelFormat.setTimeZone(TimeZone.getTimeZone("UTC")); // Các khoảng được chia theo UTC
+            String[] labels = new String[points.size()];
+            for (int i = 0; i < points.size(); i++) {
+                labels[i] = labelFormat.format(points.get(i).getBucketStart());
+            }
+
+            XAxis xAxis = budgetTrendChart.getXAxis();
+            xAxis.setPosition(XAxis.XAxisPosition.BOTTOM);
+            xAxis.setDrawGridLines(false);
+            xAxis.setGranularity(1f);
+            xAxis.setLabelCount(6);
+            xAxis.setTextSize(10f);
+            xAxis.setValueFormatter(new IndexAxisValueFormatter(labels));
+
+            YAxis leftAxis = budgetTrendChart.getAxisLeft();
+            leftAxis.setAxisMinimum(0f);
+            leftAxis.setGridLineWidth(0.5f);
+            leftAxis.setGridColor(Color.LTGRAY);
+            leftAxis.setTextSize(10f);
+            leftAxis.setValueFormatter(new ValueFormatter() {
+                @Override
+                public String getFormattedValue(float value) {
+                    if (value >= 1000000) {
+                        return Math.round(value / 1000000) + "M";
+                    } else if (value >= 1000) {
+                        return Math.round(value / 1000) + "K";
+                    }
+                    return String.valueOf((int) value);
+                }
+            });
+            budgetTrendChart.getAxisRight().setEnabled(false);
+
+            LineData lineData = new LineData();
+            for (int category = 0; category < BudgetAggregate.CATEGORY_COUNT; category++) {
+                ArrayList<Entry> entries = new ArrayList<>(points.size());
+                for (int i = 0; i < points.size(); i++) {
+                    entries.add(new Entry(i, Money.toChartValue(points.get(i).getAmount(category))));
+                }
+
+                LineDataSet dataSet = new LineDataSet(entries, CATEGORY_LABELS[category]);
+                int color = Color.parseColor(CATEGORY_COLORS[category]);
+                dataSet.setColor(color);
+                dataSet.setLineWidth(2f);
+                dataSet.setDrawCircles(false); // Tắt điểm tròn để vẽ nhanh hơn
+                dataSet.setDrawValues(false);
+                lineData.addDataSet(dataSet);
             }
+            budgetTrendChart.setData(lineData);
+
+            Legend legend = budgetTrendChart.getLegend();
+            legend.setVerticalAlignment(Legend.LegendVerticalAlignment.BOTTOM);
+            legend.setHorizontalAlignment(Legend.LegendHorizontalAlignment.CENTER);
+            legend.setOrientation(Legend.LegendOrientation.HORIZONTAL);
+            legend.setDrawInside(false);
+            legend.setTextSize(10f);
+
+            // Làm mới biểu đồ không dùng animation
+            budgetTrendChart.invalidate();
+
+            Log.d(TAG, "Biểu đồ đường đã được thiết lập với " + points.size() + " điểm");
+        } catch (Exception e) {
+            Log.e(TAG, "Lỗi khi thiết lập biểu đồ đường: " + e.getMessage(), e);
         }
-        return total;
     }
 
     /**
@@ -570,18 +651,44 @@ public class BudgetActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Chọn khoảng thời gian cho biểu đồ xu hướng, mặc định 36 tháng
+     */
+    private void setupTrendRangeDropdown() {
+        int defaultRange = TREND_RANGE_LABELS.length - 1;
+        MaterialAutoCompleteTextView dropdownRange = findViewById(R.id.dropdown_trend_range);
+        if (dropdownRange != null) {
+            ArrayAdapter<String> rangeAdapter = new ArrayAdapter<>(
+                    this,
+                    android.R.layout.simple_dropdown_item_1line,
+                    TREND_RANGE_LABELS
+            );
+            dropdownRange.setAdapter(rangeAdapter);
+            dropdownRange.setText(TREND_RANGE_LABELS[defaultRange], false);
+            dropdownRange.setOnItemClickListener((parent, view, position, id) -> loadTrend(position));
+        } else {
+            Log.e(TAG, "dropdown_trend_range view not found");
+        }
+
+        loadTrend(defaultRange);
+    }
+
+    private void loadTrend(int range) {
+        budgetViewModel.loadBudgetSeries(TREND_RANGE_GRANULARITIES[range], TREND_RANGE_BUCKETS[range]);
+    }
+
     /**
      * Sort budgets based on selected option
      */
     private void sortBudgets(String sortOption) {
-        if (budgetList == null || budgetList.isEmpty()) return;
+        if (budgetTable == null || budgetTable.size() == 0) return;
 
         try {
             // Convert string option to enum
             BudgetSorter.SortOption option = BudgetSorter.getSortOptionFromString(sortOption);
 
-            // Apply sorting
-            BudgetSorter.sortBudgets(budgetList, option);
+            // Apply sorting; budgetList is a view over the table's order
+            BudgetSorter.sortBudgets(budgetTable, option);
 
             // Update the adapter
             budgetAdapter.notifyDataSetChanged();
@@ -640,6 +747,15 @@ public class BudgetActivity extends AppCompatActivity {
                 }
             });
 
+            // Bản debug: nhấn giữ Refresh để kiểm tra budget_rollups với bảng budgets
+            if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+                btnRefresh.setOnLongClickListener(v -> {
+                    budgetViewModel.checkBudgetRollups(false);
+                    Toast.makeText(BudgetActivity.this, "Đang kiểm tra thống kê ngân sách...", Toast.LENGTH_SHORT).show();
+                    return true;
+                });
+            }
+
             // Click listener cho button Load More
             if (btnLoadMore != null) {
                 btnLoadMore.setOnClickListener(new View.OnClickListener() {
@@ -670,19 +786,16 @@ public class BudgetActivity extends AppCompatActivity {
      * Quan sát dữ liệu từ ViewModel
      */
     private void observeViewModel() {
-        // Quan sát danh sách ngân sách
-        budgetViewModel.getBudgets().observe(this, budgets -> {
-            if (budgets != null) {
-                // Chuyển đổi từ List<Map> sang List<Budget>
-                List<Budget> budgetObjects = convertMapListToBudgetList(budgets);
-
+        // Quan sát danh sách ngân sách (dạng cột, dựng sẵn ở background; Budget chỉ tạo cho dòng đang hiển thị)
+        budgetViewModel.getBudgetTable().observe(this, table -> {
+            if (table != null) {
                 // Store current sorting option if available
                 MaterialAutoCompleteTextView dropdownSort = findViewById(R.id.dropdown_sort_budget);
                 String currentSortOption = dropdownSort != null ? dropdownSort.getText().toString() : "Mặc định";
 
                 // Update data
-                budgetList.clear();
-                budgetList.addAll(budgetObjects);
+                budgetTable = table;
+                budgetList = table.asList();
 
                 // Apply current sorting
                 sortBudgets(currentSortOption);
@@ -690,20 +803,35 @@ public class BudgetActivity extends AppCompatActivity {
                 // Update UI
                 budgetAdapter.updateData(budgetList);
 
-                // Cập nhật thống kê
-                updateBudgetSummary();
-
-                // Cập nhật biểu đồ
-                setupBudgetPieChart();
-                setupBudgetStatusBarChart();
-
                 // Hiển thị số lượng
                 if (getSupportActionBar() != null) {
-                    getSupportActionBar().setSubtitle("Tổng: " + budgets.size() + " khoản");
+                    getSupportActionBar().setSubtitle("Tổng: " + table.size() + " khoản");
                 }
             }
         });
 
+        // Thống kê và biểu đồ chỉ đọc số liệu tổng hợp, không duyệt lại danh sách
+        budgetViewModel.getBudgetSummary().observe(this, summary -> {
+            if (summary != null) {
+                updateBudgetSummary(summary);
+                setupBudgetPieChart(summary);
+                setupBudgetStatusBarChart(summary);
+            }
+        });
+
+        budgetViewModel.getRollupReport().observe(this, report -> {
+            if (report != null) {
+                showRollupReport(report);
+            }
+        });
+
+        // Biểu đồ xu hướng đọc các khoảng đã tổng hợp sẵn, không cần danh sách ngân sách
+        budgetViewModel.getBudgetSeries().observe(this, points -> {
+            if (points != null) {
+                setupBudgetTrendChart(points, budgetViewModel.getLoadedSeriesGranularity());
+            }
+        });
+
         // Observe pagination-specific states
         budgetViewModel.getHasMoreBudgets().observe(this, hasMore -> {
             if (isPaginationEnabled && btnLoadMore != null) {
@@ -737,42 +865,6 @@ public class BudgetActivity extends AppCompatActivity {
         });
     }
 
-    /**
-     * Chuyển đổi từ List<Map> sang List<Budget>
-     */
-    private List<Budget> convertMapListToBudgetList(List<Map<String, Object>> mapList) {
-        List<Budget> budgets = new ArrayList<>();
-        for (Map<String, Object> map : mapList) {
-            Budget budget = new Budget();
-            budget.setId((String) map.get("id"));
-            budget.setTitle((String) map.get("title"));
-            budget.setDescription((String) map.get("description"));
-            budget.setCategory((String) map.get("category"));
-            budget.setUserId((String) map.get("userId"));
-
-            // Xử lý amount
-            Object amountObj = map.get("amount");
-            if (amountObj instanceof Number) {
-                budget.setAmount(((Number) amountObj).doubleValue());
-            }
-
-            // Xử lý approved
-            Object approvedObj = map.get("approved");
-            if (approvedObj instanceof Boolean) {
-                budget.setApproved((Boolean) approvedObj);
-            }
-
-            // Xử lý date
-            Object dateObj = map.get("createdAt");
-            if (dateObj instanceof Date) {
-                budget.setCreatedAt((Date) dateObj);
-            }
-
-            budgets.add(budget);
-        }
-        return budgets;
-    }
-
     /**
      * Thêm khoản ngân sách mới
      */
@@ -795,10 +887,10 @@ public class BudgetActivity extends AppCompatActivity {
                 return;
             }
 
-            double amount;
+            long amountMinor;
             try {
-                amount = Double.parseDouble(amountStr);
-                if (amount <= 0) {
+                amountMinor = Money.parse(amountStr);
+                if (amountMinor <= 0) {
                     showError(etBudgetAmount, "Số tiền phải lớn hơn 0");
                     return;
                 }
@@ -808,8 +900,8 @@ public class BudgetActivity extends AppCompatActivity {
             }
 
             // Tạo budget mới
-            Budget budget = new Budget(title, amount, description, category, null, false);
-            Log.d(TAG, "Tạo ngân sách mới: " + title + " - " + amount + " VNĐ");
+            Budget budget = new Budget(title, amountMinor, description, category, null, false);
+            Log.d(TAG, "Tạo ngân sách mới: " + title + " - " + Money.toPlainString(amountMinor) + " VNĐ");
 
             // Thêm ngân sách thông qua ViewModel
             budgetViewModel.addBudget(budget);
@@ -843,10 +935,10 @@ public class BudgetActivity extends AppCompatActivity {
                 return;
             }
 
-            double amount;
+            long amountMinor;
             try {
-                amount = Double.parseDouble(amountStr);
-                if (amount <= 0) {
+                amountMinor = Money.parse(amountStr);
+                if (amountMinor <= 0) {
                     showError(etBudgetAmount, "Số tiền phải lớn hơn 0");
                     return;
                 }
@@ -856,17 +948,12 @@ public class BudgetActivity extends AppCompatActivity {
             }
 
             // Tìm budget đang chỉnh sửa
-            Budget editingBudget = null;
-            for (Budget budget : budgetList) {
-                if (budget.getId().equals(editingBudgetId)) {
-                    editingBudget = budget;
-                    break;
-                }
-            }
+            int editingRow = budgetTable != null ? budgetTable.rowOf(editingBudgetId) : -1;
+            Budget editingBudget = editingRow >= 0 ? budgetTable.getBudget(editingRow) : null;
 
             if (editingBudget != null) {
                 editingBudget.setTitle(title);
-                editingBudget.setAmount(amount);
+                editingBudget.setAmountMinor(amountMinor);
                 editingBudget.setDescription(description);
                 editingBudget.setCategory(category);
 
@@ -975,31 +1062,21 @@ public class BudgetActivity extends AppCompatActivity {
     /**
      * Cập nhật thống kê ngân sách
      */
-    private void updateBudgetSummary() {
+    private void updateBudgetSummary(BudgetAggregate.Snapshot summary) {
         try {
-            double totalBudget = 0;
-            double approvedBudget = 0;
-
-            if (budgetList != null) {
-                for (Budget budget : budgetList) {
-                    if (budget != null) {
-                        totalBudget += budget.getAmount();
-                        if (budget.isApproved()) {
-                            approvedBudget += budget.getAmount();
-                        }
-                    }
-                }
-            }
+            long totalBudget = summary.getTotal();
+            long approvedBudget = summary.getApprovedTotal();
 
             if (tvTotalBudget != null) {
-                tvTotalBudget.setText("Tổng ngân sách: " + decimalFormat.format(totalBudget));
+                tvTotalBudget.setText("Tổng ngân sách: " + decimalFormat.format(Money.toDecimal(totalBudget)));
             }
 
             if (tvApprovedBudget != null) {
-                tvApprovedBudget.setText("Đã duyệt: " + decimalFormat.format(approvedBudget));
+                tvApprovedBudget.setText("Đã duyệt: " + decimalFormat.format(Money.toDecimal(approvedBudget)));
             }
 
-            Log.d(TAG, "Cập nhật thống kê - Tổng: " + totalBudget + ", Đã duyệt: " + approvedBudget);
+            Log.d(TAG, "Cập nhật thống kê - Tổng: " + Money.toPlainString(totalBudget)
+                    + ", Đã duyệt: " + Money.toPlainString(approvedBudget));
         } catch (Exception e) {
             Log.e(TAG, "Lỗi trong updateBudgetSummary: " + e.getMessage(), e);
         }
@@ -1100,7 +1177,7 @@ public class BudgetActivity extends AppCompatActivity {
 
         StringBuilder details = new StringBuilder();
         details.append("Tên: ").append(budget.getTitle()).append("\n\n");
-        details.append("Số tiền: ").append(decimalFormat.format(budget.getAmount())).append("\n");
+        details.append("Số tiền: ").append(decimalFormat.format(Money.toDecimal(budget.getAmountMinor()))).append("\n");
         details.append("Danh mục: ").append(getCategoryDisplayName(budget.getCategory())).append("\n");
         details.append("Mô tả: ").append(budget.getDescription()).append("\n");
         details.append("Trạng thái: ").append(budget.isApproved() ? "Đã duyệt" : "Chờ duyệt").append("\n");
@@ -1114,6 +1191,36 @@ public class BudgetActivity extends AppCompatActivity {
         builder.create().show();
     }
 
+    /**
+     * Hiển thị kết quả kiểm tra budget_rollups, cho phép sửa nếu có chỗ lệch
+     */
+    private void showRollupReport(BudgetRollupReconciler.Report report) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Kiểm tra thống kê ngân sách");
+
+        StringBuilder details = new StringBuilder();
+        details.append("Đã đọc: ").append(report.budgetsScanned).append(" khoản, ")
+                .append(report.documentsChecked).append(" document thống kê\n");
+        details.append("Khoản chưa có amountMinor: ").append(report.legacyBudgets).append("\n");
+        details.append("Số chỗ lệch: ").append(report.drifts.size());
+        int shown = Math.min(report.drifts.size(), 10);
+        for (int i = 0; i < shown; i++) {
+            details.append("\n- ").append(report.drifts.get(i));
+        }
+        if (report.repaired) {
+            details.append("\n\nĐã sửa xong.");
+        }
+
+        builder.setMessage(details.toString());
+        if (report.hasDrift() && !report.repaired) {
+            builder.setPositiveButton("Sửa", (dialog, which) -> budgetViewModel.checkBudgetRollups(true));
+            builder.setNegativeButton("Đóng", null);
+        } else {
+            builder.setPositiveButton("Đóng", null);
+        }
+        builder.create().show();
+    }
+
     /**
      * Chỉnh sửa budget
      */
@@ -1127,7 +1234,7 @@ public class BudgetActivity extends AppCompatActivity {
             etBudgetTitle.setText(budget.getTitle());
         }
         if (etBudgetAmount != null) {
-            etBudgetAmount.setText(String.valueOf(budget.getAmount()));
+            etBudgetAmount.setText(Money.toPlainString(budget.getAmountMinor()));
         }
         if (etBudgetDescription != null) {
             etBudgetDescription.setText(budget.getDescription());
@@ -1197,6 +1304,7 @@ public class BudgetActivity extends AppCompatActivity {
         super.onDestroy();
         // Cleanup
         budgetList = null;
+        budgetTable = null;
         budgetAdapter = null;
         Log.d(TAG, "BudgetActivity destroyed");
     }
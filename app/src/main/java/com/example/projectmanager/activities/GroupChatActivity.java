@@ -1,10 +1,13 @@
 package com.example.projectmanager.activities;
 
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.provider.OpenableColumns;
 import android.util.Log;
 import android.view.View;
@@ -16,6 +19,7 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.recyclerview.widget.LinearLayoutManager;
@@ -23,19 +27,26 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.projectmanager.R;
 import com.example.projectmanager.adapters.ChatAdapter;
+import com.example.projectmanager.models.ChatMessageItem;
 import com.example.projectmanager.models.Message;
 import com.example.projectmanager.services.FileUploadService;
+import com.example.projectmanager.utils.ChatMessageFormatter;
+import com.example.projectmanager.utils.ChatOutbox;
 import com.example.projectmanager.utils.FirebaseManager;
+import com.example.projectmanager.utils.MessageWindow;
 import com.example.projectmanager.utils.UserManager;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.ListenerRegistration;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -45,6 +56,10 @@ import java.util.Map;
 public class GroupChatActivity extends AppCompatActivity {
     private static final String TAG = "GroupChatActivity";
     private static final int REQUEST_FILE_PICK = 100;
+    public static final String EXTRA_CHANNEL_ID = "channel_id";
+    public static final String EXTRA_CHANNEL_NAME = "channel_name";
+    // Còn cách mép danh sách bao nhiêu tin thì tải trang kế tiếp
+    private static final int PAGE_PREFETCH_DISTANCE = 10;
 
     // Components giao diện
     private RecyclerView rvMessages;
@@ -58,12 +73,27 @@ public class GroupChatActivity extends AppCompatActivity {
 
     // Adapter và dữ liệu
     private ChatAdapter chatAdapter;
-    private List<Map<String, Object>> messageList;
+    // Tin nhắn được format thành ChatMessageItem ngoài main thread trước khi đưa vào adapter
+    private final ChatMessageFormatter messageFormatter = new ChatMessageFormatter();
+    private List<Map<String, Object>> latestMessages;
+    private final Handler dayRolloverHandler = new Handler(Looper.getMainLooper());
+    private final Runnable dayRolloverRunnable = this::onDayRollover;
 
     // Firebase manager
     private FirebaseManager firebaseManager;
     private UserManager userManager;
     private FileUploadService fileUploadService;
+    private MessageWindow messageWindow;
+    // Tin đang gửi, hiển thị ngay trước khi server xác nhận
+    private ChatOutbox outbox;
+    private boolean scrollToBottomOnNextCommit = false;
+
+    // Kênh đang mở; chỉ tin nhắn của kênh này được tải
+    private String channelId;
+    private String channelName;
+    private ListenerRegistration channelRegistration;
+    private long channelMessageCount = 0;
+    private boolean isVisible = false;
 
     // Attachment data
     private Uri selectedFileUri;
@@ -71,17 +101,47 @@ public class GroupChatActivity extends AppCompatActivity {
     private String selectedFileType;
     private long selectedFileSize;
 
+    /**
+     * Intent mở một kênh chat (ví dụ kênh thảo luận của nhiệm vụ)
+     */
+    public static Intent newIntent(Context context, String channelId, String channelName) {
+        Intent intent = new Intent(context, GroupChatActivity.class);
+        intent.putExtra(EXTRA_CHANNEL_ID, channelId);
+        intent.putExtra(EXTRA_CHANNEL_NAME, channelName);
+        return intent;
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_group_chat);
 
-        Log.d(TAG, "GroupChatActivity được khởi tạo");
+        channelId = getIntent().getStringExtra(EXTRA_CHANNEL_ID);
+        if (channelId == null) {
+            channelId = FirebaseManager.DEFAULT_CHANNEL_ID;
+        }
+        channelName = getIntent().getStringExtra(EXTRA_CHANNEL_NAME);
+
+        Log.d(TAG, "GroupChatActivity được khởi tạo, kênh: " + channelId);
 
         // Khởi tạo Firebase Manager và User Manager
         firebaseManager = new FirebaseManager();
         userManager = UserManager.getInstance(this);
         fileUploadService = new FileUploadService(this);
+        outbox = new ChatOutbox(firebaseManager, channelId, channelName, new ChatOutbox.OnOutboxChangedListener() {
+            @Override
+            public void onOutboxChanged() {
+                if (latestMessages != null) {
+                    showMessages(latestMessages);
+                }
+            }
+
+            @Override
+            public void onSendFailed(String error) {
+                Toast.makeText(GroupChatActivity.this, "Không gửi được tin nhắn: " + error
+                        + ". Chạm vào tin để gửi lại", Toast.LENGTH_LONG).show();
+            }
+        });
 
         // Khởi tạo giao diện
         initViews();
@@ -90,6 +150,20 @@ public class GroupChatActivity extends AppCompatActivity {
 
         // Tải tin nhắn
         loadMessages();
+        listenChannel();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        isVisible = true;
+        markChannelRead();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        isVisible = false;
     }
 
     /**
@@ -100,7 +174,7 @@ public class GroupChatActivity extends AppCompatActivity {
         Toolbar toolbar = findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
         if (getSupportActionBar() != null) {
-            getSupportActionBar().setTitle("Chat Nhóm");
+            getSupportActionBar().setTitle(channelName != null ? channelName : "Chat Nhóm");
             getSupportActionBar().setDisplayHomeAsUpEnabled(true);
         }
 
@@ -123,9 +197,12 @@ public class GroupChatActivity extends AppCompatActivity {
      * Thiết lập RecyclerView
      */
     private void setupRecyclerView() {
-        messageList = new ArrayList<>();
-        // Truyền UserManager thay vì chuỗi cố định
-        chatAdapter = new ChatAdapter(messageList, userManager);
+        chatAdapter = new ChatAdapter();
+        chatAdapter.setOnMessageClickListener(message -> {
+            if (outbox.isFailed(message.getId())) {
+                showFailedMessageOptions(message.getId());
+            }
+        });
 
         LinearLayoutManager layoutManager = new LinearLayoutManager(this);
         layoutManager.setStackFromEnd(true); // Hiển thị tin nhắn mới nhất ở cuối
@@ -133,6 +210,21 @@ public class GroupChatActivity extends AppCompatActivity {
         rvMessages.setLayoutManager(layoutManager);
         rvMessages.setAdapter(chatAdapter);
 
+        // Tải trang cũ hơn khi cuộn gần đầu, trang mới hơn khi cuộn gần cuối cửa sổ
+        rvMessages.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (messageWindow == null || messageWindow.isLoading()) return;
+
+                if (dy < 0 && layoutManager.findFirstVisibleItemPosition() <= PAGE_PREFETCH_DISTANCE) {
+                    messageWindow.loadOlder();
+                } else if (dy > 0 && !messageWindow.isShowingLatest()
+                        && layoutManager.findLastVisibleItemPosition() >= chatAdapter.getItemCount() - 1 - PAGE_PREFETCH_DISTANCE) {
+                    messageWindow.loadNewer();
+                }
+            }
+        });
+
         Log.d(TAG, "RecyclerView được thiết lập");
     }
 
@@ -377,6 +469,19 @@ public class GroupChatActivity extends AppCompatActivity {
         String currentUserId = userManager.getCurrentUserId();
         String currentUserEmail = userManager.getCurrentUserEmail();
 
+        // Kiểm tra tệp trước khi xóa ô nhập, để nội dung không bị mất nếu không gửi được
+        if (selectedFileUri != null && !isFileUriValid(selectedFileUri)) {
+            Toast.makeText(this, "Lỗi: Không thể truy cập tệp đính kèm", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        // Tin hiển thị ngay nên xóa ô nhập và về cuối danh sách luôn, không chờ server
+        etMessage.setText("");
+        scrollToBottomOnNextCommit = true;
+        if (messageWindow != null && !messageWindow.isShowingLatest()) {
+            messageWindow.showLatest();
+        }
+
         if (selectedFileUri != null) {
             // Upload tệp trước, sau đó gửi tin nhắn với URL tệp
             uploadFileAndSendMessage(content, currentUserName, currentUserId, currentUserEmail);
@@ -388,20 +493,21 @@ public class GroupChatActivity extends AppCompatActivity {
     }
 
     /**
-     * Upload tệp lên Firebase Storage và gửi tin nhắn với URL tệp
+     * Upload tệp lên Firebase Storage và gửi tin nhắn với URL tệp (tệp đã được kiểm tra trong sendMessage)
      */
     private void uploadFileAndSendMessage(String content, String senderName, String senderId, String senderEmail) {
-        // Kiểm tra lại file tồn tại trước khi upload
-        if (selectedFileUri == null || !isFileUriValid(selectedFileUri)) {
-            Toast.makeText(this, "Lỗi: Không thể truy cập tệp đính kèm", Toast.LENGTH_SHORT).show();
-            return;
-        }
-
         // Hiển thị thông báo đang tải lên
         Toast.makeText(this, "Đang tải lên tệp đính kèm...", Toast.LENGTH_SHORT).show();
 
+        // Giữ thông tin tệp của lần gửi này và bỏ chọn ngay, để có thể đính kèm tệp khác trong lúc upload
+        Uri fileUri = selectedFileUri;
+        String fileName = selectedFileName;
+        String fileType = selectedFileType;
+        long fileSize = selectedFileSize;
+        clearSelectedFile();
+
         // Upload tệp lên Firebase Storage
-        fileUploadService.uploadTaskAttachment(selectedFileUri, new FileUploadService.FileUploadCallback() {
+        fileUploadService.uploadTaskAttachment(fileUri, new FileUploadService.FileUploadCallback() {
             @Override
             public void onProgress(int progress) {
                 // Có thể hiển thị thanh tiến trình ở đây nếu cần
@@ -409,17 +515,24 @@ public class GroupChatActivity extends AppCompatActivity {
             }
 
             @Override
-            public void onSuccess(String downloadUrl, String fileName) {
-                // Tạo tin nhắn mới với URL tệp đính kèm
+            public void onThroughput(long bytesTransferred, long totalBytes, long bytesPerSecond) {
+                Log.d(TAG, "Upload " + fileName + ": " + formatFileSize(bytesTransferred) + "/"
+                        + formatFileSize(totalBytes) + " (" + formatFileSize(bytesPerSecond) + "/s)");
+            }
+
+            @Override
+            public void onSuccess(FileUploadService.UploadedFile file) {
+                // Tạo tin nhắn mới với URL tệp đính kèm; loại và kích thước lấy theo tệp đã upload
+                // (ảnh đã được nén lại), tên giữ theo tệp người dùng chọn
                 Message message = new Message(
-                        content, senderName, senderId, senderEmail,
-                        downloadUrl, selectedFileName, selectedFileType, selectedFileSize);
+                        content, senderName, senderId, senderEmail, file.downloadUrl, fileName,
+                        file.contentType != null ? file.contentType : fileType,
+                        file.size > 0 ? file.size : fileSize);
+                message.setThumbnailUrl(file.thumbnailUrl);
+                message.setAttachmentHash(file.blobHash);
 
                 // Gửi tin nhắn vào Firebase
-                sendMessageToFirebase(message.toMap());
-
-                // Xóa tệp đã chọn
-                runOnUiThread(() -> clearSelectedFile());
+                runOnUiThread(() -> sendMessageToFirebase(message.toMap()));
             }
 
             @Override
@@ -427,31 +540,67 @@ public class GroupChatActivity extends AppCompatActivity {
                 Log.e(TAG, "Lỗi khi tải lên tệp: " + error);
                 runOnUiThread(() -> {
                     Toast.makeText(GroupChatActivity.this, "Lỗi khi upload file: " + error, Toast.LENGTH_SHORT).show();
+                    // Ô nhập và tệp đã được xóa lúc bấm gửi; trả lại để người dùng gửi lại
+                    if (etMessage.getText().length() == 0) {
+                        etMessage.setText(content);
+                    }
+                    if (selectedFileUri == null) {
+                        selectedFileUri = fileUri;
+                        selectedFileName = fileName;
+                        selectedFileType = fileType;
+                        selectedFileSize = fileSize;
+                        showAttachmentPreview();
+                    }
                 });
             }
         });
     }
 
     /**
-     * Gửi tin nhắn vào Firebase
+     * Gửi tin nhắn vào Firebase qua outbox: tin được commit ngay và hiện ở trạng thái "Đang gửi..." tới khi server xác nhận
      */
     private void sendMessageToFirebase(Map<String, Object> messageData) {
-        firebaseManager.sendMessage(messageData, new FirebaseManager.OnCompleteListener() {
-            @Override
-            public void onSuccess(String result) {
-                Log.d(TAG, "Gửi tin nhắn thành công: " + result);
-                runOnUiThread(() -> {
-                    // Xóa nội dung EditText
-                    etMessage.setText("");
+        String messageId = outbox.send(messageData);
+        Log.d(TAG, "Đã xếp tin nhắn " + messageId + " để gửi");
+    }
 
-                    // Cuộn xuống tin nhắn mới nhất
-                    rvMessages.smoothScrollToPosition(messageList.size() - 1);
-                });
+    /**
+     * Tin gửi lỗi: cho người dùng gửi lại hoặc bỏ
+     */
+    private void showFailedMessageOptions(String messageId) {
+        new AlertDialog.Builder(this)
+                .setTitle("Tin nhắn chưa được gửi")
+                .setItems(new String[]{"Gửi lại", "Xóa tin nhắn"}, (dialog, which) -> {
+                    if (which == 0) {
+                        scrollToBottomOnNextCommit = true;
+                        outbox.resend(messageId);
+                    } else {
+                        outbox.discard(messageId);
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Tải tin nhắn từ Firebase: các tin mới nhất theo thời gian thực, tin cũ hơn tải khi cuộn lên
+     */
+    private void loadMessages() {
+        Log.d(TAG, "Bắt đầu tải tin nhắn");
+
+        if (messageWindow != null) {
+            messageWindow.remove();
+        }
+
+        messageWindow = firebaseManager.getMessages(channelId, new FirebaseManager.OnDataLoadListener() {
+            @Override
+            public void onDataLoaded(List<Map<String, Object>> data) {
+                Log.d(TAG, "Cửa sổ tin nhắn: " + data.size() + " tin");
+                runOnUiThread(() -> showMessages(data));
             }
 
             @Override
-            public void onFailure(String error) {
-                Log.e(TAG, "Lỗi khi gửi tin nhắn: " + error);
+            public void onError(String error) {
+                Log.e(TAG, "Lỗi khi tải tin nhắn: " + error);
                 runOnUiThread(() -> {
                     Toast.makeText(GroupChatActivity.this, "Lỗi: " + error, Toast.LENGTH_SHORT).show();
                 });
@@ -460,43 +609,113 @@ public class GroupChatActivity extends AppCompatActivity {
     }
 
     /**
-     * Tải tin nhắn từ Firebase theo thời gian thực
+     * Theo dõi tổng số tin của kênh để cập nhật trạng thái đã đọc khi đang mở màn hình
      */
-    private void loadMessages() {
-        Log.d(TAG, "Bắt đầu tải tin nhắn");
-
-        firebaseManager.getMessages(new FirebaseManager.OnDataLoadListener() {
+    private void listenChannel() {
+        channelRegistration = firebaseManager.getChannel(channelId, new FirebaseManager.OnDataLoadListener() {
             @Override
             public void onDataLoaded(List<Map<String, Object>> data) {
-                Log.d(TAG, "Tải được " + data.size() + " tin nhắn");
-                runOnUiThread(() -> {
-                    // Kiểm tra có tin nhắn mới không
-                    int oldSize = messageList.size();
+                Object count = data.isEmpty() ? null : data.get(0).get("messageCount");
+                channelMessageCount = count instanceof Number ? ((Number) count).longValue() : 0;
+                if (isVisible) {
+                    markChannelRead();
+                }
+            }
 
-                    messageList.clear();
-                    messageList.addAll(data);
-                    chatAdapter.notifyDataSetChanged();
+            @Override
+            public void onError(String error) {
+                Log.e(TAG, "Lỗi khi theo dõi kênh: " + error);
+            }
+        });
+    }
 
-                    // Cuộn xuống nếu có tin nhắn mới
-                    if (data.size() > oldSize) {
-                        rvMessages.smoothScrollToPosition(data.size() - 1);
-                    }
+    private void markChannelRead() {
+        String userId = userManager.getCurrentUserId();
+        if (userId == null || userId.isEmpty() || channelMessageCount == 0) return;
+        firebaseManager.markChannelRead(channelId, userId, channelMessageCount);
+    }
+
+    /**
+     * Format cửa sổ tin nhắn ngoài main thread rồi diff vào adapter
+     */
+    private void showMessages(List<Map<String, Object>> data) {
+        latestMessages = data;
+        messageFormatter.format(withPendingMessages(data), userManager.getCurrentUserDisplayName(), userManager.getCurrentUserEmail(),
+                items -> {
+                    LinearLayoutManager layoutManager = (LinearLayoutManager) rvMessages.getLayoutManager();
+                    List<ChatMessageItem> current = chatAdapter.getCurrentList();
+                    boolean wasAtBottom = layoutManager.findLastVisibleItemPosition() >= current.size() - 1;
+                    String oldLastId = current.isEmpty() ? null : current.get(current.size() - 1).getId();
+
+                    // Diff theo id trên background thread; trang cũ nối vào phía trên được báo bằng
+                    // notifyItemRangeInserted nên vị trí cuộn hiện tại được giữ nguyên
+                    chatAdapter.submitList(items, () -> {
+                        String newLastId = items.isEmpty() ? null : items.get(items.size() - 1).getId();
+                        boolean newMessageArrived = newLastId != null && !newLastId.equals(oldLastId);
+
+                        // Cuộn xuống nếu có tin nhắn mới và người dùng đang ở cuối, hoặc vừa tự gửi tin
+                        boolean scrollToBottom = scrollToBottomOnNextCommit || (newMessageArrived && wasAtBottom);
+                        if (messageWindow != null && messageWindow.isShowingLatest()
+                                && scrollToBottom && !items.isEmpty()) {
+                            scrollToBottomOnNextCommit = false;
+                            rvMessages.smoothScrollToPosition(items.size() - 1);
+                        }
+                    });
 
-                    // Hiển thị số lượng tin nhắn
+                    // Chỉ biết tổng số tin khi đã tải hết lịch sử
                     if (getSupportActionBar() != null) {
-                        getSupportActionBar().setSubtitle(data.size() + " tin nhắn");
+                        boolean hasOlder = messageWindow == null || messageWindow.hasOlder();
+                        getSupportActionBar().setSubtitle(hasOlder ? null : items.size() + " tin nhắn");
                     }
                 });
-            }
+        scheduleDayRollover();
+    }
 
-            @Override
-            public void onError(String error) {
-                Log.e(TAG, "Lỗi khi tải tin nhắn: " + error);
-                runOnUiThread(() -> {
-                    Toast.makeText(GroupChatActivity.this, "Lỗi: " + error, Toast.LENGTH_SHORT).show();
-                });
+    /**
+     * Ghép cửa sổ tin nhắn với các tin còn trong outbox. Tin đã có trong snapshot (cùng id) giữ bản của
+     * snapshot, chỉ thêm trạng thái gửi; tin chưa có được nối vào cuối theo thứ tự gửi.
+     */
+    private List<Map<String, Object>> withPendingMessages(List<Map<String, Object>> data) {
+        if (outbox == null || outbox.isEmpty()
+                || (messageWindow != null && !messageWindow.isShowingLatest())) {
+            return data;
+        }
+
+        Map<String, Map<String, Object>> pendingById = new LinkedHashMap<>();
+        for (Map<String, Object> pending : outbox.getPendingMessages()) {
+            pendingById.put((String) pending.get("id"), pending);
+        }
+
+        List<Map<String, Object>> merged = new ArrayList<>(data.size() + pendingById.size());
+        for (Map<String, Object> message : data) {
+            Map<String, Object> pending = pendingById.remove((String) message.get("id"));
+            if (pending == null) {
+                merged.add(message);
+                continue;
             }
-        });
+            Map<String, Object> copy = new HashMap<>(message);
+            copy.put("sendState", pending.get("sendState"));
+            if (copy.get("timestamp") == null) {
+                copy.put("timestamp", pending.get("timestamp"));
+            }
+            merged.add(copy);
+        }
+        merged.addAll(pendingById.values());
+        return merged;
+    }
+
+    private void scheduleDayRollover() {
+        dayRolloverHandler.removeCallbacks(dayRolloverRunnable);
+        dayRolloverHandler.postDelayed(dayRolloverRunnable, ChatMessageFormatter.millisUntilNextDay() + 1000);
+    }
+
+    /**
+     * Sang ngày mới: nhãn "Hôm nay"/"Hôm qua" thay đổi nên format lại cửa sổ hiện tại
+     */
+    private void onDayRollover() {
+        if (latestMessages != null) {
+            showMessages(latestMessages);
+        }
     }
 
     @Override
@@ -508,6 +727,17 @@ public class GroupChatActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (messageWindow != null) {
+            messageWindow.remove();
+            messageWindow = null;
+        }
+        if (channelRegistration != null) {
+            channelRegistration.remove();
+            channelRegistration = null;
+        }
+        outbox.close();
+        dayRolloverHandler.removeCallbacks(dayRolloverRunnable);
+        messageFormatter.shutdown();
         Log.d(TAG, "GroupChatActivity bị hủy");
     }
 }
\ No newline at end of file
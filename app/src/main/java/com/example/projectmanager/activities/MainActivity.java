@@ -18,6 +18,8 @@ import androidx.appcompat.app.AlertDialog;
 import com.example.projectmanager.R;
 import com.example.projectmanager.utils.FirebaseManager;
 import com.example.projectmanager.utils.UserManager;
+import com.example.projectmanager.repositories.TaskDecoder;
+import com.example.projectmanager.repositories.TaskLocalStore;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 
@@ -229,6 +231,10 @@ public class MainActivity extends AppCompatActivity {
         // Đăng xuất khỏi Firebase
         firebaseAuth.signOut();
 
+        // Xóa tasks và watermark đã lưu của tài khoản này để tài khoản sau không thấy chúng khi mở app
+        TaskLocalStore.getInstance(this).clear();
+        TaskDecoder.getInstance().clear();
+
         // Chuyển về màn hình login
         Intent intent = new Intent(MainActivity.this, LoginActivity.class);
         intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
@@ -25,6 +25,7 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.example.projectmanager.R;
 import com.example.projectmanager.adapters.TaskAdapter;
 import com.example.projectmanager.models.Task;
+import com.example.projectmanager.repositories.TaskSnapshotIndex;
 import com.example.projectmanager.services.UserSearchService;
 import com.example.projectmanager.viewmodels.TaskViewModel;
 import com.google.firebase.auth.FirebaseAuth;
@@ -36,7 +37,6 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 
 public class TaskManagerActivity extends AppCompatActivity {
     private static final String TAG = "TaskManagerActivity";
@@ -54,8 +54,11 @@ public class TaskManagerActivity extends AppCompatActivity {
 
     // Adapter và dữ liệu
     private TaskAdapter taskAdapter;
-    private List<Map<String, Object>> taskList;
-    private List<Map<String, Object>> allTaskList;
+    private List<Task> taskList;
+    private List<Task> allTaskList;
+    // Phiên bản danh sách mà taskList đang hiển thị đầy đủ (không lọc); NO_VERSION nếu không khớp phiên bản nào
+    private long displayedTaskVersion = TaskViewModel.TaskListUpdate.NO_VERSION;
+    private long loadedTaskVersion = TaskViewModel.TaskListUpdate.NO_VERSION;
     private ArrayAdapter<String> userAdapter;
     private List<UserSearchService.UserInfo> allUsers;
 
@@ -137,9 +140,14 @@ public class TaskManagerActivity extends AppCompatActivity {
 
         // Tạo listener đơn giản
         taskAdapter = new TaskAdapter(taskList, new TaskAdapter.OnTaskClickListener() {
-            public void onTaskClick(Map<String, Object> task) {
+            public void onTaskClick(Task task) {
                 handleTaskClick(task);
             }
+
+            public void onTaskDeleteRequested(Task task) {
+                Log.d(TAG, "Delete task request: " + task.getId());
+                taskViewModel.deleteTask(task.getId());
+            }
         });
 
         rvTasks.setLayoutManager(new LinearLayoutManager(this));
@@ -278,17 +286,31 @@ public class TaskManagerActivity extends AppCompatActivity {
     }
 
     private void observeViewModel() {
-        taskViewModel.getTasks().observe(this, tasks -> {
+        taskViewModel.getTasks().observe(this, update -> {
+            List<Task> tasks = update.getTasks();
+            loadedTaskVersion = update.getVersion();
             if (isPaginationEnabled) {
                 // In pagination mode, tasks are added progressively
                 taskList.clear();
                 taskList.addAll(tasks);
+                displayedTaskVersion = TaskViewModel.TaskListUpdate.NO_VERSION;
                 taskAdapter.notifyDataSetChanged();
             } else {
                 // In normal mode, replace all tasks
                 allTaskList.clear();
                 allTaskList.addAll(tasks);
-                filterTasks(cbMyTasksOnly.isChecked());
+
+                // Chỉ báo từng item khi adapter đang hiển thị đúng phiên bản mà các thay đổi được tính từ đó
+                List<TaskSnapshotIndex.Change> changes = update.changesSince(displayedTaskVersion);
+                if (changes != null && !cbMyTasksOnly.isChecked()) {
+                    // Real-time update: chỉ báo các item thay đổi
+                    taskList.clear();
+                    taskList.addAll(allTaskList);
+                    displayedTaskVersion = update.getVersion();
+                    taskAdapter.applyChanges(changes);
+                } else {
+                    filterTasks(cbMyTasksOnly.isChecked());
+                }
             }
 
             if (getSupportActionBar() != null) {
@@ -432,15 +454,21 @@ public class TaskManagerActivity extends AppCompatActivity {
 
     private void createAndSaveTask(String title, String description, String assignedToUserId,
                                    String assignedToName, String priority) {
-        Task task = new Task(title, description, assignedToUserId, assignedToName,
-                selectedDueDate, priority);
+        Task.Builder builder = Task.builder()
+                .setTitle(title)
+                .setDescription(description)
+                .setAssignedToUserId(assignedToUserId)
+                .setAssignedToName(assignedToName)
+                .setDueDate(selectedDueDate)
+                .setPriority(priority);
 
         FirebaseUser currentUser = FirebaseAuth.getInstance().getCurrentUser();
         if (currentUser != null) {
-            task.setAssignerUserId(currentUser.getUid());
-            task.setAssignerName(currentUser.getDisplayName() != null ?
+            builder.setAssignerUserId(currentUser.getUid());
+            builder.setAssignerName(currentUser.getDisplayName() != null ?
                     currentUser.getDisplayName() : currentUser.getEmail());
         }
+        Task task = builder.build();
 
         Log.d(TAG, "Tạo nhiệm vụ mới: " + title + " cho " + assignedToName +
                 " với hạn " + dateFormat.format(selectedDueDate));
@@ -481,8 +509,8 @@ public class TaskManagerActivity extends AppCompatActivity {
 
         if (showOnlyMyTasks) {
             String currentUserId = getCurrentUserId();
-            for (Map<String, Object> task : allTaskList) {
-                String assignedToUserId = (String) task.get("assignedToUserId");
+            for (Task task : allTaskList) {
+                String assignedToUserId = task.getAssignedToUserId();
                 if (currentUserId != null && currentUserId.equals(assignedToUserId)) {
                     taskList.add(task);
                 }
@@ -491,6 +519,7 @@ public class TaskManagerActivity extends AppCompatActivity {
             taskList.addAll(allTaskList);
         }
 
+        displayedTaskVersion = showOnlyMyTasks ? TaskViewModel.TaskListUpdate.NO_VERSION : loadedTaskVersion;
         taskAdapter.notifyDataSetChanged();
         Log.d(TAG, "Filtered tasks: " + taskList.size() + "/" + allTaskList.size());
     }
@@ -498,8 +527,8 @@ public class TaskManagerActivity extends AppCompatActivity {
     private int getMyTasksCount() {
         String currentUserId = getCurrentUserId();
         int count = 0;
-        for (Map<String, Object> task : allTaskList) {
-            String assignedToUserId = (String) task.get("assignedToUserId");
+        for (Task task : allTaskList) {
+            String assignedToUserId = task.getAssignedToUserId();
             if (currentUserId != null && currentUserId.equals(assignedToUserId)) {
                 count++;
             }
@@ -507,11 +536,11 @@ public class TaskManagerActivity extends AppCompatActivity {
         return count;
     }
 
-    private int getMyTasksCountFromList(List<Map<String, Object>> tasks) {
+    private int getMyTasksCountFromList(List<Task> tasks) {
         String currentUserId = getCurrentUserId();
         int count = 0;
-        for (Map<String, Object> task : tasks) {
-            String assignedToUserId = (String) task.get("assignedToUserId");
+        for (Task task : tasks) {
+            String assignedToUserId = task.getAssignedToUserId();
             if (currentUserId != null && currentUserId.equals(assignedToUserId)) {
                 count++;
             }
@@ -552,22 +581,11 @@ public class TaskManagerActivity extends AppCompatActivity {
     }
 
     // Phương thức xử lý click task - KHÔNG CÓ @Override
-    private void handleTaskClick(Map<String, Object> task) {
+    private void handleTaskClick(Task task) {
         try {
-            // Kiểm tra xem có phải action delete không
-            Object actionObj = task.get("action");
-            if ("DELETE_TASK".equals(actionObj)) {
-                String taskId = (String) task.get("taskId");
-                Map<String, Object> originalTask = (Map<String, Object>) task.get("originalTask");
-
-                Log.d(TAG, "Delete task request: " + taskId);
-                taskViewModel.deleteTask(taskId);
-                return;
-            }
-
             // Xử lý click thường để update status
-            String taskId = (String) task.get("id");
-            String assignedToUserId = (String) task.get("assignedToUserId");
+            String taskId = task.getId();
+            String assignedToUserId = task.getAssignedToUserId();
             String currentUserId = getCurrentUserId();
 
             if (currentUserId == null || !currentUserId.equals(assignedToUserId)) {
@@ -576,11 +594,12 @@ public class TaskManagerActivity extends AppCompatActivity {
                 return;
             }
 
-            String currentStatus = (String) task.get("status");
-            String newStatus = getNextStatus(currentStatus);
+            Task.Status currentStatus = task.getStatusType();
+            Task.Status newStatus = getNextStatus(currentStatus);
 
-            Log.d(TAG, "Cập nhật trạng thái task " + taskId + " từ " + currentStatus + " sang " + newStatus);
-            taskViewModel.updateTaskStatus(taskId, newStatus);
+            Log.d(TAG, "Cập nhật trạng thái task " + taskId + " từ " + currentStatus.getValue()
+                    + " sang " + newStatus.getValue());
+            taskViewModel.updateTaskStatus(taskId, newStatus.getValue());
 
         } catch (Exception e) {
             Log.e(TAG, "Lỗi khi xử lý click task", e);
@@ -588,12 +607,11 @@ public class TaskManagerActivity extends AppCompatActivity {
         }
     }
 
-    private String getNextStatus(String currentStatus) {
+    private Task.Status getNextStatus(Task.Status currentStatus) {
         switch (currentStatus) {
-            case "pending": return "in_progress";
-            case "in_progress": return "completed";
-            case "completed": return "pending";
-            default: return "pending";
+            case PENDING: return Task.Status.IN_PROGRESS;
+            case IN_PROGRESS: return Task.Status.COMPLETED;
+            default: return Task.Status.PENDING;
         }
     }
 
@@ -13,6 +13,7 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.projectmanager.R;
 import com.example.projectmanager.models.Budget;
+import com.example.projectmanager.utils.Money;
 
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
@@ -60,7 +61,7 @@ public class BudgetAdapter extends RecyclerView.Adapter<BudgetAdapter.BudgetView
         holder.tvTitle.setText(budget.getTitle() != null ? budget.getTitle() : "");
         holder.tvCategory.setText(getCategoryDisplayName(budget.getCategory()));
         holder.tvDescription.setText(budget.getDescription() != null ? budget.getDescription() : "");
-        holder.tvAmount.setText(formatAmount(budget.getAmount()));
+        holder.tvAmount.setText(formatAmount(budget.getAmountMinor()));
 
         // Set date
         String formattedDate = formatDate(budget.getCreatedAt());
@@ -77,7 +78,7 @@ public class BudgetAdapter extends RecyclerView.Adapter<BudgetAdapter.BudgetView
         setCategoryBackground(holder.tvCategory, budget.getCategory());
 
         // Set amount background based on value
-        setAmountBackground(holder.tvAmount, budget.getAmount());
+        setAmountBackground(holder.tvAmount, budget.getAmountMinor());
 
         // Set click listeners
         holder.itemView.setOnClickListener(v -> {
@@ -186,10 +187,10 @@ public class BudgetAdapter extends RecyclerView.Adapter<BudgetAdapter.BudgetView
     /**
      * Set amount background based on value
      */
-    private void setAmountBackground(TextView tvAmount, double amount) {
-        if (amount > 1000000) { // > 1 triệu
+    private void setAmountBackground(TextView tvAmount, long amountMinor) {
+        if (amountMinor > 1000000 * Money.MINOR_PER_UNIT) { // > 1 triệu
             tvAmount.setBackgroundResource(R.drawable.badge_high_priority);
-        } else if (amount > 500000) { // > 500k
+        } else if (amountMinor > 500000 * Money.MINOR_PER_UNIT) { // > 500k
             tvAmount.setBackgroundResource(R.drawable.badge_medium_priority);
         } else {
             tvAmount.setBackgroundResource(R.drawable.badge_low_priority);
@@ -217,8 +218,8 @@ public class BudgetAdapter extends RecyclerView.Adapter<BudgetAdapter.BudgetView
     /**
      * Format amount to Vietnamese currency format
      */
-    private String formatAmount(double amount) {
-        return decimalFormat.format(amount);
+    private String formatAmount(long amountMinor) {
+        return decimalFormat.format(Money.toDecimal(amountMinor));
     }
 
     /**
@@ -1,10 +1,7 @@
 package com.example.projectmanager.adapters;
 
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -15,39 +12,69 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.cardview.widget.CardView;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.projectmanager.R;
-import com.example.projectmanager.utils.UserManager;
-import com.google.firebase.Timestamp;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
+import com.example.projectmanager.models.ChatMessageItem;
+import com.example.projectmanager.utils.AttachmentImageLoader;
+
+import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
-import java.util.Map;
+import java.util.Set;
 
 /**
- * Adapter cho tin nhắn với UserManager để phân biệt người gửi và hỗ trợ tệp đính kèm
+ * Adapter cho tin nhắn (đã format sẵn thành ChatMessageItem), phân biệt người gửi và hỗ trợ tệp đính kèm
  */
 public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.ChatViewHolder> {
-    private List<Map<String, Object>> messageList;
-    private UserManager userManager;
-    private SimpleDateFormat timeFormat;
-    private SimpleDateFormat dateFormat;
-    private SimpleDateFormat fullDateFormat;
-
-    public ChatAdapter(List<Map<String, Object>> messageList, UserManager userManager) {
-        this.messageList = messageList;
-        this.userManager = userManager;
-        this.timeFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
-        this.dateFormat = new SimpleDateFormat("dd/MM", Locale.getDefault());
-        this.fullDateFormat = new SimpleDateFormat("dd/MM/yyyy HH:mm", Locale.getDefault());
+    /**
+     * So sánh tin nhắn theo id; payload là tập phần hiển thị thay đổi để chỉ bind lại phần đó
+     */
+    private static final DiffUtil.ItemCallback<ChatMessageItem> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<ChatMessageItem>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull ChatMessageItem oldItem, @NonNull ChatMessageItem newItem) {
+                    return oldItem.getId() != null && oldItem.getId().equals(newItem.getId());
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull ChatMessageItem oldItem, @NonNull ChatMessageItem newItem) {
+                    return oldItem.changedParts(newItem).isEmpty();
+                }
+
+                @Override
+                public Object getChangePayload(@NonNull ChatMessageItem oldItem, @NonNull ChatMessageItem newItem) {
+                    return oldItem.changedParts(newItem);
+                }
+            };
+
+    // Diff chạy trên background thread, kết quả áp dụng bằng notifyItem* trên main thread
+    private final AsyncListDiffer<ChatMessageItem> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+    private AttachmentImageLoader imageLoader;
+    private OnMessageClickListener messageClickListener;
+
+    public interface OnMessageClickListener {
+        void onMessageClick(ChatMessageItem message);
+    }
+
+    public ChatAdapter() {
+    }
+
+    public void setOnMessageClickListener(OnMessageClickListener listener) {
+        this.messageClickListener = listener;
+    }
+
+    /**
+     * Cập nhật danh sách tin nhắn (đã format bởi ChatMessageFormatter); mỗi lần gọi phải là một list mới.
+     * commitCallback chạy sau khi thay đổi đã được áp dụng lên RecyclerView.
+     */
+    public void submitList(List<ChatMessageItem> messages, Runnable commitCallback) {
+        differ.submitList(messages, commitCallback);
+    }
+
+    public List<ChatMessageItem> getCurrentList() {
+        return differ.getCurrentList();
     }
 
     @NonNull
@@ -55,57 +82,97 @@ public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.ChatViewHolder
     public ChatViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(parent.getContext())
                 .inflate(R.layout.item_chat, parent, false);
-        return new ChatViewHolder(view);
+        ChatViewHolder holder = new ChatViewHolder(view);
+        holder.cardView.setOnClickListener(v -> {
+            int position = holder.getAdapterPosition();
+            if (messageClickListener != null && position != RecyclerView.NO_POSITION) {
+                messageClickListener.onMessageClick(differ.getCurrentList().get(position));
+            }
+        });
+        return holder;
     }
 
     @Override
     public void onBindViewHolder(@NonNull ChatViewHolder holder, int position) {
-        Map<String, Object> message = messageList.get(position);
+        ChatMessageItem message = differ.getCurrentList().get(position);
 
         if (message == null) return;
 
-        String content = (String) message.get("content");
-        String senderName = (String) message.get("senderName");
-        String senderId = (String) message.get("senderId");
-        String senderEmail = (String) message.get("senderEmail");
-        Object timestampObj = message.get("timestamp");
-
-        // Kiểm tra và thiết lập attachment
-        String attachmentUrl = (String) message.get("attachmentUrl");
-        String attachmentName = (String) message.get("attachmentName");
-        String attachmentType = (String) message.get("attachmentType");
-
-        // Debug log để kiểm tra timestamp
-        android.util.Log.d("ChatAdapter", "Message content: " + content);
-        android.util.Log.d("ChatAdapter", "Timestamp object: " + timestampObj + " (type: " +
-                (timestampObj != null ? timestampObj.getClass().getSimpleName() : "null") + ")");
-
-        // Debug log cho attachment
-        if (attachmentUrl != null) {
-            android.util.Log.d("ChatAdapter", "Message has attachment: " + attachmentName +
-                    " (type: " + attachmentType + ")");
+        // Mọi giá trị đã được tính sẵn, bind chỉ gán vào view
+        holder.tvMessage.setText(message.getContent());
+        holder.tvTime.setText(message.getTimeLabel());
+        bindDaySeparator(holder, message);
+        bindAttachment(holder, message);
+        bindSender(holder, message);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ChatViewHolder holder, int position, @NonNull List<Object> payloads) {
+        ChatMessageItem message = differ.getCurrentList().get(position);
+        if (payloads.isEmpty() || message == null) {
+            onBindViewHolder(holder, position);
+            return;
         }
 
-        // Hiển thị nội dung tin nhắn
-        holder.tvMessage.setText(content != null ? content : "");
+        // Chỉ cập nhật view của các phần thay đổi (ví dụ timestamp từ server về sau khi gửi)
+        Set<String> changedParts = new HashSet<>();
+        for (Object payload : payloads) {
+            if (payload instanceof Set) {
+                for (Object part : (Set<?>) payload) {
+                    changedParts.add((String) part);
+                }
+            }
+        }
+
+        for (String part : changedParts) {
+            switch (part) {
+                case "content":
+                    holder.tvMessage.setText(message.getContent());
+                    break;
+                case "time":
+                    holder.tvTime.setText(message.getTimeLabel());
+                    break;
+                case "day":
+                    bindDaySeparator(holder, message);
+                    break;
+                case "sender":
+                    bindSender(holder, message);
+                    break;
+                case "attachment":
+                    bindAttachment(holder, message);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void bindDaySeparator(ChatViewHolder holder, ChatMessageItem message) {
+        if (message.isShowDaySeparator()) {
+            holder.tvDaySeparator.setText(message.getDayLabel());
+            holder.tvDaySeparator.setVisibility(View.VISIBLE);
+        } else {
+            holder.tvDaySeparator.setVisibility(View.GONE);
+        }
+    }
+
+    private void bindAttachment(ChatViewHolder holder, ChatMessageItem message) {
+        String attachmentUrl = message.getAttachmentUrl();
+        String attachmentName = message.getAttachmentName();
 
         // Hiển thị attachment nếu có
-        if (attachmentUrl != null && !attachmentUrl.isEmpty()) {
+        if (message.getAttachmentKind() != ChatMessageItem.AttachmentKind.NONE) {
             holder.layoutAttachment.setVisibility(View.VISIBLE);
 
-            // Kiểm tra loại tệp đính kèm
-            boolean isImage = attachmentType != null && attachmentType.startsWith("image/");
-
-            if (isImage) {
-                // Hiển thị hình ảnh sử dụng AsyncTask để load image
+            if (message.getAttachmentKind() == ChatMessageItem.AttachmentKind.IMAGE) {
+                // Hiển thị hình ảnh qua AttachmentImageLoader (cache bộ nhớ + đĩa, thu nhỏ theo view);
+                // có thumbnail thì chỉ tải thumbnail, ảnh đầy đủ mở khi bấm vào
                 holder.ivAttachmentImage.setVisibility(View.VISIBLE);
                 holder.layoutFileAttachment.setVisibility(View.GONE);
 
-                // Set mặc định trước khi load
-                holder.ivAttachmentImage.setImageResource(R.drawable.ic_image_placeholder);
-
-                // Load ảnh từ URL
-                new ImageLoadTask(attachmentUrl, holder.ivAttachmentImage).execute();
+                holder.attachmentImageUrl = message.getThumbnailUrl() != null
+                        ? message.getThumbnailUrl() : attachmentUrl;
+                loadAttachmentImage(holder);
 
                 // Set click listener để xem ảnh full screen
                 holder.ivAttachmentImage.setOnClickListener(v -> {
@@ -117,26 +184,12 @@ public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.ChatViewHolder
             } else {
                 // Hiển thị icon và tên file
                 holder.ivAttachmentImage.setVisibility(View.GONE);
+                holder.attachmentImageUrl = null;
+                imageLoaderFor(holder).cancel(holder.ivAttachmentImage);
                 holder.layoutFileAttachment.setVisibility(View.VISIBLE);
 
                 // Đặt icon phù hợp với loại file
-                if (attachmentType != null) {
-                    if (attachmentType.contains("pdf")) {
-                        holder.ivFileIcon.setImageResource(R.drawable.ic_file);
-                    } else if (attachmentType.contains("word") || attachmentType.contains("document")) {
-                        holder.ivFileIcon.setImageResource(R.drawable.ic_file);
-                    } else if (attachmentType.contains("excel") || attachmentType.contains("sheet")) {
-                        holder.ivFileIcon.setImageResource(R.drawable.ic_file);
-                    } else if (attachmentType.contains("video")) {
-                        holder.ivFileIcon.setImageResource(R.drawable.ic_file);
-                    } else if (attachmentType.contains("audio")) {
-                        holder.ivFileIcon.setImageResource(R.drawable.ic_file);
-                    } else {
-                        holder.ivFileIcon.setImageResource(R.drawable.ic_file);
-                    }
-                } else {
-                    holder.ivFileIcon.setImageResource(R.drawable.ic_file);
-                }
+                holder.ivFileIcon.setImageResource(R.drawable.ic_file);
 
                 // Hiển thị tên file
                 holder.tvFileName.setText(attachmentName != null ? attachmentName : "File đính kèm");
@@ -152,19 +205,56 @@ public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.ChatViewHolder
         } else {
             // Không có attachment
             holder.layoutAttachment.setVisibility(View.GONE);
+            holder.attachmentImageUrl = null;
+            imageLoaderFor(holder).cancel(holder.ivAttachmentImage);
         }
+    }
+
+    /**
+     * Row bind trước khi hiển thị (prefetch của RecyclerView) tải với ưu tiên thấp
+     */
+    private void loadAttachmentImage(ChatViewHolder holder) {
+        int priority = holder.itemView.isAttachedToWindow()
+                ? AttachmentImageLoader.PRIORITY_VISIBLE : AttachmentImageLoader.PRIORITY_PREFETCH;
+        imageLoaderFor(holder).load(holder.attachmentImageUrl, holder.ivAttachmentImage,
+                R.drawable.ic_image_placeholder, R.drawable.ic_broken_image, priority);
+    }
 
-        // Hiển thị thời gian
-        String timeText = formatTime(timestampObj);
-        holder.tvTime.setText(timeText);
+    @Override
+    public void onViewAttachedToWindow(@NonNull ChatViewHolder holder) {
+        super.onViewAttachedToWindow(holder);
+        // Row hiện lại mà không bind lại: nâng ưu tiên, hoặc tải lại nếu request đã bị bỏ khi rời màn hình
+        if (holder.attachmentImageUrl != null) {
+            loadAttachmentImage(holder);
+        }
+    }
 
-        // Kiểm tra xem tin nhắn có phải của user hiện tại không
-        boolean isOwnMessage = userManager.isCurrentUser(senderName, senderEmail);
+    @Override
+    public void onViewDetachedFromWindow(@NonNull ChatViewHolder holder) {
+        super.onViewDetachedFromWindow(holder);
+        // Row đã ra khỏi màn hình thì không cần ảnh đang tải cho nó nữa
+        imageLoaderFor(holder).cancel(holder.ivAttachmentImage);
+    }
 
-        if (isOwnMessage) {
+    @Override
+    public void onViewRecycled(@NonNull ChatViewHolder holder) {
+        super.onViewRecycled(holder);
+        holder.attachmentImageUrl = null;
+        imageLoaderFor(holder).cancel(holder.ivAttachmentImage);
+    }
+
+    private AttachmentImageLoader imageLoaderFor(ChatViewHolder holder) {
+        if (imageLoader == null) {
+            imageLoader = AttachmentImageLoader.getInstance(holder.itemView.getContext());
+        }
+        return imageLoader;
+    }
+
+    private void bindSender(ChatViewHolder holder, ChatMessageItem message) {
+        if (message.isMine()) {
             setupOwnMessage(holder);
         } else {
-            setupOtherMessage(holder, senderName);
+            setupOtherMessage(holder, message.getSenderName());
         }
     }
 
@@ -229,127 +319,15 @@ public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.ChatViewHolder
                 holder.itemView.getContext(), android.R.color.darker_gray));
     }
 
-    private String formatTime(Object timestampObj) {
-        try {
-            Date messageDate = null;
-
-            // Xử lý các loại timestamp khác nhau
-            if (timestampObj == null) {
-                android.util.Log.w("ChatAdapter", "Timestamp is null, using current time");
-                messageDate = new Date();
-            } else if (timestampObj instanceof Date) {
-                messageDate = (Date) timestampObj;
-                android.util.Log.d("ChatAdapter", "Timestamp is Date: " + messageDate);
-            } else if (timestampObj instanceof Long) {
-                messageDate = new Date((Long) timestampObj);
-                android.util.Log.d("ChatAdapter", "Timestamp is Long: " + timestampObj + " -> " + messageDate);
-            } else if (timestampObj instanceof Timestamp) {
-                // Xử lý Firebase Firestore Timestamp
-                messageDate = ((Timestamp) timestampObj).toDate();
-                android.util.Log.d("ChatAdapter", "Timestamp is Firestore Timestamp: " + messageDate);
-            } else {
-                // Thử parse string nếu có thể
-                try {
-                    String timestampStr = timestampObj.toString();
-                    long timestamp = Long.parseLong(timestampStr);
-                    messageDate = new Date(timestamp);
-                    android.util.Log.d("ChatAdapter", "Parsed timestamp from string: " + timestampStr + " -> " + messageDate);
-                } catch (Exception e) {
-                    android.util.Log.e("ChatAdapter", "Cannot parse timestamp: " + timestampObj, e);
-                    messageDate = new Date();
-                }
-            }
-
-            // Format thời gian
-            if (messageDate != null) {
-                Calendar today = Calendar.getInstance();
-                Calendar messageCalendar = Calendar.getInstance();
-                messageCalendar.setTime(messageDate);
-
-                boolean isToday = today.get(Calendar.YEAR) == messageCalendar.get(Calendar.YEAR) &&
-                        today.get(Calendar.DAY_OF_YEAR) == messageCalendar.get(Calendar.DAY_OF_YEAR);
-
-                boolean isYesterday = today.get(Calendar.YEAR) == messageCalendar.get(Calendar.YEAR) &&
-                        today.get(Calendar.DAY_OF_YEAR) - messageCalendar.get(Calendar.DAY_OF_YEAR) == 1;
-
-                if (isToday) {
-                    String time = timeFormat.format(messageDate);
-                    android.util.Log.d("ChatAdapter", "Today's message: " + time);
-                    return time;
-                } else if (isYesterday) {
-                    String time = "Hôm qua " + timeFormat.format(messageDate);
-                    android.util.Log.d("ChatAdapter", "Yesterday's message: " + time);
-                    return time;
-                } else {
-                    // Kiểm tra xem có phải cùng năm không
-                    if (today.get(Calendar.YEAR) == messageCalendar.get(Calendar.YEAR)) {
-                        String time = dateFormat.format(messageDate) + " " + timeFormat.format(messageDate);
-                        android.util.Log.d("ChatAdapter", "Same year message: " + time);
-                        return time;
-                    } else {
-                        String time = fullDateFormat.format(messageDate);
-                        android.util.Log.d("ChatAdapter", "Different year message: " + time);
-                        return time;
-                    }
-                }
-            }
-        } catch (Exception e) {
-            android.util.Log.e("ChatAdapter", "Error formatting time", e);
-        }
-
-        // Fallback
-        String fallback = timeFormat.format(new Date());
-        android.util.Log.w("ChatAdapter", "Using fallback time: " + fallback);
-        return fallback;
-    }
-
     @Override
     public int getItemCount() {
-        return messageList != null ? messageList.size() : 0;
-    }
-
-    /**
-     * AsyncTask để tải ảnh từ URL
-     */
-    private static class ImageLoadTask extends AsyncTask<Void, Void, Bitmap> {
-        private String url;
-        private ImageView imageView;
-
-        public ImageLoadTask(String url, ImageView imageView) {
-            this.url = url;
-            this.imageView = imageView;
-        }
-
-        @Override
-        protected Bitmap doInBackground(Void... params) {
-            try {
-                URL urlConnection = new URL(url);
-                HttpURLConnection connection = (HttpURLConnection) urlConnection.openConnection();
-                connection.setDoInput(true);
-                connection.connect();
-                InputStream input = connection.getInputStream();
-                return BitmapFactory.decodeStream(input);
-            } catch (IOException e) {
-                android.util.Log.e("ImageLoadTask", "Error loading image", e);
-                return null;
-            }
-        }
-
-        @Override
-        protected void onPostExecute(Bitmap result) {
-            if (result != null && imageView != null) {
-                imageView.setImageBitmap(result);
-            } else if (imageView != null) {
-                // Set error image if loading failed
-                imageView.setImageResource(R.drawable.ic_broken_image);
-            }
-        }
+        return differ.getCurrentList().size();
     }
 
     static class ChatViewHolder extends RecyclerView.ViewHolder {
         LinearLayout messageContainer;
         CardView cardView;
-        TextView tvMessage, tvSender, tvTime;
+        TextView tvMessage, tvSender, tvTime, tvDaySeparator;
 
         // Attachment views
         LinearLayout layoutAttachment;
@@ -357,6 +335,8 @@ public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.ChatViewHolder
         LinearLayout layoutFileAttachment;
         ImageView ivFileIcon;
         TextView tvFileName;
+        // Ảnh đính kèm đang bind, để tải lại khi row hiện lại trên màn hình
+        String attachmentImageUrl;
 
         ChatViewHolder(View itemView) {
             super(itemView);
@@ -365,6 +345,7 @@ public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.ChatViewHolder
             tvMessage = itemView.findViewById(R.id.tv_message);
             tvSender = itemView.findViewById(R.id.tv_sender);
             tvTime = itemView.findViewById(R.id.tv_time);
+            tvDaySeparator = itemView.findViewById(R.id.tv_day_separator);
 
             // Initialize attachment views
             layoutAttachment = itemView.findViewById(R.id.layout_attachment);
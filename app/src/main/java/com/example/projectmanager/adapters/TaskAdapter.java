@@ -22,34 +22,36 @@ import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.projectmanager.R;
+import com.example.projectmanager.activities.GroupChatActivity;
 import com.example.projectmanager.dialogs.UserSelectionDialog;
 import com.example.projectmanager.models.Task;
+import com.example.projectmanager.repositories.TaskSnapshotIndex;
+import com.example.projectmanager.utils.FirebaseManager;
 import com.example.projectmanager.viewmodels.TaskViewModel;
 import com.google.firebase.auth.FirebaseAuth;
 
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 import android.app.DatePickerDialog;
 
 /**
  * Adapter cho danh sách nhiệm vụ với phân quyền
  */
 public class TaskAdapter extends RecyclerView.Adapter<TaskAdapter.TaskViewHolder> {
-    private List<Map<String, Object>> taskList;
+    private List<Task> taskList;
     private OnTaskClickListener listener;
     private SimpleDateFormat dateFormat;
     private Context context;
 
     public interface OnTaskClickListener {
-        void onTaskClick(Map<String, Object> task);
+        void onTaskClick(Task task);
+        void onTaskDeleteRequested(Task task);
     }
 
-    public TaskAdapter(List<Map<String, Object>> taskList, OnTaskClickListener listener) {
+    public TaskAdapter(List<Task> taskList, OnTaskClickListener listener) {
         this.taskList = taskList;
         this.listener = listener;
         this.dateFormat = new SimpleDateFormat("dd/MM/yyyy", Locale.getDefault());
@@ -66,14 +68,14 @@ public class TaskAdapter extends RecyclerView.Adapter<TaskAdapter.TaskViewHolder
 
     @Override
     public void onBindViewHolder(@NonNull TaskViewHolder holder, int position) {
-        Map<String, Object> task = taskList.get(position);
+        Task task = taskList.get(position);
         String currentUserId = getCurrentUserId();
 
         // Lấy thông tin assignment
-        String assignedToUserId = (String) task.get("assignedToUserId");
-        String assignedToName = (String) task.get("assignedToName");
-        String assignerUserId = (String) task.get("assignerUserId");
-        String assignerName = (String) task.get("assignerName");
+        String assignedToUserId = task.getAssignedToUserId();
+        String assignedToName = task.getAssignedToName();
+        String assignerUserId = task.getAssignerUserId();
+        String assignerName = task.getAssignerName();
 
         // Kiểm tra quyền
         boolean canEdit = checkCanEdit(currentUserId, assignedToUserId, assignerUserId);
@@ -81,8 +83,8 @@ public class TaskAdapter extends RecyclerView.Adapter<TaskAdapter.TaskViewHolder
         boolean isAssigner = checkIsAssigner(currentUserId, assignerUserId);
 
         // Bind dữ liệu cơ bản
-        holder.tvTitle.setText((String) task.get("title"));
-        holder.tvDescription.setText((String) task.get("description"));
+        holder.tvTitle.setText(task.getTitle());
+        holder.tvDescription.setText(task.getDescription());
 
         // Hiển thị thông tin assignment
         String assignText = "Phụ trách: " + (assignedToName != null ? assignedToName : "Chưa có");
@@ -92,22 +94,20 @@ public class TaskAdapter extends RecyclerView.Adapter<TaskAdapter.TaskViewHolder
         holder.tvAssignedTo.setText(assignText);
 
         // Hiển thị ngày hết hạn
-        Object dueDateObj = task.get("dueDate");
-        if (dueDateObj instanceof Date) {
-            holder.tvDueDate.setText("Hạn: " + dateFormat.format((Date) dueDateObj));
-        } else if (dueDateObj instanceof com.google.firebase.Timestamp) {
-            holder.tvDueDate.setText("Hạn: " + dateFormat.format(((com.google.firebase.Timestamp) dueDateObj).toDate()));
+        Date dueDate = task.getDueDate();
+        if (dueDate != null) {
+            holder.tvDueDate.setText("Hạn: " + dateFormat.format(dueDate));
         } else {
             holder.tvDueDate.setText("Hạn: Chưa có");
         }
 
         // Hiển thị mức độ ưu tiên
-        String priority = (String) task.get("priority");
+        Task.Priority priority = task.getPriorityType();
         holder.tvPriority.setText(getPriorityText(priority));
         setPriorityColor(holder.tvPriority, priority);
 
         // Hiển thị trạng thái
-        String status = (String) task.get("status");
+        Task.Status status = task.getStatusType();
         holder.tvStatus.setText(getStatusText(status));
         setStatusColor(holder.tvStatus, status);
 
@@ -151,9 +151,9 @@ public class TaskAdapter extends RecyclerView.Adapter<TaskAdapter.TaskViewHolder
         }
     }
 
-    private void setupAttachmentDisplay(TaskViewHolder holder, Map<String, Object> task) {
-        String attachmentUrl = (String) task.get("attachmentUrl");
-        String attachmentName = (String) task.get("attachmentName");
+    private void setupAttachmentDisplay(TaskViewHolder holder, Task task) {
+        String attachmentUrl = task.getAttachmentUrl();
+        String attachmentName = task.getAttachmentName();
 
         if (attachmentUrl != null && !attachmentUrl.isEmpty() && holder.ivAttachment != null) {
             holder.ivAttachment.setVisibility(View.VISIBLE);
@@ -173,7 +173,7 @@ public class TaskAdapter extends RecyclerView.Adapter<TaskAdapter.TaskViewHolder
         }
     }
 
-    private void setupClickListeners(TaskViewHolder holder, Map<String, Object> task,
+    private void setupClickListeners(TaskViewHolder holder, Task task,
                                      boolean canUpdateStatus, boolean canEdit, boolean isAssigner) {
         // Click để update status
         holder.cardView.setOnClickListener(v -> {
@@ -199,17 +199,17 @@ public class TaskAdapter extends RecyclerView.Adapter<TaskAdapter.TaskViewHolder
         });
     }
 
-    private void showTaskOptions(Map<String, Object> task, boolean isAssigner, boolean canEdit) {
+    private void showTaskOptions(Task task, boolean isAssigner, boolean canEdit) {
         AlertDialog.Builder builder = new AlertDialog.Builder(context);
         builder.setTitle("Tùy chọn nhiệm vụ");
 
         String[] options;
         if (isAssigner) {
-            options = new String[]{"Xem chi tiết", "Chỉnh sửa", "Phân việc lại", "Xóa nhiệm vụ"};
+            options = new String[]{"Xem chi tiết", "Chỉnh sửa", "Phân việc lại", "Xóa nhiệm vụ", "Thảo luận"};
         } else if (canEdit) {
-            options = new String[]{"Xem chi tiết", "Báo cáo tiến độ", "Yêu cầu chỉnh sửa"};
+            options = new String[]{"Xem chi tiết", "Báo cáo tiến độ", "Yêu cầu chỉnh sửa", "Thảo luận"};
         } else {
-            options = new String[]{"Xem chi tiết"};
+            options = new String[]{"Xem chi tiết", "Thảo luận"};
         }
 
         builder.setItems(options, (dialog, which) -> {
@@ -220,15 +220,17 @@ public class TaskAdapter extends RecyclerView.Adapter<TaskAdapter.TaskViewHolder
                     case 1: action = "EDIT"; break;
                     case 2: action = "REASSIGN"; break;
                     case 3: action = "DELETE"; break;
+                    case 4: action = "OPEN_CHAT"; break;
                 }
             } else if (canEdit) {
                 switch (which) {
                     case 0: action = "VIEW_DETAIL"; break;
                     case 1: action = "REPORT_PROGRESS"; break;
                     case 2: action = "REQUEST_EDIT"; break;
+                    case 3: action = "OPEN_CHAT"; break;
                 }
             } else {
-                action = "VIEW_DETAIL";
+                action = which == 1 ? "OPEN_CHAT" : "VIEW_DETAIL";
             }
 
             // Handle action directly in adapter
@@ -238,7 +240,7 @@ public class TaskAdapter extends RecyclerView.Adapter<TaskAdapter.TaskViewHolder
         builder.create().show();
     }
 
-    private void handleTaskAction(Map<String, Object> task, String action) {
+    private void handleTaskAction(Task task, String action) {
         switch (action) {
             case "VIEW_DETAIL":
                 showTaskDetails(task);
@@ -252,27 +254,27 @@ public class TaskAdapter extends RecyclerView.Adapter<TaskAdapter.TaskViewHolder
             case "DELETE":
                 // Gọi callback để thông báo Activity delete task
                 if (listener != null) {
-                    // Tạo một map để báo hiệu action delete
-                    Map<String, Object> deleteAction = new HashMap<>();
-                    deleteAction.put("action", "DELETE_TASK");
-                    deleteAction.put("taskId", task.get("id"));
-                    deleteAction.put("originalTask", task);
-                    listener.onTaskClick(deleteAction);
+                    listener.onTaskDeleteRequested(task);
                 }
                 break;
             case "REPORT_PROGRESS":
                 showReportProgressDialog(task);
                 break;
+            case "OPEN_CHAT":
+                // Kênh thảo luận riêng của nhiệm vụ
+                context.startActivity(GroupChatActivity.newIntent(context,
+                        FirebaseManager.taskChannelId(task.getId()), task.getTitle()));
+                break;
             case "REQUEST_EDIT":
                 requestEditTask(task);
                 break;
         }
     }
 
-    private void editTask(Map<String, Object> task) {
+    private void editTask(Task task) {
         if (task == null) return;
 
-        String taskId = (String) task.get("id");
+        String taskId = task.getId();
         if (taskId == null) return;
 
         AlertDialog.Builder builder = new AlertDialog.Builder(context);
@@ -289,8 +291,8 @@ public class TaskAdapter extends RecyclerView.Adapter<TaskAdapter.TaskViewHolder
         Button btnCancel = dialogView.findViewById(R.id.btn_cancel);
 
         // Thiết lập dữ liệu hiện tại
-        etTitle.setText((String) task.get("title"));
-        etDescription.setText((String) task.get("description"));
+        etTitle.setText(task.getTitle());
+        etDescription.setText(task.getDescription());
 
         // Thiết lập spinner ưu tiên
         String[] priorities = {"Thấp", "Trung bình", "Cao"};
@@ -300,19 +302,16 @@ public class TaskAdapter extends RecyclerView.Adapter<TaskAdapter.TaskViewHolder
         spPriority.setAdapter(priorityAdapter);
 
         // Chọn priority hiện tại
-        String currentPriority = (String) task.get("priority");
+        Task.Priority currentPriority = task.getPriorityType();
         int priorityIndex = 1; // Mặc định Trung bình
-        if ("low".equals(currentPriority)) priorityIndex = 0;
-        else if ("high".equals(currentPriority)) priorityIndex = 2;
+        if (currentPriority == Task.Priority.LOW) priorityIndex = 0;
+        else if (currentPriority == Task.Priority.HIGH) priorityIndex = 2;
         spPriority.setSelection(priorityIndex);
 
         // Xử lý date
         final Date[] selectedDate = new Date[1];
-        Object dueDateObj = task.get("dueDate");
-        if (dueDateObj instanceof Date) {
-            selectedDate[0] = (Date) dueDateObj;
-        } else if (dueDateObj instanceof com.google.firebase.Timestamp) {
-            selectedDate[0] = ((com.google.firebase.Timestamp) dueDateObj).toDate();
+        if (task.getDueDate() != null) {
+            selectedDate[0] = task.getDueDate();
         } else {
             selectedDate[0] = new Date(); // Mặc định là ngày hiện tại
         }
@@ -357,39 +356,23 @@ public class TaskAdapter extends RecyclerView.Adapter<TaskAdapter.TaskViewHolder
             }
 
             // Lấy priority từ spinner
-            String priority;
+            Task.Priority priority;
             switch (spPriority.getSelectedItemPosition()) {
-                case 0: priority = "low"; break;
-                case 2: priority = "high"; break;
-                default: priority = "medium"; break;
+                case 0: priority = Task.Priority.LOW; break;
+                case 2: priority = Task.Priority.HIGH; break;
+                default: priority = Task.Priority.MEDIUM; break;
             }
 
-            // Tạo Task object mới với dữ liệu đã cập nhật
-            Task updatedTask = new Task();
-            updatedTask.setId(taskId);
-            updatedTask.setTitle(title);
-            updatedTask.setDescription(description);
-            updatedTask.setPriority(priority);
-            updatedTask.setDueDate(selectedDate[0]);
-
-            // Giữ nguyên những thông tin khác
-            updatedTask.setAssignedToUserId((String) task.get("assignedToUserId"));
-            updatedTask.setAssignedToName((String) task.get("assignedToName"));
-            updatedTask.setAssignerUserId((String) task.get("assignerUserId"));
-            updatedTask.setAssignerName((String) task.get("assignerName"));
-            updatedTask.setStatus((String) task.get("status"));
-
-            // Xử lý createdAt
-            Object createdAtObj = task.get("createdAt");
-            if (createdAtObj instanceof Date) {
-                updatedTask.setCreatedAt((Date) createdAtObj);
-            } else if (createdAtObj instanceof com.google.firebase.Timestamp) {
-                updatedTask.setCreatedAt(((com.google.firebase.Timestamp) createdAtObj).toDate());
-            } else {
-                updatedTask.setCreatedAt(new Date());
-            }
-
-            updatedTask.setUpdatedAt(new Date()); // Cập nhật thời gian
+            // Task bất biến: tạo bản mới từ task đang hiển thị, giữ nguyên những thông tin khác
+            Task updatedTask = task.toBuilder()
+                    .setId(taskId)
+                    .setTitle(title)
+                    .setDescription(description)
+                    .setPriorityType(priority)
+                    .setDueDate(selectedDate[0])
+                    .setCreatedAt(task.getCreatedAt() != null ? task.getCreatedAt() : new Date())
+                    .setUpdatedAt(new Date()) // Cập nhật thời gian
+                    .build();
 
             // Cập nhật task qua TaskViewModel
             TaskViewModel taskViewModel = new ViewModelProvider((FragmentActivity) context).get(TaskViewModel.class);
@@ -404,10 +387,10 @@ public class TaskAdapter extends RecyclerView.Adapter<TaskAdapter.TaskViewHolder
         dialog.show();
     }
 
-    private void reassignTask(Map<String, Object> task) {
+    private void reassignTask(Task task) {
         if (task == null) return;
 
-        String taskId = (String) task.get("id");
+        String taskId = task.getId();
         if (taskId == null) return;
 
         // Sử dụng dialog tùy chỉnh UserSelectionDialog đã có trong ứng dụng của bạn
@@ -427,11 +410,11 @@ public class TaskAdapter extends RecyclerView.Adapter<TaskAdapter.TaskViewHolder
         dialog.show();
     }
 
-    private void showReportProgressDialog(Map<String, Object> task) {
+    private void showReportProgressDialog(Task task) {
         if (task == null) return;
 
-        String taskId = (String) task.get("id");
-        String currentStatus = (String) task.get("status");
+        String taskId = task.getId();
+        Task.Status currentStatus = task.getStatusType();
         if (taskId == null) return;
 
         AlertDialog.Builder builder = new AlertDialog.Builder(context);
@@ -453,22 +436,22 @@ public class TaskAdapter extends RecyclerView.Adapter<TaskAdapter.TaskViewHolder
 
         // Chọn trạng thái hiện tại
         int statusIndex = 0;
-        if ("in_progress".equals(currentStatus)) statusIndex = 1;
-        else if ("completed".equals(currentStatus)) statusIndex = 2;
+        if (currentStatus == Task.Status.IN_PROGRESS) statusIndex = 1;
+        else if (currentStatus == Task.Status.COMPLETED) statusIndex = 2;
         spStatus.setSelection(statusIndex);
 
         builder.setPositiveButton("Cập nhật", (dialog, which) -> {
             String comment = etComment.getText().toString().trim();
-            String newStatus;
+            Task.Status newStatus;
             switch (spStatus.getSelectedItemPosition()) {
-                case 1: newStatus = "in_progress"; break;
-                case 2: newStatus = "completed"; break;
-                default: newStatus = "pending"; break;
+                case 1: newStatus = Task.Status.IN_PROGRESS; break;
+                case 2: newStatus = Task.Status.COMPLETED; break;
+                default: newStatus = Task.Status.PENDING; break;
             }
 
             // Cập nhật trạng thái task
             TaskViewModel taskViewModel = new ViewModelProvider((FragmentActivity) context).get(TaskViewModel.class);
-            taskViewModel.updateTaskStatus(taskId, newStatus);
+            taskViewModel.updateTaskStatus(taskId, newStatus.getValue());
 
             // Thêm comment nếu có
             if (!comment.isEmpty()) {
@@ -482,11 +465,11 @@ public class TaskAdapter extends RecyclerView.Adapter<TaskAdapter.TaskViewHolder
         builder.show();
     }
 
-    private void requestEditTask(Map<String, Object> task) {
+    private void requestEditTask(Task task) {
         if (task == null) return;
 
-        String taskId = (String) task.get("id");
-        String assignerUserId = (String) task.get("assignerUserId");
+        String taskId = task.getId();
+        String assignerUserId = task.getAssignerUserId();
         if (taskId == null || assignerUserId == null) return;
 
         AlertDialog.Builder builder = new AlertDialog.Builder(context);
@@ -525,26 +508,22 @@ public class TaskAdapter extends RecyclerView.Adapter<TaskAdapter.TaskViewHolder
         builder.show();
     }
 
-    private void showTaskDetails(Map<String, Object> task) {
+    private void showTaskDetails(Task task) {
         AlertDialog.Builder builder = new AlertDialog.Builder(context);
         builder.setTitle("Chi tiết nhiệm vụ");
 
         StringBuilder details = new StringBuilder();
-        details.append("Tiêu đề: ").append(task.get("title")).append("\n\n");
-        details.append("Mô tả: ").append(task.get("description")).append("\n\n");
-        details.append("Phụ trách: ").append(task.get("assignedToName")).append("\n");
-        details.append("Phân việc bởi: ").append(task.get("assignerName")).append("\n");
-        details.append("Mức độ: ").append(getPriorityText((String) task.get("priority"))).append("\n");
-        details.append("Trạng thái: ").append(getStatusText((String) task.get("status"))).append("\n");
+        details.append("Tiêu đề: ").append(task.getTitle()).append("\n\n");
+        details.append("Mô tả: ").append(task.getDescription()).append("\n\n");
+        details.append("Phụ trách: ").append(task.getAssignedToName()).append("\n");
+        details.append("Phân việc bởi: ").append(task.getAssignerName()).append("\n");
+        details.append("Mức độ: ").append(getPriorityText(task.getPriorityType())).append("\n");
+        details.append("Trạng thái: ").append(getStatusText(task.getStatusType())).append("\n");
 
         // Add due date
-        Object dueDate = task.get("dueDate");
-        if (dueDate instanceof Date) {
-            SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy", Locale.getDefault());
-            details.append("Hạn chót: ").append(dateFormat.format((Date) dueDate)).append("\n");
-        } else if (dueDate instanceof com.google.firebase.Timestamp) {
-            SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy", Locale.getDefault());
-            details.append("Hạn chót: ").append(dateFormat.format(((com.google.firebase.Timestamp) dueDate).toDate())).append("\n");
+        Date dueDate = task.getDueDate();
+        if (dueDate != null) {
+            details.append("Hạn chót: ").append(dateFormat.format(dueDate)).append("\n");
         }
 
         builder.setMessage(details.toString());
@@ -574,23 +553,22 @@ public class TaskAdapter extends RecyclerView.Adapter<TaskAdapter.TaskViewHolder
     }
 
     // Helper methods cho display
-    private String getPriorityText(String priority) {
+    private String getPriorityText(Task.Priority priority) {
         if (priority == null) return "Trung bình";
         switch (priority) {
-            case "low": return "Thấp";
-            case "medium": return "Trung bình";
-            case "high": return "Cao";
+            case LOW: return "Thấp";
+            case HIGH: return "Cao";
             default: return "Trung bình";
         }
     }
 
-    private void setPriorityColor(TextView tvPriority, String priority) {
+    private void setPriorityColor(TextView tvPriority, Task.Priority priority) {
         int color;
         switch (priority) {
-            case "high":
+            case HIGH:
                 color = ContextCompat.getColor(context, R.color.priority_high);
                 break;
-            case "low":
+            case LOW:
                 color = ContextCompat.getColor(context, R.color.priority_low);
                 break;
             default:
@@ -601,23 +579,22 @@ public class TaskAdapter extends RecyclerView.Adapter<TaskAdapter.TaskViewHolder
         tvPriority.setTextColor(ContextCompat.getColor(context, android.R.color.white));
     }
 
-    private String getStatusText(String status) {
+    private String getStatusText(Task.Status status) {
         if (status == null) return "Chờ xử lý";
         switch (status) {
-            case "pending": return "Chờ xử lý";
-            case "in_progress": return "Đang thực hiện";
-            case "completed": return "Hoàn thành";
+            case IN_PROGRESS: return "Đang thực hiện";
+            case COMPLETED: return "Hoàn thành";
             default: return "Chờ xử lý";
         }
     }
 
-    private void setStatusColor(TextView tvStatus, String status) {
+    private void setStatusColor(TextView tvStatus, Task.Status status) {
         int color;
         switch (status) {
-            case "completed":
+            case COMPLETED:
                 color = ContextCompat.getColor(context, R.color.status_completed);
                 break;
-            case "in_progress":
+            case IN_PROGRESS:
                 color = ContextCompat.getColor(context, R.color.status_in_progress);
                 break;
             default:
@@ -633,6 +610,29 @@ public class TaskAdapter extends RecyclerView.Adapter<TaskAdapter.TaskViewHolder
         return taskList != null ? taskList.size() : 0;
     }
 
+    /**
+     * Thông báo cho RecyclerView từng thay đổi thay vì notifyDataSetChanged().
+     * taskList phải đã được cập nhật sang trạng thái sau các thay đổi.
+     */
+    public void applyChanges(List<TaskSnapshotIndex.Change> changes) {
+        for (TaskSnapshotIndex.Change change : changes) {
+            switch (change.getType()) {
+                case ADDED:
+                    notifyItemInserted(change.getNewPosition());
+                    break;
+                case REMOVED:
+                    notifyItemRemoved(change.getOldPosition());
+                    break;
+                case MODIFIED:
+                    if (change.getOldPosition() != change.getNewPosition()) {
+                        notifyItemMoved(change.getOldPosition(), change.getNewPosition());
+                    }
+                    notifyItemChanged(change.getNewPosition());
+                    break;
+            }
+        }
+    }
+
     // Filter methods
     public void filterMyTasks(boolean showOnlyMyTasks) {
         String currentUserId = getCurrentUserId();
@@ -1,17 +1,25 @@
 package com.example.projectmanager.models;
 
+import com.example.projectmanager.utils.Money;
+
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
- * Model class for Budget with Firestore Timestamp handling
+ * Model class for Budget with Firestore Timestamp handling.
+ * The amount is a long in minor units (see Money); documents written before that only have a double
+ * "amount" field, which is converted on read.
  */
 public class Budget {
+    public static final String FIELD_AMOUNT_MINOR = "amountMinor";
+    // Legacy double amount, still written so older app versions keep showing the right value
+    public static final String FIELD_LEGACY_AMOUNT = "amount";
+
     private String id;
     private String title;
     private String description;
-    private double amount;
+    private long amountMinor;
     private String category;
     private String userId;
     private boolean approved;
@@ -25,10 +33,10 @@ public class Budget {
         this.updatedAt = new Date();
     }
 
-    public Budget(String title, double amount, String description, String category, String userId, boolean approved) {
+    public Budget(String title, long amountMinor, String description, String category, String userId, boolean approved) {
         this();
         this.title = title;
-        this.amount = amount;
+        this.amountMinor = amountMinor;
         this.description = description;
         this.category = category;
         this.userId = userId;
@@ -45,8 +53,8 @@ public class Budget {
     public String getDescription() { return description; }
     public void setDescription(String description) { this.description = description; }
 
-    public double getAmount() { return amount; }
-    public void setAmount(double amount) { this.amount = amount; }
+    public long getAmountMinor() { return amountMinor; }
+    public void setAmountMinor(long amountMinor) { this.amountMinor = amountMinor; }
 
     public String getCategory() { return category; }
     public void setCategory(String category) { this.category = category; }
@@ -69,7 +77,8 @@ public class Budget {
         result.put("id", id);
         result.put("title", title);
         result.put("description", description);
-        result.put("amount", amount);
+        result.put(FIELD_AMOUNT_MINOR, amountMinor);
+        result.put(FIELD_LEGACY_AMOUNT, Money.toDouble(amountMinor));
         result.put("category", category);
         result.put("userId", userId);
         result.put("approved", approved);
@@ -87,11 +96,7 @@ public class Budget {
         budget.setCategory((String) map.get("category"));
         budget.setUserId((String) map.get("userId"));
 
-        // Handle amount
-        Object amountObj = map.get("amount");
-        if (amountObj instanceof Number) {
-            budget.setAmount(((Number) amountObj).doubleValue());
-        }
+        budget.setAmountMinor(amountMinorOf(map));
 
         // Handle approved
         Object approvedObj = map.get("approved");
@@ -117,4 +122,11 @@ public class Budget {
 
         return budget;
     }
-}
\ No newline at end of file
+
+    /**
+     * Amount in minor units of a budget map, falling back to the legacy double field
+     */
+    public static long amountMinorOf(Map<String, Object> map) {
+        return Money.readMinor(map, FIELD_AMOUNT_MINOR, FIELD_LEGACY_AMOUNT);
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.projectmanager.models;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tổng ngân sách cộng dồn theo danh mục × trạng thái duyệt × người tạo.
+ * Mỗi khoản được ghi nhớ phần đóng góp của nó, nên thêm / sửa / duyệt / hủy duyệt / xóa một khoản chỉ
+ * trừ phần cũ và cộng phần mới, không phải duyệt lại cả danh sách. Số tiền là minor unit (xem Money),
+ * nên cộng trừ bao nhiêu lần cũng không bị lệch. Dùng trên main thread.
+ */
+public class BudgetAggregate {
+
+    public static final String[] CATEGORIES = {"human_resource", "equipment", "material", "other"};
+    public static final int CATEGORY_COUNT = CATEGORIES.length;
+    private static final int OTHER = CATEGORY_COUNT - 1;
+
+    private static final int PENDING = 0;
+    private static final int APPROVED = 1;
+
+    // Phần đóng góp hiện tại của một khoản ngân sách
+    private static class Contribution {
+        final int category;
+        final boolean approved;
+        final String userId;
+        final long amount;
+
+        Contribution(int category, boolean approved, String userId, long amount) {
+            this.category = category;
+            this.approved = approved;
+            this.userId = userId;
+            this.amount = amount;
+        }
+    }
+
+    private final Map<String, Contribution> contributions = new HashMap<>();
+    // [danh mục][PENDING/APPROVED]
+    private final long[][] totals = new long[CATEGORY_COUNT][2];
+    private final int[][] counts = new int[CATEGORY_COUNT][2];
+    private final Map<String, long[][]> userTotals = new HashMap<>();
+
+    /**
+     * Vị trí danh mục trong CATEGORIES; danh mục lạ tính vào "other"
+     */
+    public static int categoryIndex(String category) {
+        if (category != null) {
+            for (int i = 0; i < CATEGORY_COUNT; i++) {
+                if (CATEGORIES[i].equals(category)) return i;
+            }
+        }
+        return OTHER;
+    }
+
+    /**
+     * Thêm hoặc thay thế một khoản (dạng Map của Firestore, có "id")
+     */
+    public void put(Map<String, Object> budget) {
+        put((String) budget.get("id"), (String) budget.get("category"),
+                Boolean.TRUE.equals(budget.get("approved")), (String) budget.get("userId"),
+                Budget.amountMinorOf(budget));
+    }
+
+    public void put(String budgetId, String category, boolean approved, String userId, long amountMinor) {
+        if (budgetId == null) return;
+        remove(budgetId);
+        Contribution contribution = new Contribution(categoryIndex(category), approved, userId, amountMinor);
+        contributions.put(budgetId, contribution);
+        apply(contribution, 1);
+    }
+
+    /**
+     * Đổi trạng thái duyệt của một khoản đã có
+     */
+    public void setApproved(String budgetId, boolean approved) {
+        Contribution current = contributions.get(budgetId);
+        if (current == null || current.approved == approved) return;
+        put(budgetId, CATEGORIES[current.category], approved, current.userId, current.amount);
+    }
+
+    public void remove(String budgetId) {
+        Contribution previous = contributions.remove(budgetId);
+        if (previous != null) {
+            apply(previous, -1);
+        }
+    }
+
+    public void clear() {
+        contributions.clear();
+        userTotals.clear();
+        for (int i = 0; i < CATEGORY_COUNT; i++) {
+            totals[i][PENDING] = totals[i][APPROVED] = 0;
+            counts[i][PENDING] = counts[i][APPROVED] = 0;
+        }
+    }
+
+    /**
+     * Số liệu tổng hợp dựng từ các document budget_rollups: "category_*" cho từng danh mục, "project" cho
+     * tổng toàn dự án (nếu thiếu thì cộng từ các danh mục). Rollup không tách theo người tạo nên
+     * getUserTotal luôn trả về 0.
+     */
+    public static Snapshot fromRollups(List<Map<String, Object>> rollups) {
+        long[][] totals = new long[CATEGORY_COUNT][2];
+        int[][] counts = new int[CATEGORY_COUNT][2];
+        Map<String, Object> project = null;
+
+        for (Map<String, Object> rollup : rollups) {
+            Object scope = rollup.get("scope");
+            if ("project".equals(scope)) {
+                project = rollup;
+            } else if ("category".equals(scope)) {
+                int category = categoryIndex((String) rollup.get("key"));
+                long amount = number(rollup, "amountMinor");
+                long approvedAmount = number(rollup, "approvedAmountMinor");
+                long count = number(rollup, "count");
+                long approvedCount = number(rollup, "approvedCount");
+                totals[category][APPROVED] += approvedAmount;
+                totals[category][PENDING] += amount - approvedAmount;
+                counts[category][APPROVED] += (int) approvedCount;
+                counts[category][PENDING] += (int) (count - approvedCount);
+            }
+        }
+
+        Snapshot snapshot = new Snapshot(totals, counts, new HashMap<>());
+        if (project == null) return snapshot;
+        long approvedAmount = number(project, "approvedAmountMinor");
+        return new Snapshot(totals, counts, new HashMap<>(), approvedAmount,
+                number(project, "amountMinor") - approvedAmount, (int) number(project, "count"));
+    }
+
+    private static long number(Map<String, Object> document, String field) {
+        Object value = document.get(field);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    /**
+     * Bản sao bất biến O(số danh mục) để giao cho UI
+     */
+    public Snapshot snapshot() {
+        Map<String, long[][]> users = new HashMap<>(userTotals.size());
+        for (Map.Entry<String, long[][]> entry : userTotals.entrySet()) {
+            users.put(entry.getKey(), copy(entry.getValue()));
+        }
+        return new Snapshot(copy(totals), copyCounts(), users);
+    }
+
+    private void apply(Contribution contribution, int sign) {
+        int state = contribution.approved ? APPROVED : PENDING;
+        totals[contribution.category][state] += sign * contribution.amount;
+        counts[contribution.category][state] += sign;
+
+        if (contribution.userId != null) {
+            long[][] user = userTotals.get(contribution.userId);
+            if (user == null) {
+                user = new long[CATEGORY_COUNT][2];
+                userTotals.put(contribution.userId, user);
+            }
+            user[contribution.category][state] += sign * contribution.amount;
+        }
+    }
+
+    private int[][] copyCounts() {
+        int[][] result = new int[CATEGORY_COUNT][];
+        for (int i = 0; i < CATEGORY_COUNT; i++) {
+            result[i] = counts[i].clone();
+        }
+        return result;
+    }
+
+    private static long[][] copy(long[][] values) {
+        long[][] result = new long[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = values[i].clone();
+        }
+        return result;
+    }
+
+    /**
+     * Số liệu tổng hợp tại một thời điểm, số tiền theo minor unit
+     */
+    public static final class Snapshot {
+        private final long[][] totals;
+        private final int[][] counts;
+        private final Map<String, long[][]> userTotals;
+        // Tổng toàn bộ; thường bằng tổng các danh mục, riêng bản dựng từ rollup lấy từ document "project"
+        private final long approvedTotal;
+        private final long pendingTotal;
+        private final int count;
+
+        Snapshot(long[][] totals, int[][] counts, Map<String, long[][]> userTotals) {
+            this(totals, counts, userTotals, sum(totals, APPROVED), sum(totals, PENDING), sum(counts));
+        }
+
+        Snapshot(long[][] totals, int[][] counts, Map<String, long[][]> userTotals,
+                 long approvedTotal, long pendingTotal, int count) {
+            this.totals = totals;
+            this.counts = counts;
+            this.userTotals = userTotals;
+            this.approvedTotal = approvedTotal;
+            this.pendingTotal = pendingTotal;
+            this.count = count;
+        }
+
+        private static long sum(long[][] values, int state) {
+            long sum = 0;
+            for (int i = 0; i < CATEGORY_COUNT; i++) sum += values[i][state];
+            return sum;
+        }
+
+        private static int sum(int[][] values) {
+            int sum = 0;
+            for (int i = 0; i < CATEGORY_COUNT; i++) sum += values[i][APPROVED] + values[i][PENDING];
+            return sum;
+        }
+
+        public long getTotal() {
+            return approvedTotal + pendingTotal;
+        }
+
+        public long getApprovedTotal() {
+            return approvedTotal;
+        }
+
+        public long getPendingTotal() {
+            return pendingTotal;
+        }
+
+        public long getCategoryTotal(int category) {
+            return totals[category][APPROVED] + totals[category][PENDING];
+        }
+
+        public long getApprovedTotal(int category) {
+            return totals[category][APPROVED];
+        }
+
+        public long getPendingTotal(int category) {
+            return totals[category][PENDING];
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Tổng các khoản của một người, 0 nếu người đó chưa có khoản nào
+         */
+        public long getUserTotal(String userId, boolean approvedOnly) {
+            long[][] user = userTotals.get(userId);
+            if (user == null) return 0;
+            long sum = 0;
+            for (int i = 0; i < CATEGORY_COUNT; i++) {
+                sum += user[i][APPROVED] + (approvedOnly ? 0 : user[i][PENDING]);
+            }
+            return sum;
+        }
+    }
+}
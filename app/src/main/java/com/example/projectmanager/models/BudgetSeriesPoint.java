@@ -0,0 +1,44 @@
+package com.example.projectmanager.models;
+
+import java.util.Date;
+
+/**
+ * Một điểm của biểu đồ chi tiêu theo thời gian: tổng mỗi danh mục trong một khoảng ngày/tuần/tháng.
+ * Khoảng không có khoản nào vẫn có điểm với giá trị 0.
+ */
+public class BudgetSeriesPoint {
+    private final Date bucketStart;
+    // Theo thứ tự BudgetAggregate.CATEGORIES, minor unit (xem Money)
+    private final long[] amounts;
+    private final long count;
+
+    public BudgetSeriesPoint(Date bucketStart, long[] amounts, long count) {
+        this.bucketStart = bucketStart;
+        this.amounts = amounts;
+        this.count = count;
+    }
+
+    public static BudgetSeriesPoint empty(Date bucketStart) {
+        return new BudgetSeriesPoint(bucketStart, new long[BudgetAggregate.CATEGORY_COUNT], 0);
+    }
+
+    public Date getBucketStart() {
+        return bucketStart;
+    }
+
+    public long getAmount(int category) {
+        return amounts[category];
+    }
+
+    public long getTotal() {
+        long total = 0;
+        for (long amount : amounts) {
+            total += amount;
+        }
+        return total;
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.projectmanager.models;
+
+import com.google.firebase.Timestamp;
+
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Danh sách ngân sách dạng cột: mỗi field sắp xếp / vẽ biểu đồ là một mảng nguyên thủy, dòng i của mọi
+ * mảng là cùng một khoản. Dựng được ở background thread; sắp xếp chỉ đổi thứ tự trong getOrder(),
+ * còn Budget của một dòng chỉ được tạo khi cần hiển thị. Sau khi dựng xong thì chỉ dùng trên main thread.
+ */
+public class BudgetTable {
+    /** createdAtMillis của khoản không có ngày tạo */
+    public static final long NO_DATE = Long.MIN_VALUE;
+
+    private final List<Map<String, Object>> rows;
+    private final String[] ids;
+    private final long[] amounts;
+    private final long[] createdAtMillis;
+    private final byte[] categories;
+    private final BitSet approved;
+
+    // Vị trí hiển thị -> dòng
+    private final int[] order;
+    // Bộ đệm khóa sắp xếp theo dòng, dùng lại giữa các lần sắp xếp
+    private final long[] sortKeys;
+    private final Budget[] budgets;
+
+    private BudgetTable(List<Map<String, Object>> rows) {
+        int size = rows.size();
+        this.rows = rows;
+        ids = new String[size];
+        amounts = new long[size];
+        createdAtMillis = new long[size];
+        categories = new byte[size];
+        approved = new BitSet(size);
+        order = new int[size];
+        sortKeys = new long[size];
+        budgets = new Budget[size];
+    }
+
+    /**
+     * Dựng bảng từ dữ liệu Firestore, giữ nguyên thứ tự của danh sách
+     *
+     * @param budgets danh sách sẽ không bị sửa sau đó (truyền bản sao nếu cần)
+     */
+    public static BudgetTable of(List<Map<String, Object>> budgets) {
+        BudgetTable table = new BudgetTable(budgets);
+        for (int row = 0; row < budgets.size(); row++) {
+            Map<String, Object> budget = budgets.get(row);
+            table.ids[row] = (String) budget.get("id");
+            table.amounts[row] = Budget.amountMinorOf(budget);
+            table.createdAtMillis[row] = millisOf(budget.get("createdAt"));
+            table.categories[row] = (byte) BudgetAggregate.categoryIndex((String) budget.get("category"));
+            if (Boolean.TRUE.equals(budget.get("approved"))) {
+                table.approved.set(row);
+            }
+            table.order[row] = row;
+        }
+        return table;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public String getId(int row) {
+        return ids[row];
+    }
+
+    public long getAmountMinor(int row) {
+        return amounts[row];
+    }
+
+    /**
+     * NO_DATE nếu khoản không có ngày tạo
+     */
+    public long getCreatedAtMillis(int row) {
+        return createdAtMillis[row];
+    }
+
+    /**
+     * Vị trí danh mục trong BudgetAggregate.CATEGORIES
+     */
+    public int getCategory(int row) {
+        return categories[row];
+    }
+
+    public boolean isApproved(int row) {
+        return approved.get(row);
+    }
+
+    /**
+     * Thứ tự hiển thị hiện tại (order[vị trí] = dòng); BudgetSorter sắp xếp trực tiếp trên mảng này
+     */
+    public int[] getOrder() {
+        return order;
+    }
+
+    /**
+     * Bộ đệm một khóa cho mỗi dòng, chỉ BudgetSorter dùng
+     */
+    public long[] getSortKeys() {
+        return sortKeys;
+    }
+
+    /**
+     * Dòng của khoản có id, -1 nếu không có
+     */
+    public int rowOf(String budgetId) {
+        if (budgetId == null) return -1;
+        for (int row = 0; row < ids.length; row++) {
+            if (budgetId.equals(ids[row])) return row;
+        }
+        return -1;
+    }
+
+    /**
+     * Budget của một dòng, tạo ở lần gọi đầu tiên
+     */
+    public Budget getBudget(int row) {
+        Budget budget = budgets[row];
+        if (budget == null) {
+            budget = Budget.fromMap(rows.get(row));
+            budgets[row] = budget;
+        }
+        return budget;
+    }
+
+    /**
+     * Danh sách chỉ đọc theo thứ tự hiển thị, luôn phản ánh lần sắp xếp mới nhất
+     */
+    public List<Budget> asList() {
+        return new AbstractList<Budget>() {
+            @Override
+            public Budget get(int position) {
+                return getBudget(order[position]);
+            }
+
+            @Override
+            public int size() {
+                return order.length;
+            }
+        };
+    }
+
+    private static long millisOf(Object value) {
+        if (value instanceof Timestamp) return ((Timestamp) value).toDate().getTime();
+        if (value instanceof Date) return ((Date) value).getTime();
+        return NO_DATE;
+    }
+}
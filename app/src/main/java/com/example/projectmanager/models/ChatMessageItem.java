@@ -0,0 +1,109 @@
+package com.example.projectmanager.models;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Dữ liệu hiển thị của một tin nhắn, đã được tính sẵn (ngoài main thread) từ Map của Firestore
+ * để ChatAdapter chỉ việc gán vào view. Bất biến; nhãn thời gian phụ thuộc ngày hiện tại nên
+ * được tính lại khi sang ngày mới.
+ */
+public final class ChatMessageItem {
+
+    public enum AttachmentKind {
+        NONE,
+        IMAGE,
+        FILE
+    }
+
+    private final String id;
+    private final String content;
+    private final String senderName;
+    // 0 khi timestamp của server chưa về (tin vừa gửi)
+    private final long timestampMillis;
+    private final String timeLabel;
+    // Tin đầu tiên của một ngày: hiện dòng phân cách dayLabel phía trên
+    private final boolean showDaySeparator;
+    private final String dayLabel;
+    private final boolean mine;
+    private final AttachmentKind attachmentKind;
+    private final String attachmentUrl;
+    private final String attachmentName;
+    // Ảnh nhỏ để hiển thị trong danh sách, null thì dùng attachmentUrl
+    private final String thumbnailUrl;
+
+    public ChatMessageItem(String id, String content, String senderName, long timestampMillis,
+                           String timeLabel, boolean showDaySeparator, String dayLabel, boolean mine,
+                           AttachmentKind attachmentKind, String attachmentUrl, String attachmentName,
+                           String thumbnailUrl) {
+        this.id = id;
+        this.content = content;
+        this.senderName = senderName;
+        this.timestampMillis = timestampMillis;
+        this.timeLabel = timeLabel;
+        this.showDaySeparator = showDaySeparator;
+        this.dayLabel = dayLabel;
+        this.mine = mine;
+        this.attachmentKind = attachmentKind;
+        this.attachmentUrl = attachmentUrl;
+        this.attachmentName = attachmentName;
+        this.thumbnailUrl = thumbnailUrl;
+    }
+
+    /**
+     * Bản sao với cờ phân cách ngày khác (cờ phụ thuộc tin đứng trước trong danh sách)
+     */
+    public ChatMessageItem withDaySeparator(boolean showDaySeparator) {
+        if (this.showDaySeparator == showDaySeparator) return this;
+        return new ChatMessageItem(id, content, senderName, timestampMillis, timeLabel, showDaySeparator,
+                dayLabel, mine, attachmentKind, attachmentUrl, attachmentName, thumbnailUrl);
+    }
+
+    public String getId() { return id; }
+    public String getContent() { return content; }
+    public String getSenderName() { return senderName; }
+    public long getTimestampMillis() { return timestampMillis; }
+    public String getTimeLabel() { return timeLabel; }
+    public boolean isShowDaySeparator() { return showDaySeparator; }
+    public String getDayLabel() { return dayLabel; }
+    public boolean isMine() { return mine; }
+    public AttachmentKind getAttachmentKind() { return attachmentKind; }
+    public String getAttachmentUrl() { return attachmentUrl; }
+    public String getAttachmentName() { return attachmentName; }
+    public String getThumbnailUrl() { return thumbnailUrl; }
+
+    /**
+     * Các phần hiển thị khác nhau giữa hai phiên bản của cùng một tin, dùng làm payload cho DiffUtil
+     */
+    public Set<String> changedParts(ChatMessageItem other) {
+        Set<String> parts = new HashSet<>();
+        if (!equal(content, other.content)) parts.add("content");
+        if (!equal(timeLabel, other.timeLabel)) parts.add("time");
+        if (showDaySeparator != other.showDaySeparator || !equal(dayLabel, other.dayLabel)) parts.add("day");
+        if (mine != other.mine || !equal(senderName, other.senderName)) parts.add("sender");
+        if (attachmentKind != other.attachmentKind || !equal(attachmentUrl, other.attachmentUrl)
+                || !equal(attachmentName, other.attachmentName) || !equal(thumbnailUrl, other.thumbnailUrl)) {
+            parts.add("attachment");
+        }
+        return parts;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ChatMessageItem)) return false;
+        ChatMessageItem other = (ChatMessageItem) o;
+        return timestampMillis == other.timestampMillis
+                && equal(id, other.id)
+                && changedParts(other).isEmpty();
+    }
+
+    @Override
+    public int hashCode() {
+        return id != null ? id.hashCode() : 0;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -19,6 +19,10 @@ public class Message {
     private String attachmentName;
     private String attachmentType; // "image", "document", "video", etc.
     private long attachmentSize;
+    // Ảnh nhỏ của attachment hình ảnh, null nếu không có
+    private String thumbnailUrl;
+    // Hash của blob trong AttachmentBlobRepository; tin nhắn giữ một tham chiếu tới tệp
+    private String attachmentHash;
 
     // Default constructor for Firebase
     public Message() {
@@ -63,6 +67,12 @@ public class Message {
             map.put("attachmentName", attachmentName);
             map.put("attachmentType", attachmentType);
             map.put("attachmentSize", attachmentSize);
+            if (thumbnailUrl != null) {
+                map.put("thumbnailUrl", thumbnailUrl);
+            }
+            if (attachmentHash != null) {
+                map.put("attachmentHash", attachmentHash);
+            }
         }
 
         return map;
@@ -141,6 +151,22 @@ public class Message {
         this.attachmentSize = attachmentSize;
     }
 
+    public String getThumbnailUrl() {
+        return thumbnailUrl;
+    }
+
+    public void setThumbnailUrl(String thumbnailUrl) {
+        this.thumbnailUrl = thumbnailUrl;
+    }
+
+    public String getAttachmentHash() {
+        return attachmentHash;
+    }
+
+    public void setAttachmentHash(String attachmentHash) {
+        this.attachmentHash = attachmentHash;
+    }
+
     public boolean hasAttachment() {
         return attachmentUrl != null && !attachmentUrl.isEmpty();
     }
@@ -6,58 +6,248 @@ import java.util.Map;
 
 /**
  * Task model class with all required methods for TaskRepository
+ *
+ * Task đọc từ Firestore (qua TaskDecoder) được dùng chung giữa các màn hình nên bất biến:
+ * muốn sửa thì tạo bản mới bằng toBuilder().
  */
 public class Task {
-    private String id;
-    private String title;
-    private String description;
-    private String assignedToUserId;
-    private String assignedToName;
-    private String assignerUserId;
-    private String assignerName;
-    private String status; // pending, in_progress, completed
-    private String priority; // low, medium, high
-    private Date dueDate;
-    private Date createdAt;
-    private Date updatedAt;
-    private String attachmentUrl;
-    private String attachmentName;
-
-    // Default constructor
-    public Task() {
-        this.createdAt = new Date();
-        this.updatedAt = new Date();
-        this.status = "pending";
-        this.priority = "medium";
-    }
-
-    // Constructor with basic fields
-    public Task(String title, String description, String assignedToUserId, String assignedToName,
-                Date dueDate, String priority) {
-        this();
-        this.title = title;
-        this.description = description;
-        this.assignedToUserId = assignedToUserId;
-        this.assignedToName = assignedToName;
-        this.dueDate = dueDate;
-        this.priority = priority;
-    }
-
-    // Constructor with all fields
-    public Task(String title, String description, String assignedToUserId, String assignedToName,
-                String assignerUserId, String assignerName, String status, String priority,
-                Date dueDate, Date createdAt, Date updatedAt) {
-        this.title = title;
-        this.description = description;
-        this.assignedToUserId = assignedToUserId;
-        this.assignedToName = assignedToName;
-        this.assignerUserId = assignerUserId;
-        this.assignerName = assignerName;
-        this.status = status != null ? status : "pending";
-        this.priority = priority != null ? priority : "medium";
-        this.dueDate = dueDate;
-        this.createdAt = createdAt != null ? createdAt : new Date();
-        this.updatedAt = updatedAt != null ? updatedAt : new Date();
+
+    public enum Status {
+        PENDING("pending", 1),
+        IN_PROGRESS("in_progress", 2),
+        COMPLETED("completed", 3);
+
+        private final String value;
+        private final int rank;
+
+        Status(String value, int rank) {
+            this.value = value;
+            this.rank = rank;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        // Thứ tự dùng khi sắp xếp theo trạng thái
+        public int getRank() {
+            return rank;
+        }
+
+        public static Status fromValue(String value) {
+            if (value == null) return PENDING;
+            switch (value) {
+                case "in_progress": return IN_PROGRESS;
+                case "completed": return COMPLETED;
+                default: return PENDING;
+            }
+        }
+    }
+
+    public enum Priority {
+        LOW("low", 1),
+        MEDIUM("medium", 2),
+        HIGH("high", 3);
+
+        private final String value;
+        private final int rank;
+
+        Priority(String value, int rank) {
+            this.value = value;
+            this.rank = rank;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        // Thứ tự dùng khi sắp xếp theo mức độ ưu tiên
+        public int getRank() {
+            return rank;
+        }
+
+        public static Priority fromValue(String value) {
+            if (value == null) return MEDIUM;
+            switch (value) {
+                case "low": return LOW;
+                case "high": return HIGH;
+                default: return MEDIUM;
+            }
+        }
+    }
+
+    private final String id;
+    private final String title;
+    private final String description;
+    private final String assignedToUserId;
+    private final String assignedToName;
+    private final String assignerUserId;
+    private final String assignerName;
+    private final Status status; // pending, in_progress, completed
+    private final Priority priority; // low, medium, high
+    private final Date dueDate;
+    private final Date createdAt;
+    private final Date updatedAt;
+    private final String attachmentUrl;
+    private final String attachmentName;
+    // Hash của blob trong AttachmentBlobRepository mà task giữ tham chiếu, null nếu không có
+    private final String attachmentHash;
+
+    private Task(Builder builder) {
+        this.id = builder.id;
+        this.title = builder.title;
+        this.description = builder.description;
+        this.assignedToUserId = builder.assignedToUserId;
+        this.assignedToName = builder.assignedToName;
+        this.assignerUserId = builder.assignerUserId;
+        this.assignerName = builder.assignerName;
+        this.status = builder.status;
+        this.priority = builder.priority;
+        this.dueDate = builder.dueDate;
+        this.createdAt = builder.createdAt;
+        this.updatedAt = builder.updatedAt;
+        this.attachmentUrl = builder.attachmentUrl;
+        this.attachmentName = builder.attachmentName;
+        this.attachmentHash = builder.attachmentHash;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Builder bắt đầu từ các giá trị của task này, dùng để tạo bản đã sửa
+     */
+    public Builder toBuilder() {
+        return new Builder()
+                .setId(id)
+                .setTitle(title)
+                .setDescription(description)
+                .setAssignedToUserId(assignedToUserId)
+                .setAssignedToName(assignedToName)
+                .setAssignerUserId(assignerUserId)
+                .setAssignerName(assignerName)
+                .setStatusType(status)
+                .setPriorityType(priority)
+                .setDueDate(dueDate)
+                .setCreatedAt(createdAt)
+                .setUpdatedAt(updatedAt)
+                .setAttachmentUrl(attachmentUrl)
+                .setAttachmentName(attachmentName)
+                .setAttachmentHash(attachmentHash);
+    }
+
+    /**
+     * Tạo Task; mặc định trạng thái PENDING, ưu tiên MEDIUM, createdAt/updatedAt là thời điểm tạo builder
+     */
+    public static final class Builder {
+        private String id;
+        private String title;
+        private String description;
+        private String assignedToUserId;
+        private String assignedToName;
+        private String assignerUserId;
+        private String assignerName;
+        private Status status = Status.PENDING;
+        private Priority priority = Priority.MEDIUM;
+        private Date dueDate;
+        private Date createdAt = new Date();
+        private Date updatedAt = new Date();
+        private String attachmentUrl;
+        private String attachmentName;
+        private String attachmentHash;
+
+        private Builder() {
+        }
+
+        public Builder setId(String id) {
+            this.id = id;
+            return this;
+        }
+
+        public Builder setTitle(String title) {
+            this.title = title;
+            return this;
+        }
+
+        public Builder setDescription(String description) {
+            this.description = description;
+            return this;
+        }
+
+        public Builder setAssignedToUserId(String assignedToUserId) {
+            this.assignedToUserId = assignedToUserId;
+            return this;
+        }
+
+        public Builder setAssignedToName(String assignedToName) {
+            this.assignedToName = assignedToName;
+            return this;
+        }
+
+        public Builder setAssignerUserId(String assignerUserId) {
+            this.assignerUserId = assignerUserId;
+            return this;
+        }
+
+        public Builder setAssignerName(String assignerName) {
+            this.assignerName = assignerName;
+            return this;
+        }
+
+        public Builder setStatus(String status) {
+            this.status = Status.fromValue(status);
+            return this;
+        }
+
+        public Builder setStatusType(Status status) {
+            this.status = status != null ? status : Status.PENDING;
+            return this;
+        }
+
+        public Builder setPriority(String priority) {
+            this.priority = Priority.fromValue(priority);
+            return this;
+        }
+
+        public Builder setPriorityType(Priority priority) {
+            this.priority = priority != null ? priority : Priority.MEDIUM;
+            return this;
+        }
+
+        public Builder setDueDate(Date dueDate) {
+            this.dueDate = dueDate;
+            return this;
+        }
+
+        public Builder setCreatedAt(Date createdAt) {
+            this.createdAt = createdAt;
+            return this;
+        }
+
+        public Builder setUpdatedAt(Date updatedAt) {
+            this.updatedAt = updatedAt;
+            return this;
+        }
+
+        public Builder setAttachmentUrl(String attachmentUrl) {
+            this.attachmentUrl = attachmentUrl;
+            return this;
+        }
+
+        public Builder setAttachmentName(String attachmentName) {
+            this.attachmentName = attachmentName;
+            return this;
+        }
+
+        public Builder setAttachmentHash(String attachmentHash) {
+            this.attachmentHash = attachmentHash;
+            return this;
+        }
+
+        public Task build() {
+            return new Task(this);
+        }
     }
 
     // Convert Task to Map for Firestore
@@ -69,19 +259,20 @@ public class Task {
         map.put("assignedToName", assignedToName);
         map.put("assignerUserId", assignerUserId);
         map.put("assignerName", assignerName);
-        map.put("status", status);
-        map.put("priority", priority);
+        map.put("status", status.getValue());
+        map.put("priority", priority.getValue());
         map.put("dueDate", dueDate);
         map.put("createdAt", createdAt);
         map.put("updatedAt", updatedAt);
         map.put("attachmentUrl", attachmentUrl);
         map.put("attachmentName", attachmentName);
+        map.put("attachmentHash", attachmentHash);
         return map;
     }
 
     // Create Task from Map (Firestore document)
     public static Task fromMap(Map<String, Object> map) {
-        Task task = new Task();
+        Builder task = builder();
 
         if (map.containsKey("title")) task.setTitle((String) map.get("title"));
         if (map.containsKey("description")) task.setDescription((String) map.get("description"));
@@ -93,6 +284,7 @@ public class Task {
         if (map.containsKey("priority")) task.setPriority((String) map.get("priority"));
         if (map.containsKey("attachmentUrl")) task.setAttachmentUrl((String) map.get("attachmentUrl"));
         if (map.containsKey("attachmentName")) task.setAttachmentName((String) map.get("attachmentName"));
+        if (map.containsKey("attachmentHash")) task.setAttachmentHash((String) map.get("attachmentHash"));
 
         // Handle Date fields
         if (map.containsKey("dueDate")) {
@@ -127,152 +319,108 @@ public class Task {
             task.setId((String) map.get("id"));
         }
 
-        return task;
+        return task.build();
     }
 
-    // Getters and Setters
+    // Getters
     public String getId() {
         return id;
     }
 
-    public void setId(String id) {
-        this.id = id;
-    }
-
     public String getTitle() {
         return title;
     }
 
-    public void setTitle(String title) {
-        this.title = title;
-    }
-
     public String getDescription() {
         return description;
     }
 
-    public void setDescription(String description) {
-        this.description = description;
-    }
-
     public String getAssignedToUserId() {
         return assignedToUserId;
     }
 
-    public void setAssignedToUserId(String assignedToUserId) {
-        this.assignedToUserId = assignedToUserId;
-    }
-
     public String getAssignedToName() {
         return assignedToName;
     }
 
-    public void setAssignedToName(String assignedToName) {
-        this.assignedToName = assignedToName;
-    }
-
     public String getAssignerUserId() {
         return assignerUserId;
     }
 
-    public void setAssignerUserId(String assignerUserId) {
-        this.assignerUserId = assignerUserId;
-    }
-
     public String getAssignerName() {
         return assignerName;
     }
 
-    public void setAssignerName(String assignerName) {
-        this.assignerName = assignerName;
-    }
-
     public String getStatus() {
-        return status;
+        return status.getValue();
     }
 
-    public void setStatus(String status) {
-        this.status = status;
+    public Status getStatusType() {
+        return status;
     }
 
     public String getPriority() {
-        return priority;
+        return priority.getValue();
     }
 
-    public void setPriority(String priority) {
-        this.priority = priority;
+    public Priority getPriorityType() {
+        return priority;
     }
 
     public Date getDueDate() {
         return dueDate;
     }
 
-    public void setDueDate(Date dueDate) {
-        this.dueDate = dueDate;
-    }
-
     public Date getCreatedAt() {
         return createdAt;
     }
 
-    public void setCreatedAt(Date createdAt) {
-        this.createdAt = createdAt;
-    }
-
     public Date getUpdatedAt() {
         return updatedAt;
     }
 
-    public void setUpdatedAt(Date updatedAt) {
-        this.updatedAt = updatedAt;
-    }
-
     public String getAttachmentUrl() {
         return attachmentUrl;
     }
 
-    public void setAttachmentUrl(String attachmentUrl) {
-        this.attachmentUrl = attachmentUrl;
-    }
-
     public String getAttachmentName() {
         return attachmentName;
     }
 
-    public void setAttachmentName(String attachmentName) {
-        this.attachmentName = attachmentName;
+    public String getAttachmentHash() {
+        return attachmentHash;
     }
 
     // Utility methods
     public boolean isOverdue() {
-        if (dueDate == null || "completed".equals(status)) {
+        if (dueDate == null || status == Status.COMPLETED) {
             return false;
         }
         return dueDate.before(new Date());
     }
 
     public boolean isCompleted() {
-        return "completed".equals(status);
+        return status == Status.COMPLETED;
     }
 
     public boolean isPending() {
-        return "pending".equals(status);
+        return status == Status.PENDING;
     }
 
     public boolean isInProgress() {
-        return "in_progress".equals(status);
+        return status == Status.IN_PROGRESS;
     }
 
     public boolean isHighPriority() {
-        return "high".equals(priority);
+        return priority == Priority.HIGH;
     }
 
     public boolean isMediumPriority() {
-        return "medium".equals(priority);
+        return priority == Priority.MEDIUM;
     }
 
     public boolean isLowPriority() {
-        return "low".equals(priority);
+        return priority == Priority.LOW;
     }
 
     @Override
@@ -280,8 +428,8 @@ public class Task {
         return "Task{" +
                 "id='" + id + '\'' +
                 ", title='" + title + '\'' +
-                ", status='" + status + '\'' +
-                ", priority='" + priority + '\'' +
+                ", status='" + status.getValue() + '\'' +
+                ", priority='" + priority.getValue() + '\'' +
                 ", assignedTo='" + assignedToName + '\'' +
                 ", dueDate=" + dueDate +
                 '}';
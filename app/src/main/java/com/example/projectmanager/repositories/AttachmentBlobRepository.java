@@ -0,0 +1,327 @@
+package com.example.projectmanager.repositories;
+
+import android.util.Log;
+
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Transaction;
+import com.google.firebase.firestore.WriteBatch;
+import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageReference;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Đếm tham chiếu cho tệp đính kèm được lưu theo nội dung (SHA-256).
+ * Mỗi nội dung có một document attachment_blobs/{hash} trỏ tới object trên Storage; upload cùng nội dung
+ * lần nữa dùng lại URL đó.
+ *
+ * Tham chiếu thuộc về document sở hữu tệp (task, tin nhắn): document lưu hash ở field "attachmentHash",
+ * refCount được tăng trong cùng lần ghi document đó (addReference) và giảm trong cùng lần xóa / thay tệp
+ * của nó (removeReference). Xóa / thay tệp chạy trong transaction đọc lại document, nên hash được trả lại
+ * đúng là hash document đang giữ và mỗi tham chiếu chỉ bị trả một lần. Upload xong mà không ghi document nào thì blob có refCount 0; blob như vậy
+ * không được dùng tới trong UNREFERENCED_GRACE_MS thì bị xóa cùng object (deleteIfUnreferenced).
+ *
+ * Object được đặt tên "{hash}_{ngẫu nhiên}.{ext}" nên từ download URL suy ra được hash; mỗi lần tạo lại blob
+ * có tên mới, nên việc xóa object cũ không thể đè lên bản upload mới của cùng nội dung.
+ */
+public class AttachmentBlobRepository {
+    private static final String TAG = "AttachmentBlobRepository";
+    private static final String BLOBS_COLLECTION = "attachment_blobs";
+    private static final int HASH_LENGTH = 64;
+    // Blob không còn tham chiếu vẫn được giữ chừng này sau lần dùng cuối, để document đang chờ ghi
+    // (ví dụ tin nhắn gửi lúc offline) còn tăng được refCount
+    static final long UNREFERENCED_GRACE_MS = 24L * 60 * 60 * 1000;
+    private static final int SWEEP_LIMIT = 50;
+
+    /** Field lưu hash của tệp đính kèm trên document sở hữu tệp */
+    public static final String FIELD_ATTACHMENT_HASH = "attachmentHash";
+
+    private static AttachmentBlobRepository instance;
+
+    private final FirebaseFirestore db;
+    private final FirebaseStorage storage;
+
+    public interface OnBlobLookupListener {
+        void onFound(String downloadUrl, String thumbnailUrl, String fileName, String contentType, long size);
+        void onNotFound();
+        void onError(String error);
+    }
+
+    public interface OnBlobRegisteredListener {
+        /**
+         * @param duplicate true nếu nội dung đã được máy khác đăng ký trước; URL trả về là của blob đó
+         *                  và object vừa upload đã bị xóa
+         */
+        void onRegistered(String downloadUrl, String thumbnailUrl, String fileName, String contentType, long size,
+                          boolean duplicate);
+        void onError(String error);
+    }
+
+    public interface OnBlobReleasedListener {
+        /**
+         * @param deleted true nếu object đã được xóa khỏi Storage
+         */
+        void onReleased(boolean deleted);
+        void onError(String error);
+    }
+
+    private AttachmentBlobRepository() {
+        db = FirebaseFirestore.getInstance();
+        storage = FirebaseStorage.getInstance();
+    }
+
+    public static synchronized AttachmentBlobRepository getInstance() {
+        if (instance == null) {
+            instance = new AttachmentBlobRepository();
+        }
+        return instance;
+    }
+
+    /**
+     * Tên object trên Storage cho nội dung có hash này
+     */
+    public static String blobFileName(String hash, String uniqueSuffix, String extension) {
+        return hash + "_" + uniqueSuffix + (extension != null ? "." + extension : "");
+    }
+
+    /**
+     * Hash trong tên object, null nếu là tệp cũ (tên UUID) không được đếm tham chiếu
+     */
+    static String hashFromFileName(String fileName) {
+        if (fileName == null || fileName.length() <= HASH_LENGTH || fileName.charAt(HASH_LENGTH) != '_') {
+            return null;
+        }
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            char c = fileName.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return null;
+        }
+        return fileName.substring(0, HASH_LENGTH);
+    }
+
+    /**
+     * Nếu nội dung đã có trên Storage thì trả về URL của nó. Không giữ tham chiếu: tham chiếu được tăng khi
+     * document dùng tệp được ghi (addReference); chỉ đánh dấu lastUsedAt để blob không bị dọn trong lúc đó.
+     */
+    public void find(String hash, OnBlobLookupListener listener) {
+        DocumentReference blobRef = db.collection(BLOBS_COLLECTION).document(hash);
+
+        db.runTransaction(transaction -> {
+            DocumentSnapshot snapshot = transaction.get(blobRef);
+            if (!snapshot.exists()) {
+                return null;
+            }
+
+            Map<String, Object> updates = new HashMap<>();
+            updates.put("lastUsedAt", new Date());
+            transaction.update(blobRef, updates);
+            return snapshot.getData();
+        }).addOnSuccessListener(blob -> {
+            if (blob == null) {
+                listener.onNotFound();
+                return;
+            }
+            Log.d(TAG, "Reusing blob " + hash);
+            listener.onFound((String) blob.get("downloadUrl"), (String) blob.get("thumbnailUrl"),
+                    (String) blob.get("fileName"), (String) blob.get("contentType"), sizeOf(blob));
+        }).addOnFailureListener(e -> {
+            Log.e(TAG, "Error looking up blob " + hash, e);
+            listener.onError("Lỗi khi kiểm tra tệp đã có: " + e.getMessage());
+        });
+    }
+
+    /**
+     * Ghi blob vừa upload, chưa có tham chiếu nào; size và contentType là của object đã upload (ảnh đã nén). Nếu trong lúc upload đã có máy khác đăng ký cùng nội dung,
+     * dùng blob đó và xóa object vừa upload.
+     */
+    public void register(String hash, String storagePath, String fileName, String downloadUrl,
+                         String thumbnailPath, String thumbnailUrl, long size, String contentType,
+                         OnBlobRegisteredListener listener) {
+        DocumentReference blobRef = db.collection(BLOBS_COLLECTION).document(hash);
+
+        db.runTransaction(transaction -> {
+            DocumentSnapshot snapshot = transaction.get(blobRef);
+            if (snapshot.exists()) {
+                Map<String, Object> updates = new HashMap<>();
+                updates.put("lastUsedAt", new Date());
+                transaction.update(blobRef, updates);
+
+                Map<String, Object> existing = snapshot.getData();
+                existing.put("duplicate", true);
+                return existing;
+            }
+
+            Map<String, Object> blob = new HashMap<>();
+            blob.put("storagePath", storagePath);
+            blob.put("fileName", fileName);
+            blob.put("downloadUrl", downloadUrl);
+            blob.put("thumbnailPath", thumbnailPath);
+            blob.put("thumbnailUrl", thumbnailUrl);
+            blob.put("size", size);
+            blob.put("contentType", contentType);
+            blob.put("refCount", 0L);
+            blob.put("createdAt", new Date());
+            blob.put("lastUsedAt", new Date());
+            transaction.set(blobRef, blob);
+            return blob;
+        }).addOnSuccessListener(blob -> {
+            boolean duplicate = Boolean.TRUE.equals(blob.get("duplicate"));
+            if (duplicate) {
+                Log.d(TAG, "Blob " + hash + " was registered concurrently, deleting own upload");
+                deleteObjects(storagePath, thumbnailPath);
+            }
+            listener.onRegistered((String) blob.get("downloadUrl"), (String) blob.get("thumbnailUrl"),
+                    (String) blob.get("fileName"), (String) blob.get("contentType"), sizeOf(blob), duplicate);
+        }).addOnFailureListener(e -> {
+            Log.e(TAG, "Error registering blob " + hash, e);
+            listener.onError("Lỗi khi lưu thông tin tệp: " + e.getMessage());
+        });
+    }
+
+    /**
+     * Thêm vào batch ghi document sở hữu tệp: tăng refCount của blob. Batch lỗi nếu blob không còn tồn tại.
+     */
+    public void addReference(WriteBatch batch, String hash) {
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("refCount", FieldValue.increment(1));
+        updates.put("lastUsedAt", new Date());
+        batch.update(db.collection(BLOBS_COLLECTION).document(hash), updates);
+    }
+
+    /**
+     * Như addReference(WriteBatch, ...) cho transaction đã đọc document sở hữu tệp; dùng khi tham chiếu phụ
+     * thuộc vào giá trị hiện tại của document (thay tệp), để hai lần ghi đồng thời không đếm trùng
+     */
+    public void addReference(Transaction transaction, String hash) {
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("refCount", FieldValue.increment(1));
+        updates.put("lastUsedAt", new Date());
+        transaction.update(db.collection(BLOBS_COLLECTION).document(hash), updates);
+    }
+
+    /**
+     * Thêm vào transaction xóa document sở hữu tệp (hoặc thay tệp của nó): giảm refCount của blob. Hash phải
+     * lấy từ snapshot đọc trong chính transaction đó; sau khi commit, gọi deleteIfUnreferenced(hash) để dọn
+     * blob nếu đây là tham chiếu cuối.
+     */
+    public void removeReference(Transaction transaction, String hash) {
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("refCount", FieldValue.increment(-1));
+        transaction.update(db.collection(BLOBS_COLLECTION).document(hash), updates);
+    }
+
+    /**
+     * Xóa blob và object (kèm thumbnail) nếu không còn document nào tham chiếu và đã quá UNREFERENCED_GRACE_MS
+     * từ lần dùng cuối. Lỗi chỉ được ghi log: blob còn lại sẽ được dọn ở lần sau.
+     */
+    public void deleteIfUnreferenced(String hash) {
+        deleteIfUnreferenced(hash, null);
+    }
+
+    private void deleteIfUnreferenced(String hash, OnBlobReleasedListener listener) {
+        if (hash == null || hash.isEmpty()) return;
+        DocumentReference blobRef = db.collection(BLOBS_COLLECTION).document(hash);
+
+        db.runTransaction(transaction -> {
+            Map<String, Object> result = new HashMap<>();
+            DocumentSnapshot snapshot = transaction.get(blobRef);
+            if (!snapshot.exists() || refCount(snapshot) > 0) {
+                return result;
+            }
+            Date lastUsedAt = snapshot.getDate("lastUsedAt");
+            if (lastUsedAt != null
+                    && System.currentTimeMillis() - lastUsedAt.getTime() < UNREFERENCED_GRACE_MS) {
+                return result;
+            }
+
+            transaction.delete(blobRef);
+            result.put("storagePath", snapshot.getString("storagePath"));
+            result.put("thumbnailPath", snapshot.getString("thumbnailPath"));
+            return result;
+        }).addOnSuccessListener(result -> {
+            String storagePath = (String) result.get("storagePath");
+            if (storagePath != null) {
+                Log.d(TAG, "Blob " + hash + " has no references, deleting");
+                deleteObjects(storagePath, (String) result.get("thumbnailPath"));
+            }
+            if (listener != null) {
+                listener.onReleased(storagePath != null);
+            }
+        }).addOnFailureListener(e -> {
+            Log.e(TAG, "Error deleting unreferenced blob " + hash, e);
+            if (listener != null) {
+                listener.onError("Lỗi khi xóa file: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Dọn một loạt blob không có tham chiếu (upload xong nhưng document sở hữu không bao giờ được ghi)
+     */
+    public void deleteUnreferencedBlobs() {
+        db.collection(BLOBS_COLLECTION)
+                .whereEqualTo("refCount", 0)
+                .limit(SWEEP_LIMIT)
+                .get()
+                .addOnSuccessListener(snapshot -> {
+                    for (DocumentSnapshot blob : snapshot.getDocuments()) {
+                        deleteIfUnreferenced(blob.getId());
+                    }
+                })
+                .addOnFailureListener(e -> Log.e(TAG, "Error listing unreferenced blobs", e));
+    }
+
+    /**
+     * Xóa một tệp đã upload theo URL. Tệp cũ không được đếm tham chiếu thì xóa ngay như trước;
+     * tệp theo nội dung chỉ bị xóa khi không còn document nào tham chiếu tới.
+     */
+    public void deleteFile(String downloadUrl, OnBlobReleasedListener listener) {
+        StorageReference fileRef;
+        try {
+            fileRef = storage.getReferenceFromUrl(downloadUrl);
+        } catch (Exception e) {
+            Log.e(TAG, "Error parsing download URL", e);
+            listener.onError("URL không hợp lệ");
+            return;
+        }
+
+        String hash = hashFromFileName(fileRef.getName());
+        if (hash == null) {
+            deleteObject(fileRef, listener);
+            return;
+        }
+        deleteIfUnreferenced(hash, listener);
+    }
+
+    private void deleteObject(StorageReference fileRef, OnBlobReleasedListener listener) {
+        fileRef.delete().addOnSuccessListener(aVoid -> {
+            listener.onReleased(true);
+        }).addOnFailureListener(e -> {
+            Log.e(TAG, "Error deleting file", e);
+            listener.onError("Lỗi khi xóa file: " + e.getMessage());
+        });
+    }
+
+    private void deleteObjects(String storagePath, String thumbnailPath) {
+        storage.getReference().child(storagePath).delete()
+                .addOnFailureListener(e -> Log.e(TAG, "Error deleting " + storagePath, e));
+        if (thumbnailPath != null) {
+            storage.getReference().child(thumbnailPath).delete()
+                    .addOnFailureListener(e -> Log.e(TAG, "Error deleting " + thumbnailPath, e));
+        }
+    }
+
+    private static long sizeOf(Map<String, Object> blob) {
+        Object size = blob.get("size");
+        return size instanceof Number ? ((Number) size).longValue() : 0;
+    }
+
+    private static long refCount(DocumentSnapshot snapshot) {
+        Long count = snapshot.getLong("refCount");
+        return count != null ? count : 0;
+    }
+}
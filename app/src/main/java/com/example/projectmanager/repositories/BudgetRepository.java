@@ -3,11 +3,16 @@ package com.example.projectmanager.repositories;
 import android.util.Log;
 
 import com.example.projectmanager.models.Budget;
+import com.google.android.gms.tasks.Task;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Transaction;
+import com.google.firebase.firestore.WriteBatch;
 
 import java.util.ArrayList;
 import java.util.Date;
@@ -16,7 +21,9 @@ import java.util.List;
 import java.util.Map;
 
 /**
- * Repository to handle Budget operations with Firebase
+ * Repository to handle Budget operations with Firebase.
+ * Every write also updates the budget_rollups and budget_series documents (see BudgetRollups, BudgetSeries)
+ * in the same batch/transaction.
  */
 public class BudgetRepository {
     private static final String TAG = "BudgetRepository";
@@ -158,7 +165,7 @@ public class BudgetRepository {
     }
 
     /**
-     * Add new budget
+     * Add new budget. The generated document ID is set on the budget before it is written.
      */
     public void addBudget(Budget budget, OnBudgetOperationListener listener) {
         Log.d(TAG, "Adding new budget: " + budget.getTitle());
@@ -174,10 +181,24 @@ public class BudgetRepository {
         }
         budget.setUpdatedAt(new Date());
 
-        firestore.collection(COLLECTION_BUDGETS)
-                .add(budget.toMap())
-                .addOnSuccessListener(documentReference -> {
-                    Log.d(TAG, "Budget added with ID: " + documentReference.getId());
+        // Pre-generate the document ID so the caller can track the new budget without reloading
+        DocumentReference budgetRef = firestore.collection(COLLECTION_BUDGETS).document();
+        budget.setId(budgetRef.getId());
+
+        // Nothing to read for a new budget, so a batch is enough to keep the rollups in step
+        Map<String, Object> budgetData = budget.toMap();
+        WriteBatch batch = firestore.batch();
+        batch.set(budgetRef, budgetData);
+        for (Map.Entry<String, BudgetRollups.Delta> entry : BudgetRollups.deltas(null, budgetData).entrySet()) {
+            batch.set(rollupRef(entry.getKey()), entry.getValue().toIncrements(), SetOptions.merge());
+        }
+        for (Map.Entry<String, BudgetSeries.Bucket> entry : BudgetSeries.deltas(null, budgetData).entrySet()) {
+            batch.set(seriesRef(entry.getKey()), entry.getValue().toIncrements(), SetOptions.merge());
+        }
+
+        batch.commit()
+                .addOnSuccessListener(aVoid -> {
+                    Log.d(TAG, "Budget added with ID: " + budgetRef.getId());
                     listener.onSuccess("Thêm ngân sách thành công");
                 })
                 .addOnFailureListener(e -> {
@@ -199,10 +220,17 @@ public class BudgetRepository {
 
         budget.setUpdatedAt(new Date());
 
-        firestore.collection(COLLECTION_BUDGETS)
-                .document(budget.getId())
-                .set(budget.toMap())
-                .addOnSuccessListener(aVoid -> {
+        DocumentReference budgetRef = firestore.collection(COLLECTION_BUDGETS).document(budget.getId());
+        Map<String, Object> budgetData = budget.toMap();
+
+        firestore.runTransaction(transaction -> {
+                    DocumentSnapshot snapshot = transaction.get(budgetRef);
+                    Map<String, Object> before = snapshot.exists() ? snapshot.getData() : null;
+                    transaction.set(budgetRef, budgetData);
+                    applyRollups(transaction, before, budgetData);
+                    return null;
+                })
+                .addOnSuccessListener(result -> {
                     Log.d(TAG, "Budget updated successfully");
                     listener.onSuccess("Cập nhật ngân sách thành công");
                 })
@@ -223,14 +251,12 @@ public class BudgetRepository {
             return;
         }
 
-        Map<String, Object> updates = new HashMap<>();
-        updates.put("approved", true);
-        updates.put("updatedAt", new Date());
-
-        firestore.collection(COLLECTION_BUDGETS)
-                .document(budgetId)
-                .update(updates)
-                .addOnSuccessListener(aVoid -> {
+        setApproved(budgetId, true)
+                .addOnSuccessListener(found -> {
+                    if (!found) {
+                        listener.onError("Không tìm thấy ngân sách");
+                        return;
+                    }
                     Log.d(TAG, "Budget approved successfully");
                     listener.onSuccess("Duyệt ngân sách thành công");
                 })
@@ -251,14 +277,12 @@ public class BudgetRepository {
             return;
         }
 
-        Map<String, Object> updates = new HashMap<>();
-        updates.put("approved", false);
-        updates.put("updatedAt", new Date());
-
-        firestore.collection(COLLECTION_BUDGETS)
-                .document(budgetId)
-                .update(updates)
-                .addOnSuccessListener(aVoid -> {
+        setApproved(budgetId, false)
+                .addOnSuccessListener(found -> {
+                    if (!found) {
+                        listener.onError("Không tìm thấy ngân sách");
+                        return;
+                    }
                     Log.d(TAG, "Budget approval revoked successfully");
                     listener.onSuccess("Hủy duyệt ngân sách thành công");
                 })
@@ -279,10 +303,18 @@ public class BudgetRepository {
             return;
         }
 
-        firestore.collection(COLLECTION_BUDGETS)
-                .document(budgetId)
-                .delete()
-                .addOnSuccessListener(aVoid -> {
+        DocumentReference budgetRef = firestore.collection(COLLECTION_BUDGETS).document(budgetId);
+
+        firestore.runTransaction(transaction -> {
+                    DocumentSnapshot snapshot = transaction.get(budgetRef);
+                    if (!snapshot.exists()) {
+                        return null;
+                    }
+                    transaction.delete(budgetRef);
+                    applyRollups(transaction, snapshot.getData(), null);
+                    return null;
+                })
+                .addOnSuccessListener(result -> {
                     Log.d(TAG, "Budget deleted successfully");
                     listener.onSuccess("Xóa ngân sách thành công");
                 })
@@ -292,6 +324,108 @@ public class BudgetRepository {
                 });
     }
 
+    /**
+     * Load rollup documents for one scope (BudgetRollups.SCOPE_*), or all of them if scope is null.
+     * A dashboard needs at most a few dozen of these instead of every budget.
+     */
+    public void getBudgetRollups(String scope, OnBudgetsLoadedListener listener) {
+        Query query = firestore.collection(BudgetRollups.COLLECTION_ROLLUPS);
+        if (scope != null) {
+            query = query.whereEqualTo("scope", scope);
+        }
+
+        query.get()
+                .addOnSuccessListener(queryDocumentSnapshots -> {
+                    List<Map<String, Object>> rollups = new ArrayList<>();
+
+                    for (QueryDocumentSnapshot doc : queryDocumentSnapshots) {
+                        Map<String, Object> rollupData = doc.getData();
+                        rollupData.put("id", doc.getId());
+                        rollups.add(rollupData);
+                    }
+
+                    Log.d(TAG, "Successfully loaded " + rollups.size() + " budget rollups");
+                    listener.onBudgetsLoaded(rollups);
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Error loading budget rollups: " + e.getMessage(), e);
+                    listener.onError("Lỗi khi tải thống kê ngân sách: " + e.getMessage());
+                });
+    }
+
+    /**
+     * Load the time buckets of one granularity whose start lies in [from, to), oldest first.
+     * Buckets with no budgets have no document, so callers fill the gaps themselves.
+     */
+    public void getBudgetSeries(BudgetSeries.Granularity granularity, Date from, Date to,
+                                OnBudgetsLoadedListener listener) {
+        firestore.collection(BudgetSeries.COLLECTION_SERIES)
+                .whereEqualTo("granularity", granularity.getId())
+                .whereGreaterThanOrEqualTo("bucketStart", from)
+                .whereLessThan("bucketStart", to)
+                .orderBy("bucketStart", Query.Direction.ASCENDING)
+                .get()
+                .addOnSuccessListener(queryDocumentSnapshots -> {
+                    List<Map<String, Object>> buckets = new ArrayList<>();
+
+                    for (QueryDocumentSnapshot doc : queryDocumentSnapshots) {
+                        Map<String, Object> bucketData = doc.getData();
+                        bucketData.put("id", doc.getId());
+                        buckets.add(bucketData);
+                    }
+
+                    Log.d(TAG, "Successfully loaded " + buckets.size() + " " + granularity.getId() + " buckets");
+                    listener.onBudgetsLoaded(buckets);
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Error loading budget series: " + e.getMessage(), e);
+                    listener.onError("Lỗi khi tải chuỗi thời gian ngân sách: " + e.getMessage());
+                });
+    }
+
+    /**
+     * Flip the approved flag and move the amount between approved/pending rollups in one transaction.
+     * Resolves to false if the budget does not exist.
+     */
+    private Task<Boolean> setApproved(String budgetId, boolean approved) {
+        DocumentReference budgetRef = firestore.collection(COLLECTION_BUDGETS).document(budgetId);
+
+        return firestore.runTransaction(transaction -> {
+            DocumentSnapshot snapshot = transaction.get(budgetRef);
+            if (!snapshot.exists()) {
+                return false;
+            }
+
+            Map<String, Object> before = snapshot.getData();
+            Map<String, Object> after = new HashMap<>(before);
+            after.put("approved", approved);
+
+            Map<String, Object> updates = new HashMap<>();
+            updates.put("approved", approved);
+            updates.put("updatedAt", new Date());
+            transaction.update(budgetRef, updates);
+            applyRollups(transaction, before, after);
+            return true;
+        });
+    }
+
+    private void applyRollups(Transaction transaction, Map<String, Object> before, Map<String, Object> after) {
+        for (Map.Entry<String, BudgetRollups.Delta> entry : BudgetRollups.deltas(before, after).entrySet()) {
+            transaction.set(rollupRef(entry.getKey()), entry.getValue().toIncrements(), SetOptions.merge());
+        }
+        for (Map.Entry<String, BudgetSeries.Bucket> entry : BudgetSeries.deltas(before, after).entrySet()) {
+            transaction.set(seriesRef(entry.getKey()), entry.getValue().toIncrements(), SetOptions.merge());
+        }
+    }
+
+    private DocumentReference rollupRef(String rollupId) {
+        return firestore.collection(BudgetRollups.COLLECTION_ROLLUPS).document(rollupId);
+    }
+
+    private DocumentReference seriesRef(String bucketId) {
+        return firestore.collection(BudgetSeries.COLLECTION_SERIES).document(bucketId);
+    }
+
     /**
      * Get budgets for specific user
      */
@@ -0,0 +1,294 @@
+package com.example.projectmanager.repositories;
+
+import android.util.Log;
+
+import com.example.projectmanager.models.Budget;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rebuilds budget_rollups and budget_series from the raw budgets collection and reports where they drifted
+ * (writes made by old app versions, failed transactions, manual edits in the console).
+ * Budgets are read page by page; with repair enabled, drifted documents are overwritten with the rebuilt
+ * values, documents that no budget contributes to are deleted, and budgets that only have the legacy
+ * double "amount" get their amountMinor field written.
+ *
+ * Run it when no one is editing budgets, otherwise in-flight writes show up as drift. Against the
+ * emulator, point the Firestore instance at it before any other call:
+ * <pre>
+ * FirebaseFirestore db = FirebaseFirestore.getInstance();
+ * db.useEmulator("10.0.2.2", 8080);
+ * new BudgetRollupReconciler(db).reconcile(false, listener);
+ * </pre>
+ */
+public class BudgetRollupReconciler {
+    private static final String TAG = "BudgetRollupReconciler";
+    private static final String COLLECTION_BUDGETS = "budgets";
+    private static final int PAGE_SIZE = 500;
+    private static final int MAX_BATCH_WRITES = 500;
+
+    private final FirebaseFirestore firestore;
+
+    /**
+     * One field of one rollup or series document that does not match the rebuilt value
+     */
+    public static class Drift {
+        public final String collection;
+        public final String documentId;
+        public final String field;
+        public final long expected;
+        public final long actual;
+
+        Drift(String collection, String documentId, String field, long expected, long actual) {
+            this.collection = collection;
+            this.documentId = documentId;
+            this.field = field;
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        @Override
+        public String toString() {
+            return collection + "/" + documentId + "." + field + ": expected " + expected + ", stored " + actual;
+        }
+    }
+
+    public static class Report {
+        public final int budgetsScanned;
+        // Budgets that only have the legacy double "amount" field
+        public final int legacyBudgets;
+        public final int documentsChecked;
+        public final List<Drift> drifts;
+        public final boolean repaired;
+
+        Report(int budgetsScanned, int legacyBudgets, int documentsChecked, List<Drift> drifts, boolean repaired) {
+            this.budgetsScanned = budgetsScanned;
+            this.legacyBudgets = legacyBudgets;
+            this.documentsChecked = documentsChecked;
+            this.drifts = drifts;
+            this.repaired = repaired;
+        }
+
+        public boolean hasDrift() {
+            return !drifts.isEmpty() || legacyBudgets > 0;
+        }
+    }
+
+    // Rebuilt contents of one collection and what has to be rewritten in it
+    private static class Target {
+        final String collection;
+        final Map<String, Map<String, Long>> numbers = new HashMap<>();
+        final Map<String, Map<String, Object>> values = new HashMap<>();
+        final Set<String> driftedIds = new HashSet<>();
+        final Set<String> staleIds = new HashSet<>();
+
+        Target(String collection) {
+            this.collection = collection;
+        }
+
+        void expect(String id, Map<String, Long> fieldNumbers, Map<String, Object> fieldValues) {
+            numbers.put(id, fieldNumbers);
+            values.put(id, fieldValues);
+        }
+    }
+
+    public interface OnReconcileListener {
+        void onComplete(Report report);
+        void onError(String error);
+    }
+
+    public BudgetRollupReconciler(FirebaseFirestore firestore) {
+        this.firestore = firestore;
+    }
+
+    /**
+     * @param repair overwrite drifted rollups with the rebuilt values and migrate legacy amounts
+     */
+    public void reconcile(boolean repair, OnReconcileListener listener) {
+        scanBudgets(null, new HashMap<>(), new HashMap<>(), new HashMap<>(), 0, repair, listener);
+    }
+
+    private void scanBudgets(DocumentSnapshot lastDocument, Map<String, BudgetRollups.Delta> rollups,
+                             Map<String, BudgetSeries.Bucket> buckets, Map<String, Long> legacyAmounts,
+                             int scanned, boolean repair, OnReconcileListener listener) {
+        // Default document-id order, so budgets without createdAt are not skipped
+        Query query = firestore.collection(COLLECTION_BUDGETS).limit(PAGE_SIZE);
+        if (lastDocument != null) {
+            query = query.startAfter(lastDocument);
+        }
+
+        query.get()
+                .addOnSuccessListener(snapshots -> {
+                    List<DocumentSnapshot> documents = snapshots.getDocuments();
+                    for (DocumentSnapshot doc : documents) {
+                        BudgetRollups.accumulate(rollups, doc.getData(), 1);
+                        BudgetSeries.accumulate(buckets, doc.getData(), 1);
+                        if (doc.get(Budget.FIELD_AMOUNT_MINOR) == null) {
+                            legacyAmounts.put(doc.getId(), Budget.amountMinorOf(doc.getData()));
+                        }
+                    }
+
+                    int total = scanned + documents.size();
+                    if (documents.size() == PAGE_SIZE) {
+                        scanBudgets(documents.get(documents.size() - 1), rollups, buckets, legacyAmounts, total,
+                                repair, listener);
+                        return;
+                    }
+
+                    Log.d(TAG, "Scanned " + total + " budgets (" + legacyAmounts.size() + " without "
+                            + Budget.FIELD_AMOUNT_MINOR + "), " + rollups.size() + " rollups and "
+                            + buckets.size() + " series buckets expected");
+                    List<Target> targets = new ArrayList<>();
+                    Target rollupTarget = new Target(BudgetRollups.COLLECTION_ROLLUPS);
+                    for (Map.Entry<String, BudgetRollups.Delta> entry : rollups.entrySet()) {
+                        rollupTarget.expect(entry.getKey(), entry.getValue().numbers(), entry.getValue().toValues());
+                    }
+                    targets.add(rollupTarget);
+                    Target seriesTarget = new Target(BudgetSeries.COLLECTION_SERIES);
+                    for (Map.Entry<String, BudgetSeries.Bucket> entry : buckets.entrySet()) {
+                        seriesTarget.expect(entry.getKey(), entry.getValue().numbers(), entry.getValue().toValues());
+                    }
+                    targets.add(seriesTarget);
+
+                    compareTargets(targets, legacyAmounts, 0, total, 0, new ArrayList<>(), repair, listener);
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Error scanning budgets: " + e.getMessage(), e);
+                    listener.onError("Lỗi khi đọc ngân sách: " + e.getMessage());
+                });
+    }
+
+    // Compares one collection at a time, then repairs everything at the end
+    private void compareTargets(List<Target> targets, Map<String, Long> legacyAmounts, int index, int scanned,
+                                int checked, List<Drift> drifts, boolean repair, OnReconcileListener listener) {
+        if (index == targets.size()) {
+            for (Drift drift : drifts) {
+                Log.w(TAG, "Drift " + drift);
+            }
+            if (!repair || (drifts.isEmpty() && legacyAmounts.isEmpty())) {
+                listener.onComplete(new Report(scanned, legacyAmounts.size(), checked, drifts, false));
+                return;
+            }
+            repair(targets, legacyAmounts, new Report(scanned, legacyAmounts.size(), checked, drifts, true), listener);
+            return;
+        }
+
+        Target target = targets.get(index);
+        firestore.collection(target.collection).get()
+                .addOnSuccessListener(snapshots -> {
+                    Set<String> stored = new HashSet<>();
+
+                    for (QueryDocumentSnapshot doc : snapshots) {
+                        stored.add(doc.getId());
+                        Map<String, Long> expected = target.numbers.get(doc.getId());
+                        if (expected == null) {
+                            // Nothing contributes to it any more; report it unless it already sums to zero
+                            if (differs(doc, "count", 0)) {
+                                drifts.add(new Drift(target.collection, doc.getId(), "count", 0,
+                                        number(doc, "count")));
+                            }
+                            target.staleIds.add(doc.getId());
+                            continue;
+                        }
+                        for (Map.Entry<String, Long> field : expected.entrySet()) {
+                            if (differs(doc, field.getKey(), field.getValue())) {
+                                drifts.add(new Drift(target.collection, doc.getId(), field.getKey(),
+                                        field.getValue(), number(doc, field.getKey())));
+                                target.driftedIds.add(doc.getId());
+                            }
+                        }
+                    }
+
+                    // Documents that should exist but were never written
+                    for (Map.Entry<String, Map<String, Long>> entry : target.numbers.entrySet()) {
+                        if (!stored.contains(entry.getKey())) {
+                            drifts.add(new Drift(target.collection, entry.getKey(), "count",
+                                    entry.getValue().get("count"), 0));
+                            target.driftedIds.add(entry.getKey());
+                        }
+                    }
+
+                    compareTargets(targets, legacyAmounts, index + 1, scanned, checked + snapshots.size(), drifts,
+                            repair, listener);
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Error loading " + target.collection + ": " + e.getMessage(), e);
+                    listener.onError("Lỗi khi đọc thống kê ngân sách: " + e.getMessage());
+                });
+    }
+
+    private void repair(List<Target> targets, Map<String, Long> legacyAmounts, Report report,
+                        OnReconcileListener listener) {
+        List<WriteBatch> batches = new ArrayList<>();
+        WriteBatch batch = firestore.batch();
+        int writes = 0;
+
+        for (Target target : targets) {
+            for (String id : target.driftedIds) {
+                // Full overwrite, so fields the rebuilt document no longer has are dropped
+                batch.set(firestore.collection(target.collection).document(id), target.values.get(id));
+                if (++writes % MAX_BATCH_WRITES == 0) {
+                    batches.add(batch);
+                    batch = firestore.batch();
+                }
+            }
+            for (String id : target.staleIds) {
+                batch.delete(firestore.collection(target.collection).document(id));
+                if (++writes % MAX_BATCH_WRITES == 0) {
+                    batches.add(batch);
+                    batch = firestore.batch();
+                }
+            }
+        }
+        // Rollups were rebuilt from the converted legacy amounts, so adding amountMinor changes no total
+        for (Map.Entry<String, Long> entry : legacyAmounts.entrySet()) {
+            Map<String, Object> updates = new HashMap<>();
+            updates.put(Budget.FIELD_AMOUNT_MINOR, entry.getValue());
+            batch.update(firestore.collection(COLLECTION_BUDGETS).document(entry.getKey()), updates);
+            if (++writes % MAX_BATCH_WRITES == 0) {
+                batches.add(batch);
+                batch = firestore.batch();
+            }
+        }
+        if (writes % MAX_BATCH_WRITES != 0) {
+            batches.add(batch);
+        }
+
+        commitBatches(batches, 0, report, listener);
+    }
+
+    private void commitBatches(List<WriteBatch> batches, int index, Report report, OnReconcileListener listener) {
+        if (index == batches.size()) {
+            Log.d(TAG, "Repaired " + report.drifts.size() + " drifted fields, migrated " + report.legacyBudgets
+                    + " legacy budgets");
+            listener.onComplete(report);
+            return;
+        }
+        batches.get(index).commit()
+                .addOnSuccessListener(aVoid -> commitBatches(batches, index + 1, report, listener))
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Error repairing rollups: " + e.getMessage(), e);
+                    listener.onError("Lỗi khi sửa thống kê ngân sách: " + e.getMessage());
+                });
+    }
+
+    // Money is stored in long minor units, so the comparison is exact
+    private static boolean differs(DocumentSnapshot doc, String field, long expected) {
+        return number(doc, field) != expected;
+    }
+
+    private static long number(DocumentSnapshot doc, String field) {
+        Object value = doc.get(field);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+}
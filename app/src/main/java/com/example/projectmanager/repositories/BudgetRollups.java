@@ -0,0 +1,167 @@
+package com.example.projectmanager.repositories;
+
+import com.example.projectmanager.models.Budget;
+import com.example.projectmanager.models.BudgetAggregate;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.FieldValue;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Rollup documents kept next to the budgets collection so dashboards can read totals without loading
+ * every budget. Each budget contributes to three documents in budget_rollups:
+ * "project" (everything), "category_{category}" and "month_{yyyy-MM}" (by createdAt, UTC).
+ * Each document holds amountMinor, approvedAmountMinor (long minor units, see Money), count and approvedCount.
+ */
+public final class BudgetRollups {
+    public static final String COLLECTION_ROLLUPS = "budget_rollups";
+
+    public static final String SCOPE_PROJECT = "project";
+    public static final String SCOPE_CATEGORY = "category";
+    public static final String SCOPE_MONTH = "month";
+
+    public static final String PROJECT_ROLLUP_ID = SCOPE_PROJECT;
+
+    private BudgetRollups() {
+    }
+
+    /**
+     * Change to one rollup document
+     */
+    public static final class Delta {
+        final String scope;
+        final String key;
+        long amountMinor;
+        long approvedAmountMinor;
+        long count;
+        long approvedCount;
+
+        Delta(String scope, String key) {
+            this.scope = scope;
+            this.key = key;
+        }
+
+        boolean isZero() {
+            return amountMinor == 0 && approvedAmountMinor == 0 && count == 0 && approvedCount == 0;
+        }
+
+        /**
+         * Fields for set(..., SetOptions.merge()); creates the document on first use
+         */
+        Map<String, Object> toIncrements() {
+            Map<String, Object> fields = new HashMap<>();
+            fields.put("scope", scope);
+            fields.put("key", key);
+            if (amountMinor != 0) fields.put("amountMinor", FieldValue.increment(amountMinor));
+            if (approvedAmountMinor != 0) fields.put("approvedAmountMinor", FieldValue.increment(approvedAmountMinor));
+            if (count != 0) fields.put("count", FieldValue.increment(count));
+            if (approvedCount != 0) fields.put("approvedCount", FieldValue.increment(approvedCount));
+            fields.put("updatedAt", new Date());
+            return fields;
+        }
+
+        /**
+         * Absolute values, used by the reconciliation job to overwrite a drifted document
+         */
+        Map<String, Object> toValues() {
+            Map<String, Object> fields = new HashMap<>();
+            fields.put("scope", scope);
+            fields.put("key", key);
+            fields.put("amountMinor", amountMinor);
+            fields.put("approvedAmountMinor", approvedAmountMinor);
+            fields.put("count", count);
+            fields.put("approvedCount", approvedCount);
+            fields.put("updatedAt", new Date());
+            return fields;
+        }
+
+        /**
+         * Numeric fields by field path, for drift checks
+         */
+        Map<String, Long> numbers() {
+            Map<String, Long> numbers = new LinkedHashMap<>();
+            numbers.put("amountMinor", amountMinor);
+            numbers.put("approvedAmountMinor", approvedAmountMinor);
+            numbers.put("count", count);
+            numbers.put("approvedCount", approvedCount);
+            return numbers;
+        }
+    }
+
+    public static String categoryRollupId(String category) {
+        return SCOPE_CATEGORY + "_" + categoryKey(category);
+    }
+
+    public static String monthRollupId(Date createdAt) {
+        return SCOPE_MONTH + "_" + monthKey(createdAt);
+    }
+
+    /**
+     * Rollup changes for a budget going from before to after (either may be null for add / delete).
+     * Keyed by rollup document id; documents whose change cancels out are left out.
+     */
+    public static Map<String, Delta> deltas(Map<String, Object> before, Map<String, Object> after) {
+        Map<String, Delta> deltas = new HashMap<>();
+        if (before != null) accumulate(deltas, before, -1);
+        if (after != null) accumulate(deltas, after, 1);
+        Iterator<Delta> iterator = deltas.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isZero()) iterator.remove();
+        }
+        return deltas;
+    }
+
+    /**
+     * Adds one budget's contribution (sign 1) or removes it (sign -1)
+     */
+    static void accumulate(Map<String, Delta> deltas, Map<String, Object> budget, int sign) {
+        long amount = Budget.amountMinorOf(budget);
+        boolean approved = Boolean.TRUE.equals(budget.get("approved"));
+        String category = categoryKey((String) budget.get("category"));
+        String month = monthKey(dateOf(budget.get("createdAt")));
+
+        add(deltas, PROJECT_ROLLUP_ID, SCOPE_PROJECT, SCOPE_PROJECT, amount, approved, sign);
+        add(deltas, SCOPE_CATEGORY + "_" + category, SCOPE_CATEGORY, category, amount, approved, sign);
+        add(deltas, SCOPE_MONTH + "_" + month, SCOPE_MONTH, month, amount, approved, sign);
+    }
+
+    private static void add(Map<String, Delta> deltas, String id, String scope, String key,
+                            long amount, boolean approved, int sign) {
+        Delta delta = deltas.get(id);
+        if (delta == null) {
+            delta = new Delta(scope, key);
+            deltas.put(id, delta);
+        }
+        delta.amountMinor += sign * amount;
+        delta.count += sign;
+        if (approved) {
+            delta.approvedAmountMinor += sign * amount;
+            delta.approvedCount += sign;
+        }
+    }
+
+    // Unknown categories are counted as "other", same as the charts
+    private static String categoryKey(String category) {
+        return BudgetAggregate.CATEGORIES[BudgetAggregate.categoryIndex(category)];
+    }
+
+    private static String monthKey(Date date) {
+        if (date == null) return "unknown";
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+
+    private static Date dateOf(Object value) {
+        if (value instanceof Timestamp) return ((Timestamp) value).toDate();
+        if (value instanceof Date) return (Date) value;
+        return null;
+    }
+}
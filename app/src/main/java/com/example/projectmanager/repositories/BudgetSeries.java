@@ -0,0 +1,213 @@
+package com.example.projectmanager.repositories;
+
+import com.example.projectmanager.models.Budget;
+import com.example.projectmanager.models.BudgetAggregate;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.FieldValue;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Time-bucketed budget totals in budget_series, one document per bucket:
+ * "day_{yyyy-MM-dd}", "week_{yyyy-MM-dd}" (Monday the week starts on) and "month_{yyyy-MM}", all in UTC.
+ * Each document holds granularity, bucketStart, count and amountsMinor.{category} (long minor units, see
+ * Money), so a 3-year monthly trend is 36 small documents instead of every budget.
+ * Kept in step by BudgetRepository next to BudgetRollups.
+ */
+public final class BudgetSeries {
+    public static final String COLLECTION_SERIES = "budget_series";
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private BudgetSeries() {
+    }
+
+    public enum Granularity {
+        DAY("day"), WEEK("week"), MONTH("month");
+
+        private final String id;
+
+        Granularity(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Start of the bucket containing date
+         */
+        public Date bucketStart(Date date) {
+            Calendar calendar = Calendar.getInstance(UTC, Locale.US);
+            calendar.setTime(date);
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            if (this == WEEK) {
+                // Calendar.MONDAY = 2 ... SUNDAY = 1
+                int daysSinceMonday = (calendar.get(Calendar.DAY_OF_WEEK) + 5) % 7;
+                calendar.add(Calendar.DAY_OF_MONTH, -daysSinceMonday);
+            } else if (this == MONTH) {
+                calendar.set(Calendar.DAY_OF_MONTH, 1);
+            }
+            return calendar.getTime();
+        }
+
+        /**
+         * Start of the bucket offset buckets after (or before, if negative) bucketStart
+         */
+        public Date shift(Date bucketStart, int buckets) {
+            Calendar calendar = Calendar.getInstance(UTC, Locale.US);
+            calendar.setTime(bucketStart);
+            switch (this) {
+                case DAY:
+                    calendar.add(Calendar.DAY_OF_MONTH, buckets);
+                    break;
+                case WEEK:
+                    calendar.add(Calendar.DAY_OF_MONTH, 7 * buckets);
+                    break;
+                default:
+                    calendar.add(Calendar.MONTH, buckets);
+                    break;
+            }
+            return calendar.getTime();
+        }
+
+        String documentId(Date bucketStart) {
+            SimpleDateFormat format = new SimpleDateFormat(this == MONTH ? "yyyy-MM" : "yyyy-MM-dd", Locale.US);
+            format.setTimeZone(UTC);
+            return id + "_" + format.format(bucketStart);
+        }
+    }
+
+    /**
+     * Change to (or rebuilt contents of) one bucket document
+     */
+    public static final class Bucket {
+        final Granularity granularity;
+        final Date bucketStart;
+        final long[] amounts = new long[BudgetAggregate.CATEGORY_COUNT];
+        long count;
+
+        Bucket(Granularity granularity, Date bucketStart) {
+            this.granularity = granularity;
+            this.bucketStart = bucketStart;
+        }
+
+        boolean isZero() {
+            if (count != 0) return false;
+            for (long amount : amounts) {
+                if (amount != 0) return false;
+            }
+            return true;
+        }
+
+        /**
+         * Fields for set(..., SetOptions.merge()); nested amounts are merged per category
+         */
+        Map<String, Object> toIncrements() {
+            Map<String, Object> increments = new HashMap<>();
+            for (int i = 0; i < amounts.length; i++) {
+                if (amounts[i] != 0) {
+                    increments.put(BudgetAggregate.CATEGORIES[i], FieldValue.increment(amounts[i]));
+                }
+            }
+
+            Map<String, Object> fields = header();
+            // An empty map under SetOptions.merge() would replace the stored per-category totals
+            if (!increments.isEmpty()) fields.put("amountsMinor", increments);
+            if (count != 0) fields.put("count", FieldValue.increment(count));
+            return fields;
+        }
+
+        /**
+         * Absolute values, used by the reconciliation job
+         */
+        Map<String, Object> toValues() {
+            Map<String, Object> values = new HashMap<>();
+            for (int i = 0; i < amounts.length; i++) {
+                values.put(BudgetAggregate.CATEGORIES[i], amounts[i]);
+            }
+
+            Map<String, Object> fields = header();
+            fields.put("amountsMinor", values);
+            fields.put("count", count);
+            return fields;
+        }
+
+        /**
+         * Numeric fields by field path, for drift checks
+         */
+        Map<String, Long> numbers() {
+            Map<String, Long> numbers = new LinkedHashMap<>();
+            for (int i = 0; i < amounts.length; i++) {
+                numbers.put("amountsMinor." + BudgetAggregate.CATEGORIES[i], amounts[i]);
+            }
+            numbers.put("count", count);
+            return numbers;
+        }
+
+        private Map<String, Object> header() {
+            Map<String, Object> fields = new HashMap<>();
+            fields.put("granularity", granularity.getId());
+            fields.put("bucketStart", bucketStart);
+            fields.put("updatedAt", new Date());
+            return fields;
+        }
+    }
+
+    /**
+     * Bucket changes for a budget going from before to after (either may be null for add / delete),
+     * keyed by document id; buckets whose change cancels out are left out.
+     */
+    public static Map<String, Bucket> deltas(Map<String, Object> before, Map<String, Object> after) {
+        Map<String, Bucket> deltas = new HashMap<>();
+        if (before != null) accumulate(deltas, before, -1);
+        if (after != null) accumulate(deltas, after, 1);
+        Iterator<Bucket> iterator = deltas.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isZero()) iterator.remove();
+        }
+        return deltas;
+    }
+
+    /**
+     * Adds one budget's contribution (sign 1) or removes it (sign -1) in every granularity.
+     * Budgets without createdAt have no place on a time axis and are skipped.
+     */
+    static void accumulate(Map<String, Bucket> buckets, Map<String, Object> budget, int sign) {
+        Date createdAt = dateOf(budget.get("createdAt"));
+        if (createdAt == null) return;
+
+        long amount = Budget.amountMinorOf(budget);
+        int category = BudgetAggregate.categoryIndex((String) budget.get("category"));
+
+        for (Granularity granularity : Granularity.values()) {
+            Date start = granularity.bucketStart(createdAt);
+            String id = granularity.documentId(start);
+            Bucket bucket = buckets.get(id);
+            if (bucket == null) {
+                bucket = new Bucket(granularity, start);
+                buckets.put(id, bucket);
+            }
+            bucket.amounts[category] += sign * amount;
+            bucket.count += sign;
+        }
+    }
+
+    private static Date dateOf(Object value) {
+        if (value instanceof Timestamp) return ((Timestamp) value).toDate();
+        if (value instanceof Date) return (Date) value;
+        return null;
+    }
+}
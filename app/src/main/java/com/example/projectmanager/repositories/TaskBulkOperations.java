@@ -0,0 +1,339 @@
+package com.example.projectmanager.repositories;
+
+import android.util.Log;
+
+import com.example.projectmanager.models.Task;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Thao tác hàng loạt trên nhiều tasks (đổi trạng thái, phân việc lại, xóa).
+ * Quyền được kiểm tra trên Task đã decode sẵn (TaskDecoder) thay vì đọc lại từng document;
+ * đổi trạng thái được chia thành WriteBatch (tối đa 500 thao tác) và commit song song,
+ * còn phân việc lại và xóa chạy từng task trong transaction (TaskReassignments, TaskDeletion).
+ */
+public class TaskBulkOperations {
+    private static final String TAG = "TaskBulkOperations";
+    private static final String TASKS_COLLECTION = "tasks";
+    private static final int MAX_CONCURRENT_TRANSACTIONS = 10;
+
+    public interface OnBulkOperationListener {
+        void onProgress(int processed, int total);
+        void onComplete(Result result);
+        void onError(String error);
+    }
+
+    /**
+     * Kết quả tổng hợp: các task thành công và lý do thất bại của từng task còn lại
+     */
+    public static class Result {
+        private final List<String> succeededIds = new ArrayList<>();
+        private final Map<String, String> failures = new LinkedHashMap<>();
+
+        public List<String> getSucceededIds() { return Collections.unmodifiableList(succeededIds); }
+        public Map<String, String> getFailures() { return Collections.unmodifiableMap(failures); }
+
+        public int getTotal() { return succeededIds.size() + failures.size(); }
+        public boolean hasFailures() { return !failures.isEmpty(); }
+    }
+
+    private enum Permission {
+        ASSIGNER_ONLY,
+        ASSIGNEE_ONLY
+    }
+
+    // Thao tác riêng cho một task (transaction), báo kết quả qua callback
+    private interface TaskTransaction {
+        void run(String taskId, OnTaskDone done);
+    }
+
+    private interface OnTaskDone {
+        void onSuccess();
+        void onError(String error);
+    }
+
+    private final FirebaseFirestore db;
+    private final TaskDecoder taskDecoder;
+    private final TaskWriteQueue writeQueue;
+    private final TaskDeletion taskDeletion;
+
+    TaskBulkOperations(FirebaseFirestore db, TaskDecoder taskDecoder, TaskWriteQueue writeQueue,
+                       TaskDeletion taskDeletion) {
+        this.db = db;
+        this.taskDecoder = taskDecoder;
+        this.writeQueue = writeQueue;
+        this.taskDeletion = taskDeletion;
+    }
+
+    /**
+     * Đổi trạng thái; như khi đổi từng task (TaskAdapter), chỉ người được phân việc mới được phép
+     */
+    public void updateStatus(Collection<String> taskIds, String status, String currentUserId,
+                             OnBulkOperationListener listener) {
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("status", status);
+        updates.put("updatedAt", new Date());
+
+        run("update status -> " + status, taskIds, currentUserId, Permission.ASSIGNEE_ONLY, updates, listener);
+    }
+
+    /**
+     * Phân việc lại cho người khác (reset trạng thái về pending); chỉ người giao việc.
+     * Mỗi task chạy trong một transaction riêng để ghi bản ghi task_reassignments với người được phân việc
+     * đọc được lúc ghi (TaskReassignments).
+     */
+    public void reassign(Collection<String> taskIds, String newAssigneeId, String newAssigneeName,
+                         String currentUserId, OnBulkOperationListener listener) {
+        Date updatedAt = new Date();
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("assignedToUserId", newAssigneeId);
+        updates.put("assignedToName", newAssigneeName);
+        updates.put("status", Task.Status.PENDING.getValue());
+        updates.put("updatedAt", updatedAt);
+
+        runEach("reassign -> " + newAssigneeName, taskIds, currentUserId, Permission.ASSIGNER_ONLY,
+                (taskId, done) -> {
+                    DocumentReference taskRef = db.collection(TASKS_COLLECTION).document(taskId);
+                    db.runTransaction(transaction -> {
+                        DocumentSnapshot snapshot = transaction.get(taskRef);
+                        if (!snapshot.exists()) {
+                            throw new FirebaseFirestoreException("Task không tồn tại",
+                                    FirebaseFirestoreException.Code.NOT_FOUND);
+                        }
+                        if (!currentUserId.equals(snapshot.getString("assignerUserId"))) {
+                            throw new FirebaseFirestoreException("Chỉ người tạo task mới có quyền thực hiện",
+                                    FirebaseFirestoreException.Code.PERMISSION_DENIED);
+                        }
+                        TaskReassignments.record(db, transaction, snapshot, newAssigneeId, updatedAt);
+                        transaction.update(taskRef, updates);
+                        return null;
+                    }).addOnSuccessListener(aVoid -> done.onSuccess())
+                            .addOnFailureListener(e -> done.onError(e.getMessage()));
+                },
+                listener);
+    }
+
+    /**
+     * Xóa tasks kèm tombstone và trả lại tham chiếu tệp đính kèm; chỉ người giao việc.
+     * Mỗi task xóa trong một transaction riêng (TaskDeletion) vì hash của tệp phải đọc cùng lúc xóa.
+     * Task đã bị xóa từ trước tính là thành công.
+     */
+    public void delete(Collection<String> taskIds, String currentUserId, OnBulkOperationListener listener) {
+        Date deletedAt = new Date();
+        runEach("delete", taskIds, currentUserId, Permission.ASSIGNER_ONLY,
+                (taskId, done) -> taskDeletion.delete(taskId, currentUserId, deletedAt,
+                        new TaskDeletion.OnDeletedListener() {
+                            @Override
+                            public void onDeleted(boolean existed) {
+                                done.onSuccess();
+                            }
+
+                            @Override
+                            public void onError(String error) {
+                                done.onError(error);
+                            }
+                        }),
+                listener);
+    }
+
+    /**
+     * Chạy thao tác riêng cho từng task được phép, tối đa MAX_CONCURRENT_TRANSACTIONS cùng lúc
+     */
+    private void runEach(String operation, Collection<String> taskIds, String currentUserId, Permission permission,
+                         TaskTransaction action, OnBulkOperationListener listener) {
+        Result result = new Result();
+        List<String> allowedIds = allowedIds(operation, taskIds, currentUserId, permission, result, listener);
+        if (allowedIds == null) return;
+
+        int total = result.failures.size() + allowedIds.size();
+        int[] next = {0};
+        int[] pending = {allowedIds.size()};
+        for (int i = 0; i < Math.min(MAX_CONCURRENT_TRANSACTIONS, allowedIds.size()); i++) {
+            runNext(operation, allowedIds, next, pending, action, result, total, listener);
+        }
+    }
+
+    private void runNext(String operation, List<String> taskIds, int[] next, int[] pending, TaskTransaction action,
+                         Result result, int total, OnBulkOperationListener listener) {
+        if (next[0] == taskIds.size()) return;
+        String taskId = taskIds.get(next[0]++);
+
+        action.run(taskId, new OnTaskDone() {
+            @Override
+            public void onSuccess() {
+                result.succeededIds.add(taskId);
+                finishTask();
+            }
+
+            @Override
+            public void onError(String error) {
+                Log.e(TAG, "Bulk " + operation + " failed for task " + taskId + ": " + error);
+                result.failures.put(taskId, error);
+                finishTask();
+            }
+
+            private void finishTask() {
+                listener.onProgress(result.getTotal(), total);
+                if (--pending[0] == 0) {
+                    Log.d(TAG, "Bulk " + operation + " done: " + result.succeededIds.size() + " succeeded, "
+                            + result.failures.size() + " failed");
+                    listener.onComplete(result);
+                    return;
+                }
+                runNext(operation, taskIds, next, pending, action, result, total, listener);
+            }
+        });
+    }
+
+    /**
+     * Kiểm tra quyền từng task, ghi lý do từ chối vào result. Trả về null nếu không còn gì để làm
+     * (đã gọi onError / onComplete).
+     */
+    private List<String> allowedIds(String operation, Collection<String> taskIds, String currentUserId,
+                                    Permission permission, Result result, OnBulkOperationListener listener) {
+        if (currentUserId == null || currentUserId.isEmpty()) {
+            listener.onError("Current user ID is required");
+            return null;
+        }
+
+        List<String> allowedIds = new ArrayList<>();
+        for (String taskId : uniqueIds(taskIds)) {
+            String reason = checkPermission(taskId, currentUserId, permission);
+            if (reason == null) {
+                allowedIds.add(taskId);
+            } else {
+                result.failures.put(taskId, reason);
+            }
+        }
+
+        int total = result.failures.size() + allowedIds.size();
+        Log.d(TAG, "Bulk " + operation + ": " + allowedIds.size() + "/" + total + " tasks allowed");
+        listener.onProgress(result.failures.size(), total);
+
+        if (allowedIds.isEmpty()) {
+            listener.onComplete(result);
+            return null;
+        }
+
+        // Cập nhật đơn lẻ đang chờ phải được ghi trước để không đè lên kết quả hàng loạt
+        writeQueue.flush();
+        return allowedIds;
+    }
+
+    /**
+     * Ghi cùng updates lên mọi task được phép, theo batch. Batch là nguyên tử nên nếu một batch lỗi,
+     * các task của nó được ghi lại từng cái một (như TaskWriteQueue) để chỉ task lỗi bị báo lỗi.
+     */
+    private void run(String operation, Collection<String> taskIds, String currentUserId, Permission permission,
+                     Map<String, Object> updates, OnBulkOperationListener listener) {
+        Result result = new Result();
+        List<String> allowedIds = allowedIds(operation, taskIds, currentUserId, permission, result, listener);
+        if (allowedIds == null) return;
+
+        int total = result.failures.size() + allowedIds.size();
+        int chunkSize = TaskWriteQueue.MAX_BATCH_SIZE;
+        int chunkCount = (allowedIds.size() + chunkSize - 1) / chunkSize;
+        int[] pendingChunks = {chunkCount};
+
+        for (int start = 0; start < allowedIds.size(); start += chunkSize) {
+            List<String> chunk = allowedIds.subList(start, Math.min(start + chunkSize, allowedIds.size()));
+            WriteBatch batch = db.batch();
+            for (String taskId : chunk) {
+                batch.update(db.collection(TASKS_COLLECTION).document(taskId), updates);
+            }
+
+            // Các batch commit song song; callback chạy trên main thread nên cập nhật result tuần tự
+            batch.commit()
+                    .addOnSuccessListener(aVoid -> {
+                        result.succeededIds.addAll(chunk);
+                        finishChunk(operation, result, total, pendingChunks, listener);
+                    })
+                    .addOnFailureListener(e -> {
+                        Log.w(TAG, "Bulk " + operation + " batch failed, retrying " + chunk.size()
+                                + " tasks one by one", e);
+                        retryOneByOne(operation, chunk, updates, result, total, pendingChunks, listener);
+                    });
+        }
+    }
+
+    private void retryOneByOne(String operation, List<String> chunk, Map<String, Object> updates, Result result,
+                               int total, int[] pendingChunks, OnBulkOperationListener listener) {
+        int[] pendingTasks = {chunk.size()};
+        for (String taskId : chunk) {
+            db.collection(TASKS_COLLECTION).document(taskId)
+                    .update(updates)
+                    .addOnSuccessListener(aVoid -> {
+                        result.succeededIds.add(taskId);
+                        finishRetry(operation, result, total, pendingTasks, pendingChunks, listener);
+                    })
+                    .addOnFailureListener(e -> {
+                        Log.e(TAG, "Bulk " + operation + " failed for task " + taskId, e);
+                        result.failures.put(taskId, e.getMessage());
+                        finishRetry(operation, result, total, pendingTasks, pendingChunks, listener);
+                    });
+        }
+    }
+
+    private void finishRetry(String operation, Result result, int total, int[] pendingTasks, int[] pendingChunks,
+                             OnBulkOperationListener listener) {
+        if (--pendingTasks[0] == 0) {
+            finishChunk(operation, result, total, pendingChunks, listener);
+        } else {
+            listener.onProgress(result.getTotal(), total);
+        }
+    }
+
+    private void finishChunk(String operation, Result result, int total, int[] pendingChunks,
+                             OnBulkOperationListener listener) {
+        listener.onProgress(result.getTotal(), total);
+        pendingChunks[0]--;
+        if (pendingChunks[0] == 0) {
+            Log.d(TAG, "Bulk " + operation + " done: " + result.succeededIds.size() + " succeeded, "
+                    + result.failures.size() + " failed");
+            listener.onComplete(result);
+        }
+    }
+
+    /**
+     * Trả về lý do từ chối, null nếu được phép
+     */
+    private String checkPermission(String taskId, String currentUserId, Permission permission) {
+        Task task = taskDecoder.peek(taskId);
+        if (task == null) {
+            return "Task chưa được tải";
+        }
+        if (permission == Permission.ASSIGNEE_ONLY) {
+            return currentUserId.equals(task.getAssignedToUserId())
+                    ? null : "Chỉ người được phân việc mới có thể cập nhật trạng thái";
+        }
+        return currentUserId.equals(task.getAssignerUserId())
+                ? null : "Chỉ người tạo task mới có quyền thực hiện";
+    }
+
+    /**
+     * Bỏ id rỗng và trùng lặp, giữ thứ tự
+     */
+    private static Set<String> uniqueIds(Collection<String> taskIds) {
+        Set<String> unique = new LinkedHashSet<>();
+        for (String taskId : taskIds) {
+            if (taskId != null && !taskId.isEmpty()) {
+                unique.add(taskId);
+            }
+        }
+        return unique;
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.projectmanager.repositories;
+
+import com.example.projectmanager.models.Task;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentSnapshot;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Chuyển DocumentSnapshot thành Task, mỗi phiên bản document (id + updatedAt) chỉ decode một lần.
+ * Các listener/trang khác nhau nhận cùng một đối tượng Task nếu document chưa đổi.
+ */
+public class TaskDecoder {
+    private static final int MAX_CACHED_TASKS = 20000;
+
+    private static TaskDecoder instance;
+
+    // LRU theo thứ tự truy cập, giới hạn bộ nhớ khi có rất nhiều tasks
+    private final Map<String, Task> cache = new LinkedHashMap<String, Task>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Task> eldest) {
+            return size() > MAX_CACHED_TASKS;
+        }
+    };
+
+    private TaskDecoder() {
+    }
+
+    public static synchronized TaskDecoder getInstance() {
+        if (instance == null) {
+            instance = new TaskDecoder();
+        }
+        return instance;
+    }
+
+    /**
+     * Trả về Task của document; dùng lại bản đã decode nếu updatedAt không đổi.
+     * Trả về null nếu document không tồn tại.
+     */
+    public synchronized Task decode(DocumentSnapshot doc) {
+        String id = doc.getId();
+        long version = toMillis(doc.get("updatedAt"));
+
+        Task cached = cache.get(id);
+        if (cached != null && version != Long.MIN_VALUE && cached.getUpdatedAt() != null
+                && cached.getUpdatedAt().getTime() == version) {
+            return cached;
+        }
+
+        Map<String, Object> data = doc.getData();
+        if (data == null) {
+            cache.remove(id);
+            return null;
+        }
+        data.put("id", id);
+        Task task = Task.fromMap(data);
+        cache.put(id, task);
+        return task;
+    }
+
+    /**
+     * Task đã decode của id mà không đọc Firestore, null nếu chưa có trong cache
+     */
+    public synchronized Task peek(String taskId) {
+        return cache.get(taskId);
+    }
+
+    /**
+     * Đưa Task đã có sẵn (ví dụ đọc từ bộ nhớ máy) vào cache để snapshot cùng phiên bản dùng lại nó
+     */
+    public synchronized void prime(Task task) {
+        if (task.getId() != null && task.getUpdatedAt() != null && !cache.containsKey(task.getId())) {
+            cache.put(task.getId(), task);
+        }
+    }
+
+    /**
+     * Bỏ Task khỏi cache (ví dụ khi document bị xóa)
+     */
+    public synchronized void evict(String taskId) {
+        cache.remove(taskId);
+    }
+
+    /**
+     * Bỏ toàn bộ cache (ví dụ khi đăng xuất)
+     */
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    private static long toMillis(Object value) {
+        if (value instanceof Timestamp) {
+            return ((Timestamp) value).toDate().getTime();
+        } else if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        return Long.MIN_VALUE;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.projectmanager.repositories;
+
+import android.util.Log;
+
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Xóa một task trong transaction: đọc lại document, xóa nó, ghi tombstone và trả lại tham chiếu tệp đính kèm
+ * theo hash trên chính snapshot đã đọc. Hai lần xóa đồng thời, hay xóa trong lúc đổi tệp, không thể giảm
+ * refCount hai lần; task đã bị xóa từ trước thì không ghi gì.
+ */
+class TaskDeletion {
+    private static final String TAG = "TaskDeletion";
+    private static final String TASKS_COLLECTION = "tasks";
+    private static final String TOMBSTONES_COLLECTION = "task_tombstones";
+
+    interface OnDeletedListener {
+        /** existed = false nếu task đã không còn trước khi xóa */
+        void onDeleted(boolean existed);
+        void onError(String error);
+    }
+
+    private final FirebaseFirestore db;
+    private final TaskDecoder taskDecoder;
+    private final TaskLocalStore localStore;
+    private final AttachmentBlobRepository blobRepository;
+
+    TaskDeletion(FirebaseFirestore db, TaskDecoder taskDecoder, TaskLocalStore localStore,
+                 AttachmentBlobRepository blobRepository) {
+        this.db = db;
+        this.taskDecoder = taskDecoder;
+        this.localStore = localStore;
+        this.blobRepository = blobRepository;
+    }
+
+    /**
+     * @param requiredAssignerId nếu khác null, chỉ xóa khi document hiện tại có assignerUserId này
+     */
+    void delete(String taskId, String requiredAssignerId, Date deletedAt, OnDeletedListener listener) {
+        DocumentReference taskRef = db.collection(TASKS_COLLECTION).document(taskId);
+
+        db.runTransaction(transaction -> {
+            Map<String, Object> result = new HashMap<>();
+            DocumentSnapshot snapshot = transaction.get(taskRef);
+            if (!snapshot.exists()) {
+                result.put("existed", false);
+                return result;
+            }
+            if (requiredAssignerId != null && !requiredAssignerId.equals(snapshot.getString("assignerUserId"))) {
+                throw new FirebaseFirestoreException("Chỉ người tạo task mới có quyền xóa",
+                        FirebaseFirestoreException.Code.PERMISSION_DENIED);
+            }
+
+            // Tombstone để các máy khác biết task đã bị xóa khi đồng bộ theo watermark
+            Map<String, Object> tombstone = new HashMap<>();
+            tombstone.put("taskId", taskId);
+            tombstone.put("deletedAt", deletedAt);
+
+            transaction.delete(taskRef);
+            transaction.set(db.collection(TOMBSTONES_COLLECTION).document(taskId), tombstone);
+            String attachmentHash = snapshot.getString(AttachmentBlobRepository.FIELD_ATTACHMENT_HASH);
+            if (attachmentHash != null) {
+                blobRepository.removeReference(transaction, attachmentHash);
+            }
+            result.put("existed", true);
+            result.put("attachmentHash", attachmentHash);
+            return result;
+        }).addOnSuccessListener(result -> {
+            boolean existed = Boolean.TRUE.equals(result.get("existed"));
+            Log.d(TAG, existed ? "Task " + taskId + " deleted" : "Task " + taskId + " was already deleted");
+            blobRepository.deleteIfUnreferenced((String) result.get("attachmentHash"));
+            taskDecoder.evict(taskId);
+            localStore.deleteTask(taskId);
+            listener.onDeleted(existed);
+        }).addOnFailureListener(e -> {
+            Log.e(TAG, "Error deleting task " + taskId, e);
+            listener.onError(e.getMessage());
+        });
+    }
+}
@@ -0,0 +1,322 @@
+package com.example.projectmanager.repositories;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.example.projectmanager.models.Task;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Bản sao tasks trên máy (SQLite) để mở màn hình là có dữ liệu ngay,
+ * kèm mốc đồng bộ (watermark updatedAt) cho từng query.
+ * Đọc chạy đồng bộ trên thread gọi; ghi chạy tuần tự trên một background thread.
+ */
+public class TaskLocalStore extends SQLiteOpenHelper {
+    private static final String TAG = "TaskLocalStore";
+    private static final String DATABASE_NAME = "task_cache.db";
+    private static final int DATABASE_VERSION = 2;
+
+    private static final String TABLE_TASKS = "tasks";
+    private static final String TABLE_SYNC_STATE = "sync_state";
+
+    private static final String COL_ID = "id";
+    private static final String COL_TITLE = "title";
+    private static final String COL_DESCRIPTION = "description";
+    private static final String COL_ASSIGNED_TO_USER_ID = "assigned_to_user_id";
+    private static final String COL_ASSIGNED_TO_NAME = "assigned_to_name";
+    private static final String COL_ASSIGNER_USER_ID = "assigner_user_id";
+    private static final String COL_ASSIGNER_NAME = "assigner_name";
+    private static final String COL_STATUS = "status";
+    private static final String COL_PRIORITY = "priority";
+    private static final String COL_DUE_DATE = "due_date";
+    private static final String COL_CREATED_AT = "created_at";
+    private static final String COL_UPDATED_AT = "updated_at";
+    private static final String COL_ATTACHMENT_URL = "attachment_url";
+    private static final String COL_ATTACHMENT_NAME = "attachment_name";
+    private static final String COL_ATTACHMENT_HASH = "attachment_hash";
+
+    private static final String COL_SYNC_KEY = "sync_key";
+    private static final String COL_WATERMARK = "watermark";
+
+    private static TaskLocalStore instance;
+
+    /**
+     * Phạm vi của một query trên bảng tasks (toàn bộ hoặc theo một cột)
+     */
+    public static class Scope {
+        private final String column;
+        private final String value;
+
+        private Scope(String column, String value) {
+            this.column = column;
+            this.value = value;
+        }
+
+        public static Scope all() {
+            return new Scope(null, null);
+        }
+
+        public static Scope assignedTo(String userId) {
+            return new Scope(COL_ASSIGNED_TO_USER_ID, userId);
+        }
+
+        public static Scope createdBy(String userId) {
+            return new Scope(COL_ASSIGNER_USER_ID, userId);
+        }
+
+        boolean isAll() {
+            return column == null;
+        }
+    }
+
+    private final ExecutorService writeExecutor = Executors.newSingleThreadExecutor();
+
+    private TaskLocalStore(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    public static synchronized TaskLocalStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new TaskLocalStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_TASKS + " ("
+                + COL_ID + " TEXT PRIMARY KEY, "
+                + COL_TITLE + " TEXT, "
+                + COL_DESCRIPTION + " TEXT, "
+                + COL_ASSIGNED_TO_USER_ID + " TEXT, "
+                + COL_ASSIGNED_TO_NAME + " TEXT, "
+                + COL_ASSIGNER_USER_ID + " TEXT, "
+                + COL_ASSIGNER_NAME + " TEXT, "
+                + COL_STATUS + " TEXT, "
+                + COL_PRIORITY + " TEXT, "
+                + COL_DUE_DATE + " INTEGER, "
+                + COL_CREATED_AT + " INTEGER, "
+                + COL_UPDATED_AT + " INTEGER, "
+                + COL_ATTACHMENT_URL + " TEXT, "
+                + COL_ATTACHMENT_NAME + " TEXT, "
+                + COL_ATTACHMENT_HASH + " TEXT)");
+        db.execSQL("CREATE INDEX idx_tasks_created_at ON " + TABLE_TASKS + " (" + COL_CREATED_AT + ")");
+        db.execSQL("CREATE TABLE " + TABLE_SYNC_STATE + " ("
+                + COL_SYNC_KEY + " TEXT PRIMARY KEY, "
+                + COL_WATERMARK + " INTEGER NOT NULL)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Chỉ là cache: bỏ đi và đồng bộ lại từ đầu
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_TASKS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SYNC_STATE);
+        onCreate(db);
+    }
+
+    /**
+     * Tất cả tasks đã lưu, mới tạo nhất trước
+     */
+    public List<Task> loadTasks() {
+        return loadTasks(Scope.all());
+    }
+
+    /**
+     * Tasks đã lưu thuộc phạm vi, mới tạo nhất trước
+     */
+    public List<Task> loadTasks(Scope scope) {
+        List<Task> tasks = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().query(TABLE_TASKS, null,
+                scope.isAll() ? null : scope.column + " = ?",
+                scope.isAll() ? null : new String[]{scope.value},
+                null, null, COL_CREATED_AT + " DESC");
+        try {
+            while (cursor.moveToNext()) {
+                tasks.add(readTask(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        Log.d(TAG, "Loaded " + tasks.size() + " cached tasks");
+        return tasks;
+    }
+
+    /**
+     * Mốc updatedAt (millis) của lần đồng bộ gần nhất cho query, 0 nếu chưa đồng bộ
+     */
+    public long getWatermark(String syncKey) {
+        Cursor cursor = getReadableDatabase().query(TABLE_SYNC_STATE, new String[]{COL_WATERMARK},
+                COL_SYNC_KEY + " = ?", new String[]{syncKey}, null, null, null);
+        try {
+            return cursor.moveToNext() ? cursor.getLong(0) : 0L;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Lưu các tasks thay đổi, xóa các tasks đã bị xóa và nâng watermark trong một transaction
+     */
+    public void applyChanges(Collection<Task> upserts, Collection<String> deletedIds,
+                             String syncKey, long watermark) {
+        applyChanges(upserts, deletedIds, Scope.all(), syncKey, watermark);
+    }
+
+    /**
+     * Như trên, nhưng chỉ xóa những dòng còn thuộc phạm vi: task rời khỏi query
+     * (ví dụ được phân cho người khác) không làm mất bản mới hơn do query khác đã lưu
+     */
+    public void applyChanges(Collection<Task> upserts, Collection<String> deletedIds, Scope scope,
+                             String syncKey, long watermark) {
+        List<Task> tasksToSave = new ArrayList<>(upserts);
+        List<String> idsToDelete = new ArrayList<>(deletedIds);
+        writeExecutor.execute(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (Task task : tasksToSave) {
+                    // Nhiều query cùng ghi một task: chỉ thay bản cũ hơn, không ghi đè bản mới hơn
+                    Long updatedAt = toMillis(task.getUpdatedAt());
+                    if (updatedAt != null) {
+                        db.delete(TABLE_TASKS, COL_ID + " = ? AND (" + COL_UPDATED_AT + " IS NULL OR "
+                                + COL_UPDATED_AT + " <= ?)", new String[]{task.getId(), String.valueOf(updatedAt)});
+                        db.insertWithOnConflict(TABLE_TASKS, null, toValues(task), SQLiteDatabase.CONFLICT_IGNORE);
+                    } else {
+                        db.insertWithOnConflict(TABLE_TASKS, null, toValues(task), SQLiteDatabase.CONFLICT_REPLACE);
+                    }
+                }
+                for (String taskId : idsToDelete) {
+                    if (scope.isAll()) {
+                        db.delete(TABLE_TASKS, COL_ID + " = ?", new String[]{taskId});
+                    } else {
+                        db.delete(TABLE_TASKS, COL_ID + " = ? AND " + scope.column + " = ?",
+                                new String[]{taskId, scope.value});
+                    }
+                }
+                if (syncKey != null && watermark > 0) {
+                    // Không bao giờ lùi watermark
+                    db.execSQL("INSERT OR REPLACE INTO " + TABLE_SYNC_STATE + " (" + COL_SYNC_KEY + ", " + COL_WATERMARK + ") "
+                                    + "VALUES (?, MAX(?, COALESCE((SELECT " + COL_WATERMARK + " FROM " + TABLE_SYNC_STATE
+                                    + " WHERE " + COL_SYNC_KEY + " = ?), 0)))",
+                            new Object[]{syncKey, watermark, syncKey});
+                }
+                db.setTransactionSuccessful();
+            } catch (Exception e) {
+                Log.e(TAG, "Error saving cached tasks", e);
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    /**
+     * Bỏ khỏi phạm vi các task đã được phân cho người khác (id -> thời điểm phân lại) và nâng watermark.
+     * Dòng có updatedAt mới hơn thời điểm phân lại (đã được phân lại về, hoặc query khác đã lưu bản mới)
+     * được giữ.
+     */
+    public void removeReassigned(Map<String, Long> reassignedAtById, Scope scope, String syncKey, long watermark) {
+        Map<String, Long> reassignments = new HashMap<>(reassignedAtById);
+        writeExecutor.execute(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (Map.Entry<String, Long> entry : reassignments.entrySet()) {
+                    db.delete(TABLE_TASKS, COL_ID + " = ? AND " + scope.column + " = ? AND ("
+                                    + COL_UPDATED_AT + " IS NULL OR " + COL_UPDATED_AT + " <= ?)",
+                            new String[]{entry.getKey(), scope.value, String.valueOf(entry.getValue())});
+                }
+                if (watermark > 0) {
+                    db.execSQL("INSERT OR REPLACE INTO " + TABLE_SYNC_STATE + " (" + COL_SYNC_KEY + ", " + COL_WATERMARK + ") "
+                                    + "VALUES (?, MAX(?, COALESCE((SELECT " + COL_WATERMARK + " FROM " + TABLE_SYNC_STATE
+                                    + " WHERE " + COL_SYNC_KEY + " = ?), 0)))",
+                            new Object[]{syncKey, watermark, syncKey});
+                }
+                db.setTransactionSuccessful();
+            } catch (Exception e) {
+                Log.e(TAG, "Error removing reassigned tasks", e);
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    /**
+     * Xóa một task khỏi bộ nhớ máy
+     */
+    public void deleteTask(String taskId) {
+        writeExecutor.execute(() -> getWritableDatabase()
+                .delete(TABLE_TASKS, COL_ID + " = ?", new String[]{taskId}));
+    }
+
+    /**
+     * Xóa toàn bộ cache và watermark (ví dụ khi đăng xuất)
+     */
+    public void clear() {
+        writeExecutor.execute(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.delete(TABLE_TASKS, null, null);
+            db.delete(TABLE_SYNC_STATE, null, null);
+        });
+    }
+
+    private static ContentValues toValues(Task task) {
+        ContentValues values = new ContentValues();
+        values.put(COL_ID, task.getId());
+        values.put(COL_TITLE, task.getTitle());
+        values.put(COL_DESCRIPTION, task.getDescription());
+        values.put(COL_ASSIGNED_TO_USER_ID, task.getAssignedToUserId());
+        values.put(COL_ASSIGNED_TO_NAME, task.getAssignedToName());
+        values.put(COL_ASSIGNER_USER_ID, task.getAssignerUserId());
+        values.put(COL_ASSIGNER_NAME, task.getAssignerName());
+        values.put(COL_STATUS, task.getStatus());
+        values.put(COL_PRIORITY, task.getPriority());
+        values.put(COL_DUE_DATE, toMillis(task.getDueDate()));
+        values.put(COL_CREATED_AT, toMillis(task.getCreatedAt()));
+        values.put(COL_UPDATED_AT, toMillis(task.getUpdatedAt()));
+        values.put(COL_ATTACHMENT_URL, task.getAttachmentUrl());
+        values.put(COL_ATTACHMENT_NAME, task.getAttachmentName());
+        values.put(COL_ATTACHMENT_HASH, task.getAttachmentHash());
+        return values;
+    }
+
+    private static Task readTask(Cursor cursor) {
+        return Task.builder()
+                .setId(cursor.getString(cursor.getColumnIndexOrThrow(COL_ID)))
+                .setTitle(cursor.getString(cursor.getColumnIndexOrThrow(COL_TITLE)))
+                .setDescription(cursor.getString(cursor.getColumnIndexOrThrow(COL_DESCRIPTION)))
+                .setAssignedToUserId(cursor.getString(cursor.getColumnIndexOrThrow(COL_ASSIGNED_TO_USER_ID)))
+                .setAssignedToName(cursor.getString(cursor.getColumnIndexOrThrow(COL_ASSIGNED_TO_NAME)))
+                .setAssignerUserId(cursor.getString(cursor.getColumnIndexOrThrow(COL_ASSIGNER_USER_ID)))
+                .setAssignerName(cursor.getString(cursor.getColumnIndexOrThrow(COL_ASSIGNER_NAME)))
+                .setStatus(cursor.getString(cursor.getColumnIndexOrThrow(COL_STATUS)))
+                .setPriority(cursor.getString(cursor.getColumnIndexOrThrow(COL_PRIORITY)))
+                .setDueDate(readDate(cursor, COL_DUE_DATE))
+                .setCreatedAt(readDate(cursor, COL_CREATED_AT))
+                .setUpdatedAt(readDate(cursor, COL_UPDATED_AT))
+                .setAttachmentUrl(cursor.getString(cursor.getColumnIndexOrThrow(COL_ATTACHMENT_URL)))
+                .setAttachmentName(cursor.getString(cursor.getColumnIndexOrThrow(COL_ATTACHMENT_NAME)))
+                .setAttachmentHash(cursor.getString(cursor.getColumnIndexOrThrow(COL_ATTACHMENT_HASH)))
+                .build();
+    }
+
+    private static Date readDate(Cursor cursor, String column) {
+        int index = cursor.getColumnIndexOrThrow(column);
+        return cursor.isNull(index) ? null : new Date(cursor.getLong(index));
+    }
+
+    private static Long toMillis(Date date) {
+        return date != null ? date.getTime() : null;
+    }
+}
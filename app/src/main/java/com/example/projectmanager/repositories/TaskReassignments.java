@@ -0,0 +1,43 @@
+package com.example.projectmanager.repositories;
+
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Transaction;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bản ghi "task đã được phân cho người khác", giống tombstone nhưng theo người được phân việc trước đó.
+ * Query đồng bộ "Nhiệm vụ của tôi" (assignedToUserId == user, updatedAt > watermark) không bao giờ thấy
+ * task đã rời khỏi nó, nên nó đọc các bản ghi này để bỏ task khỏi danh sách và bộ nhớ máy.
+ * Mỗi task và người được phân trước đó có một document task_reassignments/{taskId}_{previousAssigneeId}.
+ */
+final class TaskReassignments {
+    static final String COLLECTION = "task_reassignments";
+    static final String FIELD_TASK_ID = "taskId";
+    static final String FIELD_PREVIOUS_ASSIGNEE_ID = "previousAssigneeId";
+    static final String FIELD_REASSIGNED_AT = "reassignedAt";
+
+    private TaskReassignments() {
+    }
+
+    /**
+     * Ghi bản ghi vào transaction đang đổi người được phân việc, nếu người đó thực sự đổi.
+     * current là snapshot của task đọc trong chính transaction đó.
+     */
+    static void record(FirebaseFirestore db, Transaction transaction, DocumentSnapshot current,
+                       String newAssigneeId, Date reassignedAt) {
+        String previousAssigneeId = current.getString("assignedToUserId");
+        if (previousAssigneeId == null || previousAssigneeId.equals(newAssigneeId)) return;
+
+        Map<String, Object> reassignment = new HashMap<>();
+        reassignment.put(FIELD_TASK_ID, current.getId());
+        reassignment.put(FIELD_PREVIOUS_ASSIGNEE_ID, previousAssigneeId);
+        reassignment.put("newAssigneeId", newAssigneeId);
+        reassignment.put(FIELD_REASSIGNED_AT, reassignedAt);
+        transaction.set(db.collection(COLLECTION).document(current.getId() + "_" + previousAssigneeId),
+                reassignment);
+    }
+}
@@ -1,17 +1,23 @@
 package com.example.projectmanager.repositories;
 
+import android.content.Context;
 import android.util.Log;
 
 import com.example.projectmanager.models.Task;
+import com.example.projectmanager.utils.QuerySubscriptionRegistry;
+import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
 
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -21,15 +27,36 @@ public class TaskRepository {
     private static final String TAG = "TaskRepository";
     private static final String TASKS_COLLECTION = "tasks";
     private static final int PAGE_SIZE = 10; // Số items mỗi trang
+    private static final String TOMBSTONES_COLLECTION = "task_tombstones";
+    private static final String SYNC_KEY_ALL_TASKS = "tasks";
+    private static final String OFFLINE_KEY_PREFIX = "offline:";
+    private static final String SYNC_KEY_TOMBSTONES = "task_tombstones";
+    private static final String SYNC_KEY_REASSIGNMENTS_PREFIX = "task_reassignments/";
+    // updatedAt do client ghi nên lùi watermark một khoảng để không sót thay đổi từ máy lệch giờ
+    private static final long SYNC_OVERLAP_MS = 5 * 60 * 1000;
     private FirebaseFirestore db;
+    private QuerySubscriptionRegistry subscriptionRegistry;
+    private TaskDecoder taskDecoder;
+    private TaskLocalStore localStore;
+    private TaskWriteQueue writeQueue;
+    private TaskBulkOperations bulkOperations;
+    private AttachmentBlobRepository blobRepository;
+    private TaskDeletion taskDeletion;
 
     public interface OnTasksLoadedListener {
-        void onTasksLoaded(List<Map<String, Object>> tasks);
+        void onTasksLoaded(List<Task> tasks);
         void onError(String error);
     }
 
+    /**
+     * Listener nhận thay đổi từng phần (added/modified/removed kèm vị trí) thay vì cả danh sách
+     */
+    public interface OnTaskChangesListener extends OnTasksLoadedListener {
+        void onTaskChanges(List<Task> tasks, List<TaskSnapshotIndex.Change> changes);
+    }
+
     public interface OnPagedTasksLoadedListener {
-        void onTasksLoaded(List<Map<String, Object>> tasks, boolean hasMore, DocumentSnapshot lastDocument);
+        void onTasksLoaded(List<Task> tasks, boolean hasMore, DocumentSnapshot lastDocument);
         void onError(String error);
     }
 
@@ -53,34 +80,178 @@ public class TaskRepository {
         void onError(String error);
     }
 
-    public TaskRepository() {
+    public TaskRepository(Context context) {
         db = FirebaseFirestore.getInstance();
+        subscriptionRegistry = QuerySubscriptionRegistry.getInstance();
+        taskDecoder = TaskDecoder.getInstance();
+        localStore = TaskLocalStore.getInstance(context);
+        writeQueue = TaskWriteQueue.getInstance();
+        blobRepository = AttachmentBlobRepository.getInstance();
+        taskDeletion = new TaskDeletion(db, taskDecoder, localStore, blobRepository);
+        bulkOperations = new TaskBulkOperations(db, taskDecoder, writeQueue, taskDeletion);
     }
 
     /**
      * Lấy tất cả tasks với real-time listener
      */
-    public void getTasks(OnTasksLoadedListener listener) {
-        db.collection(TASKS_COLLECTION)
-                .orderBy("createdAt", Query.Direction.DESCENDING)
-                .addSnapshotListener((value, error) -> {
-                    if (error != null) {
-                        Log.e(TAG, "Error getting tasks", error);
-                        listener.onError(error.getMessage());
-                        return;
+    public ListenerRegistration getTasks(OnTasksLoadedListener listener) {
+        Query query = db.collection(TASKS_COLLECTION)
+                .orderBy("createdAt", Query.Direction.DESCENDING);
+        return listenWithIndex("tasks", query,
+                new TaskSnapshotIndex(TaskSnapshotIndex.CREATED_AT_DESC),
+                "Error getting tasks", "tasks", listener);
+    }
+
+    /**
+     * Lấy tất cả tasks theo kiểu offline-first: phát ngay danh sách đã lưu trên máy,
+     * sau đó chỉ nghe các document có updatedAt sau lần đồng bộ trước rồi gộp vào.
+     * Số document đọc mỗi lần mở app tỉ lệ với số thay đổi, không phải kích thước collection.
+     */
+    public ListenerRegistration getTasksOfflineFirst(OnTasksLoadedListener listener) {
+        return listenOfflineFirst(SYNC_KEY_ALL_TASKS, TaskLocalStore.Scope.all(), null,
+                db.collection(TASKS_COLLECTION),
+                "Error syncing tasks", "synced tasks", listener);
+    }
+
+    /**
+     * Tasks được giao cho user theo kiểu offline-first, watermark riêng cho query này.
+     * Cần composite index: assignedToUserId ASC + updatedAt ASC (xem README)
+     */
+    public ListenerRegistration getTasksForUserOfflineFirst(String userId, OnTasksLoadedListener listener) {
+        if (userId == null) {
+            listener.onError("User ID is null");
+            return null;
+        }
+
+        return listenOfflineFirst("tasks/assignedToUserId=" + userId, TaskLocalStore.Scope.assignedTo(userId),
+                userId, db.collection(TASKS_COLLECTION).whereEqualTo("assignedToUserId", userId),
+                "Error syncing user tasks", "synced tasks for user " + userId, listener);
+    }
+
+    /**
+     * @param assigneeId người được phân việc nếu query lọc theo assignedToUserId, để đọc thêm các task đã
+     *                   được phân cho người khác (TaskReassignments); null với các query khác
+     */
+    private ListenerRegistration listenOfflineFirst(String syncKey, TaskLocalStore.Scope scope, String assigneeId,
+                                                    Query baseQuery, String errorLog, String description,
+                                                    OnTasksLoadedListener listener) {
+        List<Task> cachedTasks = localStore.loadTasks(scope);
+        for (Task task : cachedTasks) {
+            taskDecoder.prime(task);
+        }
+
+        long watermark = localStore.getWatermark(syncKey);
+        Query query = baseQuery;
+        if (watermark > 0) {
+            query = query.whereGreaterThan("updatedAt", new Date(watermark - SYNC_OVERLAP_MS));
+        }
+        Log.d(TAG, "Offline-first " + syncKey + ": " + cachedTasks.size() + " cached, watermark " + watermark);
+
+        TaskSnapshotIndex index = new TaskSnapshotIndex(TaskSnapshotIndex.CREATED_AT_DESC);
+        index.preload(cachedTasks);
+
+        // Hiển thị ngay dữ liệu trên máy, không chờ snapshot đầu tiên
+        if (!cachedTasks.isEmpty()) {
+            deliver(listener, index.getTasks(), new ArrayList<>());
+        }
+
+        // Query theo updatedAt không thấy document đã bị xóa, nên đọc tombstones riêng
+        syncTombstones(index, listener, scope.isAll() && cachedTasks.isEmpty());
+        // Tương tự, query theo người được phân việc không thấy task đã được phân cho người khác
+        if (assigneeId != null) {
+            syncReassignments(assigneeId, scope, index, listener, cachedTasks.isEmpty());
+        }
+
+        // Key riêng: query có lọc watermark và index đã preload từ bộ nhớ máy, không được dùng chung
+        // listener với getTasks()/getTasksForUser() có cùng điều kiện
+        return listenWithIndex(OFFLINE_KEY_PREFIX + syncKey, query, index, syncKey, scope, errorLog, description,
+                listener);
+    }
+
+    /**
+     * Đọc các tombstone mới hơn lần đồng bộ trước, xóa task tương ứng khỏi bộ nhớ máy và danh sách
+     */
+    private void syncTombstones(TaskSnapshotIndex index, OnTasksLoadedListener listener, boolean emptyCache) {
+        long watermark = localStore.getWatermark(SYNC_KEY_TOMBSTONES);
+        if (watermark == 0 && emptyCache) {
+            // Chưa có gì trên máy để xóa; lần đồng bộ đầy đủ sắp tới đã không chứa task bị xóa
+            localStore.applyChanges(new ArrayList<>(), new ArrayList<>(), SYNC_KEY_TOMBSTONES,
+                    System.currentTimeMillis());
+            return;
+        }
+
+        db.collection(TOMBSTONES_COLLECTION)
+                .whereGreaterThan("deletedAt", new Date(Math.max(0, watermark - SYNC_OVERLAP_MS)))
+                .get()
+                .addOnSuccessListener(queryDocumentSnapshots -> {
+                    List<String> deletedIds = new ArrayList<>();
+                    long newWatermark = 0;
+                    for (QueryDocumentSnapshot doc : queryDocumentSnapshots) {
+                        deletedIds.add(doc.getId());
+                        taskDecoder.evict(doc.getId());
+                        Date deletedAt = doc.getDate("deletedAt");
+                        if (deletedAt != null) {
+                            newWatermark = Math.max(newWatermark, deletedAt.getTime());
+                        }
                     }
+                    Log.d(TAG, "Applying " + deletedIds.size() + " task tombstones");
+                    localStore.applyChanges(new ArrayList<>(), deletedIds, SYNC_KEY_TOMBSTONES, newWatermark);
 
-                    List<Map<String, Object>> tasks = new ArrayList<>();
-                    if (value != null) {
-                        for (QueryDocumentSnapshot doc : value) {
-                            Map<String, Object> task = doc.getData();
-                            task.put("id", doc.getId());
-                            tasks.add(task);
+                    List<TaskSnapshotIndex.Change> changes = index.removeAll(deletedIds);
+                    if (!changes.isEmpty()) {
+                        deliver(listener, index.getTasks(), changes);
+                    }
+                })
+                .addOnFailureListener(e -> Log.e(TAG, "Error loading task tombstones", e));
+    }
+
+    /**
+     * Đọc các task đã được phân từ assigneeId cho người khác kể từ lần đồng bộ trước và bỏ chúng khỏi
+     * danh sách và bộ nhớ máy của phạm vi. Task được phân lại cho assigneeId sau đó có updatedAt mới hơn
+     * bản ghi nên được giữ.
+     */
+    private void syncReassignments(String assigneeId, TaskLocalStore.Scope scope, TaskSnapshotIndex index,
+                                   OnTasksLoadedListener listener, boolean emptyCache) {
+        String syncKey = SYNC_KEY_REASSIGNMENTS_PREFIX + assigneeId;
+        long watermark = localStore.getWatermark(syncKey);
+        if (watermark == 0 && emptyCache) {
+            // Chưa có gì trên máy để bỏ; lần đồng bộ đầy đủ sắp tới chỉ chứa task đang được phân cho user
+            localStore.removeReassigned(new HashMap<>(), scope, syncKey, System.currentTimeMillis());
+            return;
+        }
+
+        db.collection(TaskReassignments.COLLECTION)
+                .whereEqualTo(TaskReassignments.FIELD_PREVIOUS_ASSIGNEE_ID, assigneeId)
+                .whereGreaterThan(TaskReassignments.FIELD_REASSIGNED_AT,
+                        new Date(Math.max(0, watermark - SYNC_OVERLAP_MS)))
+                .get()
+                .addOnSuccessListener(queryDocumentSnapshots -> {
+                    Map<String, Long> reassignedAtById = new HashMap<>();
+                    long newWatermark = 0;
+                    for (QueryDocumentSnapshot doc : queryDocumentSnapshots) {
+                        String taskId = doc.getString(TaskReassignments.FIELD_TASK_ID);
+                        Date reassignedAt = doc.getDate(TaskReassignments.FIELD_REASSIGNED_AT);
+                        if (taskId == null || reassignedAt == null) continue;
+                        reassignedAtById.put(taskId, reassignedAt.getTime());
+                        newWatermark = Math.max(newWatermark, reassignedAt.getTime());
+                    }
+                    Log.d(TAG, "Applying " + reassignedAtById.size() + " reassignments away from " + assigneeId);
+                    localStore.removeReassigned(reassignedAtById, scope, syncKey, newWatermark);
+
+                    List<String> removedIds = new ArrayList<>();
+                    for (Task task : index.getTasks()) {
+                        Long reassignedAt = reassignedAtById.get(task.getId());
+                        if (reassignedAt != null && assigneeId.equals(task.getAssignedToUserId())
+                                && (task.getUpdatedAt() == null || task.getUpdatedAt().getTime() <= reassignedAt)) {
+                            removedIds.add(task.getId());
                         }
                     }
-                    Log.d(TAG, "Loaded " + tasks.size() + " tasks");
-                    listener.onTasksLoaded(tasks);
-                });
+                    List<TaskSnapshotIndex.Change> changes = index.removeAll(removedIds);
+                    if (!changes.isEmpty()) {
+                        deliver(listener, index.getTasks(), changes);
+                    }
+                })
+                .addOnFailureListener(e -> Log.e(TAG, "Error loading task reassignments", e));
     }
 
     /**
@@ -107,13 +278,14 @@ public class TaskRepository {
 
         query.get()
                 .addOnSuccessListener(queryDocumentSnapshots -> {
-                    List<Map<String, Object>> tasks = new ArrayList<>();
+                    List<Task> tasks = new ArrayList<>();
                     DocumentSnapshot lastDoc = null;
 
                     for (QueryDocumentSnapshot doc : queryDocumentSnapshots) {
-                        Map<String, Object> task = doc.getData();
-                        task.put("id", doc.getId());
-                        tasks.add(task);
+                        Task task = taskDecoder.decode(doc);
+                        if (task != null) {
+                            tasks.add(task);
+                        }
                         lastDoc = doc;
                     }
 
@@ -130,7 +302,8 @@ public class TaskRepository {
     }
 
     /**
-     * Lấy tasks của một user cụ thể với phân trang - FIXED để tránh index
+     * Lấy tasks của một user cụ thể với phân trang theo cursor (keyset)
+     * Cần composite index: assignedToUserId ASC + createdAt DESC (xem README)
      */
     public void getTasksForUserWithPagination(String userId, DocumentSnapshot lastDocument, OnPagedTasksLoadedListener listener) {
         if (userId == null) {
@@ -138,64 +311,36 @@ public class TaskRepository {
             return;
         }
 
-        Log.d(TAG, "Loading tasks for user with pagination: " + userId);
+        Log.d(TAG, "Loading tasks for user with pagination: " + userId +
+                ", lastDocument: " + (lastDocument != null ? lastDocument.getId() : "null"));
 
-        // Thay đổi strategy: Load tất cả tasks for user, không dùng pagination với ORDER BY
-        // để tránh cần composite index
-        db.collection(TASKS_COLLECTION)
+        Query query = db.collection(TASKS_COLLECTION)
                 .whereEqualTo("assignedToUserId", userId)
-                .get()
+                .orderBy("createdAt", Query.Direction.DESCENDING)
+                .limit(PAGE_SIZE);
+
+        // Chỉ đọc PAGE_SIZE documents sau cursor, không tải lại toàn bộ tasks của user
+        if (lastDocument != null) {
+            query = query.startAfter(lastDocument);
+        }
+
+        query.get()
                 .addOnSuccessListener(queryDocumentSnapshots -> {
-                    List<Map<String, Object>> allTasks = new ArrayList<>();
+                    List<Task> tasks = new ArrayList<>();
+                    DocumentSnapshot lastDoc = null;
 
                     for (QueryDocumentSnapshot doc : queryDocumentSnapshots) {
-                        Map<String, Object> task = doc.getData();
-                        task.put("id", doc.getId());
-                        allTasks.add(task);
-                    }
-
-                    // Sort in memory by createdAt using Collections.sort()
-                    Collections.sort(allTasks, new Comparator<Map<String, Object>>() {
-                        @Override
-                        public int compare(Map<String, Object> task1, Map<String, Object> task2) {
-                            Object date1 = task1.get("createdAt");
-                            Object date2 = task2.get("createdAt");
-
-                            if (date1 == null && date2 == null) return 0;
-                            if (date1 == null) return 1;
-                            if (date2 == null) return -1;
-
-                            try {
-                                Date d1 = (Date) date1;
-                                Date d2 = (Date) date2;
-                                return d2.compareTo(d1); // DESC order
-                            } catch (Exception e) {
-                                return 0;
-                            }
-                        }
-                    });
-
-                    // Implement pagination in memory
-                    int startIndex = 0;
-                    if (lastDocument != null) {
-                        // Find the index of lastDocument
-                        String lastDocId = lastDocument.getId();
-                        for (int i = 0; i < allTasks.size(); i++) {
-                            if (lastDocId.equals(allTasks.get(i).get("id"))) {
-                                startIndex = i + 1;
-                                break;
-                            }
+                        Task task = taskDecoder.decode(doc);
+                        if (task != null) {
+                            tasks.add(task);
                         }
+                        lastDoc = doc;
                     }
 
-                    int endIndex = Math.min(startIndex + PAGE_SIZE, allTasks.size());
-                    List<Map<String, Object>> paginatedTasks = allTasks.subList(startIndex, endIndex);
-
-                    boolean hasMore = endIndex < allTasks.size();
-                    DocumentSnapshot lastDoc = null;
+                    boolean hasMore = queryDocumentSnapshots.size() == PAGE_SIZE;
 
-                    Log.d(TAG, "Loaded " + paginatedTasks.size() + " tasks for user (total: " + allTasks.size() + "), hasMore: " + hasMore);
-                    listener.onTasksLoaded(paginatedTasks, hasMore, lastDoc);
+                    Log.d(TAG, "Loaded " + tasks.size() + " tasks for user, hasMore: " + hasMore);
+                    listener.onTasksLoaded(tasks, hasMore, lastDoc);
                 })
                 .addOnFailureListener(e -> {
                     Log.e(TAG, "Error loading user tasks with pagination", e);
@@ -206,106 +351,34 @@ public class TaskRepository {
     /**
      * Lấy tasks của một user cụ thể - FIXED
      */
-    public void getTasksForUser(String userId, OnTasksLoadedListener listener) {
+    public ListenerRegistration getTasksForUser(String userId, OnTasksLoadedListener listener) {
         if (userId == null) {
             listener.onError("User ID is null");
-            return;
+            return null;
         }
 
         // Sử dụng chỉ WHERE clause, không ORDER BY để tránh cần index
-        db.collection(TASKS_COLLECTION)
-                .whereEqualTo("assignedToUserId", userId)
-                .addSnapshotListener((value, error) -> {
-                    if (error != null) {
-                        Log.e(TAG, "Error getting user tasks", error);
-                        listener.onError(error.getMessage());
-                        return;
-                    }
-
-                    List<Map<String, Object>> tasks = new ArrayList<>();
-                    if (value != null) {
-                        for (QueryDocumentSnapshot doc : value) {
-                            Map<String, Object> task = doc.getData();
-                            task.put("id", doc.getId());
-                            tasks.add(task);
-                        }
-
-                        // Sort in memory để tránh cần index - sử dụng Collections.sort()
-                        Collections.sort(tasks, new Comparator<Map<String, Object>>() {
-                            @Override
-                            public int compare(Map<String, Object> task1, Map<String, Object> task2) {
-                                Object date1 = task1.get("createdAt");
-                                Object date2 = task2.get("createdAt");
-
-                                if (date1 == null && date2 == null) return 0;
-                                if (date1 == null) return 1;
-                                if (date2 == null) return -1;
-
-                                try {
-                                    Date d1 = (Date) date1;
-                                    Date d2 = (Date) date2;
-                                    return d2.compareTo(d1); // DESC order
-                                } catch (Exception e) {
-                                    return 0;
-                                }
-                            }
-                        });
-                    }
-                    Log.d(TAG, "Loaded " + tasks.size() + " tasks for user " + userId);
-                    listener.onTasksLoaded(tasks);
-                });
+        Query query = db.collection(TASKS_COLLECTION)
+                .whereEqualTo("assignedToUserId", userId);
+        return listenWithIndex("tasks/assignedToUserId=" + userId, query,
+                new TaskSnapshotIndex(TaskSnapshotIndex.CREATED_AT_DESC),
+                "Error getting user tasks", "tasks for user " + userId, listener);
     }
 
     /**
      * Lấy tasks được tạo bởi một user cụ thể
      */
-    public void getTasksCreatedByUser(String userId, OnTasksLoadedListener listener) {
+    public ListenerRegistration getTasksCreatedByUser(String userId, OnTasksLoadedListener listener) {
         if (userId == null) {
             listener.onError("User ID is null");
-            return;
+            return null;
         }
 
-        db.collection(TASKS_COLLECTION)
-                .whereEqualTo("assignerUserId", userId)
-                .addSnapshotListener((value, error) -> {
-                    if (error != null) {
-                        Log.e(TAG, "Error getting created tasks", error);
-                        listener.onError(error.getMessage());
-                        return;
-                    }
-
-                    List<Map<String, Object>> tasks = new ArrayList<>();
-                    if (value != null) {
-                        for (QueryDocumentSnapshot doc : value) {
-                            Map<String, Object> task = doc.getData();
-                            task.put("id", doc.getId());
-                            tasks.add(task);
-                        }
-
-                        // Sort in memory - sử dụng Collections.sort()
-                        Collections.sort(tasks, new Comparator<Map<String, Object>>() {
-                            @Override
-                            public int compare(Map<String, Object> task1, Map<String, Object> task2) {
-                                Object date1 = task1.get("createdAt");
-                                Object date2 = task2.get("createdAt");
-
-                                if (date1 == null && date2 == null) return 0;
-                                if (date1 == null) return 1;
-                                if (date2 == null) return -1;
-
-                                try {
-                                    Date d1 = (Date) date1;
-                                    Date d2 = (Date) date2;
-                                    return d2.compareTo(d1); // DESC order
-                                } catch (Exception e) {
-                                    return 0;
-                                }
-                            }
-                        });
-                    }
-                    Log.d(TAG, "Loaded " + tasks.size() + " tasks created by user " + userId);
-                    listener.onTasksLoaded(tasks);
-                });
+        Query query = db.collection(TASKS_COLLECTION)
+                .whereEqualTo("assignerUserId", userId);
+        return listenWithIndex("tasks/assignerUserId=" + userId, query,
+                new TaskSnapshotIndex(TaskSnapshotIndex.CREATED_AT_DESC),
+                "Error getting created tasks", "tasks created by user " + userId, listener);
     }
 
     /**
@@ -313,18 +386,24 @@ public class TaskRepository {
      */
     public void addTask(Task task, OnTaskAddedListener listener) {
         // Ensure timestamps are set
-        if (task.getCreatedAt() == null) {
-            task.setCreatedAt(new Date());
-        }
-        task.setUpdatedAt(new Date());
-
-        Map<String, Object> taskData = task.toMap();
+        Date now = new Date();
+        Map<String, Object> taskData = task.toBuilder()
+                .setCreatedAt(task.getCreatedAt() != null ? task.getCreatedAt() : now)
+                .setUpdatedAt(now)
+                .build()
+                .toMap();
         Log.d(TAG, "Adding task: " + task.getTitle());
 
-        db.collection(TASKS_COLLECTION)
-                .add(taskData)
-                .addOnSuccessListener(documentReference -> {
-                    String taskId = documentReference.getId();
+        // Task giữ tham chiếu tới tệp đính kèm: tăng refCount cùng batch ghi task
+        DocumentReference taskRef = db.collection(TASKS_COLLECTION).document();
+        WriteBatch batch = db.batch();
+        batch.set(taskRef, taskData);
+        if (task.getAttachmentHash() != null) {
+            blobRepository.addReference(batch, task.getAttachmentHash());
+        }
+        batch.commit()
+                .addOnSuccessListener(aVoid -> {
+                    String taskId = taskRef.getId();
                     Log.d(TAG, "Task added with ID: " + taskId);
                     listener.onTaskAdded(taskId);
                 })
@@ -349,21 +428,13 @@ public class TaskRepository {
 
         Log.d(TAG, "Updating task status: " + taskId + " -> " + status);
 
-        db.collection(TASKS_COLLECTION)
-                .document(taskId)
-                .update(updates)
-                .addOnSuccessListener(aVoid -> {
-                    Log.d(TAG, "Task status updated successfully");
-                    listener.onTaskUpdated();
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Error updating task status", e);
-                    listener.onError("Lỗi khi cập nhật trạng thái: " + e.getMessage());
-                });
+        // Bấm liên tục để đổi trạng thái chỉ tạo một lần ghi với trạng thái cuối cùng
+        queueUpdate(taskId, updates, "Task status updated successfully",
+                "Error updating task status", "Lỗi khi cập nhật trạng thái: ", listener);
     }
 
     /**
-     * Cập nhật task hoàn toàn
+     * Cập nhật task hoàn toàn; tệp đính kèm chỉ được đổi qua updateTaskAttachment (để đếm tham chiếu đúng)
      */
     public void updateTask(Task task, OnTaskUpdatedListener listener) {
         if (task.getId() == null || task.getId().isEmpty()) {
@@ -371,22 +442,30 @@ public class TaskRepository {
             return;
         }
 
-        task.setUpdatedAt(new Date());
-        Map<String, Object> taskData = task.toMap();
+        Date updatedAt = new Date();
+        Map<String, Object> taskData = task.toBuilder().setUpdatedAt(updatedAt).build().toMap();
+        taskData.remove("attachmentUrl");
+        taskData.remove("attachmentName");
+        taskData.remove(AttachmentBlobRepository.FIELD_ATTACHMENT_HASH);
 
         Log.d(TAG, "Updating task: " + task.getId());
 
-        db.collection(TASKS_COLLECTION)
-                .document(task.getId())
-                .set(taskData)
-                .addOnSuccessListener(aVoid -> {
-                    Log.d(TAG, "Task updated successfully");
-                    listener.onTaskUpdated();
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Error updating task", e);
-                    listener.onError("Lỗi khi cập nhật task: " + e.getMessage());
-                });
+        // Trong transaction để biết người được phân việc trước đó nếu form đổi người
+        DocumentReference taskRef = db.collection(TASKS_COLLECTION).document(task.getId());
+        db.runTransaction(transaction -> {
+            DocumentSnapshot snapshot = transaction.get(taskRef);
+            if (snapshot.exists()) {
+                TaskReassignments.record(db, transaction, snapshot, task.getAssignedToUserId(), updatedAt);
+            }
+            transaction.set(taskRef, taskData, SetOptions.merge());
+            return null;
+        }).addOnSuccessListener(result -> {
+            Log.d(TAG, "Task updated successfully");
+            listener.onTaskUpdated();
+        }).addOnFailureListener(e -> {
+            Log.e(TAG, "Error updating task", e);
+            listener.onError("Lỗi khi cập nhật task: " + e.getMessage());
+        });
     }
 
     /**
@@ -399,25 +478,35 @@ public class TaskRepository {
             return;
         }
 
+        Date updatedAt = new Date();
         Map<String, Object> updates = new HashMap<>();
         updates.put("assignedToUserId", newAssigneeId);
         updates.put("assignedToName", newAssigneeName);
         updates.put("status", "pending"); // Reset status when reassigning
-        updates.put("updatedAt", new Date());
+        updates.put("updatedAt", updatedAt);
 
         Log.d(TAG, "Reassigning task: " + taskId + " to " + newAssigneeName);
 
-        db.collection(TASKS_COLLECTION)
-                .document(taskId)
-                .update(updates)
-                .addOnSuccessListener(aVoid -> {
-                    Log.d(TAG, "Task reassigned successfully");
-                    listener.onTaskUpdated();
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Error reassigning task", e);
-                    listener.onError("Lỗi khi phân việc lại: " + e.getMessage());
-                });
+        // Không đi qua TaskWriteQueue: bản ghi task_reassignments cần người được phân việc hiện tại,
+        // đọc trong cùng transaction với lần ghi
+        writeQueue.flush();
+        DocumentReference taskRef = db.collection(TASKS_COLLECTION).document(taskId);
+        db.runTransaction(transaction -> {
+            DocumentSnapshot snapshot = transaction.get(taskRef);
+            if (!snapshot.exists()) {
+                throw new FirebaseFirestoreException("Task không tồn tại",
+                        FirebaseFirestoreException.Code.NOT_FOUND);
+            }
+            TaskReassignments.record(db, transaction, snapshot, newAssigneeId, updatedAt);
+            transaction.update(taskRef, updates);
+            return null;
+        }).addOnSuccessListener(result -> {
+            Log.d(TAG, "Task reassigned successfully");
+            listener.onTaskUpdated();
+        }).addOnFailureListener(e -> {
+            Log.e(TAG, "Error reassigning task", e);
+            listener.onError("Lỗi khi phân việc lại: " + e.getMessage());
+        });
     }
 
     /**
@@ -431,17 +520,17 @@ public class TaskRepository {
 
         Log.d(TAG, "Deleting task: " + taskId);
 
-        db.collection(TASKS_COLLECTION)
-                .document(taskId)
-                .delete()
-                .addOnSuccessListener(aVoid -> {
-                    Log.d(TAG, "Task deleted successfully");
-                    listener.onTaskDeleted();
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Error deleting task", e);
-                    listener.onError("Lỗi khi xóa task: " + e.getMessage());
-                });
+        taskDeletion.delete(taskId, null, new Date(), new TaskDeletion.OnDeletedListener() {
+            @Override
+            public void onDeleted(boolean existed) {
+                listener.onTaskDeleted();
+            }
+
+            @Override
+            public void onError(String error) {
+                listener.onError("Lỗi khi xóa task: " + error);
+            }
+        });
     }
 
     /**
@@ -458,30 +547,46 @@ public class TaskRepository {
             return;
         }
 
-        // Kiểm tra task có tồn tại và user có quyền xóa không
-        db.collection(TASKS_COLLECTION)
-                .document(taskId)
-                .get()
-                .addOnSuccessListener(documentSnapshot -> {
-                    if (!documentSnapshot.exists()) {
-                        listener.onError("Task không tồn tại");
-                        return;
-                    }
+        // Quyền được kiểm tra trên document đọc trong chính transaction xóa
+        taskDeletion.delete(taskId, currentUserId, new Date(), new TaskDeletion.OnDeletedListener() {
+            @Override
+            public void onDeleted(boolean existed) {
+                if (existed) {
+                    listener.onTaskDeleted();
+                } else {
+                    listener.onError("Task không tồn tại");
+                }
+            }
+
+            @Override
+            public void onError(String error) {
+                listener.onError(error);
+            }
+        });
+    }
 
-                    // Kiểm tra quyền
-                    String assignerUserId = documentSnapshot.getString("assignerUserId");
-                    if (!currentUserId.equals(assignerUserId)) {
-                        listener.onError("Chỉ người tạo task mới có quyền xóa");
-                        return;
-                    }
+    /**
+     * Đổi trạng thái nhiều tasks cùng lúc
+     */
+    public void bulkUpdateTaskStatus(Collection<String> taskIds, String status, String currentUserId,
+                                     TaskBulkOperations.OnBulkOperationListener listener) {
+        bulkOperations.updateStatus(taskIds, status, currentUserId, listener);
+    }
 
-                    // Xóa task
-                    deleteTask(taskId, listener);
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Error checking task permissions", e);
-                    listener.onError("Lỗi khi kiểm tra quyền: " + e.getMessage());
-                });
+    /**
+     * Phân việc lại nhiều tasks cho một người
+     */
+    public void bulkReassignTasks(Collection<String> taskIds, String newAssigneeId, String newAssigneeName,
+                                  String currentUserId, TaskBulkOperations.OnBulkOperationListener listener) {
+        bulkOperations.reassign(taskIds, newAssigneeId, newAssigneeName, currentUserId, listener);
+    }
+
+    /**
+     * Xóa nhiều tasks; quyền kiểm tra trên dữ liệu đã tải, không đọc lại từng document
+     */
+    public void bulkDeleteTasks(Collection<String> taskIds, String currentUserId,
+                                TaskBulkOperations.OnBulkOperationListener listener) {
+        bulkOperations.delete(taskIds, currentUserId, listener);
     }
 
     /**
@@ -498,10 +603,7 @@ public class TaskRepository {
                 .get()
                 .addOnSuccessListener(documentSnapshot -> {
                     if (documentSnapshot.exists()) {
-                        Map<String, Object> taskData = documentSnapshot.getData();
-                        taskData.put("id", documentSnapshot.getId());
-                        Task task = Task.fromMap(taskData);
-                        listener.onTaskLoaded(task);
+                        listener.onTaskLoaded(taskDecoder.decode(documentSnapshot));
                     } else {
                         listener.onError("Task not found");
                     }
@@ -515,95 +617,23 @@ public class TaskRepository {
     /**
      * Lấy tasks theo trạng thái
      */
-    public void getTasksByStatus(String status, OnTasksLoadedListener listener) {
-        db.collection(TASKS_COLLECTION)
-                .whereEqualTo("status", status)
-                .addSnapshotListener((value, error) -> {
-                    if (error != null) {
-                        Log.e(TAG, "Error getting tasks by status", error);
-                        listener.onError(error.getMessage());
-                        return;
-                    }
-
-                    List<Map<String, Object>> tasks = new ArrayList<>();
-                    if (value != null) {
-                        for (QueryDocumentSnapshot doc : value) {
-                            Map<String, Object> task = doc.getData();
-                            task.put("id", doc.getId());
-                            tasks.add(task);
-                        }
-
-                        // Sort in memory - sử dụng Collections.sort()
-                        Collections.sort(tasks, new Comparator<Map<String, Object>>() {
-                            @Override
-                            public int compare(Map<String, Object> task1, Map<String, Object> task2) {
-                                Object date1 = task1.get("createdAt");
-                                Object date2 = task2.get("createdAt");
-
-                                if (date1 == null && date2 == null) return 0;
-                                if (date1 == null) return 1;
-                                if (date2 == null) return -1;
-
-                                try {
-                                    Date d1 = (Date) date1;
-                                    Date d2 = (Date) date2;
-                                    return d2.compareTo(d1); // DESC order
-                                } catch (Exception e) {
-                                    return 0;
-                                }
-                            }
-                        });
-                    }
-                    Log.d(TAG, "Loaded " + tasks.size() + " tasks with status " + status);
-                    listener.onTasksLoaded(tasks);
-                });
+    public ListenerRegistration getTasksByStatus(String status, OnTasksLoadedListener listener) {
+        Query query = db.collection(TASKS_COLLECTION)
+                .whereEqualTo("status", status);
+        return listenWithIndex("tasks/status=" + status, query,
+                new TaskSnapshotIndex(TaskSnapshotIndex.CREATED_AT_DESC),
+                "Error getting tasks by status", "tasks with status " + status, listener);
     }
 
     /**
      * Lấy tasks theo mức độ ưu tiên
      */
-    public void getTasksByPriority(String priority, OnTasksLoadedListener listener) {
-        db.collection(TASKS_COLLECTION)
-                .whereEqualTo("priority", priority)
-                .addSnapshotListener((value, error) -> {
-                    if (error != null) {
-                        Log.e(TAG, "Error getting tasks by priority", error);
-                        listener.onError(error.getMessage());
-                        return;
-                    }
-
-                    List<Map<String, Object>> tasks = new ArrayList<>();
-                    if (value != null) {
-                        for (QueryDocumentSnapshot doc : value) {
-                            Map<String, Object> task = doc.getData();
-                            task.put("id", doc.getId());
-                            tasks.add(task);
-                        }
-
-                        // Sort in memory - sử dụng Collections.sort()
-                        Collections.sort(tasks, new Comparator<Map<String, Object>>() {
-                            @Override
-                            public int compare(Map<String, Object> task1, Map<String, Object> task2) {
-                                Object date1 = task1.get("createdAt");
-                                Object date2 = task2.get("createdAt");
-
-                                if (date1 == null && date2 == null) return 0;
-                                if (date1 == null) return 1;
-                                if (date2 == null) return -1;
-
-                                try {
-                                    Date d1 = (Date) date1;
-                                    Date d2 = (Date) date2;
-                                    return d2.compareTo(d1); // DESC order
-                                } catch (Exception e) {
-                                    return 0;
-                                }
-                            }
-                        });
-                    }
-                    Log.d(TAG, "Loaded " + tasks.size() + " tasks with priority " + priority);
-                    listener.onTasksLoaded(tasks);
-                });
+    public ListenerRegistration getTasksByPriority(String priority, OnTasksLoadedListener listener) {
+        Query query = db.collection(TASKS_COLLECTION)
+                .whereEqualTo("priority", priority);
+        return listenWithIndex("tasks/priority=" + priority, query,
+                new TaskSnapshotIndex(TaskSnapshotIndex.CREATED_AT_DESC),
+                "Error getting tasks by priority", "tasks with priority " + priority, listener);
     }
 
     /**
@@ -623,25 +653,30 @@ public class TaskRepository {
         commentData.put("authorName", authorName);
         commentData.put("timestamp", new Date());
 
-        // Thêm comment vào array trong task document
-        db.collection(TASKS_COLLECTION)
-                .document(taskId)
-                .update("comments", com.google.firebase.firestore.FieldValue.arrayUnion(commentData))
-                .addOnSuccessListener(aVoid -> {
-                    Log.d(TAG, "Comment added to task: " + taskId);
-                    listener.onTaskUpdated();
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Error adding comment", e);
-                    listener.onError("Lỗi khi thêm comment: " + e.getMessage());
-                });
+        // Thêm comment vào array trong task document; các comment liên tiếp gộp chung một arrayUnion
+        writeQueue.arrayUnion(taskId, "comments", commentData, new OnTaskUpdatedListener() {
+            @Override
+            public void onTaskUpdated() {
+                Log.d(TAG, "Comment added to task: " + taskId);
+                listener.onTaskUpdated();
+            }
+
+            @Override
+            public void onError(String error) {
+                Log.e(TAG, "Error adding comment: " + error);
+                listener.onError("Lỗi khi thêm comment: " + error);
+            }
+        });
     }
 
     /**
-     * Cập nhật attachment cho task
+     * Cập nhật attachment cho task. Task giữ tham chiếu tới tệp mới và trả lại tham chiếu tới tệp cũ
+     * (theo hash lưu trên document) trong cùng một batch.
+     *
+     * @param attachmentHash UploadedFile.blobHash của tệp mới, null nếu tệp không được đếm tham chiếu
      */
     public void updateTaskAttachment(String taskId, String attachmentUrl, String attachmentName,
-                                     OnTaskUpdatedListener listener) {
+                                     String attachmentHash, OnTaskUpdatedListener listener) {
         if (taskId == null || taskId.isEmpty()) {
             listener.onError("Task ID is null or empty");
             return;
@@ -650,69 +685,53 @@ public class TaskRepository {
         Map<String, Object> updates = new HashMap<>();
         updates.put("attachmentUrl", attachmentUrl);
         updates.put("attachmentName", attachmentName);
+        updates.put(AttachmentBlobRepository.FIELD_ATTACHMENT_HASH, attachmentHash);
         updates.put("updatedAt", new Date());
 
         Log.d(TAG, "Updating task attachment: " + taskId);
 
-        db.collection(TASKS_COLLECTION)
-                .document(taskId)
-                .update(updates)
-                .addOnSuccessListener(aVoid -> {
-                    Log.d(TAG, "Task attachment updated successfully");
-                    listener.onTaskUpdated();
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Error updating task attachment", e);
-                    listener.onError("Lỗi khi cập nhật tệp đính kèm: " + e.getMessage());
-                });
+        // Không đi qua TaskWriteQueue: tham chiếu phải đổi cùng lần ghi field, không được gộp hay ghi đè.
+        // Hash cũ đọc trong transaction, nên hai lần đổi tệp đồng thời không trả cùng một tham chiếu hai lần.
+        writeQueue.flush();
+        DocumentReference taskRef = db.collection(TASKS_COLLECTION).document(taskId);
+        db.runTransaction(transaction -> {
+            DocumentSnapshot snapshot = transaction.get(taskRef);
+            if (!snapshot.exists()) {
+                throw new FirebaseFirestoreException("Task không tồn tại",
+                        FirebaseFirestoreException.Code.NOT_FOUND);
+            }
+            String previousHash = snapshot.getString(AttachmentBlobRepository.FIELD_ATTACHMENT_HASH);
+            boolean hashChanged = previousHash == null
+                    ? attachmentHash != null : !previousHash.equals(attachmentHash);
+
+            transaction.update(taskRef, updates);
+            if (hashChanged && attachmentHash != null) {
+                blobRepository.addReference(transaction, attachmentHash);
+            }
+            if (hashChanged && previousHash != null) {
+                blobRepository.removeReference(transaction, previousHash);
+            }
+            return hashChanged ? previousHash : null;
+        }).addOnSuccessListener(releasedHash -> {
+            Log.d(TAG, "Task attachment updated successfully");
+            blobRepository.deleteIfUnreferenced(releasedHash);
+            listener.onTaskUpdated();
+        }).addOnFailureListener(e -> {
+            Log.e(TAG, "Error updating task attachment", e);
+            listener.onError("Lỗi khi cập nhật tệp đính kèm: " + e.getMessage());
+        });
     }
 
     /**
      * Lấy tasks theo khoảng thời gian
      */
-    public void getTasksByDateRange(Date startDate, Date endDate, OnTasksLoadedListener listener) {
-        db.collection(TASKS_COLLECTION)
+    public ListenerRegistration getTasksByDateRange(Date startDate, Date endDate, OnTasksLoadedListener listener) {
+        Query query = db.collection(TASKS_COLLECTION)
                 .whereGreaterThanOrEqualTo("createdAt", startDate)
-                .whereLessThanOrEqualTo("createdAt", endDate)
-                .addSnapshotListener((value, error) -> {
-                    if (error != null) {
-                        Log.e(TAG, "Error getting tasks by date range", error);
-                        listener.onError(error.getMessage());
-                        return;
-                    }
-
-                    List<Map<String, Object>> tasks = new ArrayList<>();
-                    if (value != null) {
-                        for (QueryDocumentSnapshot doc : value) {
-                            Map<String, Object> task = doc.getData();
-                            task.put("id", doc.getId());
-                            tasks.add(task);
-                        }
-
-                        // Sort in memory - sử dụng Collections.sort()
-                        Collections.sort(tasks, new Comparator<Map<String, Object>>() {
-                            @Override
-                            public int compare(Map<String, Object> task1, Map<String, Object> task2) {
-                                Object date1 = task1.get("createdAt");
-                                Object date2 = task2.get("createdAt");
-
-                                if (date1 == null && date2 == null) return 0;
-                                if (date1 == null) return 1;
-                                if (date2 == null) return -1;
-
-                                try {
-                                    Date d1 = (Date) date1;
-                                    Date d2 = (Date) date2;
-                                    return d2.compareTo(d1); // DESC order
-                                } catch (Exception e) {
-                                    return 0;
-                                }
-                            }
-                        });
-                    }
-                    Log.d(TAG, "Loaded " + tasks.size() + " tasks within date range");
-                    listener.onTasksLoaded(tasks);
-                });
+                .whereLessThanOrEqualTo("createdAt", endDate);
+        return listenWithIndex("tasks/createdAt=" + startDate.getTime() + ".." + endDate.getTime(), query,
+                new TaskSnapshotIndex(TaskSnapshotIndex.CREATED_AT_DESC),
+                "Error getting tasks by date range", "tasks within date range", listener);
     }
 
     /**
@@ -730,23 +749,14 @@ public class TaskRepository {
 
         Log.d(TAG, "Updating task due date: " + taskId);
 
-        db.collection(TASKS_COLLECTION)
-                .document(taskId)
-                .update(updates)
-                .addOnSuccessListener(aVoid -> {
-                    Log.d(TAG, "Task due date updated successfully");
-                    listener.onTaskUpdated();
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Error updating task due date", e);
-                    listener.onError("Lỗi khi cập nhật hạn chót: " + e.getMessage());
-                });
+        queueUpdate(taskId, updates, "Task due date updated successfully",
+                "Error updating task due date", "Lỗi khi cập nhật hạn chót: ", listener);
     }
 
     /**
      * Lấy tasks sắp hết hạn (trong vòng n ngày)
      */
-    public void getTasksDueSoon(int daysFromNow, OnTasksLoadedListener listener) {
+    public ListenerRegistration getTasksDueSoon(int daysFromNow, OnTasksLoadedListener listener) {
         Date now = new Date();
         Calendar calendar = Calendar.getInstance();
         calendar.setTime(now);
@@ -754,51 +764,121 @@ public class TaskRepository {
         Date futureDate = calendar.getTime();
 
         // Fixed: Use 'dueDate' field instead of compound query that requires index
-        db.collection(TASKS_COLLECTION)
+        // Filter non-completed tasks in memory to avoid complex query
+        Query query = db.collection(TASKS_COLLECTION)
                 .whereGreaterThanOrEqualTo("dueDate", now)
-                .whereLessThanOrEqualTo("dueDate", futureDate)
-                .addSnapshotListener((value, error) -> {
-                    if (error != null) {
-                        Log.e(TAG, "Error getting tasks due soon", error);
-                        listener.onError(error.getMessage());
-                        return;
-                    }
+                .whereLessThanOrEqualTo("dueDate", futureDate);
+        TaskSnapshotIndex index = new TaskSnapshotIndex(TaskSnapshotIndex.DUE_DATE_ASC,
+                task -> !task.isCompleted());
+        // Dùng chung listener trong cùng một ngày; cửa sổ thời gian tính từ lúc đăng ký đầu tiên
+        String dayKey = calendar.get(Calendar.YEAR) + "-" + calendar.get(Calendar.DAY_OF_YEAR);
+        return listenWithIndex("tasks/dueSoon=" + daysFromNow + "@" + dayKey, query, index,
+                "Error getting tasks due soon", "tasks due soon", listener);
+    }
 
-                    List<Map<String, Object>> tasks = new ArrayList<>();
-                    if (value != null) {
-                        for (QueryDocumentSnapshot doc : value) {
-                            Map<String, Object> task = doc.getData();
-                            // Filter non-completed tasks in memory to avoid complex query
-                            String status = (String) task.get("status");
-                            if (!"completed".equals(status)) {
-                                task.put("id", doc.getId());
-                                tasks.add(task);
-                            }
-                        }
+    /**
+     * Đăng ký query qua QuerySubscriptionRegistry: các màn hình cùng query dùng chung
+     * một snapshot listener, index cập nhật theo getDocumentChanges() một lần cho tất cả
+     */
+    private ListenerRegistration listenWithIndex(String key, Query query, TaskSnapshotIndex index,
+                                                 String errorLog, String description,
+                                                 OnTasksLoadedListener listener) {
+        return listenWithIndex(key, query, index, null, null, errorLog, description, listener);
+    }
 
-                        // Sort in memory - sử dụng Collections.sort()
-                        Collections.sort(tasks, new Comparator<Map<String, Object>>() {
-                            @Override
-                            public int compare(Map<String, Object> task1, Map<String, Object> task2) {
-                                Object date1 = task1.get("dueDate");
-                                Object date2 = task2.get("dueDate");
-
-                                if (date1 == null && date2 == null) return 0;
-                                if (date1 == null) return 1;
-                                if (date2 == null) return -1;
-
-                                try {
-                                    Date d1 = (Date) date1;
-                                    Date d2 = (Date) date2;
-                                    return d1.compareTo(d2); // ASC order for due dates
-                                } catch (Exception e) {
-                                    return 0;
-                                }
-                            }
-                        });
+    /**
+     * Như trên; nếu có syncKey thì các thay đổi được ghi xuống TaskLocalStore kèm watermark mới
+     */
+    private ListenerRegistration listenWithIndex(String key, Query query, TaskSnapshotIndex index,
+                                                 String syncKey, TaskLocalStore.Scope scope,
+                                                 String errorLog, String description,
+                                                 OnTasksLoadedListener listener) {
+        final boolean[] firstSnapshot = {true};
+        QuerySubscriptionRegistry.Decoder<TaskSnapshotIndex.Update> decoder = value -> {
+            TaskSnapshotIndex.Update update = index.applyUpdate(value);
+            if (syncKey != null) {
+                persistChanges(syncKey, scope, update.getChanges());
+            }
+            if (update.getChanges().isEmpty() && !firstSnapshot[0]) {
+                return null;
+            }
+            firstSnapshot[0] = false;
+            Log.d(TAG, "Loaded " + index.size() + " " + description + " (" + update.getChanges().size() + " changes)");
+            return update;
+        };
+
+        return subscriptionRegistry.subscribe(key, query, decoder,
+                new QuerySubscriptionRegistry.Subscriber<TaskSnapshotIndex.Update>() {
+                    @Override
+                    public void onValue(TaskSnapshotIndex.Update update) {
+                        deliver(listener, update.getTasks(), update.getChanges());
+                    }
+
+                    @Override
+                    public void onError(String error) {
+                        Log.e(TAG, errorLog + ": " + error);
+                        listener.onError(error);
                     }
-                    Log.d(TAG, "Loaded " + tasks.size() + " tasks due soon");
-                    listener.onTasksLoaded(tasks);
                 });
     }
-}
\ No newline at end of file
+
+    /**
+     * Ghi ngay các cập nhật đang chờ trong hàng đợi
+     */
+    public void flushPendingWrites() {
+        writeQueue.flush();
+    }
+
+    /**
+     * Đưa cập nhật vào TaskWriteQueue: gộp với các cập nhật khác của cùng task và ghi theo batch
+     */
+    private void queueUpdate(String taskId, Map<String, Object> updates, String successLog,
+                             String errorLog, String errorPrefix, OnTaskUpdatedListener listener) {
+        writeQueue.update(taskId, updates, new OnTaskUpdatedListener() {
+            @Override
+            public void onTaskUpdated() {
+                Log.d(TAG, successLog);
+                listener.onTaskUpdated();
+            }
+
+            @Override
+            public void onError(String error) {
+                Log.e(TAG, errorLog + ": " + error);
+                listener.onError(errorPrefix + error);
+            }
+        });
+    }
+
+    private void deliver(OnTasksLoadedListener listener, List<Task> tasks,
+                         List<TaskSnapshotIndex.Change> changes) {
+        if (listener instanceof OnTaskChangesListener) {
+            ((OnTaskChangesListener) listener).onTaskChanges(tasks, changes);
+        } else {
+            listener.onTasksLoaded(new ArrayList<>(tasks));
+        }
+    }
+
+    /**
+     * Ghi các thay đổi của snapshot xuống bộ nhớ máy và nâng watermark theo updatedAt lớn nhất
+     */
+    private void persistChanges(String syncKey, TaskLocalStore.Scope scope,
+                                List<TaskSnapshotIndex.Change> changes) {
+        if (changes.isEmpty()) return;
+
+        List<Task> upserts = new ArrayList<>();
+        List<String> deletedIds = new ArrayList<>();
+        long watermark = 0;
+        for (TaskSnapshotIndex.Change change : changes) {
+            Task task = change.getTask();
+            if (change.getType() == TaskSnapshotIndex.Change.Type.REMOVED) {
+                deletedIds.add(task.getId());
+            } else {
+                upserts.add(task);
+                if (task.getUpdatedAt() != null) {
+                    watermark = Math.max(watermark, task.getUpdatedAt().getTime());
+                }
+            }
+        }
+        localStore.applyChanges(upserts, deletedIds, scope, syncKey, watermark);
+    }
+}
@@ -0,0 +1,238 @@
+package com.example.projectmanager.repositories;
+
+import com.example.projectmanager.models.Task;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Danh sách tasks đã sắp xếp, được cập nhật dần từ QuerySnapshot.getDocumentChanges()
+ * thay vì dựng lại và sort lại toàn bộ list mỗi lần snapshot thay đổi.
+ */
+public class TaskSnapshotIndex {
+
+    /**
+     * Một thay đổi của danh sách, kèm vị trí cũ/mới để adapter gọi notifyItem*()
+     */
+    public static class Change {
+        public enum Type {
+            ADDED,
+            MODIFIED,
+            REMOVED
+        }
+
+        private final Type type;
+        private final Task task;
+        private final int oldPosition;
+        private final int newPosition;
+
+        Change(Type type, Task task, int oldPosition, int newPosition) {
+            this.type = type;
+            this.task = task;
+            this.oldPosition = oldPosition;
+            this.newPosition = newPosition;
+        }
+
+        public Type getType() { return type; }
+        public Task getTask() { return task; }
+
+        /** Vị trí trước thay đổi, -1 với ADDED */
+        public int getOldPosition() { return oldPosition; }
+
+        /** Vị trí sau thay đổi, -1 với REMOVED */
+        public int getNewPosition() { return newPosition; }
+    }
+
+    /**
+     * Kết quả của một snapshot: danh sách hiện tại và các thay đổi so với lần trước
+     */
+    public static class Update {
+        private final List<Task> tasks;
+        private final List<Change> changes;
+
+        Update(List<Task> tasks, List<Change> changes) {
+            this.tasks = tasks;
+            this.changes = changes;
+        }
+
+        public List<Task> getTasks() { return tasks; }
+        public List<Change> getChanges() { return changes; }
+    }
+
+    /**
+     * Điều kiện lọc phía client cho những query không lọc hết được trên Firestore
+     */
+    public interface TaskPredicate {
+        boolean accept(Task task);
+    }
+
+    // Thứ tự mặc định của các màn hình: createdAt mới nhất trước
+    public static final Comparator<Task> CREATED_AT_DESC =
+            (task1, task2) -> compareDates(task1.getCreatedAt(), task2.getCreatedAt(), true);
+
+    // Tasks sắp hết hạn: dueDate gần nhất trước
+    public static final Comparator<Task> DUE_DATE_ASC =
+            (task1, task2) -> compareDates(task1.getDueDate(), task2.getDueDate(), false);
+
+    private final List<Task> tasks = new ArrayList<>();
+    private final Map<String, Task> tasksById = new HashMap<>();
+    private final Comparator<Task> comparator;
+    private final TaskPredicate predicate;
+    private final TaskDecoder decoder = TaskDecoder.getInstance();
+
+    public TaskSnapshotIndex(Comparator<Task> comparator) {
+        this(comparator, null);
+    }
+
+    public TaskSnapshotIndex(Comparator<Task> comparator, TaskPredicate predicate) {
+        // Thêm id làm tie-breaker để thứ tự là toàn phần, binarySearch luôn tìm đúng phần tử
+        this.comparator = (task1, task2) -> {
+            int result = comparator.compare(task1, task2);
+            if (result != 0) return result;
+            String id1 = task1.getId();
+            String id2 = task2.getId();
+            if (id1 == null) return id2 == null ? 0 : -1;
+            if (id2 == null) return 1;
+            return id1.compareTo(id2);
+        };
+        this.predicate = predicate;
+    }
+
+    /**
+     * Áp dụng các document changes của snapshot, trả về danh sách thay đổi theo thứ tự xảy ra.
+     * Mỗi thay đổi tốn một lần binary search thay vì sort lại toàn bộ.
+     */
+    public List<Change> apply(QuerySnapshot snapshot) {
+        List<Change> changes = new ArrayList<>();
+        if (snapshot == null) return changes;
+
+        for (DocumentChange documentChange : snapshot.getDocumentChanges()) {
+            QueryDocumentSnapshot doc = documentChange.getDocument();
+            String id = doc.getId();
+
+            if (documentChange.getType() == DocumentChange.Type.REMOVED) {
+                Task removed = tasksById.remove(id);
+                if (removed != null) {
+                    int oldPosition = removeAt(removed);
+                    changes.add(new Change(Change.Type.REMOVED, removed, oldPosition, -1));
+                }
+                continue;
+            }
+
+            Task task = decoder.decode(doc);
+            if (task == null) continue;
+            boolean accepted = predicate == null || predicate.accept(task);
+            Task previous = tasksById.get(id);
+
+            if (previous == null) {
+                if (!accepted) continue;
+                tasksById.put(id, task);
+                int newPosition = insert(task);
+                changes.add(new Change(Change.Type.ADDED, task, -1, newPosition));
+            } else if (!accepted) {
+                // Document vẫn thuộc query nhưng không còn qua được bộ lọc phía client
+                tasksById.remove(id);
+                int oldPosition = removeAt(previous);
+                changes.add(new Change(Change.Type.REMOVED, previous, oldPosition, -1));
+            } else if (previous != task) {
+                // Cùng một instance nghĩa là document chưa đổi (TaskDecoder dùng lại bản đã decode, Task bất biến)
+                tasksById.put(id, task);
+                int oldPosition = removeAt(previous);
+                int newPosition = insert(task);
+                changes.add(new Change(Change.Type.MODIFIED, task, oldPosition, newPosition));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Nạp sẵn tasks (ví dụ từ bộ nhớ máy) mà không sinh ra thay đổi nào;
+     * snapshot sau đó chỉ báo những gì khác với danh sách này
+     */
+    public void preload(List<Task> initialTasks) {
+        for (Task task : initialTasks) {
+            if (task.getId() == null || tasksById.containsKey(task.getId())) continue;
+            if (predicate != null && !predicate.accept(task)) continue;
+            tasksById.put(task.getId(), task);
+            insert(task);
+        }
+    }
+
+    /**
+     * Xóa các tasks theo id (ví dụ từ tombstone), trả về các thay đổi REMOVED
+     */
+    public List<Change> removeAll(List<String> taskIds) {
+        List<Change> changes = new ArrayList<>();
+        for (String id : taskIds) {
+            Task removed = tasksById.remove(id);
+            if (removed != null) {
+                int oldPosition = removeAt(removed);
+                changes.add(new Change(Change.Type.REMOVED, removed, oldPosition, -1));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Áp dụng snapshot và gói kết quả thành Update
+     */
+    public Update applyUpdate(QuerySnapshot snapshot) {
+        List<Change> changes = apply(snapshot);
+        return new Update(getTasks(), changes);
+    }
+
+    /**
+     * Danh sách hiện tại (chỉ đọc, là view của dữ liệu bên trong)
+     */
+    public List<Task> getTasks() {
+        return Collections.unmodifiableList(tasks);
+    }
+
+    public int size() {
+        return tasks.size();
+    }
+
+    public void clear() {
+        tasks.clear();
+        tasksById.clear();
+    }
+
+    private int insert(Task task) {
+        int position = Collections.binarySearch(tasks, task, comparator);
+        if (position < 0) position = -position - 1;
+        tasks.add(position, task);
+        return position;
+    }
+
+    private int removeAt(Task task) {
+        int position = Collections.binarySearch(tasks, task, comparator);
+        if (position < 0) {
+            // Không nên xảy ra; fallback tìm tuần tự theo reference
+            position = tasks.indexOf(task);
+        }
+        if (position >= 0) {
+            tasks.remove(position);
+        }
+        return position;
+    }
+
+    /**
+     * So sánh hai ngày, null luôn xếp cuối
+     */
+    private static int compareDates(Date date1, Date date2, boolean descending) {
+        if (date1 == null && date2 == null) return 0;
+        if (date1 == null) return 1;
+        if (date2 == null) return -1;
+        long millis1 = date1.getTime();
+        long millis2 = date2.getTime();
+        return descending ? Long.compare(millis2, millis1) : Long.compare(millis1, millis2);
+    }
+}
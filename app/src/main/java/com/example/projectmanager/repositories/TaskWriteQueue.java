@@ -0,0 +1,194 @@
+package com.example.projectmanager.repositories;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hàng đợi ghi (write-behind) cho các cập nhật từng phần của tasks.
+ * Các cập nhật cùng một task trong khoảng FLUSH_INTERVAL_MS được gộp thành một lần update
+ * (field ghi sau thắng), nhiều task được gom vào WriteBatch (tối đa 500 thao tác mỗi batch).
+ * Callback của từng thao tác vẫn được gọi khi batch chứa nó commit xong; nếu batch lỗi thì
+ * các task được ghi lại từng cái một để lỗi của một task không kéo theo các task khác.
+ *
+ * Dùng trên main thread.
+ */
+public class TaskWriteQueue {
+    private static final String TAG = "TaskWriteQueue";
+    private static final String TASKS_COLLECTION = "tasks";
+    private static final long FLUSH_INTERVAL_MS = 300;
+    // Giới hạn số thao tác của một WriteBatch trên Firestore
+    static final int MAX_BATCH_SIZE = 500;
+
+    private static TaskWriteQueue instance;
+
+    private final FirebaseFirestore db;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flushRunnable = this::flush;
+
+    // Giữ thứ tự task được xếp hàng lần đầu
+    private final Map<String, PendingWrite> pending = new LinkedHashMap<>();
+    private boolean flushScheduled = false;
+
+    private static class PendingWrite {
+        final Map<String, Object> fields = new HashMap<>();
+        final Map<String, List<Object>> arrayUnions = new HashMap<>();
+        final List<TaskRepository.OnTaskUpdatedListener> listeners = new ArrayList<>();
+    }
+
+    private TaskWriteQueue() {
+        db = FirebaseFirestore.getInstance();
+    }
+
+    public static synchronized TaskWriteQueue getInstance() {
+        if (instance == null) {
+            instance = new TaskWriteQueue();
+        }
+        return instance;
+    }
+
+    /**
+     * Xếp hàng cập nhật các field của task
+     */
+    public void update(String taskId, Map<String, Object> fields, TaskRepository.OnTaskUpdatedListener listener) {
+        PendingWrite write = pendingFor(taskId);
+        write.fields.putAll(fields);
+        addListener(write, listener);
+        scheduleFlush();
+    }
+
+    /**
+     * Xếp hàng thêm phần tử vào field mảng (arrayUnion); nhiều phần tử được gộp vào một arrayUnion
+     */
+    public void arrayUnion(String taskId, String field, Object element,
+                           TaskRepository.OnTaskUpdatedListener listener) {
+        PendingWrite write = pendingFor(taskId);
+        List<Object> elements = write.arrayUnions.get(field);
+        if (elements == null) {
+            elements = new ArrayList<>();
+            write.arrayUnions.put(field, elements);
+        }
+        elements.add(element);
+        addListener(write, listener);
+        scheduleFlush();
+    }
+
+    /**
+     * Số task đang chờ ghi
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Ghi ngay mọi cập nhật đang chờ (ví dụ khi màn hình bị đóng)
+     */
+    public void flush() {
+        handler.removeCallbacks(flushRunnable);
+        flushScheduled = false;
+        if (pending.isEmpty()) return;
+
+        List<Map.Entry<String, PendingWrite>> writes = new ArrayList<>(pending.entrySet());
+        pending.clear();
+
+        for (int start = 0; start < writes.size(); start += MAX_BATCH_SIZE) {
+            commitBatch(writes.subList(start, Math.min(start + MAX_BATCH_SIZE, writes.size())));
+        }
+    }
+
+    private void commitBatch(List<Map.Entry<String, PendingWrite>> writes) {
+        if (writes.size() == 1) {
+            commitSingle(writes.get(0));
+            return;
+        }
+
+        WriteBatch batch = db.batch();
+        List<TaskRepository.OnTaskUpdatedListener> listeners = new ArrayList<>();
+
+        for (Map.Entry<String, PendingWrite> entry : writes) {
+            batch.update(db.collection(TASKS_COLLECTION).document(entry.getKey()), fieldsOf(entry.getValue()));
+            listeners.addAll(entry.getValue().listeners);
+        }
+
+        Log.d(TAG, "Committing batch: " + writes.size() + " tasks, " + listeners.size() + " operations");
+        batch.commit()
+                .addOnSuccessListener(aVoid -> {
+                    for (TaskRepository.OnTaskUpdatedListener listener : listeners) {
+                        listener.onTaskUpdated();
+                    }
+                })
+                .addOnFailureListener(e -> {
+                    // Batch là nguyên tử: lỗi ở một task (task đã bị xóa, không có quyền...) làm cả batch
+                    // thất bại, nên ghi lại từng task riêng để chỉ task lỗi báo lỗi
+                    Log.w(TAG, "Batch failed, retrying " + writes.size() + " tasks one by one", e);
+                    for (Map.Entry<String, PendingWrite> entry : writes) {
+                        commitSingle(entry);
+                    }
+                });
+    }
+
+    private void commitSingle(Map.Entry<String, PendingWrite> entry) {
+        String taskId = entry.getKey();
+        List<TaskRepository.OnTaskUpdatedListener> listeners = entry.getValue().listeners;
+
+        db.collection(TASKS_COLLECTION).document(taskId)
+                .update(fieldsOf(entry.getValue()))
+                .addOnSuccessListener(aVoid -> {
+                    for (TaskRepository.OnTaskUpdatedListener listener : listeners) {
+                        listener.onTaskUpdated();
+                    }
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Error updating task " + taskId, e);
+                    for (TaskRepository.OnTaskUpdatedListener listener : listeners) {
+                        listener.onError(e.getMessage());
+                    }
+                });
+    }
+
+    /**
+     * Các field sẽ ghi của một task, gồm cả arrayUnion đã gộp
+     */
+    private static Map<String, Object> fieldsOf(PendingWrite write) {
+        Map<String, Object> fields = new HashMap<>(write.fields);
+        for (Map.Entry<String, List<Object>> union : write.arrayUnions.entrySet()) {
+            fields.put(union.getKey(), FieldValue.arrayUnion(union.getValue().toArray()));
+        }
+        return fields;
+    }
+
+    private PendingWrite pendingFor(String taskId) {
+        PendingWrite write = pending.get(taskId);
+        if (write == null) {
+            write = new PendingWrite();
+            pending.put(taskId, write);
+        }
+        return write;
+    }
+
+    private void addListener(PendingWrite write, TaskRepository.OnTaskUpdatedListener listener) {
+        if (listener != null) {
+            write.listeners.add(listener);
+        }
+    }
+
+    private void scheduleFlush() {
+        if (pending.size() >= MAX_BATCH_SIZE) {
+            // Đủ một batch đầy thì ghi luôn, không chờ hết khoảng gộp
+            flush();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, FLUSH_INTERVAL_MS);
+        }
+    }
+}
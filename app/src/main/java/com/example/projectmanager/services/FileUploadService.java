@@ -1,39 +1,157 @@
 package com.example.projectmanager.services;
 
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.OpenableColumns;
 import android.util.Log;
 import android.webkit.MimeTypeMap;
 
+import com.example.projectmanager.repositories.AttachmentBlobRepository;
+import com.example.projectmanager.utils.ImageCompressor;
 import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageMetadata;
 import com.google.firebase.storage.StorageReference;
 import com.google.firebase.storage.UploadTask;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
- * Service to handle file uploads to Firebase Storage with improved error handling
+ * Service to handle file uploads to Firebase Storage with improved error handling.
+ *
+ * Uploads use resumable sessions: the session URI and the confirmed byte offset are kept in
+ * SharedPreferences, so uploading the same file to the same place again (after a dropped connection
+ * or process death) continues from the last confirmed chunk instead of starting from zero.
+ * Nothing restarts a saved session on its own: the caller that would attach the result is gone after
+ * process death, so a session is only resumed when the user sends the same file again. Sessions and
+ * compressed images older than {@link #SESSION_MAX_AGE_MS} are removed when the first service is created.
+ * At most {@link #setMaxParallelUploads(int)} uploads run at the same time, across all instances;
+ * the rest wait in FIFO order.
+ *
+ * Images are compressed first (see {@link ImageCompressor}): the re-encoded image is uploaded instead of
+ * the original, and a small thumbnail is uploaded next to it under "thumbnails/".
+ *
+ * Uploads are deduplicated by content: the source is hashed (SHA-256) before anything is uploaded, and if
+ * {@link AttachmentBlobRepository} already has that content the existing URL is reused. An upload does not
+ * hold a reference itself: the document that uses the file stores {@link UploadedFile#blobHash} and takes
+ * the reference when it is written. {@link #deleteFile} never deletes a file that a document still uses.
  */
 public class FileUploadService {
     private static final String TAG = "FileUploadService";
     private static final String STORAGE_PATH_TASKS = "tasks/attachments/";
     private static final String STORAGE_PATH_MESSAGES = "messages/attachments/";
+    private static final String THUMBNAIL_DIR = "thumbnails/";
     private static final long MAX_FILE_SIZE = 50 * 1024 * 1024; // 50MB
+    private static final long UNKNOWN_SIZE = -1;
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    private static final String PREF_NAME = "FileUploadSessions";
+    private static final String KEY_FILE_NAME = ".fileName";
+    private static final String KEY_SESSION_URI = ".sessionUri";
+    private static final String KEY_OFFSET = ".offset";
+    private static final String KEY_SAVED_AT = ".savedAt";
+    // Firebase Storage keeps a resumable session for about a week; older sessions cannot be resumed
+    static final long SESSION_MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+    private static boolean staleSessionsPruned = false;
+    // Persist the offset at most once per this many bytes to avoid a disk write per progress event
+    private static final long OFFSET_SAVE_INTERVAL = 256 * 1024;
+
+    private static final int DEFAULT_MAX_PARALLEL_UPLOADS = 2;
+    private static int maxParallelUploads = DEFAULT_MAX_PARALLEL_UPLOADS;
+    private static int runningUploads = 0;
+    private static final Deque<Runnable> waitingUploads = new ArrayDeque<>();
+    // Hashing and image compression run off the main thread, one file at a time
+    private static final ExecutorService preprocessExecutor = Executors.newSingleThreadExecutor();
 
     private FirebaseStorage storage;
     private Context context;
+    private SharedPreferences sessions;
+    private ImageCompressor imageCompressor;
+    private AttachmentBlobRepository blobRepository;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     public interface FileUploadCallback {
         void onProgress(int progress);
-        void onSuccess(String downloadUrl, String fileName);
+        /**
+         * Called with each progress event; bytesPerSecond is the average since this upload
+         * (or resumed session) started
+         */
+        void onThroughput(long bytesTransferred, long totalBytes, long bytesPerSecond);
+        void onSuccess(UploadedFile file);
         void onError(String error);
     }
 
+    /**
+     * A finished upload. contentType and size describe the uploaded object, which for compressed images
+     * differ from the file that was picked.
+     */
+    public static class UploadedFile {
+        public final String downloadUrl;
+        public final String fileName;
+        /** URL of the uploaded thumbnail for images, null otherwise */
+        public final String thumbnailUrl;
+        /** Null if unknown */
+        public final String contentType;
+        public final long size;
+        /**
+         * Hash of the blob in {@link AttachmentBlobRepository}, null if the file is not reference counted.
+         * The owning document stores it and takes the reference in the same write.
+         */
+        public final String blobHash;
+
+        UploadedFile(String downloadUrl, String fileName, String thumbnailUrl, String contentType, long size,
+                     String blobHash) {
+            this.downloadUrl = downloadUrl;
+            this.fileName = fileName;
+            this.thumbnailUrl = thumbnailUrl;
+            this.contentType = contentType;
+            this.size = size;
+            this.blobHash = blobHash;
+        }
+
+        UploadedFile withThumbnailUrl(String thumbnailUrl) {
+            return new UploadedFile(downloadUrl, fileName, thumbnailUrl, contentType, size, blobHash);
+        }
+    }
+
     public FileUploadService(Context context) {
         this.context = context.getApplicationContext();
         this.storage = FirebaseStorage.getInstance();
+        this.sessions = this.context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        this.imageCompressor = new ImageCompressor(this.context);
+        this.blobRepository = AttachmentBlobRepository.getInstance();
+        pruneStaleSessions();
+    }
+
+    /**
+     * Compression settings for image uploads (max dimension, quality, format)
+     */
+    public ImageCompressor getImageCompressor() {
+        return imageCompressor;
+    }
+
+    /**
+     * Limit how many uploads run concurrently (applies to all FileUploadService instances)
+     */
+    public static void setMaxParallelUploads(int maxParallel) {
+        synchronized (waitingUploads) {
+            maxParallelUploads = Math.max(1, maxParallel);
+        }
+        startWaitingUploads();
     }
 
     public void uploadTaskAttachment(Uri fileUri, FileUploadCallback callback) {
@@ -50,84 +168,429 @@ public class FileUploadService {
             return;
         }
 
-        // Validate the file can be accessed
-        try {
-            InputStream inputStream = context.getContentResolver().openInputStream(fileUri);
-            if (inputStream == null) {
-                callback.onError("Không thể truy cập tệp");
-                return;
-            }
+        // Validate file size using the provider's metadata instead of reading the stream
+        long fileSize = queryFileSize(fileUri);
+        String mimeType = context.getContentResolver().getType(fileUri);
+        boolean compressible = ImageCompressor.canCompress(mimeType);
+        if (fileSize == UNKNOWN_SIZE) {
+            Log.w(TAG, "Could not determine file size, continuing without size check: " + fileUri);
+        } else if (fileSize > MAX_FILE_SIZE && !compressible) {
+            callback.onError("File quá lớn. Vui lòng chọn file nhỏ hơn 50MB");
+            return;
+        } else if (fileSize == 0) {
+            callback.onError("File trống");
+            return;
+        }
+
+        preprocessExecutor.execute(() -> {
+            String hash = hashContent(fileUri);
+            mainHandler.post(() -> {
+                if (hash == null) {
+                    prepareAndUpload(fileUri, storagePath, fileSize, mimeType, null, callback);
+                    return;
+                }
+
+                blobRepository.find(hash, new AttachmentBlobRepository.OnBlobLookupListener() {
+                    @Override
+                    public void onFound(String downloadUrl, String thumbnailUrl, String fileName,
+                                        String contentType, long size) {
+                        Log.d(TAG, "Content already uploaded, skipping upload: " + fileName);
+                        callback.onSuccess(new UploadedFile(downloadUrl, fileName, thumbnailUrl, contentType, size,
+                                hash));
+                    }
+
+                    @Override
+                    public void onNotFound() {
+                        prepareAndUpload(fileUri, storagePath, fileSize, mimeType, hash,
+                                registeringCallback(hash, storagePath, callback));
+                    }
 
-            // Validate file size
-            long fileSize;
+                    @Override
+                    public void onError(String error) {
+                        // Upload without deduplication rather than failing the attachment
+                        prepareAndUpload(fileUri, storagePath, fileSize, mimeType, null, callback);
+                    }
+                });
+            });
+        });
+    }
+
+    /**
+     * Compress images, then queue the upload
+     */
+    private void prepareAndUpload(Uri fileUri, String storagePath, long fileSize, String mimeType, String hash,
+                                  FileUploadCallback callback) {
+        if (!ImageCompressor.canCompress(mimeType)) {
+            enqueueUpload(() -> startUpload(fileUri, storagePath, fileSize, mimeType, hash, null, callback, true));
+            return;
+        }
+
+        preprocessExecutor.execute(() -> {
+            ImageCompressor.Result compressed = null;
             try {
-                fileSize = inputStream.available();
-                inputStream.close();
+                compressed = imageCompressor.compress(fileUri, fileSize, hash);
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Error compressing image, uploading original", e);
+            }
 
-                if (fileSize > MAX_FILE_SIZE) {
+            ImageCompressor.Result result = compressed;
+            mainHandler.post(() -> {
+                if (result != null) {
+                    Uri imageUri = Uri.fromFile(result.image);
+                    long imageSize = result.image.length();
+                    enqueueUpload(() -> startUpload(imageUri, storagePath, imageSize, result.mimeType, hash,
+                            result, callback, true));
+                } else if (fileSize > MAX_FILE_SIZE) {
                     callback.onError("File quá lớn. Vui lòng chọn file nhỏ hơn 50MB");
-                    return;
-                } else if (fileSize == 0) {
-                    callback.onError("File trống");
-                    return;
+                } else {
+                    enqueueUpload(() -> startUpload(fileUri, storagePath, fileSize, mimeType, hash, null,
+                            callback, true));
                 }
-            } catch (IOException sizeEx) {
-                Log.e(TAG, "Error checking file size", sizeEx);
-                // Continue despite not being able to check size
+            });
+        });
+    }
+
+    /**
+     * Wrap the caller's callback so a finished upload is registered as a blob before it is reported
+     */
+    private FileUploadCallback registeringCallback(String hash, String storagePath, FileUploadCallback callback) {
+        return new FileUploadCallback() {
+            @Override
+            public void onProgress(int progress) {
+                callback.onProgress(progress);
             }
 
-        } catch (IOException e) {
-            Log.e(TAG, "Error accessing file", e);
-            callback.onError("Không thể truy cập tệp: " + e.getMessage());
+            @Override
+            public void onThroughput(long bytesTransferred, long totalBytes, long bytesPerSecond) {
+                callback.onThroughput(bytesTransferred, totalBytes, bytesPerSecond);
+            }
+
+            @Override
+            public void onSuccess(UploadedFile file) {
+                StorageReference fileRef = storage.getReference().child(storagePath + file.fileName);
+                String thumbnailPath = file.thumbnailUrl != null
+                        ? storage.getReference().child(storagePath + THUMBNAIL_DIR + file.fileName).getPath() : null;
+
+                blobRepository.register(hash, fileRef.getPath(), file.fileName, file.downloadUrl, thumbnailPath,
+                        file.thumbnailUrl, file.size, file.contentType,
+                        new AttachmentBlobRepository.OnBlobRegisteredListener() {
+                            @Override
+                            public void onRegistered(String blobUrl, String blobThumbnailUrl, String blobFileName,
+                                                     String contentType, long size, boolean duplicate) {
+                                callback.onSuccess(new UploadedFile(blobUrl, blobFileName, blobThumbnailUrl,
+                                        contentType, size, hash));
+                            }
+
+                            @Override
+                            public void onError(String error) {
+                                // The file is uploaded; it just is not shared with later uploads
+                                callback.onSuccess(file);
+                            }
+                        });
+            }
+
+            @Override
+            public void onError(String error) {
+                callback.onError(error);
+            }
+        };
+    }
+
+    private void startUpload(Uri fileUri, String storagePath, long fileSize, String mimeType, String hash,
+                             ImageCompressor.Result compressed, FileUploadCallback callback, boolean allowResume) {
+        String sessionKey = sessionKey(fileUri, storagePath, fileSize);
+
+        // Reuse the file name and session of an unfinished upload of the same file
+        String fileName = sessions.getString(sessionKey + KEY_FILE_NAME, null);
+        String savedSession = allowResume ? sessions.getString(sessionKey + KEY_SESSION_URI, null) : null;
+        if (fileName == null || savedSession == null) {
+            fileName = generateFileName(fileUri, mimeType, hash);
+            savedSession = null;
+        }
+        String finalFileName = fileName;
+        boolean resuming = savedSession != null;
+
+        StorageReference storageRef = storage.getReference().child(storagePath + fileName);
+        StorageMetadata metadata = new StorageMetadata.Builder()
+                .setContentType(mimeType)
+                .build();
+
+        UploadTask uploadTask;
+        try {
+            if (resuming) {
+                Log.d(TAG, "Resuming upload " + fileName + " from byte "
+                        + sessions.getLong(sessionKey + KEY_OFFSET, 0));
+                uploadTask = storageRef.putFile(fileUri, metadata, Uri.parse(savedSession));
+            } else {
+                uploadTask = storageRef.putFile(fileUri, metadata);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading file for upload", e);
+            deleteCompressed(compressed, sessionKey);
+            finishUpload();
+            callback.onError("Lỗi khi đọc tệp: " + e.getMessage());
             return;
         }
 
-        // Generate unique filename
-        String fileName = generateFileName(fileUri);
-        String fullPath = storagePath + fileName;
+        long startTime = SystemClock.elapsedRealtime();
+        long[] startBytes = {-1};
+        long[] savedOffset = {resuming ? sessions.getLong(sessionKey + KEY_OFFSET, 0) : -1};
 
-        StorageReference storageRef = storage.getReference().child(fullPath);
+        // Register observers to listen for when the upload is done or if it fails
+        uploadTask.addOnProgressListener(taskSnapshot -> {
+            long transferred = taskSnapshot.getBytesTransferred();
+            long total = taskSnapshot.getTotalByteCount() > 0 ? taskSnapshot.getTotalByteCount() : fileSize;
 
-        try {
-            InputStream stream = context.getContentResolver().openInputStream(fileUri);
-            if (stream == null) {
-                callback.onError("Không thể đọc tệp");
-                return;
+            Uri sessionUri = taskSnapshot.getUploadSessionUri();
+            if (sessionUri != null && (savedOffset[0] < 0 || transferred - savedOffset[0] >= OFFSET_SAVE_INTERVAL)) {
+                saveSession(sessionKey, finalFileName, sessionUri.toString(), transferred);
+                savedOffset[0] = transferred;
             }
 
-            UploadTask uploadTask = storageRef.putStream(stream);
+            if (startBytes[0] < 0) {
+                startBytes[0] = transferred;
+            }
+            long elapsed = SystemClock.elapsedRealtime() - startTime;
+            long bytesPerSecond = elapsed > 0 ? (transferred - startBytes[0]) * 1000 / elapsed : 0;
 
-            // Register observers to listen for when the download is done or if it fails
-            uploadTask.addOnProgressListener(taskSnapshot -> {
-                double progress = (100.0 * taskSnapshot.getBytesTransferred()) / taskSnapshot.getTotalByteCount();
-                callback.onProgress((int) progress);
-            }).addOnSuccessListener(taskSnapshot -> {
-                // Upload succeeded
-                storageRef.getDownloadUrl().addOnSuccessListener(uri -> {
-                    callback.onSuccess(uri.toString(), fileName);
-                }).addOnFailureListener(e -> {
-                    Log.e(TAG, "Error getting download URL", e);
-                    callback.onError("Lỗi khi lấy URL file: " + e.getMessage());
-                });
+            if (total > 0) {
+                callback.onProgress((int) (100 * transferred / total));
+            }
+            callback.onThroughput(transferred, total, bytesPerSecond);
+        }).addOnSuccessListener(taskSnapshot -> {
+            // Upload succeeded
+            clearSession(sessionKey);
+            finishUpload();
+            long uploadedSize = taskSnapshot.getTotalByteCount() > 0 ? taskSnapshot.getTotalByteCount() : fileSize;
+            storageRef.getDownloadUrl().addOnSuccessListener(uri -> {
+                UploadedFile uploaded = new UploadedFile(uri.toString(), finalFileName, null, mimeType, uploadedSize,
+                        null);
+                if (compressed != null && compressed.thumbnail != null) {
+                    uploadThumbnail(storagePath, compressed, uploaded, callback);
+                } else {
+                    deleteCompressed(compressed, sessionKey);
+                    callback.onSuccess(uploaded);
+                }
             }).addOnFailureListener(e -> {
-                // Upload failed
-                Log.e(TAG, "File upload failed", e);
-                callback.onError("Lỗi khi upload file: " + e.getMessage());
+                Log.e(TAG, "Error getting download URL", e);
+                deleteCompressed(compressed, sessionKey);
+                callback.onError("Lỗi khi lấy URL file: " + e.getMessage());
             });
+        }).addOnFailureListener(e -> {
+            if (resuming) {
+                // The saved session is likely expired; start over with a new session, keeping the slot
+                Log.w(TAG, "Could not resume upload " + finalFileName + ", restarting", e);
+                clearSession(sessionKey);
+                startUpload(fileUri, storagePath, fileSize, mimeType, hash, compressed, callback, false);
+                return;
+            }
+
+            // Upload failed; the session stays saved so the next attempt resumes from the last offset.
+            // A compressed image is kept only while such a session refers to it
+            Log.e(TAG, "File upload failed", e);
+            deleteCompressed(compressed, sessionKey);
+            finishUpload();
+            callback.onError("Lỗi khi upload file: " + e.getMessage());
+        });
+    }
+
+    /**
+     * Upload the thumbnail of a compressed image; a failed thumbnail still reports the main upload as done
+     */
+    private void uploadThumbnail(String storagePath, ImageCompressor.Result compressed, UploadedFile uploaded,
+                                 FileUploadCallback callback) {
+        StorageReference thumbnailRef = storage.getReference().child(storagePath + THUMBNAIL_DIR + uploaded.fileName);
+        StorageMetadata metadata = new StorageMetadata.Builder()
+                .setContentType(compressed.mimeType)
+                .build();
+
+        thumbnailRef.putFile(Uri.fromFile(compressed.thumbnail), metadata)
+                .addOnSuccessListener(taskSnapshot -> thumbnailRef.getDownloadUrl()
+                        .addOnSuccessListener(uri -> {
+                            compressed.delete();
+                            callback.onSuccess(uploaded.withThumbnailUrl(uri.toString()));
+                        })
+                        .addOnFailureListener(e -> {
+                            Log.e(TAG, "Error getting thumbnail URL", e);
+                            compressed.delete();
+                            callback.onSuccess(uploaded);
+                        }))
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Thumbnail upload failed", e);
+                    compressed.delete();
+                    callback.onSuccess(uploaded);
+                });
+    }
+
+    /**
+     * File size from OpenableColumns.SIZE, falling back to the file descriptor length
+     */
+    private long queryFileSize(Uri fileUri) {
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(fileUri, new String[] {OpenableColumns.SIZE},
+                    null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+                if (sizeIndex != -1 && !cursor.isNull(sizeIndex)) {
+                    return cursor.getLong(sizeIndex);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error querying file size", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        try (AssetFileDescriptor descriptor = context.getContentResolver().openAssetFileDescriptor(fileUri, "r")) {
+            if (descriptor != null && descriptor.getLength() != AssetFileDescriptor.UNKNOWN_LENGTH) {
+                return descriptor.getLength();
+            }
         } catch (IOException e) {
-            Log.e(TAG, "Error reading file for upload", e);
-            callback.onError("Lỗi khi đọc tệp: " + e.getMessage());
+            Log.e(TAG, "Error checking file size", e);
         }
+        return UNKNOWN_SIZE;
     }
 
-    private String generateFileName(Uri fileUri) {
-        String extension = getFileExtension(fileUri);
+    // ===== SESSIONS =====
+
+    private String sessionKey(Uri fileUri, String storagePath, long fileSize) {
+        return storagePath + "|" + fileUri + "|" + fileSize;
+    }
+
+    private void saveSession(String sessionKey, String fileName, String sessionUri, long offset) {
+        sessions.edit()
+                .putString(sessionKey + KEY_FILE_NAME, fileName)
+                .putString(sessionKey + KEY_SESSION_URI, sessionUri)
+                .putLong(sessionKey + KEY_OFFSET, offset)
+                .putLong(sessionKey + KEY_SAVED_AT, System.currentTimeMillis())
+                .apply();
+    }
+
+    private void clearSession(String sessionKey) {
+        sessions.edit()
+                .remove(sessionKey + KEY_FILE_NAME)
+                .remove(sessionKey + KEY_SESSION_URI)
+                .remove(sessionKey + KEY_OFFSET)
+                .remove(sessionKey + KEY_SAVED_AT)
+                .apply();
+    }
+
+    /**
+     * Delete a compressed image unless a saved session still needs it to resume
+     */
+    private void deleteCompressed(ImageCompressor.Result compressed, String sessionKey) {
+        if (compressed != null && !sessions.contains(sessionKey + KEY_SESSION_URI)) {
+            compressed.delete();
+        }
+    }
+
+    /**
+     * Once per process: drop sessions that can no longer be resumed, compressed images left behind
+     * by uploads that were never retried, and uploaded blobs that no document took
+     */
+    private void pruneStaleSessions() {
+        synchronized (FileUploadService.class) {
+            if (staleSessionsPruned) return;
+            staleSessionsPruned = true;
+        }
+
+        preprocessExecutor.execute(() -> {
+            long cutoff = System.currentTimeMillis() - SESSION_MAX_AGE_MS;
+            SharedPreferences.Editor editor = sessions.edit();
+            int removed = 0;
+            for (Map.Entry<String, ?> entry : sessions.getAll().entrySet()) {
+                String key = entry.getKey();
+                if (!key.endsWith(KEY_SESSION_URI)) continue;
+
+                String sessionKey = key.substring(0, key.length() - KEY_SESSION_URI.length());
+                // Sessions saved before KEY_SAVED_AT existed count as stale
+                if (sessions.getLong(sessionKey + KEY_SAVED_AT, 0) < cutoff) {
+                    editor.remove(sessionKey + KEY_FILE_NAME)
+                            .remove(sessionKey + KEY_SESSION_URI)
+                            .remove(sessionKey + KEY_OFFSET)
+                            .remove(sessionKey + KEY_SAVED_AT);
+                    removed++;
+                }
+            }
+            editor.apply();
+            if (removed > 0) {
+                Log.d(TAG, "Removed " + removed + " expired upload sessions");
+            }
+
+            imageCompressor.deleteOlderThan(SESSION_MAX_AGE_MS);
+        });
+
+        // Uploads whose message or task was never written leave blobs without references
+        blobRepository.deleteUnreferencedBlobs();
+    }
+
+    // ===== PARALLELISM =====
+
+    private static void enqueueUpload(Runnable upload) {
+        synchronized (waitingUploads) {
+            waitingUploads.addLast(upload);
+            Log.d(TAG, "Upload queued, running: " + runningUploads + ", waiting: " + waitingUploads.size());
+        }
+        startWaitingUploads();
+    }
+
+    private static void finishUpload() {
+        synchronized (waitingUploads) {
+            runningUploads--;
+        }
+        startWaitingUploads();
+    }
+
+    private static void startWaitingUploads() {
+        while (true) {
+            Runnable next;
+            synchronized (waitingUploads) {
+                if (runningUploads >= maxParallelUploads || waitingUploads.isEmpty()) return;
+                next = waitingUploads.pollFirst();
+                runningUploads++;
+            }
+            next.run();
+        }
+    }
+
+    private String generateFileName(Uri fileUri, String mimeType, String hash) {
+        String extension = getFileExtension(fileUri, mimeType);
         String uniqueId = UUID.randomUUID().toString();
+        if (hash != null) {
+            return AttachmentBlobRepository.blobFileName(hash, uniqueId.substring(0, 8), extension);
+        }
         return uniqueId + (extension != null ? "." + extension : "");
     }
 
-    private String getFileExtension(Uri fileUri) {
-        String mimeType = context.getContentResolver().getType(fileUri);
+    /**
+     * SHA-256 of the file content as lowercase hex, streamed in fixed-size chunks; null if unreadable
+     */
+    private String hashContent(Uri fileUri) {
+        try (InputStream in = context.getContentResolver().openInputStream(fileUri)) {
+            if (in == null) return null;
+
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[HASH_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            Log.e(TAG, "Error hashing file, uploading without deduplication", e);
+            return null;
+        }
+    }
+
+    private String getFileExtension(Uri fileUri, String mimeType) {
         if (mimeType != null) {
             return MimeTypeMap.getSingleton().getExtensionFromMimeType(mimeType);
         }
@@ -144,23 +607,25 @@ public class FileUploadService {
         return null;
     }
 
+    /**
+     * Delete an uploaded file that is not used by any document (shared files stay until their last owner is gone)
+     */
     public void deleteFile(String downloadUrl, DeleteCallback callback) {
-        try {
-            StorageReference fileRef = storage.getReferenceFromUrl(downloadUrl);
-            fileRef.delete().addOnSuccessListener(aVoid -> {
+        blobRepository.deleteFile(downloadUrl, new AttachmentBlobRepository.OnBlobReleasedListener() {
+            @Override
+            public void onReleased(boolean deleted) {
                 callback.onSuccess();
-            }).addOnFailureListener(e -> {
-                Log.e(TAG, "Error deleting file", e);
-                callback.onError("Lỗi khi xóa file: " + e.getMessage());
-            });
-        } catch (Exception e) {
-            Log.e(TAG, "Error parsing download URL", e);
-            callback.onError("URL không hợp lệ");
-        }
+            }
+
+            @Override
+            public void onError(String error) {
+                callback.onError(error);
+            }
+        });
     }
 
     public interface DeleteCallback {
         void onSuccess();
         void onError(String error);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,488 @@
+package com.example.projectmanager.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tải ảnh đính kèm của chat với cache hai tầng:
+ * bộ nhớ (LruCache tính theo byte của Bitmap) và đĩa (file gốc đã tải, LRU theo lần dùng cuối).
+ * Ảnh được decode với inSampleSize vừa với kích thước ImageView; nhiều view cùng chờ một ảnh
+ * dùng chung một request, và request bị hủy khi không còn view nào chờ.
+ *
+ * Các request chờ trong hàng đợi ưu tiên có giới hạn: ảnh của row đang hiển thị trước ảnh prefetch,
+ * cùng mức thì request mới nhất trước (LIFO) để khi cuộn nhanh các row vừa lướt qua không chặn
+ * row đang xem. Hàng đợi đầy thì bỏ request cũ nhất có ưu tiên thấp nhất.
+ *
+ * load()/cancel() gọi trên main thread.
+ */
+public class AttachmentImageLoader {
+    private static final String TAG = "AttachmentImageLoader";
+    private static final String DISK_CACHE_DIR = "attachment_images";
+    private static final long MAX_DISK_CACHE_BYTES = 50L * 1024 * 1024;
+    private static final int DOWNLOAD_THREADS = 3;
+    private static final int TIMEOUT_MS = 15000;
+    private static final int MAX_QUEUED_REQUESTS = 30;
+    // Ghi log thống kê sau mỗi bấy nhiêu ảnh được hiển thị
+    private static final int STATS_LOG_INTERVAL = 50;
+
+    public static final int PRIORITY_PREFETCH = 0;
+    public static final int PRIORITY_VISIBLE = 1;
+
+    private static AttachmentImageLoader instance;
+
+    private final LruCache<String, Bitmap> memoryCache;
+    private final File diskCacheDir;
+    private final DisplayMetrics displayMetrics;
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(DOWNLOAD_THREADS, DOWNLOAD_THREADS,
+            0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>());
+    private long nextSequence = 0;
+    private final Stats stats = new Stats();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Request đang chạy theo key (url + kích thước); view -> key nó đang chờ
+    private final Map<String, Request> inFlight = new HashMap<>();
+    private final Map<ImageView, String> pendingViews = new WeakHashMap<>();
+
+    private static class Request {
+        final String url;
+        final String key;
+        final int targetWidth;
+        final int targetHeight;
+        final List<ImageView> targets = new ArrayList<>();
+        final long startedAt = SystemClock.elapsedRealtime();
+        int errorResId;
+        Job job;
+        volatile boolean cancelled = false;
+        // Ảnh lấy từ cache đĩa thay vì tải mạng (ghi ở worker, đọc ở main thread sau khi post)
+        volatile boolean fromDisk = false;
+
+        Request(String url, String key, int targetWidth, int targetHeight) {
+            this.url = url;
+            this.key = key;
+            this.targetWidth = targetWidth;
+            this.targetHeight = targetHeight;
+        }
+    }
+
+    /**
+     * Phần việc trong hàng đợi: ưu tiên cao trước, cùng ưu tiên thì mới nhất trước
+     */
+    private class Job implements Runnable, Comparable<Job> {
+        final Request request;
+        final int priority;
+        final long sequence;
+        private Thread thread;
+
+        Job(Request request, int priority, long sequence) {
+            this.request = request;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            if (request.cancelled) return;
+            synchronized (this) {
+                thread = Thread.currentThread();
+            }
+            try {
+                execute(request);
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                    // Không để cờ interrupt của request đã hủy lan sang job kế tiếp của thread
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        synchronized void interrupt() {
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            if (priority != other.priority) {
+                return Integer.compare(other.priority, priority);
+            }
+            return Long.compare(other.sequence, sequence);
+        }
+    }
+
+    /**
+     * Số liệu để debug; đọc trên main thread
+     */
+    public static class Stats {
+        private int requests;
+        private int memoryHits;
+        private int diskHits;
+        private int networkLoads;
+        private int failures;
+        private int cancelled;
+        private int dropped;
+        private int displayed;
+        private long totalTimeToDisplayMs;
+        private int queueDepth;
+
+        public int getRequests() { return requests; }
+        public int getMemoryHits() { return memoryHits; }
+        public int getDiskHits() { return diskHits; }
+        public int getNetworkLoads() { return networkLoads; }
+        public int getFailures() { return failures; }
+        public int getCancelled() { return cancelled; }
+        public int getDropped() { return dropped; }
+        public int getQueueDepth() { return queueDepth; }
+
+        /**
+         * Tỉ lệ request được phục vụ từ cache (bộ nhớ hoặc đĩa)
+         */
+        public float getCacheHitRate() {
+            return requests == 0 ? 0f : (memoryHits + diskHits) / (float) requests;
+        }
+
+        /**
+         * Thời gian trung bình từ lúc yêu cầu đến lúc ảnh tải xong được hiển thị (không tính hit bộ nhớ)
+         */
+        public long getAverageTimeToDisplayMs() {
+            return displayed == 0 ? 0 : totalTimeToDisplayMs / displayed;
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + requests + ", memoryHits=" + memoryHits + ", diskHits=" + diskHits
+                    + ", network=" + networkLoads + ", failures=" + failures + ", cancelled=" + cancelled
+                    + ", dropped=" + dropped + ", queueDepth=" + queueDepth
+                    + ", hitRate=" + Math.round(getCacheHitRate() * 100) + "%"
+                    + ", avgTimeToDisplay=" + getAverageTimeToDisplayMs() + "ms";
+        }
+    }
+
+    private AttachmentImageLoader(Context context) {
+        // 1/8 bộ nhớ heap của app cho Bitmap
+        int maxBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+        memoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+        diskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+        if (!diskCacheDir.exists() && !diskCacheDir.mkdirs()) {
+            Log.w(TAG, "Không tạo được thư mục cache ảnh");
+        }
+        displayMetrics = context.getResources().getDisplayMetrics();
+    }
+
+    public static synchronized AttachmentImageLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new AttachmentImageLoader(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Hiển thị ảnh từ url vào view; view đang chờ ảnh khác thì request cũ của nó bị hủy.
+     * priority: PRIORITY_VISIBLE cho row đang hiển thị, PRIORITY_PREFETCH cho row bind trước.
+     */
+    public void load(String url, ImageView view, int placeholderResId, int errorResId, int priority) {
+        int[] size = targetSize(view);
+        String key = url + "#" + size[0] + "x" + size[1];
+
+        if (key.equals(pendingViews.get(view))) {
+            // Đang chờ đúng ảnh này; row vừa hiện ra thì đưa request lên trước
+            raisePriority(inFlight.get(key), priority);
+            return;
+        }
+        cancel(view);
+
+        stats.requests++;
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            stats.memoryHits++;
+            view.setImageBitmap(cached);
+            return;
+        }
+
+        view.setImageResource(placeholderResId);
+        pendingViews.put(view, key);
+
+        Request request = inFlight.get(key);
+        if (request == null) {
+            request = new Request(url, key, size[0], size[1]);
+            request.errorResId = errorResId;
+            inFlight.put(key, request);
+            enqueue(request, priority);
+        } else {
+            raisePriority(request, priority);
+        }
+        request.targets.add(view);
+    }
+
+    /**
+     * Bỏ chờ ảnh cho view (ví dụ khi ViewHolder bị tái sử dụng); request không còn ai chờ thì bị hủy
+     */
+    public void cancel(ImageView view) {
+        String key = pendingViews.remove(view);
+        if (key == null) return;
+
+        Request request = inFlight.get(key);
+        if (request == null) return;
+
+        request.targets.remove(view);
+        if (request.targets.isEmpty()) {
+            abort(request);
+            stats.cancelled++;
+            Log.d(TAG, "Hủy tải ảnh: " + request.url);
+        }
+    }
+
+    public Stats getStats() {
+        stats.queueDepth = executor.getQueue().size();
+        return stats;
+    }
+
+    private void enqueue(Request request, int priority) {
+        request.job = new Job(request, priority, nextSequence++);
+        executor.execute(request.job);
+
+        if (executor.getQueue().size() > MAX_QUEUED_REQUESTS) {
+            dropLowestPriority();
+        }
+    }
+
+    private void raisePriority(Request request, int priority) {
+        if (request == null || request.job == null || request.job.priority >= priority) return;
+
+        // Chỉ đổi được khi job còn nằm trong hàng đợi; đã chạy rồi thì giữ nguyên
+        if (executor.remove(request.job)) {
+            enqueue(request, priority);
+        }
+    }
+
+    private void dropLowestPriority() {
+        Job lowest = null;
+        for (Runnable runnable : executor.getQueue()) {
+            Job job = (Job) runnable;
+            if (lowest == null || job.compareTo(lowest) > 0) {
+                lowest = job;
+            }
+        }
+        if (lowest == null) return;
+
+        Request request = lowest.request;
+        for (ImageView view : request.targets) {
+            pendingViews.remove(view);
+        }
+        abort(request);
+        stats.dropped++;
+        Log.d(TAG, "Hàng đợi đầy, bỏ request: " + request.url);
+    }
+
+    private void abort(Request request) {
+        request.cancelled = true;
+        inFlight.remove(request.key);
+        if (!executor.remove(request.job)) {
+            request.job.interrupt();
+        }
+    }
+
+    /**
+     * Xóa cache bộ nhớ (ví dụ khi hệ thống báo thiếu bộ nhớ)
+     */
+    public void clearMemoryCache() {
+        memoryCache.evictAll();
+    }
+
+    // ===== WORKER THREAD =====
+
+    private void execute(Request request) {
+        Bitmap bitmap = null;
+        try {
+            File file = diskFile(request.url);
+            if (file.exists()) {
+                // Đánh dấu vừa dùng để không bị dọn trước
+                file.setLastModified(System.currentTimeMillis());
+                request.fromDisk = true;
+            } else {
+                download(request.url, file);
+                trimDiskCache();
+            }
+            if (!Thread.currentThread().isInterrupted()) {
+                bitmap = decodeSampled(file, request.targetWidth, request.targetHeight);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Lỗi khi tải ảnh: " + request.url, e);
+        }
+
+        Bitmap result = bitmap;
+        mainHandler.post(() -> deliver(request, result));
+    }
+
+    private void download(String url, File file) throws IOException {
+        // Ghi vào file tạm rồi đổi tên để file cache không bao giờ bị dở dang
+        File temp = new File(diskCacheDir, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        try (InputStream input = connection.getInputStream();
+             OutputStream output = new FileOutputStream(temp)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new IOException("Đã hủy");
+                }
+                output.write(buffer, 0, read);
+            }
+        } finally {
+            connection.disconnect();
+        }
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            if (!file.exists()) {
+                throw new IOException("Không ghi được cache ảnh");
+            }
+        }
+    }
+
+    private static Bitmap decodeSampled(File file, int targetWidth, int targetHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeFile(file.getPath(), options);
+    }
+
+    /**
+     * Lũy thừa 2 lớn nhất mà ảnh sau khi thu nhỏ vẫn không nhỏ hơn kích thước đích
+     */
+    static int calculateInSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        if (width <= 0 || height <= 0) return sampleSize;
+
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private void trimDiskCache() {
+        synchronized (diskCacheDir) {
+            File[] files = diskCacheDir.listFiles();
+            if (files == null) return;
+
+            long total = 0;
+            for (File file : files) {
+                total += file.length();
+            }
+            if (total <= MAX_DISK_CACHE_BYTES) return;
+
+            // Xóa file dùng lâu nhất trước
+            Arrays.sort(files, (file1, file2) -> Long.compare(file1.lastModified(), file2.lastModified()));
+            for (File file : files) {
+                if (total <= MAX_DISK_CACHE_BYTES) break;
+                long length = file.length();
+                if (file.delete()) {
+                    total -= length;
+                }
+            }
+        }
+    }
+
+    private File diskFile(String url) {
+        return new File(diskCacheDir, hash(url));
+    }
+
+    private static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(value.hashCode());
+        }
+    }
+
+    // ===== MAIN THREAD =====
+
+    private void deliver(Request request, Bitmap bitmap) {
+        // Request đã bị hủy (hoặc thay bằng request mới cùng key) thì bỏ kết quả
+        if (inFlight.get(request.key) != request) return;
+        inFlight.remove(request.key);
+
+        if (bitmap != null) {
+            memoryCache.put(request.key, bitmap);
+            if (request.fromDisk) {
+                stats.diskHits++;
+            } else {
+                stats.networkLoads++;
+            }
+            stats.displayed++;
+            stats.totalTimeToDisplayMs += SystemClock.elapsedRealtime() - request.startedAt;
+            if (stats.displayed % STATS_LOG_INTERVAL == 0) {
+                Log.d(TAG, "Thống kê: " + getStats());
+            }
+        } else {
+            stats.failures++;
+        }
+        for (ImageView view : request.targets) {
+            if (!request.key.equals(pendingViews.get(view))) continue;
+            pendingViews.remove(view);
+            if (bitmap != null) {
+                view.setImageBitmap(bitmap);
+            } else {
+                view.setImageResource(request.errorResId);
+            }
+        }
+    }
+
+    /**
+     * Kích thước đích: kích thước đã đo, hoặc kích thước cố định trong layout, hoặc màn hình
+     */
+    private int[] targetSize(ImageView view) {
+        int width = view.getWidth();
+        int height = view.getHeight();
+        ViewGroup.LayoutParams params = view.getLayoutParams();
+        if (width <= 0 && params != null && params.width > 0) width = params.width;
+        if (height <= 0 && params != null && params.height > 0) height = params.height;
+        if (width <= 0) width = displayMetrics.widthPixels;
+        if (height <= 0) height = displayMetrics.heightPixels;
+        return new int[]{width, height};
+    }
+}
@@ -1,15 +1,12 @@
 package com.example.projectmanager.utils;
 
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
-
-import com.example.projectmanager.models.Budget;
+import com.example.projectmanager.models.BudgetTable;
 
 /**
  * Utility class for sorting budget items
  */
 public class BudgetSorter {
+    private static final int INSERTION_SORT_THRESHOLD = 16;
 
     public enum SortOption {
         DEFAULT,           // Default sort (by creation date, newest first)
@@ -38,88 +35,116 @@ public class BudgetSorter {
     }
 
     /**
-     * Sort a list of budgets based on the provided option
+     * Sort a budget table based on the provided option. Only the table's row order changes; keys are
+     * primitive columns and ties fall back to the row index, so no Budget objects are created.
      */
-    public static void sortBudgets(List<Budget> budgetList, SortOption option) {
-        if (budgetList == null || budgetList.isEmpty()) return;
+    public static void sortBudgets(BudgetTable table, SortOption option) {
+        int size = table.size();
+        if (size < 2) return;
 
+        int[] order = table.getOrder();
+        long[] keys = table.getSortKeys();
         switch (option) {
             case AMOUNT_ASCENDING:
-                Collections.sort(budgetList, new AmountAscendingComparator());
+                for (int row = 0; row < size; row++) keys[row] = table.getAmountMinor(row);
+                sort(order, keys, 0, size);
                 break;
             case AMOUNT_DESCENDING:
-                Collections.sort(budgetList, new AmountDescendingComparator());
+                // ~x reverses the order without overflowing
+                for (int row = 0; row < size; row++) keys[row] = ~table.getAmountMinor(row);
+                sort(order, keys, 0, size);
                 break;
             case PENDING_FIRST:
-                Collections.sort(budgetList, new PendingFirstComparator());
-                break;
             case APPROVED_FIRST:
-                Collections.sort(budgetList, new ApprovedFirstComparator());
+                // Split by approval status, then sort each group by date
+                fillNewestFirstKeys(table, keys);
+                int split = partitionByApproval(table, order, option == SortOption.APPROVED_FIRST);
+                sort(order, keys, 0, split);
+                sort(order, keys, split, size);
                 break;
             default:
-                Collections.sort(budgetList, new CreationDateComparator());
+                fillNewestFirstKeys(table, keys);
+                sort(order, keys, 0, size);
                 break;
         }
     }
 
     /**
-     * Comparator for sorting by amount (ascending)
+     * Newest first; budgets without a date (NO_DATE = Long.MIN_VALUE, so ~NO_DATE = Long.MAX_VALUE) go last
      */
-    private static class AmountAscendingComparator implements Comparator<Budget> {
-        @Override
-        public int compare(Budget a, Budget b) {
-            return Double.compare(a.getAmount(), b.getAmount());
+    private static void fillNewestFirstKeys(BudgetTable table, long[] keys) {
+        for (int row = 0; row < table.size(); row++) {
+            keys[row] = ~table.getCreatedAtMillis(row);
         }
     }
 
     /**
-     * Comparator for sorting by amount (descending)
+     * Moves rows whose approval status equals approvedFirst to the front, returns how many there are
      */
-    private static class AmountDescendingComparator implements Comparator<Budget> {
-        @Override
-        public int compare(Budget a, Budget b) {
-            return Double.compare(b.getAmount(), a.getAmount());
+    private static int partitionByApproval(BudgetTable table, int[] order, boolean approvedFirst) {
+        int front = 0;
+        int back = order.length - 1;
+        while (true) {
+            while (front <= back && table.isApproved(order[front]) == approvedFirst) front++;
+            while (front <= back && table.isApproved(order[back]) != approvedFirst) back--;
+            if (front >= back) return front;
+            int row = order[front];
+            order[front++] = order[back];
+            order[back--] = row;
         }
     }
 
     /**
-     * Comparator for sorting by approval status (pending first)
+     * Quicksort of order[from, to) by (keys[row], row); every pair is distinct, so the result does not
+     * depend on the previous order
      */
-    private static class PendingFirstComparator implements Comparator<Budget> {
-        @Override
-        public int compare(Budget a, Budget b) {
-            if (a.isApproved() == b.isApproved()) {
-                // If same approval status, sort by date
-                if (a.getCreatedAt() == null || b.getCreatedAt() == null) return 0;
-                return b.getCreatedAt().compareTo(a.getCreatedAt());
+    private static void sort(int[] order, long[] keys, int from, int to) {
+        while (to - from > INSERTION_SORT_THRESHOLD) {
+            // Sampled at the quartiles, so sorted, reversed and rotated ranges still split evenly
+            int quarter = (to - from) >>> 2;
+            int pivot = medianOfThree(keys, order[from + quarter], order[(from + to) >>> 1], order[to - 1 - quarter]);
+            int i = from;
+            int j = to - 1;
+            while (i <= j) {
+                while (less(keys, order[i], pivot)) i++;
+                while (less(keys, pivot, order[j])) j--;
+                if (i <= j) {
+                    int row = order[i];
+                    order[i++] = order[j];
+                    order[j--] = row;
+                }
+            }
+            // Recurse into the smaller half so the stack stays O(log n)
+            if (j + 1 - from < to - i) {
+                sort(order, keys, from, j + 1);
+                from = i;
+            } else {
+                sort(order, keys, i, to);
+                to = j + 1;
             }
-            return Boolean.compare(a.isApproved(), b.isApproved());
         }
-    }
 
-    /**
-     * Comparator for sorting by approval status (approved first)
-     */
-    private static class ApprovedFirstComparator implements Comparator<Budget> {
-        @Override
-        public int compare(Budget a, Budget b) {
-            if (a.isApproved() == b.isApproved()) {
-                // If same approval status, sort by date
-                if (a.getCreatedAt() == null || b.getCreatedAt() == null) return 0;
-                return b.getCreatedAt().compareTo(a.getCreatedAt());
+        for (int i = from + 1; i < to; i++) {
+            int row = order[i];
+            int j = i - 1;
+            while (j >= from && less(keys, row, order[j])) {
+                order[j + 1] = order[j];
+                j--;
             }
-            return Boolean.compare(b.isApproved(), a.isApproved());
+            order[j + 1] = row;
         }
     }
 
-    /**
-     * Comparator for sorting by creation date (newest first)
-     */
-    private static class CreationDateComparator implements Comparator<Budget> {
-        @Override
-        public int compare(Budget a, Budget b) {
-            if (a.getCreatedAt() == null || b.getCreatedAt() == null) return 0;
-            return b.getCreatedAt().compareTo(a.getCreatedAt());
+    private static int medianOfThree(long[] keys, int a, int b, int c) {
+        if (less(keys, a, b)) {
+            if (less(keys, b, c)) return b;
+            return less(keys, a, c) ? c : a;
         }
+        if (less(keys, a, c)) return a;
+        return less(keys, b, c) ? c : b;
+    }
+
+    private static boolean less(long[] keys, int a, int b) {
+        return keys[a] < keys[b] || (keys[a] == keys[b] && a < b);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,239 @@
+package com.example.projectmanager.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.projectmanager.models.ChatMessageItem;
+import com.google.firebase.Timestamp;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Chuyển tin nhắn dạng Map của Firestore thành ChatMessageItem trên một background thread.
+ * Kết quả được cache theo id: tin không đổi giữa hai snapshot thì dùng lại item cũ, cache chỉ
+ * bị bỏ khi sang ngày mới (nhãn "Hôm nay"/"Hôm qua" đổi) hoặc đổi người dùng.
+ */
+public class ChatMessageFormatter {
+    private static final String TAG = "ChatMessageFormatter";
+
+    public interface OnFormattedListener {
+        void onFormatted(List<ChatMessageItem> items);
+    }
+
+    private static class CacheEntry {
+        final Map<String, Object> raw;
+        final ChatMessageItem item;
+        final long dayStart;
+
+        CacheEntry(Map<String, Object> raw, ChatMessageItem item, long dayStart) {
+            this.raw = raw;
+            this.item = item;
+            this.dayStart = dayStart;
+        }
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Chỉ có kết quả của lần format gần nhất được giao (main thread)
+    private int generation = 0;
+
+    // Các field dưới chỉ dùng trên thread của executor
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM", Locale.getDefault());
+    private final SimpleDateFormat fullDateFormat = new SimpleDateFormat("dd/MM/yyyy HH:mm", Locale.getDefault());
+    private final SimpleDateFormat dayFormat = new SimpleDateFormat("dd/MM/yyyy", Locale.getDefault());
+    private final Calendar calendar = Calendar.getInstance();
+    private Map<String, CacheEntry> cache = new HashMap<>();
+    private long cacheDayStart = -1;
+    private String cacheUserKey = null;
+
+    /**
+     * Format danh sách tin nhắn; listener được gọi trên main thread. Thông tin người dùng hiện tại
+     * được đọc sẵn trên main thread để background thread không chạm vào UserManager.
+     */
+    public void format(List<Map<String, Object>> messages, String currentUserName, String currentUserEmail,
+                       OnFormattedListener listener) {
+        int requestGeneration = ++generation;
+        List<Map<String, Object>> snapshot = new ArrayList<>(messages);
+
+        executor.execute(() -> {
+            List<ChatMessageItem> items = formatAll(snapshot, currentUserName, currentUserEmail);
+            mainHandler.post(() -> {
+                if (requestGeneration == generation) {
+                    listener.onFormatted(items);
+                }
+            });
+        });
+    }
+
+    /**
+     * Số millisecond tới 0h ngày mai, thời điểm cần format lại nhãn thời gian
+     */
+    public static long millisUntilNextDay() {
+        Calendar tomorrow = Calendar.getInstance();
+        tomorrow.add(Calendar.DAY_OF_YEAR, 1);
+        tomorrow.set(Calendar.HOUR_OF_DAY, 0);
+        tomorrow.set(Calendar.MINUTE, 0);
+        tomorrow.set(Calendar.SECOND, 0);
+        tomorrow.set(Calendar.MILLISECOND, 0);
+        return Math.max(0, tomorrow.getTimeInMillis() - System.currentTimeMillis());
+    }
+
+    public void shutdown() {
+        generation++;
+        executor.shutdownNow();
+    }
+
+    // ===== EXECUTOR THREAD =====
+
+    private List<ChatMessageItem> formatAll(List<Map<String, Object>> messages, String currentUserName,
+                                            String currentUserEmail) {
+        long now = System.currentTimeMillis();
+        long todayStart = startOfDay(now);
+        String userKey = currentUserName + "|" + currentUserEmail;
+        if (todayStart != cacheDayStart || !userKey.equals(cacheUserKey)) {
+            cache.clear();
+            cacheDayStart = todayStart;
+            cacheUserKey = userKey;
+        }
+
+        Map<String, CacheEntry> nextCache = new HashMap<>();
+        List<ChatMessageItem> items = new ArrayList<>(messages.size());
+        long previousDay = Long.MIN_VALUE;
+        int reused = 0;
+
+        for (Map<String, Object> raw : messages) {
+            String id = (String) raw.get("id");
+            CacheEntry entry = id != null ? cache.get(id) : null;
+            if (entry != null && entry.raw.equals(raw)) {
+                reused++;
+            } else {
+                entry = convert(id, raw, now, todayStart, currentUserName, currentUserEmail);
+            }
+            if (id != null) {
+                nextCache.put(id, entry);
+            }
+
+            items.add(entry.item.withDaySeparator(entry.dayStart != previousDay));
+            previousDay = entry.dayStart;
+        }
+
+        // Chỉ giữ cache cho các tin còn trong cửa sổ
+        cache = nextCache;
+        Log.d(TAG, "Format " + messages.size() + " tin nhắn, dùng lại " + reused);
+        return items;
+    }
+
+    private CacheEntry convert(String id, Map<String, Object> raw, long now, long todayStart,
+                               String currentUserName, String currentUserEmail) {
+        String senderName = (String) raw.get("senderName");
+        String senderEmail = (String) raw.get("senderEmail");
+        String content = (String) raw.get("content");
+        String attachmentUrl = (String) raw.get("attachmentUrl");
+        String attachmentType = (String) raw.get("attachmentType");
+
+        long millis = toMillis(raw.get("timestamp"));
+        // Tin vừa gửi chưa có timestamp của server: hiển thị như tin lúc này
+        long displayMillis = millis > 0 ? millis : now;
+        long dayStart = startOfDay(displayMillis);
+
+        ChatMessageItem.AttachmentKind attachmentKind = ChatMessageItem.AttachmentKind.NONE;
+        if (attachmentUrl != null && !attachmentUrl.isEmpty()) {
+            attachmentKind = attachmentType != null && attachmentType.startsWith("image/")
+                    ? ChatMessageItem.AttachmentKind.IMAGE : ChatMessageItem.AttachmentKind.FILE;
+        } else {
+            attachmentUrl = null;
+        }
+
+        // Tin còn trong ChatOutbox: nhãn thời gian hiển thị trạng thái gửi
+        String sendState = (String) raw.get("sendState");
+        String timeLabel;
+        if (ChatOutbox.STATE_FAILED.equals(sendState)) {
+            timeLabel = "Gửi lỗi - chạm để gửi lại";
+        } else if (ChatOutbox.STATE_SENDING.equals(sendState)) {
+            timeLabel = "Đang gửi...";
+        } else {
+            timeLabel = timeLabel(displayMillis, dayStart, todayStart);
+        }
+
+        ChatMessageItem item = new ChatMessageItem(id, content != null ? content : "", senderName, millis,
+                timeLabel, false, dayLabel(dayStart, todayStart),
+                UserManager.isSameUser(senderName, senderEmail, currentUserName, currentUserEmail),
+                attachmentKind, attachmentUrl, (String) raw.get("attachmentName"),
+                attachmentKind == ChatMessageItem.AttachmentKind.IMAGE ? (String) raw.get("thumbnailUrl") : null);
+        return new CacheEntry(raw, item, dayStart);
+    }
+
+    private String timeLabel(long millis, long dayStart, long todayStart) {
+        Date date = new Date(millis);
+        if (dayStart == todayStart) {
+            return timeFormat.format(date);
+        } else if (dayStart == startOfPreviousDay(todayStart)) {
+            return "Hôm qua " + timeFormat.format(date);
+        } else if (sameYear(dayStart, todayStart)) {
+            return dateFormat.format(date) + " " + timeFormat.format(date);
+        } else {
+            return fullDateFormat.format(date);
+        }
+    }
+
+    private String dayLabel(long dayStart, long todayStart) {
+        if (dayStart == todayStart) return "Hôm nay";
+        if (dayStart == startOfPreviousDay(todayStart)) return "Hôm qua";
+        return dayFormat.format(new Date(dayStart));
+    }
+
+    private long startOfDay(long millis) {
+        calendar.setTimeInMillis(millis);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private long startOfPreviousDay(long dayStart) {
+        calendar.setTimeInMillis(dayStart);
+        calendar.add(Calendar.DAY_OF_YEAR, -1);
+        return calendar.getTimeInMillis();
+    }
+
+    private boolean sameYear(long millis1, long millis2) {
+        calendar.setTimeInMillis(millis1);
+        int year = calendar.get(Calendar.YEAR);
+        calendar.setTimeInMillis(millis2);
+        return year == calendar.get(Calendar.YEAR);
+    }
+
+    /**
+     * Epoch millis từ các kiểu timestamp có thể gặp; 0 nếu chưa có hoặc không đọc được
+     */
+    private static long toMillis(Object timestampObj) {
+        if (timestampObj == null) {
+            return 0;
+        } else if (timestampObj instanceof Date) {
+            return ((Date) timestampObj).getTime();
+        } else if (timestampObj instanceof Long) {
+            return (Long) timestampObj;
+        } else if (timestampObj instanceof Timestamp) {
+            return ((Timestamp) timestampObj).toDate().getTime();
+        }
+
+        try {
+            return Long.parseLong(timestampObj.toString());
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Cannot parse timestamp: " + timestampObj, e);
+            return 0;
+        }
+    }
+}
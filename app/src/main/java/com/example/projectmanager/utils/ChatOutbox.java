@@ -0,0 +1,164 @@
+package com.example.projectmanager.utils;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tin nhắn đang gửi của một kênh chat.
+ * Tin được cấp id của document và commit ngay khi gửi, không chờ tin trước; tin hiển thị tức thì ở trạng
+ * thái chờ và khi server xác nhận, tin trong snapshot có cùng id nên thay thế đúng dòng đang hiển thị.
+ *
+ * Firestore SDK lưu các lần ghi chưa gửi xuống bộ nhớ máy, gửi chúng theo đúng thứ tự commit và tự thử lại
+ * khi mất mạng, nên tin gửi lúc offline không mất khi app bị tắt và timestamp server vẫn theo thứ tự gửi.
+ * Lỗi mà commit trả về là lỗi không tự hết (quyền, dữ liệu...): tin chuyển sang trạng thái lỗi và chờ người
+ * dùng gửi lại (resend) hoặc bỏ (discard).
+ *
+ * Dùng trên main thread.
+ */
+public class ChatOutbox {
+    private static final String TAG = "ChatOutbox";
+
+    // Giá trị của field "sendState" trong tin đang chờ
+    public static final String STATE_SENDING = "sending";
+    public static final String STATE_FAILED = "failed";
+
+    public interface OnOutboxChangedListener {
+        void onOutboxChanged();
+        /** Tin đã chuyển sang trạng thái lỗi (chỉ gọi một lần cho mỗi lần gửi) */
+        void onSendFailed(String error);
+    }
+
+    private static class Pending {
+        final String id;
+        final Map<String, Object> message;
+        boolean failed = false;
+        // Tăng mỗi lần gửi lại, để kết quả của lần gửi cũ không đổi trạng thái của lần mới
+        int attempt = 0;
+
+        Pending(String id, Map<String, Object> message) {
+            this.id = id;
+            this.message = message;
+        }
+    }
+
+    private final FirebaseManager firebaseManager;
+    private final String channelId;
+    private final String channelName;
+    private final OnOutboxChangedListener listener;
+    // Theo thứ tự gửi, key là id document của tin
+    private final Map<String, Pending> pendingById = new LinkedHashMap<>();
+    private boolean closed = false;
+
+    public ChatOutbox(FirebaseManager firebaseManager, String channelId, String channelName,
+                      OnOutboxChangedListener listener) {
+        this.firebaseManager = firebaseManager;
+        this.channelId = channelId;
+        this.channelName = channelName;
+        this.listener = listener;
+    }
+
+    /**
+     * Commit tin ngay và trả về id document của tin
+     */
+    public String send(Map<String, Object> message) {
+        String id = firebaseManager.newMessageId(channelId);
+        Map<String, Object> copy = new HashMap<>(message);
+        if (copy.get("timestamp") == null) {
+            copy.put("timestamp", new Date());
+        }
+        Pending pending = new Pending(id, copy);
+        pendingById.put(id, pending);
+        Log.d(TAG, "Gửi tin " + id + " (" + pendingById.size() + " tin đang chờ)");
+
+        listener.onOutboxChanged();
+        commit(pending);
+        return id;
+    }
+
+    /**
+     * Gửi lại tin đã lỗi; tin được xếp cuối như một tin mới gửi
+     */
+    public void resend(String messageId) {
+        Pending pending = pendingById.get(messageId);
+        if (pending == null || !pending.failed) return;
+
+        pendingById.remove(messageId);
+        pending.failed = false;
+        pending.message.put("timestamp", new Date());
+        pendingById.put(messageId, pending);
+        Log.d(TAG, "Gửi lại tin " + messageId);
+
+        listener.onOutboxChanged();
+        commit(pending);
+    }
+
+    /**
+     * Bỏ tin đã lỗi
+     */
+    public void discard(String messageId) {
+        Pending pending = pendingById.get(messageId);
+        if (pending == null || !pending.failed) return;
+
+        pendingById.remove(messageId);
+        listener.onOutboxChanged();
+    }
+
+    public boolean isFailed(String messageId) {
+        Pending pending = pendingById.get(messageId);
+        return pending != null && pending.failed;
+    }
+
+    /**
+     * Các tin chưa được server xác nhận, theo thứ tự gửi; mỗi tin có "id" và "sendState"
+     */
+    public List<Map<String, Object>> getPendingMessages() {
+        List<Map<String, Object>> messages = new ArrayList<>(pendingById.size());
+        for (Pending pending : pendingById.values()) {
+            Map<String, Object> message = new HashMap<>(pending.message);
+            message.put("id", pending.id);
+            message.put("sendState", pending.failed ? STATE_FAILED : STATE_SENDING);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    public boolean isEmpty() {
+        return pendingById.isEmpty();
+    }
+
+    /**
+     * Ngừng theo dõi (màn hình đóng). Các tin đã commit vẫn nằm trong hàng ghi của Firestore và được gửi
+     * tiếp; tin đã lỗi thì bị bỏ.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    private void commit(Pending pending) {
+        int attempt = ++pending.attempt;
+        firebaseManager.sendMessage(channelId, channelName, pending.id, pending.message,
+                new FirebaseManager.OnMessageSendListener() {
+                    @Override
+                    public void onSuccess(String messageId) {
+                        if (closed || pending.attempt != attempt) return;
+                        pendingById.remove(pending.id);
+                        listener.onOutboxChanged();
+                    }
+
+                    @Override
+                    public void onFailure(String error) {
+                        Log.w(TAG, "Gửi tin " + pending.id + " lỗi: " + error);
+                        if (closed || pending.attempt != attempt) return;
+                        pending.failed = true;
+                        listener.onOutboxChanged();
+                        listener.onSendFailed(error);
+                    }
+                });
+    }
+}
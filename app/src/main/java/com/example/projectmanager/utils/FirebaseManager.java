@@ -2,18 +2,21 @@ package com.example.projectmanager.utils;
 
 import android.util.Log;
 
+import com.example.projectmanager.repositories.AttachmentBlobRepository;
 import com.google.firebase.firestore.CollectionReference;
 import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
-import com.google.firebase.firestore.EventListener;
-import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.QuerySnapshot;
 import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -24,16 +27,25 @@ import java.util.Map;
 public class FirebaseManager {
     private static final String TAG = "FirebaseManager";
     private FirebaseFirestore db;
+    private QuerySubscriptionRegistry subscriptionRegistry;
 
     // Tên các collection trong Firestore
     private static final String TASKS_COLLECTION = "tasks";
     private static final String MESSAGES_COLLECTION = "messages";
     private static final String BUDGETS_COLLECTION = "budgets";
     private static final String MEMBERS_COLLECTION = "members";
+    private static final String CHANNELS_COLLECTION = "chat_channels";
+    private static final String CHANNEL_MESSAGES_COLLECTION = "messages";
+    private static final String READ_STATE_COLLECTION = "chat_read_state";
+
+    // Kênh chat chung; tin nhắn vẫn nằm ở collection "messages" gốc để giữ lịch sử cũ
+    public static final String DEFAULT_CHANNEL_ID = "general";
+    private static final String TASK_CHANNEL_PREFIX = "task_";
 
     public FirebaseManager() {
         // Khởi tạo Firestore
         db = FirebaseFirestore.getInstance();
+        subscriptionRegistry = QuerySubscriptionRegistry.getInstance();
         Log.d(TAG, "Firebase khởi tạo thành công");
     }
 
@@ -58,38 +70,19 @@ public class FirebaseManager {
     /**
      * Lấy danh sách nhiệm vụ theo thời gian thực
      */
-    public void getTasks(OnDataLoadListener listener) {
-        db.collection(TASKS_COLLECTION)
-                .orderBy("createdAt", Query.Direction.DESCENDING)
-                .addSnapshotListener(new EventListener<QuerySnapshot>() {
-                    @Override
-                    public void onEvent(QuerySnapshot value, FirebaseFirestoreException error) {
-                        if (error != null) {
-                            Log.e(TAG, "Lỗi khi lấy dữ liệu nhiệm vụ", error);
-                            listener.onError(error.getMessage());
-                            return;
-                        }
-
-                        List<Map<String, Object>> tasks = new ArrayList<>();
-                        if (value != null) {
-                            for (QueryDocumentSnapshot doc : value) {
-                                Map<String, Object> task = doc.getData();
-                                task.put("id", doc.getId());
-                                tasks.add(task);
-                            }
-                        }
-                        Log.d(TAG, "Lấy được " + tasks.size() + " nhiệm vụ");
-                        listener.onDataLoaded(tasks);
-                    }
-                });
+    public ListenerRegistration getTasks(OnDataLoadListener listener) {
+        Query query = db.collection(TASKS_COLLECTION)
+                .orderBy("createdAt", Query.Direction.DESCENDING);
+        return subscribe("tasks/raw", query, "Lỗi khi lấy dữ liệu nhiệm vụ", "nhiệm vụ", listener);
     }
 
     /**
      * Cập nhật trạng thái nhiệm vụ
      */
     public void updateTaskStatus(String taskId, String status, OnCompleteListener listener) {
+        // Luôn cập nhật updatedAt để TaskDecoder nhận ra phiên bản mới
         db.collection(TASKS_COLLECTION).document(taskId)
-                .update("status", status)
+                .update("status", status, "updatedAt", new Date())
                 .addOnSuccessListener(aVoid -> {
                     Log.d(TAG, "Cập nhật trạng thái nhiệm vụ thành công");
                     listener.onSuccess(taskId);
@@ -103,19 +96,72 @@ public class FirebaseManager {
     // ===== QUẢN LÝ TIN NHẮN =====
 
     /**
-     * Gửi tin nhắn mới với timestamp chính xác
+     * Id kênh thảo luận của một nhiệm vụ
+     */
+    public static String taskChannelId(String taskId) {
+        return TASK_CHANNEL_PREFIX + taskId;
+    }
+
+    /**
+     * Gửi tin nhắn vào kênh chung
      */
     public void sendMessage(Map<String, Object> message, OnCompleteListener listener) {
-        // Đảm bảo timestamp được set đúng cách
-        message.put("timestamp", FieldValue.serverTimestamp());
+        sendMessage(DEFAULT_CHANNEL_ID, null, null, message, new OnMessageSendListener() {
+            @Override
+            public void onSuccess(String messageId) {
+                listener.onSuccess(messageId);
+            }
+
+            @Override
+            public void onFailure(String error) {
+                listener.onFailure(error);
+            }
+        });
+    }
 
-        Log.d(TAG, "Sending message with timestamp: " + message.get("timestamp"));
+    /**
+     * Cấp trước id cho tin nhắn mới (không ghi gì), để hiển thị tin trước khi gửi xong
+     */
+    public String newMessageId(String channelId) {
+        return messagesCollection(channelId).document().getId();
+    }
 
-        db.collection(MESSAGES_COLLECTION)
-                .add(message)
-                .addOnSuccessListener(documentReference -> {
-                    Log.d(TAG, "Gửi tin nhắn thành công: " + documentReference.getId());
-                    listener.onSuccess(documentReference.getId());
+    /**
+     * Gửi tin nhắn mới với timestamp chính xác. Cùng batch cập nhật document của kênh
+     * (tin cuối, tổng số tin) để danh sách kênh và số chưa đọc không phải quét lịch sử tin nhắn,
+     * và giữ tham chiếu tới tệp đính kèm nếu tin có "attachmentHash".
+     * messageId null thì tạo id mới; gửi lại cùng messageId ghi đè đúng document đó.
+     */
+    public void sendMessage(String channelId, String channelName, String messageId,
+                            Map<String, Object> message, OnMessageSendListener listener) {
+        // Đảm bảo timestamp được set đúng cách; copy để không đổi Map của người gọi
+        Map<String, Object> data = new HashMap<>(message);
+        data.put("timestamp", FieldValue.serverTimestamp());
+
+        CollectionReference messages = messagesCollection(channelId);
+        DocumentReference messageRef = messageId != null ? messages.document(messageId) : messages.document();
+        Log.d(TAG, "Sending message to channel " + channelId + ": " + messageRef.getId());
+
+        Map<String, Object> channelUpdate = new HashMap<>();
+        if (channelName != null) {
+            channelUpdate.put("name", channelName);
+        }
+        channelUpdate.put("lastMessage", message.get("content"));
+        channelUpdate.put("lastSenderName", message.get("senderName"));
+        channelUpdate.put("lastMessageAt", FieldValue.serverTimestamp());
+        channelUpdate.put("messageCount", FieldValue.increment(1));
+
+        WriteBatch batch = db.batch();
+        batch.set(messageRef, data);
+        batch.set(db.collection(CHANNELS_COLLECTION).document(channelId), channelUpdate, SetOptions.merge());
+        Object attachmentHash = message.get(AttachmentBlobRepository.FIELD_ATTACHMENT_HASH);
+        if (attachmentHash instanceof String) {
+            AttachmentBlobRepository.getInstance().addReference(batch, (String) attachmentHash);
+        }
+        batch.commit()
+                .addOnSuccessListener(aVoid -> {
+                    Log.d(TAG, "Gửi tin nhắn thành công: " + messageRef.getId());
+                    listener.onSuccess(messageRef.getId());
                 })
                 .addOnFailureListener(e -> {
                     Log.e(TAG, "Lỗi khi gửi tin nhắn", e);
@@ -124,38 +170,127 @@ public class FirebaseManager {
     }
 
     /**
-     * Lấy tin nhắn theo thời gian thực với sắp xếp chính xác
+     * Lấy tin nhắn của kênh chung
+     */
+    public MessageWindow getMessages(OnDataLoadListener listener) {
+        return getMessages(DEFAULT_CHANNEL_ID, listener);
+    }
+
+    /**
+     * Lấy tin nhắn của một kênh theo thời gian thực, chỉ gồm các tin mới nhất; tin cũ hơn tải theo
+     * trang qua MessageWindow.loadOlder(). Người gọi phải remove() cửa sổ khi không cần nữa.
+     */
+    public MessageWindow getMessages(String channelId, OnDataLoadListener listener) {
+        CollectionReference messages = messagesCollection(channelId);
+        Query query = messages.orderBy("timestamp", Query.Direction.ASCENDING);
+        return new MessageWindow(query, messages.getPath(), subscriptionRegistry, listener);
+    }
+
+    /**
+     * Danh sách kênh (mới hoạt động trước) kèm "unreadCount" của người dùng.
+     * Chỉ đọc document của các kênh và một document trạng thái đọc của người dùng.
      */
-    public void getMessages(OnDataLoadListener listener) {
-        db.collection(MESSAGES_COLLECTION)
-                .orderBy("timestamp", Query.Direction.ASCENDING)
-                .addSnapshotListener(new EventListener<QuerySnapshot>() {
+    @SuppressWarnings("unchecked")
+    public ListenerRegistration getChannels(String userId, OnDataLoadListener listener) {
+        ChannelListState state = new ChannelListState();
+
+        Query query = db.collection(CHANNELS_COLLECTION)
+                .orderBy("lastMessageAt", Query.Direction.DESCENDING);
+        ListenerRegistration channelsRegistration = subscribe("chat_channels", query,
+                "Lỗi khi lấy danh sách kênh", "kênh chat", new OnDataLoadListener() {
                     @Override
-                    public void onEvent(QuerySnapshot value, FirebaseFirestoreException error) {
-                        if (error != null) {
-                            Log.e(TAG, "Lỗi khi lấy dữ liệu tin nhắn", error);
-                            listener.onError(error.getMessage());
-                            return;
-                        }
-
-                        List<Map<String, Object>> messages = new ArrayList<>();
-                        if (value != null) {
-                            for (QueryDocumentSnapshot doc : value) {
-                                Map<String, Object> message = doc.getData();
-                                message.put("id", doc.getId());
-
-                                // Debug log timestamp
-                                Object timestamp = message.get("timestamp");
-                                Log.d(TAG, "Message timestamp: " + timestamp +
-                                        " (type: " + (timestamp != null ? timestamp.getClass().getSimpleName() : "null") + ")");
-
-                                messages.add(message);
-                            }
-                        }
-                        Log.d(TAG, "Lấy được " + messages.size() + " tin nhắn");
-                        listener.onDataLoaded(messages);
+                    public void onDataLoaded(List<Map<String, Object>> data) {
+                        state.channels = data;
+                        listener.onDataLoaded(withUnreadCounts(state.channels, state.readCounts));
+                    }
+
+                    @Override
+                    public void onError(String error) {
+                        listener.onError(error);
                     }
                 });
+
+        ListenerRegistration readStateRegistration = db.collection(READ_STATE_COLLECTION).document(userId)
+                .addSnapshotListener((snapshot, error) -> {
+                    if (error != null) {
+                        Log.e(TAG, "Lỗi khi lấy trạng thái đọc", error);
+                        return;
+                    }
+                    Object counts = snapshot != null ? snapshot.get("readCounts") : null;
+                    state.readCounts = counts instanceof Map ? (Map<String, Object>) counts : new HashMap<>();
+                    if (state.channels != null) {
+                        listener.onDataLoaded(withUnreadCounts(state.channels, state.readCounts));
+                    }
+                });
+
+        return () -> {
+            channelsRegistration.remove();
+            readStateRegistration.remove();
+        };
+    }
+
+    /**
+     * Theo dõi document của một kênh (tổng số tin, tin cuối)
+     */
+    public ListenerRegistration getChannel(String channelId, OnDataLoadListener listener) {
+        return db.collection(CHANNELS_COLLECTION).document(channelId)
+                .addSnapshotListener((snapshot, error) -> {
+                    if (error != null) {
+                        Log.e(TAG, "Lỗi khi lấy thông tin kênh", error);
+                        listener.onError(error.getMessage());
+                        return;
+                    }
+                    Map<String, Object> channel = snapshot != null && snapshot.exists()
+                            ? snapshot.getData() : new HashMap<>();
+                    channel.put("id", channelId);
+                    List<Map<String, Object>> data = new ArrayList<>();
+                    data.add(channel);
+                    listener.onDataLoaded(data);
+                });
+    }
+
+    /**
+     * Đánh dấu người dùng đã đọc tới tin thứ messageCount của kênh
+     */
+    public void markChannelRead(String channelId, String userId, long messageCount) {
+        Map<String, Object> counts = new HashMap<>();
+        counts.put(channelId, messageCount);
+        Map<String, Object> readState = new HashMap<>();
+        readState.put("readCounts", counts);
+
+        db.collection(READ_STATE_COLLECTION).document(userId)
+                .set(readState, SetOptions.merge())
+                .addOnFailureListener(e -> Log.e(TAG, "Lỗi khi cập nhật trạng thái đọc", e));
+    }
+
+    // Kết quả gần nhất của hai listener trong getChannels
+    private static class ChannelListState {
+        List<Map<String, Object>> channels;
+        Map<String, Object> readCounts = new HashMap<>();
+    }
+
+    private static List<Map<String, Object>> withUnreadCounts(List<Map<String, Object>> channels,
+                                                              Map<String, Object> readCounts) {
+        List<Map<String, Object>> result = new ArrayList<>(channels.size());
+        for (Map<String, Object> channel : channels) {
+            Map<String, Object> item = new HashMap<>(channel);
+            long total = toLong(channel.get("messageCount"));
+            long read = toLong(readCounts.get((String) channel.get("id")));
+            item.put("unreadCount", Math.max(0, total - read));
+            result.add(item);
+        }
+        return result;
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    private CollectionReference messagesCollection(String channelId) {
+        if (channelId == null || DEFAULT_CHANNEL_ID.equals(channelId)) {
+            return db.collection(MESSAGES_COLLECTION);
+        }
+        return db.collection(CHANNELS_COLLECTION).document(channelId).collection(CHANNEL_MESSAGES_COLLECTION);
     }
 
     // ===== QUẢN LÝ NGÂN SÁCH =====
@@ -179,30 +314,10 @@ public class FirebaseManager {
     /**
      * Lấy danh sách ngân sách
      */
-    public void getBudgets(OnDataLoadListener listener) {
-        db.collection(BUDGETS_COLLECTION)
-                .orderBy("date", Query.Direction.DESCENDING)
-                .addSnapshotListener(new EventListener<QuerySnapshot>() {
-                    @Override
-                    public void onEvent(QuerySnapshot value, FirebaseFirestoreException error) {
-                        if (error != null) {
-                            Log.e(TAG, "Lỗi khi lấy dữ liệu ngân sách", error);
-                            listener.onError(error.getMessage());
-                            return;
-                        }
-
-                        List<Map<String, Object>> budgets = new ArrayList<>();
-                        if (value != null) {
-                            for (QueryDocumentSnapshot doc : value) {
-                                Map<String, Object> budget = doc.getData();
-                                budget.put("id", doc.getId());
-                                budgets.add(budget);
-                            }
-                        }
-                        Log.d(TAG, "Lấy được " + budgets.size() + " khoản ngân sách");
-                        listener.onDataLoaded(budgets);
-                    }
-                });
+    public ListenerRegistration getBudgets(OnDataLoadListener listener) {
+        Query query = db.collection(BUDGETS_COLLECTION)
+                .orderBy("date", Query.Direction.DESCENDING);
+        return subscribe("budgets", query, "Lỗi khi lấy dữ liệu ngân sách", "khoản ngân sách", listener);
     }
 
     /**
@@ -221,6 +336,43 @@ public class FirebaseManager {
                 });
     }
 
+    // ===== ĐĂNG KÝ LISTENER =====
+
+    /**
+     * Gắn listener qua QuerySubscriptionRegistry để các màn hình cùng query dùng chung
+     * một snapshot listener; snapshot chỉ được chuyển thành List<Map> một lần.
+     * Người gọi phải remove() registration trả về khi không cần nữa.
+     */
+    private ListenerRegistration subscribe(String key, Query query, String errorLog, String itemName,
+                                           OnDataLoadListener listener) {
+        QuerySubscriptionRegistry.Decoder<List<Map<String, Object>>> decoder = value -> {
+            List<Map<String, Object>> items = new ArrayList<>();
+            if (value != null) {
+                for (QueryDocumentSnapshot doc : value) {
+                    Map<String, Object> item = doc.getData();
+                    item.put("id", doc.getId());
+                    items.add(item);
+                }
+            }
+            Log.d(TAG, "Lấy được " + items.size() + " " + itemName);
+            return items;
+        };
+
+        return subscriptionRegistry.subscribe(key, query, decoder,
+                new QuerySubscriptionRegistry.Subscriber<List<Map<String, Object>>>() {
+                    @Override
+                    public void onValue(List<Map<String, Object>> items) {
+                        listener.onDataLoaded(items);
+                    }
+
+                    @Override
+                    public void onError(String error) {
+                        Log.e(TAG, errorLog + ": " + error);
+                        listener.onError(error);
+                    }
+                });
+    }
+
     // ===== INTERFACE CALLBACK =====
 
     public interface OnCompleteListener {
@@ -228,6 +380,12 @@ public class FirebaseManager {
         void onFailure(String error);
     }
 
+    public interface OnMessageSendListener {
+        void onSuccess(String messageId);
+        /** Lỗi không tự hết; lỗi mạng thì Firestore tự thử lại nên không được báo ở đây */
+        void onFailure(String error);
+    }
+
     public interface OnDataLoadListener {
         void onDataLoaded(List<Map<String, Object>> data);
         void onError(String error);
@@ -0,0 +1,279 @@
+package com.example.projectmanager.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.exifinterface.media.ExifInterface;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Nén ảnh trước khi upload: decode có lấy mẫu (inSampleSize), thu về cạnh dài tối đa maxDimension,
+ * xoay theo EXIF rồi encode lại JPEG/WebP. Ảnh encode lại không mang EXIF (vị trí GPS, thông tin máy),
+ * kèm theo một thumbnail nhỏ để danh sách chat không phải tải ảnh gốc.
+ *
+ * compress() đọc và ghi file, phải gọi ngoài main thread.
+ */
+public class ImageCompressor {
+    private static final String TAG = "ImageCompressor";
+    private static final String OUTPUT_DIR = "upload_images";
+
+    public static final int DEFAULT_MAX_DIMENSION = 1600;
+    public static final int DEFAULT_QUALITY = 82;
+    public static final int DEFAULT_THUMBNAIL_DIMENSION = 320;
+    public static final int DEFAULT_THUMBNAIL_QUALITY = 70;
+
+    /**
+     * Ảnh đã nén và thumbnail, nằm trong thư mục cache của ứng dụng
+     */
+    public static class Result {
+        public final File image;
+        public final File thumbnail;
+        public final String mimeType;
+
+        Result(File image, File thumbnail, String mimeType) {
+            this.image = image;
+            this.thumbnail = thumbnail;
+            this.mimeType = mimeType;
+        }
+
+        /**
+         * Xóa file tạm sau khi upload xong
+         */
+        public void delete() {
+            image.delete();
+            if (thumbnail != null) {
+                thumbnail.delete();
+            }
+        }
+    }
+
+    private final Context context;
+    private int maxDimension = DEFAULT_MAX_DIMENSION;
+    private int quality = DEFAULT_QUALITY;
+    private int thumbnailDimension = DEFAULT_THUMBNAIL_DIMENSION;
+    private Bitmap.CompressFormat format = Bitmap.CompressFormat.JPEG;
+
+    public ImageCompressor(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public ImageCompressor setMaxDimension(int maxDimension) {
+        this.maxDimension = maxDimension;
+        return this;
+    }
+
+    public ImageCompressor setQuality(int quality) {
+        this.quality = quality;
+        return this;
+    }
+
+    public ImageCompressor setThumbnailDimension(int thumbnailDimension) {
+        this.thumbnailDimension = thumbnailDimension;
+        return this;
+    }
+
+    /**
+     * JPEG hoặc WEBP
+     */
+    public ImageCompressor setFormat(Bitmap.CompressFormat format) {
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * Xóa các ảnh đã nén cũ hơn maxAgeMillis (upload lỗi mà không ai gửi lại). Đọc thư mục, gọi ngoài main thread.
+     */
+    public void deleteOlderThan(long maxAgeMillis) {
+        File[] files = new File(context.getCacheDir(), OUTPUT_DIR).listFiles();
+        if (files == null) return;
+
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        int deleted = 0;
+        for (File file : files) {
+            if (file.lastModified() < cutoff && file.delete()) {
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            Log.d(TAG, "Đã xóa " + deleted + " ảnh nén cũ");
+        }
+    }
+
+    /**
+     * Có nên nén loại tệp này không (GIF giữ nguyên để không mất hoạt ảnh)
+     */
+    public static boolean canCompress(String mimeType) {
+        return mimeType != null && mimeType.startsWith("image/") && !mimeType.equals("image/gif");
+    }
+
+    /**
+     * Nén ảnh từ source. Tên file ra cố định theo nội dung ảnh và tham số nén, nên gửi lại cùng một ảnh dùng lại
+     * file đã nén (giữ được phiên upload resumable). Trả về null nếu không decode được ảnh.
+     *
+     * @param contentHash SHA-256 của nội dung source nếu đã tính (FileUploadService); null thì dùng source và
+     *                    sourceSize để nhận diện ảnh
+     */
+    public Result compress(Uri source, long sourceSize, String contentHash) throws IOException {
+        File dir = new File(context.getCacheDir(), OUTPUT_DIR);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Không tạo được thư mục " + dir);
+        }
+
+        String extension = format == Bitmap.CompressFormat.JPEG ? "jpg" : "webp";
+        String mimeType = format == Bitmap.CompressFormat.JPEG ? "image/jpeg" : "image/webp";
+        String identity = contentHash != null ? contentHash : source + "|" + sourceSize;
+        String key = sha256Hex(identity + "|" + maxDimension + "|" + quality);
+        File imageFile = new File(dir, "img_" + key + "." + extension);
+        File thumbnailFile = new File(dir, "img_" + key + "_thumb." + extension);
+
+        if (imageFile.length() > 0 && thumbnailFile.length() > 0) {
+            Log.d(TAG, "Dùng lại ảnh đã nén " + imageFile.getName());
+            return new Result(imageFile, thumbnailFile, mimeType);
+        }
+
+        Bitmap bitmap = decodeSampled(source, maxDimension);
+        if (bitmap == null) {
+            return null;
+        }
+
+        try {
+            bitmap = applyOrientation(bitmap, readOrientation(source));
+            Bitmap image = scaleDown(bitmap, maxDimension);
+            write(image, imageFile, quality);
+
+            Bitmap thumbnail = scaleDown(image, thumbnailDimension);
+            write(thumbnail, thumbnailFile, DEFAULT_THUMBNAIL_QUALITY);
+
+            if (thumbnail != image) thumbnail.recycle();
+            if (image != bitmap) image.recycle();
+        } finally {
+            bitmap.recycle();
+        }
+
+        Log.d(TAG, "Nén ảnh " + sourceSize + " -> " + imageFile.length() + " bytes, thumbnail "
+                + thumbnailFile.length() + " bytes");
+        return new Result(imageFile, thumbnailFile, mimeType);
+    }
+
+    /**
+     * SHA-256 dạng hex: đủ rộng để hai ảnh khác nhau không trùng tên file nén
+     */
+    private static String sha256Hex(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Mọi JVM/Android đều có SHA-256 và UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decode với inSampleSize lũy thừa 2 lớn nhất mà cạnh dài vẫn không nhỏ hơn maxDimension
+     */
+    private Bitmap decodeSampled(Uri source, int maxDimension) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = context.getContentResolver().openInputStream(source)) {
+            if (in == null) return null;
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.w(TAG, "Không đọc được kích thước ảnh: " + source);
+            return null;
+        }
+
+        int longest = Math.max(options.outWidth, options.outHeight);
+        int sampleSize = 1;
+        while (longest / (sampleSize * 2) >= maxDimension) {
+            sampleSize *= 2;
+        }
+
+        options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        try (InputStream in = context.getContentResolver().openInputStream(source)) {
+            if (in == null) return null;
+            return BitmapFactory.decodeStream(in, null, options);
+        }
+    }
+
+    private int readOrientation(Uri source) {
+        try (InputStream in = context.getContentResolver().openInputStream(source)) {
+            if (in == null) return ExifInterface.ORIENTATION_NORMAL;
+            return new ExifInterface(in).getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                    ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            Log.w(TAG, "Không đọc được EXIF", e);
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    // EXIF bị bỏ khi encode lại nên phải xoay sẵn điểm ảnh
+    private static Bitmap applyOrientation(Bitmap bitmap, int orientation) {
+        int degrees;
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                degrees = 90;
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                degrees = 180;
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                degrees = 270;
+                break;
+            default:
+                return bitmap;
+        }
+
+        Matrix matrix = new Matrix();
+        matrix.postRotate(degrees);
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+        return rotated;
+    }
+
+    private static Bitmap scaleDown(Bitmap bitmap, int maxDimension) {
+        int longest = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longest <= maxDimension) {
+            return bitmap;
+        }
+        float scale = (float) maxDimension / longest;
+        return Bitmap.createScaledBitmap(bitmap, Math.round(bitmap.getWidth() * scale),
+                Math.round(bitmap.getHeight() * scale), true);
+    }
+
+    // Ghi ra file tạm rồi đổi tên, để file dở dang (process bị dừng giữa chừng) không bị dùng lại
+    private void write(Bitmap bitmap, File file, int quality) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            if (!bitmap.compress(format, quality, out)) {
+                throw new IOException("Không encode được ảnh " + file.getName());
+            }
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Không ghi được " + file.getName());
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.example.projectmanager.utils;
+
+import android.util.Log;
+
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cửa sổ lịch sử chat có giới hạn.
+ * Chỉ lắng nghe thời gian thực LATEST_SIZE tin nhắn mới nhất; tin cũ hơn được tải theo trang
+ * (endBefore) khi người dùng cuộn lên. Số tin giữ trong bộ nhớ không vượt quá MAX_WINDOW_SIZE:
+ * cuộn lên quá xa thì bỏ bớt tin ở phía mới (tách khỏi phần live), cuộn xuống thì bỏ bớt tin cũ.
+ * Nếu có quá nhiều tin mới giữa hai snapshot (không còn tin chung), phần đã tải cũ hơn bị bỏ để cửa sổ
+ * không có khoảng hổng; cuộn lên sẽ tải lại từ tin mới nhất trở về trước.
+ *
+ * Dùng trên main thread (callback của Firestore).
+ */
+public class MessageWindow implements ListenerRegistration {
+    private static final String TAG = "MessageWindow";
+
+    public static final int LATEST_SIZE = 50;
+    public static final int PAGE_SIZE = 50;
+    public static final int MAX_WINDOW_SIZE = 300;
+
+    // Tin nhắn cùng dữ liệu đã decode; snapshot được giữ để làm cursor phân trang
+    private static class Item {
+        final DocumentSnapshot snapshot;
+        final Map<String, Object> data;
+
+        Item(DocumentSnapshot snapshot) {
+            this.snapshot = snapshot;
+            Map<String, Object> item = snapshot.getData();
+            item.put("id", snapshot.getId());
+            this.data = item;
+        }
+    }
+
+    private final Query query;
+    private final FirebaseManager.OnDataLoadListener listener;
+
+    // Tin nhắn cũ đã tải, tăng dần theo timestamp
+    private final List<Item> history = new ArrayList<>();
+    // Kết quả mới nhất của listener live
+    private final List<Item> latest = new ArrayList<>();
+    // history nối liền với latest và cửa sổ đang hiển thị cả hai
+    private boolean showingLatest = true;
+    private boolean hasOlder = true;
+    private boolean loading = false;
+    // Tăng mỗi khi history bị bỏ, để trang đang tải dở không nối vào history mới
+    private int historyGeneration = 0;
+
+    private ListenerRegistration latestRegistration;
+    private boolean removed = false;
+
+    /**
+     * @param query query tin nhắn đã orderBy("timestamp", ASCENDING), chưa limit
+     */
+    MessageWindow(Query query, String key, QuerySubscriptionRegistry registry,
+                  FirebaseManager.OnDataLoadListener listener) {
+        this.query = query;
+        this.listener = listener;
+
+        latestRegistration = registry.subscribe(key + "/latest/" + LATEST_SIZE, query.limitToLast(LATEST_SIZE),
+                snapshot -> snapshot != null ? snapshot.getDocuments() : null,
+                new QuerySubscriptionRegistry.Subscriber<List<DocumentSnapshot>>() {
+                    @Override
+                    public void onValue(List<DocumentSnapshot> documents) {
+                        onLatest(documents);
+                    }
+
+                    @Override
+                    public void onError(String error) {
+                        listener.onError(error);
+                    }
+                });
+    }
+
+    public boolean isShowingLatest() {
+        return showingLatest;
+    }
+
+    public boolean hasOlder() {
+        return hasOlder;
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    /**
+     * Tải thêm một trang tin nhắn cũ hơn tin đầu tiên của cửa sổ
+     */
+    public void loadOlder() {
+        if (removed || loading || !hasOlder) return;
+
+        DocumentSnapshot cursor = firstSnapshot();
+        if (cursor == null) return;
+
+        loading = true;
+        int generation = historyGeneration;
+        query.endBefore(cursor).limitToLast(PAGE_SIZE).get()
+                .addOnSuccessListener(snapshot -> {
+                    loading = false;
+                    if (removed || generation != historyGeneration) return;
+
+                    List<DocumentSnapshot> documents = snapshot.getDocuments();
+                    hasOlder = documents.size() == PAGE_SIZE;
+
+                    List<Item> page = new ArrayList<>(documents.size());
+                    for (DocumentSnapshot document : documents) {
+                        page.add(new Item(document));
+                    }
+                    history.addAll(0, page);
+                    Log.d(TAG, "Tải thêm " + page.size() + " tin nhắn cũ");
+
+                    trimNewest();
+                    publish();
+                })
+                .addOnFailureListener(e -> {
+                    loading = false;
+                    Log.e(TAG, "Lỗi khi tải tin nhắn cũ", e);
+                    listener.onError(e.getMessage());
+                });
+    }
+
+    /**
+     * Tải trang tin nhắn mới hơn khi cửa sổ đã tách khỏi phần live; nối lại khi chạm tới phần live
+     */
+    public void loadNewer() {
+        if (removed || loading || showingLatest) return;
+
+        if (history.isEmpty()) {
+            showLatest();
+            return;
+        }
+
+        loading = true;
+        query.startAfter(history.get(history.size() - 1).snapshot).limit(PAGE_SIZE).get()
+                .addOnSuccessListener(snapshot -> {
+                    loading = false;
+                    if (removed || showingLatest) return;
+
+                    Set<String> latestIds = new HashSet<>();
+                    for (Item item : latest) {
+                        latestIds.add(item.snapshot.getId());
+                    }
+
+                    List<DocumentSnapshot> documents = snapshot.getDocuments();
+                    boolean reachedLatest = documents.size() < PAGE_SIZE;
+                    for (DocumentSnapshot document : documents) {
+                        if (latestIds.contains(document.getId())) {
+                            reachedLatest = true;
+                            break;
+                        }
+                        history.add(new Item(document));
+                    }
+                    showingLatest = reachedLatest;
+                    Log.d(TAG, "Tải thêm tin nhắn mới hơn, nối với phần live: " + reachedLatest);
+
+                    trimOldest();
+                    publish();
+                })
+                .addOnFailureListener(e -> {
+                    loading = false;
+                    Log.e(TAG, "Lỗi khi tải tin nhắn mới hơn", e);
+                    listener.onError(e.getMessage());
+                });
+    }
+
+    /**
+     * Bỏ lịch sử đã tải và quay về các tin nhắn mới nhất
+     */
+    public void showLatest() {
+        history.clear();
+        historyGeneration++;
+        hasOlder = latest.size() == LATEST_SIZE;
+        showingLatest = true;
+        publish();
+    }
+
+    @Override
+    public void remove() {
+        if (removed) return;
+        removed = true;
+        if (latestRegistration != null) {
+            latestRegistration.remove();
+            latestRegistration = null;
+        }
+        history.clear();
+        latest.clear();
+    }
+
+    private void onLatest(List<DocumentSnapshot> documents) {
+        if (removed) return;
+
+        Set<String> currentIds = new HashSet<>();
+        for (DocumentSnapshot document : documents) {
+            currentIds.add(document.getId());
+        }
+
+        // Tin bị đẩy ra khỏi limitToLast do có tin mới nằm ở đầu danh sách cũ; chuyển sang history
+        // để cửa sổ không bị hổng. Tin ở giữa biến mất là tin đã bị xóa.
+        if (showingLatest) {
+            if (hasGapAfter(currentIds, documents.size())) {
+                // Hơn LATEST_SIZE tin mới giữa hai snapshot (ví dụ sau khi mất kết nối): các tin ở giữa
+                // chưa được tải, nên bỏ history; trang cũ hơn sẽ được tải nối từ tin đầu của latest
+                Log.d(TAG, "Snapshot mới không trùng tin nào với snapshot trước, bỏ " + history.size()
+                        + " tin đã tải");
+                history.clear();
+                historyGeneration++;
+                hasOlder = true;
+            } else {
+                for (Item item : latest) {
+                    if (currentIds.contains(item.snapshot.getId())) break;
+                    history.add(item);
+                }
+            }
+        }
+
+        boolean firstSnapshot = latest.isEmpty() && history.isEmpty();
+        latest.clear();
+        for (DocumentSnapshot document : documents) {
+            latest.add(new Item(document));
+        }
+        if (firstSnapshot) {
+            hasOlder = documents.size() == LATEST_SIZE;
+        }
+
+        if (showingLatest) {
+            trimOldest();
+            publish();
+        }
+    }
+
+    /**
+     * Snapshot mới đủ LATEST_SIZE tin và không còn tin nào của snapshot trước: giữa tin cuối của snapshot
+     * trước và tin đầu của snapshot mới có thể còn những tin chưa tải. Nếu snapshot mới ít hơn LATEST_SIZE tin
+     * thì nó là toàn bộ kênh, các tin cũ không còn là đã bị xóa.
+     */
+    private boolean hasGapAfter(Set<String> currentIds, int currentSize) {
+        if (latest.isEmpty() || currentSize < LATEST_SIZE) return false;
+        for (Item item : latest) {
+            if (currentIds.contains(item.snapshot.getId())) return false;
+        }
+        return true;
+    }
+
+    private DocumentSnapshot firstSnapshot() {
+        if (!history.isEmpty()) return history.get(0).snapshot;
+        if (showingLatest && !latest.isEmpty()) return latest.get(0).snapshot;
+        return null;
+    }
+
+    private int windowSize() {
+        return history.size() + (showingLatest ? latest.size() : 0);
+    }
+
+    // Cuộn lên: bỏ phía mới nhất, trước hết là tách phần live khỏi cửa sổ
+    private void trimNewest() {
+        if (windowSize() <= MAX_WINDOW_SIZE) return;
+
+        if (showingLatest) {
+            showingLatest = false;
+        }
+        int excess = history.size() - MAX_WINDOW_SIZE;
+        if (excess > 0) {
+            history.subList(history.size() - excess, history.size()).clear();
+        }
+    }
+
+    // Cuộn xuống hoặc có tin mới: bỏ các tin cũ nhất
+    private void trimOldest() {
+        int excess = windowSize() - MAX_WINDOW_SIZE;
+        if (excess <= 0) return;
+
+        int fromHistory = Math.min(excess, history.size());
+        if (fromHistory > 0) {
+            history.subList(0, fromHistory).clear();
+            hasOlder = true;
+        }
+    }
+
+    private void publish() {
+        List<Map<String, Object>> messages = new ArrayList<>(windowSize());
+        for (Item item : history) {
+            messages.add(item.data);
+        }
+        if (showingLatest) {
+            for (Item item : latest) {
+                messages.add(item.data);
+            }
+        }
+        listener.onDataLoaded(messages);
+    }
+}
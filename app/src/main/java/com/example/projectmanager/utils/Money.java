@@ -0,0 +1,88 @@
+package com.example.projectmanager.utils;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Map;
+
+/**
+ * Số tiền dạng fixed-point: một long đếm 1/100 đồng (minor unit), nên cộng / so sánh chính xác
+ * và không bị sai số như double / float khi tổng lên tới hàng tỷ.
+ * Chỉ đổi sang double / float ở bước cuối (biểu đồ, field "amount" cũ).
+ */
+public final class Money {
+    /** Số chữ số thập phân được lưu */
+    public static final int SCALE = 2;
+    public static final long MINOR_PER_UNIT = 100;
+
+    private Money() {
+    }
+
+    /**
+     * Đọc số tiền người dùng nhập ("1500000", "1500000.5"), làm tròn tới 1/100 đồng
+     *
+     * @throws NumberFormatException nếu không phải số hoặc vượt quá phạm vi long
+     */
+    public static long parse(String text) {
+        try {
+            return new BigDecimal(text.trim()).movePointRight(SCALE)
+                    .setScale(0, RoundingMode.HALF_UP).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Số tiền quá lớn: " + text);
+        }
+    }
+
+    /**
+     * Đổi số tiền double (dữ liệu cũ) sang minor unit, dùng biểu diễn thập phân ngắn nhất của double
+     * nên 1234.56 thành đúng 123456
+     */
+    public static long fromLegacy(double amount) {
+        return BigDecimal.valueOf(amount).movePointRight(SCALE).setScale(0, RoundingMode.HALF_UP).longValue();
+    }
+
+    /**
+     * Đọc số tiền từ dữ liệu Firestore: ưu tiên field minor unit, nếu chưa có (document cũ) thì đổi từ
+     * field double cũ
+     */
+    public static long readMinor(Map<String, Object> data, String minorField, String legacyField) {
+        Object minor = data.get(minorField);
+        if (minor instanceof Number) {
+            return ((Number) minor).longValue();
+        }
+        Object legacy = data.get(legacyField);
+        if (legacy instanceof Number) {
+            return fromLegacy(((Number) legacy).doubleValue());
+        }
+        return 0;
+    }
+
+    /**
+     * Giá trị chính xác để định dạng hiển thị (DecimalFormat nhận BigDecimal)
+     */
+    public static BigDecimal toDecimal(long minor) {
+        return BigDecimal.valueOf(minor, SCALE);
+    }
+
+    /**
+     * Chuỗi để điền lại vào ô nhập, không có số 0 thừa ("1500000", "1500000.5")
+     */
+    public static String toPlainString(long minor) {
+        if (minor % MINOR_PER_UNIT == 0) {
+            return String.valueOf(minor / MINOR_PER_UNIT);
+        }
+        return toDecimal(minor).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Giá trị gần đúng, chỉ dùng cho field "amount" cũ
+     */
+    public static double toDouble(long minor) {
+        return minor / (double) MINOR_PER_UNIT;
+    }
+
+    /**
+     * Giá trị cho biểu đồ (MPAndroidChart chỉ nhận float)
+     */
+    public static float toChartValue(long minor) {
+        return (float) toDouble(minor);
+    }
+}
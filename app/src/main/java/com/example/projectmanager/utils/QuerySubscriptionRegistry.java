@@ -0,0 +1,164 @@
+package com.example.projectmanager.utils;
+
+import android.util.Log;
+
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry dùng chung cho các snapshot listener của Firestore.
+ * Mỗi query logic (theo key) chỉ có một listener thật, được đếm tham chiếu;
+ * snapshot được decode một lần rồi phát cho tất cả subscriber.
+ */
+public class QuerySubscriptionRegistry {
+    private static final String TAG = "QuerySubscriptionRegistry";
+
+    private static QuerySubscriptionRegistry instance;
+
+    private final Map<String, Entry<?>> entries = new HashMap<>();
+
+    /**
+     * Chuyển snapshot thành dữ liệu phát cho subscriber; gọi một lần cho mỗi snapshot.
+     * Trả về null để bỏ qua snapshot (không phát).
+     */
+    public interface Decoder<T> {
+        T decode(QuerySnapshot snapshot);
+    }
+
+    public interface Subscriber<T> {
+        void onValue(T value);
+        void onError(String error);
+    }
+
+    /**
+     * Handle trả về cho subscriber, remove() để hủy đăng ký
+     */
+    public class Subscription implements ListenerRegistration {
+        private final String key;
+        private final Subscriber<?> subscriber;
+        private boolean removed = false;
+
+        private Subscription(String key, Subscriber<?> subscriber) {
+            this.key = key;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void remove() {
+            if (removed) return;
+            removed = true;
+            unsubscribe(key, subscriber);
+        }
+    }
+
+    private static class Entry<T> {
+        final String key;
+        final Decoder<T> decoder;
+        final List<Subscriber<T>> subscribers = new ArrayList<>();
+        ListenerRegistration registration;
+        T lastValue;
+
+        Entry(String key, Decoder<T> decoder) {
+            this.key = key;
+            this.decoder = decoder;
+        }
+    }
+
+    private QuerySubscriptionRegistry() {
+    }
+
+    public static synchronized QuerySubscriptionRegistry getInstance() {
+        if (instance == null) {
+            instance = new QuerySubscriptionRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * Đăng ký nhận dữ liệu của query. Key phải định danh duy nhất cả query lẫn decoder;
+     * nếu key đã có listener thì dùng lại và phát ngay giá trị gần nhất cho subscriber mới.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> Subscription subscribe(String key, Query query, Decoder<T> decoder,
+                                                   Subscriber<T> subscriber) {
+        Entry<T> entry = (Entry<T>) entries.get(key);
+        if (entry == null) {
+            Entry<T> newEntry = new Entry<>(key, decoder);
+            entries.put(key, newEntry);
+            newEntry.subscribers.add(subscriber);
+            newEntry.registration = query.addSnapshotListener((value, error) -> dispatch(newEntry, value, error));
+            Log.d(TAG, "Attached listener for " + key + " (active: " + entries.size() + ")");
+        } else {
+            entry.subscribers.add(subscriber);
+            Log.d(TAG, "Reusing listener for " + key + " (" + entry.subscribers.size() + " subscribers)");
+            if (entry.lastValue != null) {
+                subscriber.onValue(entry.lastValue);
+            }
+        }
+        return new Subscription(key, subscriber);
+    }
+
+    /**
+     * Số snapshot listener Firestore đang hoạt động (dùng cho chẩn đoán)
+     */
+    public synchronized int getActiveListenerCount() {
+        return entries.size();
+    }
+
+    /**
+     * Tổng số subscriber trên tất cả các query
+     */
+    public synchronized int getSubscriberCount() {
+        int count = 0;
+        for (Entry<?> entry : entries.values()) {
+            count += entry.subscribers.size();
+        }
+        return count;
+    }
+
+    private synchronized <T> void dispatch(Entry<T> entry, QuerySnapshot value,
+                                           FirebaseFirestoreException error) {
+        // Copy để subscriber có thể hủy đăng ký ngay trong callback
+        List<Subscriber<T>> subscribers = new ArrayList<>(entry.subscribers);
+
+        if (error != null) {
+            // Firestore tự hủy listener khi có lỗi; bỏ entry để lần subscribe sau gắn lại
+            if (entries.get(entry.key) == entry) {
+                entries.remove(entry.key);
+            }
+            for (Subscriber<T> subscriber : subscribers) {
+                subscriber.onError(error.getMessage());
+            }
+            return;
+        }
+
+        T decoded = entry.decoder.decode(value);
+        if (decoded == null) return;
+        entry.lastValue = decoded;
+
+        for (Subscriber<T> subscriber : subscribers) {
+            subscriber.onValue(decoded);
+        }
+    }
+
+    private synchronized void unsubscribe(String key, Subscriber<?> subscriber) {
+        Entry<?> entry = entries.get(key);
+        if (entry == null) return;
+
+        entry.subscribers.remove(subscriber);
+        if (entry.subscribers.isEmpty()) {
+            if (entry.registration != null) {
+                entry.registration.remove();
+            }
+            entries.remove(key);
+            Log.d(TAG, "Removed listener for " + key + " (active: " + entries.size() + ")");
+        }
+    }
+}
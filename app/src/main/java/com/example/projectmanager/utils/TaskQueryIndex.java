@@ -0,0 +1,416 @@
+package com.example.projectmanager.utils;
+
+import com.example.projectmanager.models.Task;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index trong bộ nhớ cho TaskFilter: bitset theo status/priority/người phụ trách
+ * và thứ tự đã sắp sẵn cho từng SortBy, để một FilterCriteria chỉ tốn phép AND bitset
+ * và một lần duyệt theo thứ tự thay vì quét + sort toàn bộ danh sách.
+ *
+ * Không thread-safe; dùng trên main thread giống LiveData của ViewModel.
+ */
+public class TaskQueryIndex {
+
+    // Mỗi task chiếm một slot cố định; slot của task bị xóa để trống cho đến lần compact
+    private final List<Task> slots = new ArrayList<>();
+    private final Map<String, Integer> slotById = new HashMap<>();
+    private final BitSet live = new BitSet();
+
+    private final Map<Task.Status, BitSet> byStatus = new EnumMap<>(Task.Status.class);
+    private final Map<Task.Priority, BitSet> byPriority = new EnumMap<>(Task.Priority.class);
+    private final Map<String, BitSet> byAssignee = new HashMap<>();
+    private final TaskSearchIndex searchIndex = new TaskSearchIndex();
+
+    // orders[sortBy][sortOrder]: slot theo thứ tự kết quả, orderSizes phần đang dùng; được dựng ở lần query
+    // đầu tiên rồi giữ đúng thứ tự khi upsert/remove bằng chèn/xóa theo tìm kiếm nhị phân.
+    // ranks cùng chỉ số: vị trí của slot trong order, null khi phải dựng lại từ order (O(n), không sort)
+    private final int[][][] orders = new int[TaskFilter.SortBy.values().length][TaskFilter.SortOrder.values().length][];
+    private final int[][] orderSizes = new int[TaskFilter.SortBy.values().length][TaskFilter.SortOrder.values().length];
+    private final int[][][] ranks = new int[TaskFilter.SortBy.values().length][TaskFilter.SortOrder.values().length][];
+
+    public TaskQueryIndex() {
+    }
+
+    public TaskQueryIndex(List<Task> tasks) {
+        setTasks(tasks);
+    }
+
+    /**
+     * Dựng lại index từ đầu; thứ tự của danh sách là thứ tự giữ nguyên khi hai task bằng nhau
+     */
+    public void setTasks(List<Task> tasks) {
+        clear();
+        for (Task task : tasks) {
+            upsert(task);
+        }
+    }
+
+    /**
+     * Thêm hoặc cập nhật một task (theo id)
+     */
+    public void upsert(Task task) {
+        if (task == null) return;
+
+        Integer existing = task.getId() != null ? slotById.get(task.getId()) : null;
+        int slot;
+        if (existing != null) {
+            slot = existing;
+            Task previous = slots.get(slot);
+            unindex(slot, previous);
+            removeFromOrders(slot, previous);
+            slots.set(slot, task);
+        } else {
+            slot = slots.size();
+            slots.add(task);
+            if (task.getId() != null) {
+                slotById.put(task.getId(), slot);
+            }
+        }
+
+        live.set(slot);
+        bitsFor(byStatus, task.getStatusType()).set(slot);
+        bitsFor(byPriority, task.getPriorityType()).set(slot);
+        if (task.getAssignedToName() != null) {
+            bitsFor(byAssignee, task.getAssignedToName()).set(slot);
+        }
+        searchIndex.put(slot, task);
+        insertIntoOrders(slot, task);
+    }
+
+    /**
+     * Xóa task khỏi index
+     */
+    public void remove(String taskId) {
+        Integer slot = slotById.remove(taskId);
+        if (slot == null) return;
+
+        Task previous = slots.get(slot);
+        unindex(slot, previous);
+        removeFromOrders(slot, previous);
+        live.clear(slot);
+        slots.set(slot, null);
+        searchIndex.remove(slot);
+
+        // Compact khi hơn một nửa slot đã trống
+        if (live.cardinality() * 2 < slots.size()) {
+            compact();
+        }
+    }
+
+    public int size() {
+        return live.cardinality();
+    }
+
+    public void clear() {
+        slots.clear();
+        searchIndex.clear();
+        slotById.clear();
+        live.clear();
+        byStatus.clear();
+        byPriority.clear();
+        byAssignee.clear();
+        invalidateOrders();
+    }
+
+    /**
+     * Trả về các task khớp criteria theo đúng thứ tự của TaskFilter.filterAndSortTasks
+     */
+    public List<Task> query(TaskFilter.FilterCriteria criteria) {
+        BitSet matches = (BitSet) live.clone();
+
+        if (!isEmpty(criteria.getStatusFilter())) {
+            matches.and(bitsOrEmpty(byStatus, statusOf(criteria.getStatusFilter())));
+        }
+        if (!isEmpty(criteria.getPriorityFilter())) {
+            matches.and(bitsOrEmpty(byPriority, priorityOf(criteria.getPriorityFilter())));
+        }
+        if (!isEmpty(criteria.getAssignedToFilter())) {
+            matches.and(bitsOrEmpty(byAssignee, criteria.getAssignedToFilter()));
+        }
+        List<String> searchTerms = TaskSearchIndex.tokenize(criteria.getSearchQuery());
+        if (!searchTerms.isEmpty() && !matches.isEmpty()) {
+            matches.and(searchIndex.search(searchTerms));
+        }
+
+        int count = matches.cardinality();
+        List<Task> result = new ArrayList<>(count);
+        if (count == 0) return result;
+
+        if (criteria.getSortBy() == TaskFilter.SortBy.RELEVANCE && !searchTerms.isEmpty()) {
+            return rankByRelevance(matches, searchTerms, criteria.getSortOrder(), result);
+        }
+
+        int sortIndex = criteria.getSortBy().ordinal();
+        int orderIndex = criteria.getSortOrder().ordinal();
+        ensureOrder(criteria.getSortBy(), criteria.getSortOrder());
+        int[] order = orders[sortIndex][orderIndex];
+        int size = orderSizes[sortIndex][orderIndex];
+
+        if (count * 8 < size) {
+            // Ít kết quả: sort rank của các slot khớp thay vì duyệt toàn bộ thứ tự
+            int[] rank = ensureRanks(sortIndex, orderIndex);
+            int[] selected = new int[count];
+            int i = 0;
+            for (int slot = matches.nextSetBit(0); slot >= 0; slot = matches.nextSetBit(slot + 1)) {
+                selected[i++] = rank[slot];
+            }
+            Arrays.sort(selected);
+            for (int position : selected) {
+                result.add(slots.get(order[position]));
+            }
+        } else {
+            for (int position = 0; position < size; position++) {
+                int slot = order[position];
+                if (matches.get(slot)) {
+                    result.add(slots.get(slot));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sắp theo điểm liên quan (DESCENDING = khớp tốt nhất trước), bằng điểm thì theo slot
+     */
+    private List<Task> rankByRelevance(BitSet matches, List<String> searchTerms,
+                                       TaskFilter.SortOrder sortOrder, List<Task> result) {
+        boolean descending = sortOrder == TaskFilter.SortOrder.DESCENDING;
+        long[] keys = new long[matches.cardinality()];
+        int i = 0;
+        for (int slot = matches.nextSetBit(0); slot >= 0; slot = matches.nextSetBit(slot + 1)) {
+            int score = searchIndex.score(slot, searchTerms);
+            long sortScore = descending ? Integer.MAX_VALUE - score : score;
+            keys[i++] = (sortScore << 32) | slot;
+        }
+        Arrays.sort(keys);
+        for (long key : keys) {
+            result.add(slots.get((int) key));
+        }
+        return result;
+    }
+
+    private void ensureOrder(TaskFilter.SortBy sortBy, TaskFilter.SortOrder sortOrder) {
+        int sortIndex = sortBy.ordinal();
+        int orderIndex = sortOrder.ordinal();
+        if (orders[sortIndex][orderIndex] != null) return;
+
+        Comparator<Task> comparator = comparatorFor(sortBy);
+        boolean descending = sortOrder == TaskFilter.SortOrder.DESCENDING;
+
+        Integer[] boxed = new Integer[live.cardinality()];
+        int i = 0;
+        for (int slot = live.nextSetBit(0); slot >= 0; slot = live.nextSetBit(slot + 1)) {
+            boxed[i++] = slot;
+        }
+        // Bằng nhau thì giữ thứ tự slot, giống sort ổn định của TaskFilter
+        Arrays.sort(boxed, (slot1, slot2) -> {
+            int comparison = comparator.compare(slots.get(slot1), slots.get(slot2));
+            if (descending) comparison = -comparison;
+            return comparison != 0 ? comparison : Integer.compare(slot1, slot2);
+        });
+
+        int[] order = new int[boxed.length];
+        for (int position = 0; position < boxed.length; position++) {
+            order[position] = boxed[position];
+        }
+        orders[sortIndex][orderIndex] = order;
+        orderSizes[sortIndex][orderIndex] = order.length;
+        ranks[sortIndex][orderIndex] = null;
+    }
+
+    private int[] ensureRanks(int sortIndex, int orderIndex) {
+        int[] rank = ranks[sortIndex][orderIndex];
+        if (rank == null) {
+            int[] order = orders[sortIndex][orderIndex];
+            rank = new int[slots.size()];
+            for (int position = 0; position < orderSizes[sortIndex][orderIndex]; position++) {
+                rank[order[position]] = position;
+            }
+            ranks[sortIndex][orderIndex] = rank;
+        }
+        return rank;
+    }
+
+    /**
+     * Chèn slot vào mọi thứ tự đã dựng, đúng vị trí theo (comparator, slot)
+     */
+    private void insertIntoOrders(int slot, Task task) {
+        for (TaskFilter.SortBy sortBy : TaskFilter.SortBy.values()) {
+            for (TaskFilter.SortOrder sortOrder : TaskFilter.SortOrder.values()) {
+                int sortIndex = sortBy.ordinal();
+                int orderIndex = sortOrder.ordinal();
+                int[] order = orders[sortIndex][orderIndex];
+                if (order == null) continue;
+
+                int size = orderSizes[sortIndex][orderIndex];
+                int position = lowerBound(order, size, sortBy, sortOrder, task, slot);
+                if (size == order.length) {
+                    order = Arrays.copyOf(order, Math.max(16, size * 2));
+                    orders[sortIndex][orderIndex] = order;
+                }
+                System.arraycopy(order, position, order, position + 1, size - position);
+                order[position] = slot;
+                orderSizes[sortIndex][orderIndex] = size + 1;
+                ranks[sortIndex][orderIndex] = null;
+            }
+        }
+    }
+
+    /**
+     * Xóa slot khỏi mọi thứ tự đã dựng; task là giá trị đã dùng khi chèn slot
+     */
+    private void removeFromOrders(int slot, Task task) {
+        for (TaskFilter.SortBy sortBy : TaskFilter.SortBy.values()) {
+            for (TaskFilter.SortOrder sortOrder : TaskFilter.SortOrder.values()) {
+                int sortIndex = sortBy.ordinal();
+                int orderIndex = sortOrder.ordinal();
+                int[] order = orders[sortIndex][orderIndex];
+                if (order == null) continue;
+
+                int size = orderSizes[sortIndex][orderIndex];
+                int position = lowerBound(order, size, sortBy, sortOrder, task, slot);
+                if (position == size || order[position] != slot) {
+                    // Không nên xảy ra; dựng lại thứ tự này ở lần query sau
+                    orders[sortIndex][orderIndex] = null;
+                    ranks[sortIndex][orderIndex] = null;
+                    continue;
+                }
+                System.arraycopy(order, position + 1, order, position, size - position - 1);
+                orderSizes[sortIndex][orderIndex] = size - 1;
+                ranks[sortIndex][orderIndex] = null;
+            }
+        }
+    }
+
+    /**
+     * Vị trí đầu tiên trong order[0, size) không đứng trước (task, slot)
+     */
+    private int lowerBound(int[] order, int size, TaskFilter.SortBy sortBy, TaskFilter.SortOrder sortOrder,
+                           Task task, int slot) {
+        Comparator<Task> comparator = comparatorFor(sortBy);
+        boolean descending = sortOrder == TaskFilter.SortOrder.DESCENDING;
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int other = order[mid];
+            int comparison = comparator.compare(slots.get(other), task);
+            if (descending) comparison = -comparison;
+            if (comparison == 0) comparison = Integer.compare(other, slot);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static Comparator<Task> comparatorFor(TaskFilter.SortBy sortBy) {
+        switch (sortBy) {
+            case DUE_DATE:
+                return (task1, task2) -> compareDates(task1.getDueDate(), task2.getDueDate());
+            case PRIORITY:
+                return (task1, task2) -> Integer.compare(
+                        task1.getPriorityType().getRank(), task2.getPriorityType().getRank());
+            case STATUS:
+                return (task1, task2) -> Integer.compare(
+                        task1.getStatusType().getRank(), task2.getStatusType().getRank());
+            case RELEVANCE:
+                // Không có truy vấn tìm kiếm thì giữ thứ tự ban đầu
+                return (task1, task2) -> 0;
+            case DATE_CREATED:
+            default:
+                return (task1, task2) -> compareDates(task1.getCreatedAt(), task2.getCreatedAt());
+        }
+    }
+
+    /**
+     * So sánh ngày, null xếp trước (giống TaskFilter)
+     */
+    static int compareDates(Date date1, Date date2) {
+        if (date1 == null && date2 == null) return 0;
+        if (date1 == null) return -1;
+        if (date2 == null) return 1;
+        return date1.compareTo(date2);
+    }
+
+    private void unindex(int slot, Task task) {
+        if (task == null) return;
+        clearBit(byStatus, task.getStatusType(), slot);
+        clearBit(byPriority, task.getPriorityType(), slot);
+        if (task.getAssignedToName() != null) {
+            clearBit(byAssignee, task.getAssignedToName(), slot);
+        }
+    }
+
+    private void compact() {
+        List<Task> remaining = new ArrayList<>(live.cardinality());
+        for (int slot = live.nextSetBit(0); slot >= 0; slot = live.nextSetBit(slot + 1)) {
+            remaining.add(slots.get(slot));
+        }
+        setTasks(remaining);
+    }
+
+    private void invalidateOrders() {
+        for (int[][] perSort : orders) {
+            Arrays.fill(perSort, null);
+        }
+        for (int[][] perSort : ranks) {
+            Arrays.fill(perSort, null);
+        }
+        for (int[] perSort : orderSizes) {
+            Arrays.fill(perSort, 0);
+        }
+    }
+
+    private static <K> BitSet bitsFor(Map<K, BitSet> index, K key) {
+        BitSet bits = index.get(key);
+        if (bits == null) {
+            bits = new BitSet();
+            index.put(key, bits);
+        }
+        return bits;
+    }
+
+    private static <K> BitSet bitsOrEmpty(Map<K, BitSet> index, K key) {
+        BitSet bits = key != null ? index.get(key) : null;
+        return bits != null ? bits : new BitSet();
+    }
+
+    private static <K> void clearBit(Map<K, BitSet> index, K key, int slot) {
+        BitSet bits = index.get(key);
+        if (bits != null) {
+            bits.clear(slot);
+        }
+    }
+
+    // Giá trị filter không hợp lệ không khớp task nào (giống so sánh chuỗi cũ)
+    private static Task.Status statusOf(String value) {
+        for (Task.Status status : Task.Status.values()) {
+            if (status.getValue().equals(value)) return status;
+        }
+        return null;
+    }
+
+    private static Task.Priority priorityOf(String value) {
+        for (Task.Priority priority : Task.Priority.values()) {
+            if (priority.getValue().equals(value)) return priority;
+        }
+        return null;
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.projectmanager.utils;
+
+import com.example.projectmanager.models.Task;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Inverted index cho tìm kiếm task theo tiêu đề, mô tả và người phụ trách.
+ * Token được bỏ dấu tiếng Việt và lowercase ("Hoàn thành" -> "hoan", "thanh"),
+ * truy vấn khớp theo tiền tố của token nên gõ phím chỉ tốn tra cứu posting list.
+ *
+ * Document id là số nguyên do nơi dùng quản lý (slot của TaskQueryIndex).
+ */
+public class TaskSearchIndex {
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    // Trọng số xếp hạng theo trường chứa token
+    private static final int WEIGHT_TITLE = 3;
+    private static final int WEIGHT_ASSIGNEE = 2;
+    private static final int WEIGHT_DESCRIPTION = 1;
+
+    // token -> các document chứa token; TreeMap để lấy cả dải token cùng tiền tố
+    private final TreeMap<String, BitSet> postings = new TreeMap<>();
+
+    // document -> token và trọng số cao nhất, dùng khi xóa/cập nhật và khi xếp hạng
+    private final Map<Integer, Map<String, Integer>> documents = new HashMap<>();
+
+    /**
+     * Thêm hoặc thay thế nội dung tìm kiếm của một document
+     */
+    public void put(int docId, Task task) {
+        remove(docId);
+
+        Map<String, Integer> tokens = new HashMap<>();
+        addTokens(tokens, task.getTitle(), WEIGHT_TITLE);
+        addTokens(tokens, task.getAssignedToName(), WEIGHT_ASSIGNEE);
+        addTokens(tokens, task.getDescription(), WEIGHT_DESCRIPTION);
+
+        for (String token : tokens.keySet()) {
+            BitSet docs = postings.get(token);
+            if (docs == null) {
+                docs = new BitSet();
+                postings.put(token, docs);
+            }
+            docs.set(docId);
+        }
+        documents.put(docId, tokens);
+    }
+
+    public void remove(int docId) {
+        Map<String, Integer> tokens = documents.remove(docId);
+        if (tokens == null) return;
+
+        for (String token : tokens.keySet()) {
+            BitSet docs = postings.get(token);
+            if (docs == null) continue;
+            docs.clear(docId);
+            if (docs.isEmpty()) {
+                postings.remove(token);
+            }
+        }
+    }
+
+    public void clear() {
+        postings.clear();
+        documents.clear();
+    }
+
+    /**
+     * Các document có đủ mọi từ của truy vấn (mỗi từ khớp tiền tố của một token).
+     * Truy vấn rỗng trả về null, nghĩa là không lọc.
+     */
+    public BitSet search(String query) {
+        return search(tokenize(query));
+    }
+
+    BitSet search(List<String> terms) {
+        if (terms.isEmpty()) return null;
+
+        BitSet result = null;
+        for (String term : terms) {
+            BitSet termDocs = new BitSet();
+            for (BitSet docs : postings.subMap(term, true, term + Character.MAX_VALUE, false).values()) {
+                termDocs.or(docs);
+            }
+            if (result == null) {
+                result = termDocs;
+            } else {
+                result.and(termDocs);
+            }
+            if (result.isEmpty()) break;
+        }
+        return result;
+    }
+
+    /**
+     * Điểm liên quan của document với truy vấn: mỗi từ cộng trọng số trường tốt nhất,
+     * khớp trọn token được cộng thêm so với chỉ khớp tiền tố.
+     */
+    public int score(int docId, String query) {
+        return score(docId, tokenize(query));
+    }
+
+    int score(int docId, List<String> terms) {
+        Map<String, Integer> tokens = documents.get(docId);
+        if (tokens == null) return 0;
+
+        int score = 0;
+        for (String term : terms) {
+            int best = 0;
+            Integer exact = tokens.get(term);
+            if (exact != null) {
+                best = exact * 2;
+            } else {
+                for (Map.Entry<String, Integer> token : tokens.entrySet()) {
+                    if (token.getKey().startsWith(term) && token.getValue() > best) {
+                        best = token.getValue();
+                    }
+                }
+            }
+            score += best;
+        }
+        return score;
+    }
+
+    /**
+     * Bỏ dấu, lowercase và tách từ; dùng chung cho nội dung task và truy vấn
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) return tokens;
+
+        String folded = fold(text);
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean wordChar = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(folded.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * "Đã Hoàn Thành" -> "da hoan thanh"
+     */
+    public static String fold(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        String stripped = COMBINING_MARKS.matcher(decomposed).replaceAll("");
+        // đ/Đ không phải ký tự tổ hợp nên NFD không tách được
+        return stripped.replace('đ', 'd').replace('Đ', 'D').toLowerCase(Locale.ROOT);
+    }
+
+    private static void addTokens(Map<String, Integer> tokens, String text, int weight) {
+        for (String token : tokenize(text)) {
+            Integer current = tokens.get(token);
+            if (current == null || current < weight) {
+                tokens.put(token, weight);
+            }
+        }
+    }
+}
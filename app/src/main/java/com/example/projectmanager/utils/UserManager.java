@@ -125,9 +125,14 @@ public class UserManager {
      * Kiểm tra xem tin nhắn có phải của user hiện tại không
      */
     public boolean isCurrentUser(String senderName, String senderEmail) {
-        String currentDisplayName = getCurrentUserDisplayName();
-        String currentEmail = getCurrentUserEmail();
+        return isSameUser(senderName, senderEmail, getCurrentUserDisplayName(), getCurrentUserEmail());
+    }
 
+    /**
+     * So sánh người gửi với tên/email đã đọc sẵn; dùng được ngoài main thread
+     */
+    public static boolean isSameUser(String senderName, String senderEmail,
+                                     String currentDisplayName, String currentEmail) {
         // So sánh theo tên hiển thị
         if (senderName != null && currentDisplayName != null) {
             if (senderName.equals(currentDisplayName)) {
@@ -5,24 +5,55 @@ import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
 
 import com.example.projectmanager.models.Budget;
+import com.example.projectmanager.models.BudgetAggregate;
+import com.example.projectmanager.models.BudgetSeriesPoint;
+import com.example.projectmanager.models.BudgetTable;
 import com.example.projectmanager.repositories.BudgetRepository;
+import com.example.projectmanager.repositories.BudgetRollupReconciler;
+import com.example.projectmanager.repositories.BudgetRollups;
+import com.example.projectmanager.repositories.BudgetSeries;
+import com.google.firebase.Timestamp;
 import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
 
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * ViewModel cho Budget Management với pagination
  */
 public class BudgetViewModel extends ViewModel {
     private static final String TAG = "BudgetViewModel";
+    // Một thread nên các bảng được dựng đúng thứ tự phát ra
+    private static final ExecutorService tableExecutor = Executors.newSingleThreadExecutor();
 
     private BudgetRepository budgetRepository;
     private MutableLiveData<List<Map<String, Object>>> budgets;
     private MutableLiveData<String> errorMessage;
     private MutableLiveData<Boolean> isLoading;
     private MutableLiveData<Boolean> hasMoreBudgets;
+    private MutableLiveData<BudgetAggregate.Snapshot> budgetSummary;
+    private MutableLiveData<List<BudgetSeriesPoint>> budgetSeries;
+    private MutableLiveData<BudgetTable> budgetTable;
+    private MutableLiveData<BudgetRollupReconciler.Report> rollupReport;
+
+    // Khoảng thời gian của biểu đồ xu hướng đang hiển thị, null nếu chưa tải
+    private BudgetSeries.Granularity seriesGranularity;
+    private int seriesBucketCount;
+    // Độ chia của dữ liệu đang nằm trong budgetSeries
+    private BudgetSeries.Granularity loadedSeriesGranularity;
+
+    // Tổng cộng dồn của các khoản đã tải, cập nhật theo từng thao tác thay vì tính lại từ danh sách.
+    // Chỉ hiển thị khi không đọc được budget_rollups, vì danh sách phân trang chưa chắc đã đủ.
+    private final BudgetAggregate aggregate = new BudgetAggregate();
+    private boolean summaryFromRollups = true;
+    // Tăng mỗi lần tải rollup để bỏ qua kết quả của lần tải cũ hơn
+    private int rollupRequest = 0;
 
     // Pagination state
     private DocumentSnapshot lastBudgetDocument = null;
@@ -34,6 +65,10 @@ public class BudgetViewModel extends ViewModel {
         errorMessage = new MutableLiveData<>();
         isLoading = new MutableLiveData<>(false);
         hasMoreBudgets = new MutableLiveData<>(false);
+        budgetSummary = new MutableLiveData<>();
+        budgetSeries = new MutableLiveData<>();
+        budgetTable = new MutableLiveData<>();
+        rollupReport = new MutableLiveData<>();
     }
 
     // Public methods for the Activity to observe
@@ -53,6 +88,129 @@ public class BudgetViewModel extends ViewModel {
         return hasMoreBudgets;
     }
 
+    /**
+     * Tổng theo danh mục × trạng thái duyệt của toàn bộ ngân sách, đọc từ budget_rollups
+     * (nếu không đọc được thì là tổng của các khoản đã tải)
+     */
+    public LiveData<BudgetAggregate.Snapshot> getBudgetSummary() {
+        return budgetSummary;
+    }
+
+    /**
+     * Chi tiêu theo thời gian, mỗi khoảng một điểm (kể cả khoảng không có khoản nào)
+     */
+    public LiveData<List<BudgetSeriesPoint>> getBudgetSeries() {
+        return budgetSeries;
+    }
+
+    /**
+     * Các khoản đã tải dạng cột, dựng ở background mỗi khi danh sách thay đổi
+     */
+    public LiveData<BudgetTable> getBudgetTable() {
+        return budgetTable;
+    }
+
+    public BudgetSeries.Granularity getLoadedSeriesGranularity() {
+        return loadedSeriesGranularity;
+    }
+
+    /**
+     * Kết quả lần kiểm tra budget_rollups gần nhất (xem checkBudgetRollups)
+     */
+    public LiveData<BudgetRollupReconciler.Report> getRollupReport() {
+        return rollupReport;
+    }
+
+    /**
+     * Tải tổng toàn dự án và tổng từng danh mục từ budget_rollups, không phụ thuộc số khoản đã tải
+     */
+    public void loadBudgetRollups() {
+        int request = ++rollupRequest;
+        budgetRepository.getBudgetRollups(BudgetRollups.SCOPE_PROJECT, new BudgetRepository.OnBudgetsLoadedListener() {
+            @Override
+            public void onBudgetsLoaded(List<Map<String, Object>> projectRollups) {
+                if (request != rollupRequest) return;
+                budgetRepository.getBudgetRollups(BudgetRollups.SCOPE_CATEGORY, new BudgetRepository.OnBudgetsLoadedListener() {
+                    @Override
+                    public void onBudgetsLoaded(List<Map<String, Object>> categoryRollups) {
+                        if (request != rollupRequest) return;
+                        List<Map<String, Object>> rollups = new ArrayList<>(projectRollups);
+                        rollups.addAll(categoryRollups);
+                        summaryFromRollups = true;
+                        budgetSummary.setValue(BudgetAggregate.fromRollups(rollups));
+                    }
+
+                    @Override
+                    public void onError(String error) {
+                        onRollupsFailed(request, error);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(String error) {
+                onRollupsFailed(request, error);
+            }
+        });
+    }
+
+    private void onRollupsFailed(int request, String error) {
+        if (request != rollupRequest) return;
+        summaryFromRollups = false;
+        budgetSummary.setValue(aggregate.snapshot());
+        errorMessage.setValue(error);
+    }
+
+    /**
+     * So budget_rollups / budget_series với bảng budgets và báo các chỗ lệch qua getRollupReport.
+     * Với repair = true thì ghi đè các document bị lệch rồi tải lại thống kê.
+     */
+    public void checkBudgetRollups(boolean repair) {
+        isLoading.setValue(true);
+        new BudgetRollupReconciler(FirebaseFirestore.getInstance()).reconcile(repair,
+                new BudgetRollupReconciler.OnReconcileListener() {
+                    @Override
+                    public void onComplete(BudgetRollupReconciler.Report report) {
+                        isLoading.setValue(false);
+                        rollupReport.setValue(report);
+                        if (report.repaired) {
+                            refreshStatistics();
+                        }
+                    }
+
+                    @Override
+                    public void onError(String error) {
+                        isLoading.setValue(false);
+                        errorMessage.setValue(error);
+                    }
+                });
+    }
+
+    /**
+     * Tải bucketCount khoảng gần nhất (tính cả khoảng hiện tại) từ budget_series
+     */
+    public void loadBudgetSeries(BudgetSeries.Granularity granularity, int bucketCount) {
+        seriesGranularity = granularity;
+        seriesBucketCount = bucketCount;
+
+        Date end = granularity.shift(granularity.bucketStart(new Date()), 1);
+        Date start = granularity.shift(end, -bucketCount);
+        budgetRepository.getBudgetSeries(granularity, start, end, new BudgetRepository.OnBudgetsLoadedListener() {
+            @Override
+            public void onBudgetsLoaded(List<Map<String, Object>> buckets) {
+                // Bỏ qua kết quả của lần tải trước nếu người dùng đã đổi khoảng thời gian
+                if (granularity != seriesGranularity || bucketCount != seriesBucketCount) return;
+                loadedSeriesGranularity = granularity;
+                budgetSeries.setValue(toSeriesPoints(granularity, start, bucketCount, buckets));
+            }
+
+            @Override
+            public void onError(String error) {
+                errorMessage.setValue(error);
+            }
+        });
+    }
+
     /**
      * Enable pagination mode
      */
@@ -61,6 +219,7 @@ public class BudgetViewModel extends ViewModel {
         hasMoreBudgets.setValue(false);
         lastBudgetDocument = null;
         loadBudgetsWithPagination();
+        loadBudgetRollups();
     }
 
     /**
@@ -118,10 +277,14 @@ public class BudgetViewModel extends ViewModel {
         if (lastBudgetDocument == null) {
             // First load
             currentBudgets.clear();
+            aggregate.clear();
         }
 
         currentBudgets.addAll(newBudgets);
-        budgets.setValue(currentBudgets);
+        for (Map<String, Object> budget : newBudgets) {
+            aggregate.put(budget);
+        }
+        publish(currentBudgets);
         hasMoreBudgets.setValue(hasMore);
         lastBudgetDocument = lastDocument;
     }
@@ -131,10 +294,15 @@ public class BudgetViewModel extends ViewModel {
      */
     public void loadBudgets() {
         isLoading.setValue(true);
+        loadBudgetRollups();
         budgetRepository.getAllBudgets(new BudgetRepository.OnBudgetsLoadedListener() {
             @Override
             public void onBudgetsLoaded(List<Map<String, Object>> budgetList) {
-                budgets.setValue(budgetList);
+                aggregate.clear();
+                for (Map<String, Object> budget : budgetList) {
+                    aggregate.put(budget);
+                }
+                publish(budgetList);
                 isLoading.setValue(false);
             }
 
@@ -153,6 +321,7 @@ public class BudgetViewModel extends ViewModel {
         if (isPaginationMode) {
             lastBudgetDocument = null;
             loadBudgetsWithPagination();
+            loadBudgetRollups();
         } else {
             loadBudgets();
         }
@@ -167,12 +336,13 @@ public class BudgetViewModel extends ViewModel {
             @Override
             public void onSuccess(String message) {
                 isLoading.setValue(false);
-                // In pagination mode, refresh to show new budget at the top
-                if (isPaginationMode) {
-                    refreshBudgets();
-                } else {
-                    loadBudgets();
-                }
+                // Khoản mới nhất nằm đầu danh sách (sắp theo createdAt giảm dần), không cần tải lại
+                Map<String, Object> added = budget.toMap();
+                List<Map<String, Object>> updated = copyOfBudgets();
+                updated.add(0, added);
+                aggregate.put(added);
+                publish(updated);
+                refreshStatistics();
             }
 
             @Override
@@ -188,17 +358,22 @@ public class BudgetViewModel extends ViewModel {
      */
     public void updateBudget(Budget budget) {
         isLoading.setValue(true);
-        budget.setUpdatedAt(new java.util.Date()); // Set update timestamp
+        budget.setUpdatedAt(new Date()); // Set update timestamp
         budgetRepository.updateBudget(budget, new BudgetRepository.OnBudgetOperationListener() {
             @Override
             public void onSuccess(String message) {
                 isLoading.setValue(false);
-                // Reload data after successful update
-                if (isPaginationMode) {
-                    refreshBudgets();
+                Map<String, Object> changed = budget.toMap();
+                List<Map<String, Object>> updated = copyOfBudgets();
+                int index = indexOf(updated, budget.getId());
+                if (index >= 0) {
+                    updated.set(index, changed);
                 } else {
-                    loadBudgets();
+                    updated.add(0, changed);
                 }
+                aggregate.put(changed);
+                publish(updated);
+                refreshStatistics();
             }
 
             @Override
@@ -218,12 +393,7 @@ public class BudgetViewModel extends ViewModel {
             @Override
             public void onSuccess(String message) {
                 isLoading.setValue(false);
-                // Reload data after successful approval
-                if (isPaginationMode) {
-                    refreshBudgets();
-                } else {
-                    loadBudgets();
-                }
+                applyApproval(budgetId, true);
             }
 
             @Override
@@ -243,12 +413,7 @@ public class BudgetViewModel extends ViewModel {
             @Override
             public void onSuccess(String message) {
                 isLoading.setValue(false);
-                // Reload data after successful revocation
-                if (isPaginationMode) {
-                    refreshBudgets();
-                } else {
-                    loadBudgets();
-                }
+                applyApproval(budgetId, false);
             }
 
             @Override
@@ -268,12 +433,14 @@ public class BudgetViewModel extends ViewModel {
             @Override
             public void onSuccess(String message) {
                 isLoading.setValue(false);
-                // Reload data after successful deletion
-                if (isPaginationMode) {
-                    refreshBudgets();
-                } else {
-                    loadBudgets();
+                List<Map<String, Object>> updated = copyOfBudgets();
+                int index = indexOf(updated, budgetId);
+                if (index >= 0) {
+                    updated.remove(index);
                 }
+                aggregate.remove(budgetId);
+                publish(updated);
+                refreshStatistics();
             }
 
             @Override
@@ -284,6 +451,96 @@ public class BudgetViewModel extends ViewModel {
         });
     }
 
+    /**
+     * Đổi trạng thái duyệt của khoản trong danh sách đã tải và trong tổng hợp
+     */
+    private void applyApproval(String budgetId, boolean approved) {
+        List<Map<String, Object>> updated = copyOfBudgets();
+        int index = indexOf(updated, budgetId);
+        if (index >= 0) {
+            Map<String, Object> changed = new HashMap<>(updated.get(index));
+            changed.put("approved", approved);
+            changed.put("updatedAt", new Date());
+            updated.set(index, changed);
+        }
+        aggregate.setApproved(budgetId, approved);
+        publish(updated);
+        loadBudgetRollups();
+    }
+
+    // Rollup và series được cập nhật cùng transaction với khoản ngân sách, nên đọc lại sau mỗi thao tác
+    private void refreshStatistics() {
+        loadBudgetRollups();
+        if (seriesGranularity != null) {
+            loadBudgetSeries(seriesGranularity, seriesBucketCount);
+        }
+    }
+
+    // Điền các khoảng không có document bằng điểm 0 để trục thời gian liên tục
+    private static List<BudgetSeriesPoint> toSeriesPoints(BudgetSeries.Granularity granularity, Date start,
+                                                          int bucketCount, List<Map<String, Object>> buckets) {
+        Map<Long, Map<String, Object>> byStart = new HashMap<>();
+        for (Map<String, Object> bucket : buckets) {
+            Object bucketStart = bucket.get("bucketStart");
+            if (bucketStart instanceof Timestamp) {
+                byStart.put(((Timestamp) bucketStart).toDate().getTime(), bucket);
+            } else if (bucketStart instanceof Date) {
+                byStart.put(((Date) bucketStart).getTime(), bucket);
+            }
+        }
+
+        List<BudgetSeriesPoint> points = new ArrayList<>(bucketCount);
+        Date bucketStart = start;
+        for (int i = 0; i < bucketCount; i++) {
+            Map<String, Object> bucket = byStart.get(bucketStart.getTime());
+            points.add(bucket != null ? toSeriesPoint(bucketStart, bucket) : BudgetSeriesPoint.empty(bucketStart));
+            bucketStart = granularity.shift(bucketStart, 1);
+        }
+        return points;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BudgetSeriesPoint toSeriesPoint(Date bucketStart, Map<String, Object> bucket) {
+        long[] amounts = new long[BudgetAggregate.CATEGORY_COUNT];
+        Object amountsValue = bucket.get("amountsMinor");
+        if (amountsValue instanceof Map) {
+            Map<String, Object> byCategory = (Map<String, Object>) amountsValue;
+            for (int i = 0; i < BudgetAggregate.CATEGORY_COUNT; i++) {
+                Object amount = byCategory.get(BudgetAggregate.CATEGORIES[i]);
+                if (amount instanceof Number) {
+                    amounts[i] = ((Number) amount).longValue();
+                }
+            }
+        }
+        Object count = bucket.get("count");
+        return new BudgetSeriesPoint(bucketStart, amounts, count instanceof Number ? ((Number) count).longValue() : 0);
+    }
+
+    // Bản sao để Activity không thấy danh sách bị sửa giữa hai lần phát
+    private List<Map<String, Object>> copyOfBudgets() {
+        List<Map<String, Object>> current = budgets.getValue();
+        return current != null ? new ArrayList<>(current) : new ArrayList<>();
+    }
+
+    private static int indexOf(List<Map<String, Object>> budgetList, String budgetId) {
+        for (int i = 0; i < budgetList.size(); i++) {
+            if (budgetId != null && budgetId.equals(budgetList.get(i).get("id"))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void publish(List<Map<String, Object>> budgetList) {
+        budgets.setValue(budgetList);
+        if (!summaryFromRollups) {
+            budgetSummary.setValue(aggregate.snapshot());
+        }
+        // Bản sao vì danh sách phân trang còn được nối thêm trên main thread
+        List<Map<String, Object>> rows = new ArrayList<>(budgetList);
+        tableExecutor.execute(() -> budgetTable.postValue(BudgetTable.of(rows)));
+    }
+
     @Override
     protected void onCleared() {
         super.onCleared();
@@ -1,45 +1,101 @@
 package com.example.projectmanager.viewmodels;
 
+import android.app.Application;
 import android.util.Log;
 
+import androidx.annotation.NonNull;
+import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
-import androidx.lifecycle.ViewModel;
 
 import com.example.projectmanager.models.Task;
+import com.example.projectmanager.repositories.TaskBulkOperations;
 import com.example.projectmanager.repositories.TaskRepository;
+import com.example.projectmanager.repositories.TaskSnapshotIndex;
+import com.example.projectmanager.utils.QuerySubscriptionRegistry;
+import com.example.projectmanager.utils.TaskFilter;
+import com.example.projectmanager.utils.TaskQueryIndex;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.ListenerRegistration;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
-public class TaskViewModel extends ViewModel {
+public class TaskViewModel extends AndroidViewModel {
     private static final String TAG = "TaskViewModel";
 
     private TaskRepository taskRepository;
     private FirebaseAuth firebaseAuth;
 
-    // LiveData for tasks
-    private MutableLiveData<List<Map<String, Object>>> tasks = new MutableLiveData<>();
+    // LiveData for tasks: danh sách và thay đổi đi cùng một giá trị
+    private MutableLiveData<TaskListUpdate> tasks = new MutableLiveData<>();
+    private long taskListVersion = TaskListUpdate.NO_VERSION;
     private MutableLiveData<String> errorMessage = new MutableLiveData<>();
     private MutableLiveData<Boolean> isLoading = new MutableLiveData<>();
     private MutableLiveData<Boolean> hasMoreTasks = new MutableLiveData<>();
+    // Tiến độ thao tác hàng loạt: {đã xử lý, tổng số}
+    private MutableLiveData<int[]> bulkProgress = new MutableLiveData<>();
+    private MutableLiveData<TaskBulkOperations.Result> bulkResult = new MutableLiveData<>();
 
     // Pagination state
     private DocumentSnapshot lastTaskDocument = null;
     private boolean isPaginationMode = false;
     private String currentUserId = null; // For filtering tasks
 
-    public TaskViewModel() {
-        taskRepository = new TaskRepository();
+    // Real-time listener hiện tại; mỗi lần đổi query thì gỡ listener cũ trước
+    private ListenerRegistration tasksRegistration = null;
+
+    // Index cho lọc/tìm kiếm, cập nhật dần theo snapshot thay vì quét lại danh sách mỗi lần gõ phím
+    private final TaskQueryIndex queryIndex = new TaskQueryIndex();
+
+    public TaskViewModel(@NonNull Application application) {
+        super(application);
+        taskRepository = new TaskRepository(application);
         firebaseAuth = FirebaseAuth.getInstance();
         loadTasks();
     }
 
+    /**
+     * Một phiên bản của danh sách tasks, kèm các thay đổi so với phiên bản baseVersion.
+     * LiveData chỉ giữ giá trị mới nhất, nên màn hình có thể bỏ lỡ vài phiên bản (đang ở background,
+     * xoay màn hình); khi đó changes không áp dụng được và phải vẽ lại toàn bộ.
+     */
+    public static final class TaskListUpdate {
+        public static final long NO_VERSION = -1;
+
+        private final List<Task> tasks;
+        private final List<TaskSnapshotIndex.Change> changes;
+        private final long baseVersion;
+        private final long version;
+
+        TaskListUpdate(List<Task> tasks, List<TaskSnapshotIndex.Change> changes, long baseVersion, long version) {
+            this.tasks = Collections.unmodifiableList(new ArrayList<>(tasks));
+            this.changes = changes != null ? Collections.unmodifiableList(new ArrayList<>(changes)) : null;
+            this.baseVersion = baseVersion;
+            this.version = version;
+        }
+
+        public List<Task> getTasks() {
+            return tasks;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Các thay đổi để đi từ displayedVersion tới phiên bản này, null nếu phải vẽ lại toàn bộ
+         */
+        public List<TaskSnapshotIndex.Change> changesSince(long displayedVersion) {
+            return displayedVersion != NO_VERSION && displayedVersion == baseVersion ? changes : null;
+        }
+    }
+
     // Getters for LiveData
-    public LiveData<List<Map<String, Object>>> getTasks() {
+    public LiveData<TaskListUpdate> getTasks() {
         return tasks;
     }
 
@@ -55,6 +111,14 @@ public class TaskViewModel extends ViewModel {
         return hasMoreTasks;
     }
 
+    public LiveData<int[]> getBulkProgress() {
+        return bulkProgress;
+    }
+
+    public LiveData<TaskBulkOperations.Result> getBulkResult() {
+        return bulkResult;
+    }
+
     // Enable pagination mode
     public void enablePagination() {
         isPaginationMode = true;
@@ -68,12 +132,15 @@ public class TaskViewModel extends ViewModel {
         Log.d(TAG, "Loading tasks with pagination...");
         isLoading.setValue(true);
 
+        // Chế độ phân trang không dùng real-time listener
+        setTasksRegistration(null);
+
         if (currentUserId != null) {
             // Load only user's tasks with pagination
             taskRepository.getTasksForUserWithPagination(currentUserId, lastTaskDocument,
                     new TaskRepository.OnPagedTasksLoadedListener() {
                         @Override
-                        public void onTasksLoaded(List<Map<String, Object>> newTasks, boolean hasMore, DocumentSnapshot lastDocument) {
+                        public void onTasksLoaded(List<Task> newTasks, boolean hasMore, DocumentSnapshot lastDocument) {
                             handlePaginatedTasksLoaded(newTasks, hasMore, lastDocument);
                         }
 
@@ -89,7 +156,7 @@ public class TaskViewModel extends ViewModel {
             taskRepository.getTasksWithPagination(lastTaskDocument,
                     new TaskRepository.OnPagedTasksLoadedListener() {
                         @Override
-                        public void onTasksLoaded(List<Map<String, Object>> newTasks, boolean hasMore, DocumentSnapshot lastDocument) {
+                        public void onTasksLoaded(List<Task> newTasks, boolean hasMore, DocumentSnapshot lastDocument) {
                             handlePaginatedTasksLoaded(newTasks, hasMore, lastDocument);
                         }
 
@@ -116,7 +183,7 @@ public class TaskViewModel extends ViewModel {
             taskRepository.getTasksForUserWithPagination(currentUserId, lastTaskDocument,
                     new TaskRepository.OnPagedTasksLoadedListener() {
                         @Override
-                        public void onTasksLoaded(List<Map<String, Object>> newTasks, boolean hasMore, DocumentSnapshot lastDocument) {
+                        public void onTasksLoaded(List<Task> newTasks, boolean hasMore, DocumentSnapshot lastDocument) {
                             handlePaginatedTasksLoaded(newTasks, hasMore, lastDocument);
                         }
 
@@ -131,7 +198,7 @@ public class TaskViewModel extends ViewModel {
             taskRepository.getTasksWithPagination(lastTaskDocument,
                     new TaskRepository.OnPagedTasksLoadedListener() {
                         @Override
-                        public void onTasksLoaded(List<Map<String, Object>> newTasks, boolean hasMore, DocumentSnapshot lastDocument) {
+                        public void onTasksLoaded(List<Task> newTasks, boolean hasMore, DocumentSnapshot lastDocument) {
                             handlePaginatedTasksLoaded(newTasks, hasMore, lastDocument);
                         }
 
@@ -145,27 +212,36 @@ public class TaskViewModel extends ViewModel {
         }
     }
 
-    private void handlePaginatedTasksLoaded(List<Map<String, Object>> newTasks, boolean hasMore, DocumentSnapshot lastDocument) {
+    private void handlePaginatedTasksLoaded(List<Task> newTasks, boolean hasMore, DocumentSnapshot lastDocument) {
         isLoading.setValue(false);
 
-        List<Map<String, Object>> currentTasks = tasks.getValue();
-        if (currentTasks == null) {
-            currentTasks = new ArrayList<>();
-        }
+        TaskListUpdate current = tasks.getValue();
+        List<Task> currentTasks = current != null ? new ArrayList<>(current.getTasks()) : new ArrayList<>();
 
         if (lastTaskDocument == null) {
             // First load
             currentTasks.clear();
+            queryIndex.clear();
         }
 
         currentTasks.addAll(newTasks);
-        tasks.setValue(currentTasks);
+        for (Task task : newTasks) {
+            queryIndex.upsert(task);
+        }
+        publishTasks(currentTasks, null);
         hasMoreTasks.setValue(hasMore);
         lastTaskDocument = lastDocument;
 
         Log.d(TAG, "Tasks loaded successfully: " + newTasks.size() + " new tasks, total: " + currentTasks.size() + ", hasMore: " + hasMore);
     }
 
+    /**
+     * Lọc, tìm kiếm (bỏ dấu, theo tiền tố) và sắp xếp trên các tasks đang hiển thị
+     */
+    public List<Task> filterTasks(TaskFilter.FilterCriteria criteria) {
+        return TaskFilter.filterAndSortTasks(queryIndex, criteria);
+    }
+
     // Set filter to show only user's tasks
     public void setMyTasksFilter(boolean showOnlyMyTasks) {
         if (showOnlyMyTasks) {
@@ -190,21 +266,11 @@ public class TaskViewModel extends ViewModel {
         Log.d(TAG, "Loading tasks...");
         isLoading.setValue(true);
 
-        taskRepository.getTasks(new TaskRepository.OnTasksLoadedListener() {
-            @Override
-            public void onTasksLoaded(List<Map<String, Object>> taskList) {
-                Log.d(TAG, "Tasks loaded successfully: " + taskList.size() + " tasks");
-                isLoading.setValue(false);
-                tasks.setValue(taskList);
-            }
-
-            @Override
-            public void onError(String error) {
-                Log.e(TAG, "Error loading tasks: " + error);
-                isLoading.setValue(false);
-                errorMessage.setValue(error);
-            }
-        });
+        // Bỏ đăng ký cũ trước: nếu còn, registry dùng lại listener cũ và bỏ qua dữ liệu vừa nạp từ máy
+        setTasksRegistration(null);
+        // Tasks đã lưu trên máy được phát ngay (đồng bộ), Firestore chỉ gửi phần thay đổi
+        setTasksRegistration(taskRepository.getTasksOfflineFirst(
+                realtimeListener("Tasks loaded successfully", "Error loading tasks")));
     }
 
     // Refresh tasks (reset pagination)
@@ -222,21 +288,9 @@ public class TaskViewModel extends ViewModel {
         Log.d(TAG, "Loading tasks for user: " + userId);
         isLoading.setValue(true);
 
-        taskRepository.getTasksForUser(userId, new TaskRepository.OnTasksLoadedListener() {
-            @Override
-            public void onTasksLoaded(List<Map<String, Object>> taskList) {
-                Log.d(TAG, "User tasks loaded successfully: " + taskList.size() + " tasks");
-                isLoading.setValue(false);
-                tasks.setValue(taskList);
-            }
-
-            @Override
-            public void onError(String error) {
-                Log.e(TAG, "Error loading user tasks: " + error);
-                isLoading.setValue(false);
-                errorMessage.setValue(error);
-            }
-        });
+        setTasksRegistration(null);
+        setTasksRegistration(taskRepository.getTasksForUserOfflineFirst(userId,
+                realtimeListener("User tasks loaded successfully", "Error loading user tasks")));
     }
 
     // Load tasks created by specific user
@@ -244,21 +298,8 @@ public class TaskViewModel extends ViewModel {
         Log.d(TAG, "Loading tasks created by user: " + userId);
         isLoading.setValue(true);
 
-        taskRepository.getTasksCreatedByUser(userId, new TaskRepository.OnTasksLoadedListener() {
-            @Override
-            public void onTasksLoaded(List<Map<String, Object>> taskList) {
-                Log.d(TAG, "Created tasks loaded successfully: " + taskList.size() + " tasks");
-                isLoading.setValue(false);
-                tasks.setValue(taskList);
-            }
-
-            @Override
-            public void onError(String error) {
-                Log.e(TAG, "Error loading created tasks: " + error);
-                isLoading.setValue(false);
-                errorMessage.setValue(error);
-            }
-        });
+        setTasksRegistration(taskRepository.getTasksCreatedByUser(userId,
+                realtimeListener("Created tasks loaded successfully", "Error loading created tasks")));
     }
 
     // Add new task
@@ -379,26 +420,68 @@ public class TaskViewModel extends ViewModel {
                 });
     }
 
-    // Get tasks by status
-    public void getTasksByStatus(String status) {
-        Log.d(TAG, "Loading tasks with status: " + status);
+    // Bulk status change for selected tasks
+    public void bulkUpdateTaskStatus(Collection<String> taskIds, String status) {
+        Log.d(TAG, "Bulk updating status of " + taskIds.size() + " tasks to: " + status);
+        isLoading.setValue(true);
+        taskRepository.bulkUpdateTaskStatus(taskIds, status, getCurrentUserId(),
+                bulkListener("Cập nhật trạng thái"));
+    }
+
+    // Bulk reassign selected tasks
+    public void bulkReassignTasks(Collection<String> taskIds, String newAssigneeId, String newAssigneeName) {
+        Log.d(TAG, "Bulk reassigning " + taskIds.size() + " tasks to: " + newAssigneeName);
+        isLoading.setValue(true);
+        taskRepository.bulkReassignTasks(taskIds, newAssigneeId, newAssigneeName, getCurrentUserId(),
+                bulkListener("Phân việc lại"));
+    }
+
+    // Bulk delete selected tasks
+    public void bulkDeleteTasks(Collection<String> taskIds) {
+        Log.d(TAG, "Bulk deleting " + taskIds.size() + " tasks");
         isLoading.setValue(true);
+        taskRepository.bulkDeleteTasks(taskIds, getCurrentUserId(), bulkListener("Xóa"));
+    }
+
+    private TaskBulkOperations.OnBulkOperationListener bulkListener(String operationName) {
+        return new TaskBulkOperations.OnBulkOperationListener() {
+            @Override
+            public void onProgress(int processed, int total) {
+                bulkProgress.setValue(new int[]{processed, total});
+            }
 
-        taskRepository.getTasksByStatus(status, new TaskRepository.OnTasksLoadedListener() {
             @Override
-            public void onTasksLoaded(List<Map<String, Object>> taskList) {
-                Log.d(TAG, "Tasks by status loaded successfully: " + taskList.size() + " tasks");
+            public void onComplete(TaskBulkOperations.Result result) {
+                Log.d(TAG, operationName + ": " + result.getSucceededIds().size() + "/" + result.getTotal() + " succeeded");
                 isLoading.setValue(false);
-                tasks.setValue(taskList);
+                bulkResult.setValue(result);
+                if (result.hasFailures()) {
+                    errorMessage.setValue(operationName + " thất bại " + result.getFailures().size()
+                            + "/" + result.getTotal() + " task");
+                }
+                // No need to reload, real-time listener will update automatically
             }
 
             @Override
             public void onError(String error) {
-                Log.e(TAG, "Error loading tasks by status: " + error);
+                Log.e(TAG, "Error in bulk operation: " + error);
                 isLoading.setValue(false);
                 errorMessage.setValue(error);
             }
-        });
+        };
+    }
+
+    private String getCurrentUserId() {
+        return firebaseAuth.getCurrentUser() != null ? firebaseAuth.getCurrentUser().getUid() : null;
+    }
+
+    // Get tasks by status
+    public void getTasksByStatus(String status) {
+        Log.d(TAG, "Loading tasks with status: " + status);
+        isLoading.setValue(true);
+
+        setTasksRegistration(taskRepository.getTasksByStatus(status,
+                realtimeListener("Tasks by status loaded successfully", "Error loading tasks by status")));
     }
 
     // Get tasks by priority
@@ -406,21 +489,8 @@ public class TaskViewModel extends ViewModel {
         Log.d(TAG, "Loading tasks with priority: " + priority);
         isLoading.setValue(true);
 
-        taskRepository.getTasksByPriority(priority, new TaskRepository.OnTasksLoadedListener() {
-            @Override
-            public void onTasksLoaded(List<Map<String, Object>> taskList) {
-                Log.d(TAG, "Tasks by priority loaded successfully: " + taskList.size() + " tasks");
-                isLoading.setValue(false);
-                tasks.setValue(taskList);
-            }
-
-            @Override
-            public void onError(String error) {
-                Log.e(TAG, "Error loading tasks by priority: " + error);
-                isLoading.setValue(false);
-                errorMessage.setValue(error);
-            }
-        });
+        setTasksRegistration(taskRepository.getTasksByPriority(priority,
+                realtimeListener("Tasks by priority loaded successfully", "Error loading tasks by priority")));
     }
 
     // Add comment to task
@@ -453,12 +523,13 @@ public class TaskViewModel extends ViewModel {
                 });
     }
 
-    // Update task attachment
-    public void updateTaskAttachment(String taskId, String attachmentUrl, String attachmentName) {
+    // Update task attachment; attachmentHash is FileUploadService.UploadedFile.blobHash
+    public void updateTaskAttachment(String taskId, String attachmentUrl, String attachmentName,
+                                     String attachmentHash) {
         Log.d(TAG, "Updating task attachment: " + taskId);
         isLoading.setValue(true);
 
-        taskRepository.updateTaskAttachment(taskId, attachmentUrl, attachmentName,
+        taskRepository.updateTaskAttachment(taskId, attachmentUrl, attachmentName, attachmentHash,
                 new TaskRepository.OnTaskUpdatedListener() {
                     @Override
                     public void onTaskUpdated() {
@@ -487,21 +558,8 @@ public class TaskViewModel extends ViewModel {
         Log.d(TAG, "Loading tasks due within " + daysFromNow + " days");
         isLoading.setValue(true);
 
-        taskRepository.getTasksDueSoon(daysFromNow, new TaskRepository.OnTasksLoadedListener() {
-            @Override
-            public void onTasksLoaded(List<Map<String, Object>> taskList) {
-                Log.d(TAG, "Tasks due soon loaded successfully: " + taskList.size() + " tasks");
-                isLoading.setValue(false);
-                tasks.setValue(taskList);
-            }
-
-            @Override
-            public void onError(String error) {
-                Log.e(TAG, "Error loading tasks due soon: " + error);
-                isLoading.setValue(false);
-                errorMessage.setValue(error);
-            }
-        });
+        setTasksRegistration(taskRepository.getTasksDueSoon(daysFromNow,
+                realtimeListener("Tasks due soon loaded successfully", "Error loading tasks due soon")));
     }
 
     // Update task due date
@@ -533,39 +591,102 @@ public class TaskViewModel extends ViewModel {
     }
 
     // Check if current user has permission to edit task
-    public boolean canEditTask(Map<String, Object> task) {
+    public boolean canEditTask(Task task) {
         if (firebaseAuth.getCurrentUser() == null) return false;
 
         String currentUserId = firebaseAuth.getCurrentUser().getUid();
-        String assignedToUserId = (String) task.get("assignedToUserId");
-        String assignerUserId = (String) task.get("assignerUserId");
+        String assignedToUserId = task.getAssignedToUserId();
+        String assignerUserId = task.getAssignerUserId();
 
         return currentUserId.equals(assignedToUserId) || currentUserId.equals(assignerUserId);
     }
 
     // Check if current user can update task status
-    public boolean canUpdateTaskStatus(Map<String, Object> task) {
+    public boolean canUpdateTaskStatus(Task task) {
         if (firebaseAuth.getCurrentUser() == null) return false;
 
         String currentUserId = firebaseAuth.getCurrentUser().getUid();
-        String assignedToUserId = (String) task.get("assignedToUserId");
+        String assignedToUserId = task.getAssignedToUserId();
 
         return currentUserId.equals(assignedToUserId);
     }
 
     // Check if current user is the task assigner
-    public boolean isTaskAssigner(Map<String, Object> task) {
+    public boolean isTaskAssigner(Task task) {
         if (firebaseAuth.getCurrentUser() == null) return false;
 
         String currentUserId = firebaseAuth.getCurrentUser().getUid();
-        String assignerUserId = (String) task.get("assignerUserId");
+        String assignerUserId = task.getAssignerUserId();
 
         return currentUserId.equals(assignerUserId);
     }
 
+    /**
+     * Gỡ listener cũ (nếu có) và giữ listener mới để gỡ khi đổi query hoặc onCleared()
+     */
+    private void setTasksRegistration(ListenerRegistration registration) {
+        if (tasksRegistration != null) {
+            tasksRegistration.remove();
+        }
+        tasksRegistration = registration;
+    }
+
+    /**
+     * Phát phiên bản mới của danh sách; changes null nghĩa là cần vẽ lại toàn bộ
+     */
+    private void publishTasks(List<Task> taskList, List<TaskSnapshotIndex.Change> changes) {
+        long baseVersion = taskListVersion;
+        taskListVersion++;
+        tasks.setValue(new TaskListUpdate(taskList, changes, baseVersion, taskListVersion));
+    }
+
+    /**
+     * Listener real-time dùng chung: snapshot đầu tiên vẽ lại toàn bộ,
+     * các snapshot sau chỉ phát ra thay đổi từng phần cho adapter
+     */
+    private TaskRepository.OnTaskChangesListener realtimeListener(String successLog, String errorLog) {
+        return new TaskRepository.OnTaskChangesListener() {
+            private boolean firstSnapshot = true;
+
+            @Override
+            public void onTaskChanges(List<Task> taskList, List<TaskSnapshotIndex.Change> changes) {
+                Log.d(TAG, successLog + ": " + taskList.size() + " tasks, " + changes.size() + " changes");
+                isLoading.setValue(false);
+                if (firstSnapshot) {
+                    queryIndex.setTasks(taskList);
+                } else {
+                    for (TaskSnapshotIndex.Change change : changes) {
+                        if (change.getType() == TaskSnapshotIndex.Change.Type.REMOVED) {
+                            queryIndex.remove(change.getTask().getId());
+                        } else {
+                            queryIndex.upsert(change.getTask());
+                        }
+                    }
+                }
+                publishTasks(taskList, firstSnapshot ? null : changes);
+                firstSnapshot = false;
+            }
+
+            @Override
+            public void onTasksLoaded(List<Task> taskList) {
+                onTaskChanges(taskList, new ArrayList<>());
+            }
+
+            @Override
+            public void onError(String error) {
+                Log.e(TAG, errorLog + ": " + error);
+                isLoading.setValue(false);
+                errorMessage.setValue(error);
+            }
+        };
+    }
+
     @Override
     protected void onCleared() {
         super.onCleared();
-        Log.d(TAG, "TaskViewModel cleared");
+        setTasksRegistration(null);
+        taskRepository.flushPendingWrites();
+        Log.d(TAG, "TaskViewModel cleared, active listeners: " +
+                QuerySubscriptionRegistry.getInstance().getActiveListenerCount());
     }
 }
\ No newline at end of file
@@ -0,0 +1,96 @@
+package com.example.projectmanager.models;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BudgetAggregateTest {
+
+    private static Map<String, Object> rollup(String scope, String key, long amount, long approvedAmount,
+                                              long count, long approvedCount) {
+        Map<String, Object> rollup = new HashMap<>();
+        rollup.put("scope", scope);
+        rollup.put("key", key);
+        rollup.put("amountMinor", amount);
+        rollup.put("approvedAmountMinor", approvedAmount);
+        rollup.put("count", count);
+        rollup.put("approvedCount", approvedCount);
+        return rollup;
+    }
+
+    @Test
+    public void fromRollupsSplitsCategoriesByApproval() {
+        List<Map<String, Object>> rollups = new ArrayList<>();
+        rollups.add(rollup("project", "project", 700, 300, 4, 1));
+        rollups.add(rollup("category", "equipment", 500, 300, 3, 1));
+        rollups.add(rollup("category", "material", 200, 0, 1, 0));
+
+        BudgetAggregate.Snapshot snapshot = BudgetAggregate.fromRollups(rollups);
+
+        int equipment = BudgetAggregate.categoryIndex("equipment");
+        int material = BudgetAggregate.categoryIndex("material");
+        assertEquals(300, snapshot.getApprovedTotal(equipment));
+        assertEquals(200, snapshot.getPendingTotal(equipment));
+        assertEquals(200, snapshot.getPendingTotal(material));
+        assertEquals(700, snapshot.getTotal());
+        assertEquals(300, snapshot.getApprovedTotal());
+        assertEquals(4, snapshot.getCount());
+    }
+
+    @Test
+    public void fromRollupsUsesProjectRollupForTotals() {
+        // Category rollups drifted; the cards still show the project document
+        List<Map<String, Object>> rollups = new ArrayList<>();
+        rollups.add(rollup("project", "project", 1000, 400, 5, 2));
+        rollups.add(rollup("category", "equipment", 500, 300, 3, 1));
+
+        BudgetAggregate.Snapshot snapshot = BudgetAggregate.fromRollups(rollups);
+
+        assertEquals(1000, snapshot.getTotal());
+        assertEquals(400, snapshot.getApprovedTotal());
+        assertEquals(600, snapshot.getPendingTotal());
+        assertEquals(5, snapshot.getCount());
+    }
+
+    @Test
+    public void fromRollupsWithoutProjectSumsCategories() {
+        List<Map<String, Object>> rollups = new ArrayList<>();
+        rollups.add(rollup("category", "equipment", 500, 300, 3, 1));
+        rollups.add(rollup("category", "unknown", 100, 100, 1, 1));
+
+        BudgetAggregate.Snapshot snapshot = BudgetAggregate.fromRollups(rollups);
+
+        assertEquals(600, snapshot.getTotal());
+        assertEquals(400, snapshot.getApprovedTotal());
+        assertEquals(100, snapshot.getApprovedTotal(BudgetAggregate.categoryIndex("other")));
+        assertEquals(4, snapshot.getCount());
+    }
+
+    @Test
+    public void fromRollupsIgnoresMonthRollups() {
+        List<Map<String, Object>> rollups = new ArrayList<>();
+        rollups.add(rollup("month", "2026-01", 900, 900, 2, 2));
+
+        assertEquals(0, BudgetAggregate.fromRollups(rollups).getTotal());
+    }
+
+    @Test
+    public void snapshotOfLoadedBudgetsSumsCategories() {
+        BudgetAggregate aggregate = new BudgetAggregate();
+        aggregate.put("b1", "equipment", true, "u1", 300);
+        aggregate.put("b2", "material", false, "u1", 200);
+        aggregate.setApproved("b2", true);
+
+        BudgetAggregate.Snapshot snapshot = aggregate.snapshot();
+
+        assertEquals(500, snapshot.getApprovedTotal());
+        assertEquals(0, snapshot.getPendingTotal());
+        assertEquals(2, snapshot.getCount());
+        assertEquals(500, snapshot.getUserTotal("u1", true));
+    }
+}
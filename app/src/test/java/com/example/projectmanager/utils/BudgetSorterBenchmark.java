@@ -0,0 +1,75 @@
+package com.example.projectmanager.utils;
+
+import com.example.projectmanager.models.BudgetTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Timing harness for BudgetSorter on the JVM. Not a test (no @Test), so it does not slow down the unit
+ * test run; start main() from the IDE, or with the unit test classpath:
+ * <pre>
+ * java -cp &lt;test classes&gt;:&lt;main classes&gt;:&lt;deps&gt; com.example.projectmanager.utils.BudgetSorterBenchmark [rows] [rounds]
+ * </pre>
+ * Each round resorts the same table with every SortOption, starting from the previous option's order,
+ * the same way BudgetActivity does when the dropdown changes. Prints min / median / max per option.
+ */
+public class BudgetSorterBenchmark {
+    private static final int DEFAULT_ROWS = 50000;
+    private static final int DEFAULT_ROUNDS = 30;
+    private static final int WARMUP_ROUNDS = 20;
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+
+        BudgetTable table = BudgetTable.of(budgets(rows, new Random(42)));
+        BudgetSorter.SortOption[] options = BudgetSorter.SortOption.values();
+
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (BudgetSorter.SortOption option : options) {
+                BudgetSorter.sortBudgets(table, option);
+            }
+        }
+
+        long[][] nanos = new long[options.length][rounds];
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < options.length; i++) {
+                long start = System.nanoTime();
+                BudgetSorter.sortBudgets(table, options[i]);
+                nanos[i][round] = System.nanoTime() - start;
+            }
+        }
+
+        System.out.println("BudgetSorter, " + rows + " rows, " + rounds + " rounds (ms: min / median / max)");
+        for (int i = 0; i < options.length; i++) {
+            long[] times = nanos[i];
+            Arrays.sort(times);
+            System.out.println(String.format(Locale.US, "%-18s %7.2f %7.2f %7.2f", options[i],
+                    times[0] / 1e6, times[times.length / 2] / 1e6, times[times.length - 1] / 1e6));
+        }
+    }
+
+    // Same shape as the tests: repeated amounts and dates, some budgets without a date
+    private static List<Map<String, Object>> budgets(int count, Random random) {
+        List<Map<String, Object>> budgets = new ArrayList<>(count);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> budget = new HashMap<>();
+            budget.put("id", "b" + i);
+            budget.put("amountMinor", random.nextInt(1000) * 10000L);
+            if (random.nextInt(50) != 0) {
+                budget.put("createdAt", new Date(now - random.nextInt(365 * 24) * 3600000L));
+            }
+            budget.put("approved", random.nextBoolean());
+            budgets.add(budget);
+        }
+        return budgets;
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.projectmanager.utils;
+
+import com.example.projectmanager.models.BudgetTable;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BudgetSorterTest {
+
+    // Below, at and above INSERTION_SORT_THRESHOLD (16), plus sizes that recurse several levels
+    private static final int[] SIZES = {0, 1, 2, 3, 15, 16, 17, 33, 100, 1000, 5000};
+
+    private static final long BASE_MILLIS = 1700000000000L;
+
+    private interface RowFactory {
+        Map<String, Object> row(int index, Random random);
+    }
+
+    private static Map<String, Object> budget(int index, long amountMinor, Long createdAtMillis, boolean approved) {
+        Map<String, Object> budget = new HashMap<>();
+        budget.put("id", "b" + index);
+        budget.put("amountMinor", amountMinor);
+        if (createdAtMillis != null) {
+            budget.put("createdAt", new Date(createdAtMillis));
+        }
+        budget.put("approved", approved);
+        return budget;
+    }
+
+    // Few distinct amounts and dates so ties are common; about one row in eight has no date
+    private static final RowFactory MIXED = (index, random) -> budget(index,
+            random.nextInt(20) * 50000L,
+            random.nextInt(8) == 0 ? null : BASE_MILLIS + random.nextInt(30) * 86400000L,
+            random.nextBoolean());
+
+    private static final RowFactory ALL_APPROVED = (index, random) -> budget(index,
+            random.nextInt(20) * 50000L, BASE_MILLIS + random.nextInt(30) * 86400000L, true);
+
+    private static final RowFactory ALL_PENDING = (index, random) -> budget(index,
+            random.nextInt(20) * 50000L, BASE_MILLIS + random.nextInt(30) * 86400000L, false);
+
+    private static final RowFactory ALL_EQUAL = (index, random) -> budget(index, 100000L, BASE_MILLIS, false);
+
+    private static final RowFactory NO_DATES = (index, random) -> budget(index,
+            random.nextInt(20) * 50000L, null, random.nextBoolean());
+
+    // Already in the order the sorter produces for the default option / the reverse of it
+    private static final RowFactory NEWEST_FIRST = (index, random) -> budget(index,
+            index * 1000L, BASE_MILLIS - index * 1000L, index % 2 == 0);
+
+    private static final RowFactory OLDEST_FIRST = (index, random) -> budget(index,
+            -index * 1000L, BASE_MILLIS + index * 1000L, index % 3 == 0);
+
+    // Extreme amounts, so ~amount in AMOUNT_DESCENDING must not overflow
+    private static final RowFactory EXTREME_AMOUNTS = (index, random) -> budget(index,
+            index % 3 == 0 ? Long.MAX_VALUE : index % 3 == 1 ? Long.MIN_VALUE : 0L,
+            BASE_MILLIS, random.nextBoolean());
+
+    private static BudgetTable table(RowFactory factory, int size, long seed) {
+        Random random = new Random(seed);
+        List<Map<String, Object>> rows = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            rows.add(factory.row(i, random));
+        }
+        return BudgetTable.of(rows);
+    }
+
+    // Newest first, budgets without a date last
+    private static int compareNewestFirst(BudgetTable table, int row1, int row2) {
+        long date1 = table.getCreatedAtMillis(row1);
+        long date2 = table.getCreatedAtMillis(row2);
+        if (date1 == BudgetTable.NO_DATE || date2 == BudgetTable.NO_DATE) {
+            if (date1 == date2) return 0;
+            return date1 == BudgetTable.NO_DATE ? 1 : -1;
+        }
+        return Long.compare(date2, date1);
+    }
+
+    private static Comparator<Integer> reference(BudgetTable table, BudgetSorter.SortOption option) {
+        Comparator<Integer> byKey;
+        switch (option) {
+            case AMOUNT_ASCENDING:
+                byKey = (row1, row2) -> Long.compare(table.getAmountMinor(row1), table.getAmountMinor(row2));
+                break;
+            case AMOUNT_DESCENDING:
+                byKey = (row1, row2) -> Long.compare(table.getAmountMinor(row2), table.getAmountMinor(row1));
+                break;
+            case PENDING_FIRST:
+            case APPROVED_FIRST:
+                boolean approvedFirst = option == BudgetSorter.SortOption.APPROVED_FIRST;
+                byKey = (row1, row2) -> {
+                    boolean first1 = table.isApproved(row1) == approvedFirst;
+                    boolean first2 = table.isApproved(row2) == approvedFirst;
+                    if (first1 != first2) return first1 ? -1 : 1;
+                    return compareNewestFirst(table, row1, row2);
+                };
+                break;
+            default:
+                byKey = (row1, row2) -> compareNewestFirst(table, row1, row2);
+                break;
+        }
+        // Ties keep the original list order
+        return (row1, row2) -> {
+            int result = byKey.compare(row1, row2);
+            return result != 0 ? result : Integer.compare(row1, row2);
+        };
+    }
+
+    private static int[] expectedOrder(BudgetTable table, BudgetSorter.SortOption option) {
+        List<Integer> rows = new ArrayList<>(table.size());
+        for (int row = 0; row < table.size(); row++) rows.add(row);
+        Collections.sort(rows, reference(table, option));
+        int[] order = new int[rows.size()];
+        for (int i = 0; i < order.length; i++) order[i] = rows.get(i);
+        return order;
+    }
+
+    private static void assertMatchesReference(String name, RowFactory factory) {
+        for (int size : SIZES) {
+            for (BudgetSorter.SortOption option : BudgetSorter.SortOption.values()) {
+                BudgetTable table = table(factory, size, 31L * size + option.ordinal());
+                BudgetSorter.sortBudgets(table, option);
+                assertArrayEquals(name + ", size " + size + ", " + option,
+                        expectedOrder(table, option), table.getOrder());
+            }
+        }
+    }
+
+    @Test
+    public void mixedTable_matchesReferenceSort() {
+        assertMatchesReference("mixed", MIXED);
+    }
+
+    @Test
+    public void allApproved_matchesReferenceSort() {
+        assertMatchesReference("all approved", ALL_APPROVED);
+    }
+
+    @Test
+    public void allPending_matchesReferenceSort() {
+        assertMatchesReference("all pending", ALL_PENDING);
+    }
+
+    @Test
+    public void allTies_keepListOrder() {
+        assertMatchesReference("all equal", ALL_EQUAL);
+        BudgetTable table = table(ALL_EQUAL, 100, 1);
+        for (BudgetSorter.SortOption option : BudgetSorter.SortOption.values()) {
+            BudgetSorter.sortBudgets(table, option);
+            for (int i = 0; i < table.size(); i++) {
+                assertEquals(option + " position " + i, i, table.getOrder()[i]);
+            }
+        }
+    }
+
+    @Test
+    public void noDateRows_sortLast() {
+        assertMatchesReference("no dates", NO_DATES);
+
+        BudgetTable table = table(MIXED, 1000, 7);
+        BudgetSorter.sortBudgets(table, BudgetSorter.SortOption.DEFAULT);
+        int[] order = table.getOrder();
+        boolean seenNoDate = false;
+        for (int row : order) {
+            boolean noDate = table.getCreatedAtMillis(row) == BudgetTable.NO_DATE;
+            assertFalse("dated row after a row without date", seenNoDate && !noDate);
+            seenNoDate |= noDate;
+        }
+        assertTrue(seenNoDate);
+    }
+
+    @Test
+    public void presortedAndReversedInput_matchesReferenceSort() {
+        assertMatchesReference("newest first", NEWEST_FIRST);
+        assertMatchesReference("oldest first", OLDEST_FIRST);
+    }
+
+    @Test
+    public void extremeAmounts_matchReferenceSort() {
+        assertMatchesReference("extreme amounts", EXTREME_AMOUNTS);
+    }
+
+    @Test
+    public void resort_doesNotDependOnPreviousOrder() {
+        for (int size : SIZES) {
+            BudgetTable table = table(MIXED, size, size);
+            for (BudgetSorter.SortOption previous : BudgetSorter.SortOption.values()) {
+                for (BudgetSorter.SortOption option : BudgetSorter.SortOption.values()) {
+                    BudgetSorter.sortBudgets(table, previous);
+                    BudgetSorter.sortBudgets(table, option);
+                    assertArrayEquals("size " + size + ", " + previous + " then " + option,
+                            expectedOrder(table, option), table.getOrder());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void getSortOptionFromString_mapsDropdownLabels() {
+        assertEquals(BudgetSorter.SortOption.AMOUNT_ASCENDING, BudgetSorter.getSortOptionFromString("Số tiền tăng dần"));
+        assertEquals(BudgetSorter.SortOption.AMOUNT_DESCENDING, BudgetSorter.getSortOptionFromString("Số tiền giảm dần"));
+        assertEquals(BudgetSorter.SortOption.PENDING_FIRST, BudgetSorter.getSortOptionFromString("Chưa duyệt trước"));
+        assertEquals(BudgetSorter.SortOption.APPROVED_FIRST, BudgetSorter.getSortOptionFromString("Đã duyệt trước"));
+        assertEquals(BudgetSorter.SortOption.DEFAULT, BudgetSorter.getSortOptionFromString("Mặc định"));
+    }
+}
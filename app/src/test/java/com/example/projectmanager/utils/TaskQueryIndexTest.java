@@ -0,0 +1,156 @@
+package com.example.projectmanager.utils;
+
+import com.example.projectmanager.models.Task;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Kiểm tra TaskQueryIndex giữ đúng thứ tự khi upsert/remove sau khi các thứ tự đã được dựng,
+ * so với một lần lọc + sort ổn định trên danh sách theo thứ tự thêm vào
+ */
+public class TaskQueryIndexTest {
+
+    private static final String[] ASSIGNEES = {"An", "Bình", "Chi"};
+
+    @Test
+    public void query_afterIncrementalChanges_matchesStableSort() {
+        Random random = new Random(42);
+        TaskQueryIndex index = new TaskQueryIndex();
+        // Thứ tự thêm vào = thứ tự giữ nguyên khi bằng nhau
+        Map<String, Task> reference = new LinkedHashMap<>();
+
+        for (int i = 0; i < 200; i++) {
+            Task task = randomTask(random, "t" + i);
+            index.upsert(task);
+            reference.put(task.getId(), task);
+        }
+        // Dựng mọi thứ tự trước khi thay đổi để đi qua nhánh cập nhật dần
+        assertAllQueries(index, reference);
+
+        for (int step = 0; step < 300; step++) {
+            int action = random.nextInt(3);
+            String id = "t" + random.nextInt(260);
+            if (action == 0) {
+                index.remove(id);
+                reference.remove(id);
+            } else {
+                Task task = randomTask(random, id);
+                index.upsert(task);
+                reference.put(id, task);
+            }
+            if (step % 10 == 0) {
+                assertAllQueries(index, reference);
+            }
+        }
+        assertAllQueries(index, reference);
+    }
+
+    @Test
+    public void query_fewMatches_usesRanksAfterInsert() {
+        TaskQueryIndex index = new TaskQueryIndex();
+        Map<String, Task> reference = new LinkedHashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 100; i++) {
+            Task task = randomTask(random, "t" + i).toBuilder().setAssignedToName("An").build();
+            index.upsert(task);
+            reference.put(task.getId(), task);
+        }
+        Task rare = randomTask(random, "rare").toBuilder().setAssignedToName("Chi").build();
+        index.upsert(rare);
+        reference.put(rare.getId(), rare);
+        assertAllQueries(index, reference);
+
+        // Thêm một task khớp bộ lọc hiếm sau khi ranks đã dựng
+        Task another = randomTask(random, "rare2").toBuilder().setAssignedToName("Chi").build();
+        index.upsert(another);
+        reference.put(another.getId(), another);
+        assertAllQueries(index, reference);
+    }
+
+    private static void assertAllQueries(TaskQueryIndex index, Map<String, Task> reference) {
+        List<Task> tasks = new ArrayList<>(reference.values());
+        String[] assignees = {null, "An", "Chi"};
+        String[] statuses = {null, "pending", "completed"};
+        for (TaskFilter.SortBy sortBy : TaskFilter.SortBy.values()) {
+            for (TaskFilter.SortOrder sortOrder : TaskFilter.SortOrder.values()) {
+                for (String assignee : assignees) {
+                    for (String status : statuses) {
+                        TaskFilter.FilterCriteria criteria = new TaskFilter.FilterCriteria();
+                        criteria.setSortBy(sortBy);
+                        criteria.setSortOrder(sortOrder);
+                        criteria.setAssignedToFilter(assignee);
+                        criteria.setStatusFilter(status);
+                        assertEquals(sortBy + " " + sortOrder + " " + assignee + " " + status,
+                                ids(expected(tasks, criteria)), ids(index.query(criteria)));
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<Task> expected(List<Task> tasks, TaskFilter.FilterCriteria criteria) {
+        List<Task> result = new ArrayList<>();
+        for (Task task : tasks) {
+            if (criteria.getAssignedToFilter() != null
+                    && !criteria.getAssignedToFilter().equals(task.getAssignedToName())) continue;
+            if (criteria.getStatusFilter() != null && !criteria.getStatusFilter().equals(task.getStatus())) continue;
+            result.add(task);
+        }
+        Comparator<Task> comparator;
+        switch (criteria.getSortBy()) {
+            case DUE_DATE:
+                comparator = (a, b) -> TaskQueryIndex.compareDates(a.getDueDate(), b.getDueDate());
+                break;
+            case PRIORITY:
+                comparator = (a, b) -> Integer.compare(a.getPriorityType().getRank(), b.getPriorityType().getRank());
+                break;
+            case STATUS:
+                comparator = (a, b) -> Integer.compare(a.getStatusType().getRank(), b.getStatusType().getRank());
+                break;
+            case RELEVANCE:
+                comparator = (a, b) -> 0;
+                break;
+            default:
+                comparator = (a, b) -> TaskQueryIndex.compareDates(a.getCreatedAt(), b.getCreatedAt());
+                break;
+        }
+        boolean descending = criteria.getSortOrder() == TaskFilter.SortOrder.DESCENDING;
+        // Collections.sort ổn định: bằng nhau thì giữ thứ tự thêm vào
+        Collections.sort(result, descending ? (a, b) -> comparator.compare(b, a) : comparator);
+        return result;
+    }
+
+    private static Task randomTask(Random random, String id) {
+        Task.Status[] statuses = Task.Status.values();
+        Task.Priority[] priorities = Task.Priority.values();
+        return Task.builder()
+                .setId(id)
+                .setTitle("Task " + id)
+                .setAssignedToName(ASSIGNEES[random.nextInt(ASSIGNEES.length)])
+                .setStatusType(statuses[random.nextInt(statuses.length)])
+                .setPriorityType(priorities[random.nextInt(priorities.length)])
+                // Ít giá trị ngày để có nhiều task bằng nhau; thỉnh thoảng không có ngày
+                .setDueDate(random.nextInt(8) == 0 ? null : new Date(random.nextInt(5) * 86400000L))
+                .setCreatedAt(random.nextInt(10) == 0 ? null : new Date(random.nextInt(20) * 3600000L))
+                .build();
+    }
+
+    private static List<String> ids(List<Task> tasks) {
+        List<String> ids = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            ids.add(task.getId());
+        }
+        return ids;
+    }
+}